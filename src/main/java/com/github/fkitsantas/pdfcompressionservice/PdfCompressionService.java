@@ -75,6 +75,8 @@ public class PdfCompressionService {
      * @param maxImageDimension optional override for the output longest-edge cap (0 = no cap)
      * @param stripMetadata     optional override for stripping XMP/Info metadata
      * @param deduplicateImages optional override for merging byte-identical images
+     * @param grayTolerance     optional override for the channel spread still counted as gray
+     * @param bitonalRatio      optional override for the ink-and-paper share that makes a scan bitonal
      * @param request           current HTTP request, used only to publish the generated request id
      *                          for {@link CompressionExceptionHandler} to pick up on failure
      * @return the compressed PDF file as an {@link InputStreamResource}
@@ -88,6 +90,8 @@ public class PdfCompressionService {
             @RequestParam(value = "maxImageDimension", required = false) Integer maxImageDimension,
             @RequestParam(value = "stripMetadata", required = false) Boolean stripMetadata,
             @RequestParam(value = "deduplicateImages", required = false) Boolean deduplicateImages,
+            @RequestParam(value = "grayTolerance", required = false) Integer grayTolerance,
+            @RequestParam(value = "bitonalRatio", required = false) Float bitonalRatio,
             HttpServletRequest request) throws IOException {
         String requestId = UUID.randomUUID().toString();
         // Correlation id for every log line produced while handling this request
@@ -99,7 +103,8 @@ public class PdfCompressionService {
             request.setAttribute(CompressionExceptionHandler.REQUEST_ID_ATTRIBUTE, requestId);
 
             CompressionOptions options = new CompressionOptions(
-                    targetDpi, jpegQuality, maxImageDimension, stripMetadata, deduplicateImages);
+                    targetDpi, jpegQuality, maxImageDimension, stripMetadata, deduplicateImages, grayTolerance,
+                    bitonalRatio);
 
             String originalFilename = file.getOriginalFilename();
             logger.info("requestId={} action=compress-start filename={} sizeBytes={} options={}",
@@ -0,0 +1,259 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+/**
+ * CMYK to RGB conversion through a cached lookup table instead of PDFBox's
+ * per-image ICC conversion, which runs every pixel through Java2D's colour
+ * management. For each CMYK profile a {@value #GRID}<sup>4</sup> grid of
+ * colours is converted once, by the colour space's own {@link
+ * PDColorSpace#toRGBImage}, and pixels are interpolated between the five
+ * grid points of the simplex they fall in.
+ *
+ * <p>Tables are keyed by a SHA-256 of the ICC profile ({@code DeviceCMYK}
+ * by name) and kept for the last {@value #MAX_PROFILES} profiles. The key
+ * is memoized per profile stream, weakly, so a profile shared by every
+ * image of a document is hashed once, not once per image. One instance
+ * lives on the engine, so a profile embedded in every upload is only ever
+ * sampled once. Thread-safe.
+ */
+final class CmykColorConverter {
+
+    /** Grid points per axis. */
+    static final int GRID = 17;
+
+    /** Profiles whose tables are retained. */
+    static final int MAX_PROFILES = 16;
+
+    private static final String DEVICE_CMYK_KEY = "DeviceCMYK";
+
+    /** Index step per axis in the table, C varying slowest and K fastest. */
+    private static final int[] STRIDES = {GRID * GRID * GRID, GRID * GRID, GRID, 1};
+
+    private final Map<String, byte[]> tables = new LinkedHashMap<>(MAX_PROFILES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MAX_PROFILES;
+        }
+    };
+
+    /** Table key by profile stream; weak, so it never keeps a finished request's document alive. */
+    private final Map<COSStream, String> profileKeys = new WeakHashMap<>();
+
+    private final LongAdder profilesHashed = new LongAdder();
+
+    /**
+     * Whether {@code image} is 8-bit {@code DeviceCMYK} or 4-component
+     * {@code ICCBased} without a {@code /Decode} array, the samples {@link
+     * #toRgb} can convert straight from the raw raster.
+     */
+    static boolean isConvertible(PDImageXObject image) throws IOException {
+        PDColorSpace colorSpace = image.getColorSpace();
+        boolean cmyk = colorSpace instanceof PDDeviceCMYK
+                || (colorSpace instanceof PDICCBased icc && icc.getNumberOfComponents() == 4);
+        return cmyk && image.getBitsPerComponent() == 8 && image.getDecode() == null;
+    }
+
+    /**
+     * The 4-component ICC profile stream {@code image}'s {@code /ColorSpace}
+     * names directly, or {@code null}; a plain COS lookup, without parsing
+     * the profile.
+     */
+    static COSStream iccProfile(PDImageXObject image) {
+        COSBase colorSpace = image.getCOSObject().getDictionaryObject(COSName.COLORSPACE);
+        if (colorSpace instanceof COSArray array && array.size() > 1
+                && COSName.ICCBASED.equals(array.getObject(0))
+                && array.getObject(1) instanceof COSStream profile && profile.getInt(COSName.N) == 4) {
+            return profile;
+        }
+        return null;
+    }
+
+    /**
+     * The table key of {@code profile}, hashed on first use and memoized for
+     * as long as the stream is alive. Reads the stream, so call it where the
+     * stream may be read.
+     */
+    String profileKey(COSStream profile) throws IOException {
+        synchronized (profileKeys) {
+            String key = profileKeys.get(profile);
+            if (key != null) {
+                return key;
+            }
+        }
+        // Hashed outside the lock: two threads meeting a new profile at once both hash it, harmlessly.
+        String key = sha256(new PDStream(profile).toByteArray());
+        profilesHashed.increment();
+        synchronized (profileKeys) {
+            profileKeys.putIfAbsent(profile, key);
+        }
+        return key;
+    }
+
+    /**
+     * {@code image}'s samples converted to a {@code TYPE_INT_RGB} image,
+     * reading every {@code subsampling}-th pixel in each direction. Only
+     * valid when {@link #isConvertible} holds; masks are not applied.
+     */
+    BufferedImage toRgb(PDImageXObject image, int subsampling) throws IOException {
+        return toRgb(image, subsampling, null);
+    }
+
+    /**
+     * As {@link #toRgb(PDImageXObject, int)}, with the table key already
+     * known ({@code null} if not): a detached copy of an image carries its
+     * own copy of the profile, so the key is taken from the original's.
+     */
+    BufferedImage toRgb(PDImageXObject image, int subsampling, String profileKey) throws IOException {
+        byte[] lut = table(image.getColorSpace(), profileKey);
+        Raster raw = image.getRawRaster();
+        int w = (raw.getWidth() + subsampling - 1) / subsampling;
+        int h = (raw.getHeight() + subsampling - 1) / subsampling;
+        BufferedImage rgb = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] out = ((DataBufferInt) rgb.getRaster().getDataBuffer()).getData();
+        int[] samples = new int[raw.getWidth() * 4];
+        int[] scratch = new int[8];
+        for (int y = 0; y < h; y++) {
+            raw.getPixels(raw.getMinX(), raw.getMinY() + y * subsampling, raw.getWidth(), 1, samples);
+            for (int x = 0, i = 0; x < w; x++, i += 4 * subsampling) {
+                out[y * w + x] = interpolate(lut, samples, i, scratch);
+            }
+        }
+        return rgb;
+    }
+
+    private byte[] table(PDColorSpace colorSpace, String profileKey) throws IOException {
+        String key = profileKey != null ? profileKey
+                : colorSpace instanceof PDICCBased icc ? profileKey(icc.getPDStream().getCOSObject())
+                : DEVICE_CMYK_KEY;
+        synchronized (tables) {
+            byte[] cached = tables.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Built outside the lock: two threads meeting a new profile at once both sample it, harmlessly.
+        byte[] built = build(colorSpace);
+        synchronized (tables) {
+            tables.putIfAbsent(key, built);
+        }
+        return built;
+    }
+
+    /** Number of profile tables currently cached. */
+    int cachedProfiles() {
+        synchronized (tables) {
+            return tables.size();
+        }
+    }
+
+    /** Number of times a profile has been hashed for its key. */
+    long profilesHashed() {
+        return profilesHashed.sum();
+    }
+
+    /** RGB triplets for every grid point, C varying slowest and K fastest. */
+    private static byte[] build(PDColorSpace colorSpace) throws IOException {
+        int points = GRID * GRID * GRID * GRID;
+        WritableRaster grid = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, GRID * GRID, GRID * GRID, 4,
+                null);
+        int[] pixel = new int[4];
+        for (int i = 0; i < points; i++) {
+            pixel[0] = level(i / (GRID * GRID * GRID));
+            pixel[1] = level(i / (GRID * GRID) % GRID);
+            pixel[2] = level(i / GRID % GRID);
+            pixel[3] = level(i % GRID);
+            grid.setPixel(i % (GRID * GRID), i / (GRID * GRID), pixel);
+        }
+        BufferedImage converted = colorSpace.toRGBImage(grid);
+        byte[] lut = new byte[points * 3];
+        for (int i = 0; i < points; i++) {
+            int rgb = converted.getRGB(i % (GRID * GRID), i / (GRID * GRID));
+            lut[i * 3] = (byte) (rgb >> 16);
+            lut[i * 3 + 1] = (byte) (rgb >> 8);
+            lut[i * 3 + 2] = (byte) rgb;
+        }
+        return lut;
+    }
+
+    private static int level(int gridIndex) {
+        return (gridIndex * 255 + (GRID - 1) / 2) / (GRID - 1);
+    }
+
+    /**
+     * Simplex interpolation in the 4-D grid for the CMYK pixel at {@code
+     * samples[i..i+3]}: the cell's fractional offsets, sorted, pick the five
+     * corners walked from the cell's origin one axis at a time, weighted by
+     * the gaps between consecutive offsets. {@code scratch} holds at least
+     * eight ints, so nothing is allocated per pixel.
+     */
+    static int interpolate(byte[] lut, int[] samples, int i, int[] scratch) {
+        // scratch[0..3]: fraction per axis; scratch[4..7]: axes by descending fraction.
+        int base = 0;
+        for (int axis = 0; axis < 4; axis++) {
+            int position = samples[i + axis] * (GRID - 1);
+            int cell = position / 255;
+            int fraction = position % 255;
+            if (cell == GRID - 1) {
+                cell = GRID - 2;
+                fraction = 255;
+            }
+            base += cell * STRIDES[axis];
+            scratch[axis] = fraction;
+            int j = 4 + axis;
+            while (j > 4 && scratch[scratch[j - 1]] < fraction) {
+                scratch[j] = scratch[j - 1];
+                j--;
+            }
+            scratch[j] = axis;
+        }
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        int corner = base;
+        int previous = 255;
+        for (int step = 0; step <= 4; step++) {
+            int fraction = step < 4 ? scratch[scratch[4 + step]] : 0;
+            int weight = previous - fraction;
+            int offset = corner * 3;
+            r += weight * (lut[offset] & 0xFF);
+            g += weight * (lut[offset + 1] & 0xFF);
+            b += weight * (lut[offset + 2] & 0xFF);
+            if (step < 4) {
+                corner += STRIDES[scratch[4 + step]];
+                previous = fraction;
+            }
+        }
+        return ((r + 127) / 255) << 16 | ((g + 127) / 255) << 8 | (b + 127) / 255;
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is a mandatory JDK algorithm", e);
+        }
+    }
+}
@@ -3,7 +3,8 @@ package com.github.fkitsantas.pdfcompressionservice.compression;
 /**
  * Optional per-request overrides for the subset of {@link PdfCompressionProperties}
  * that a caller may reasonably want to vary per upload: how aggressively images
- * are downsampled/recompressed and what metadata is kept. Any field left
+ * are downsampled/recompressed, how readily scans are treated as gray or bitonal,
+ * and what metadata is kept. Any field left
  * {@code null} falls back to the service-configured default; {@link #NONE} means
  * "use the defaults for everything".
  *
@@ -17,15 +18,17 @@ package com.github.fkitsantas.pdfcompressionservice.compression;
  * as an {@link InvalidCompressionOptionException}.
  */
 public record CompressionOptions(Integer targetDpi, Float jpegQuality, Integer maxImageDimension,
-                                 Boolean stripMetadata, Boolean deduplicateImages) {
+                                 Boolean stripMetadata, Boolean deduplicateImages, Integer grayTolerance,
+                                 Float bitonalRatio) {
 
     /** No overrides: every knob uses the service-configured default. */
-    public static final CompressionOptions NONE = new CompressionOptions(null, null, null, null, null);
+    public static final CompressionOptions NONE = new CompressionOptions(null, null, null, null, null, null, null);
 
     /** Whether no override at all was supplied (so the base properties can be used as-is). */
     public boolean isEmpty() {
         return targetDpi == null && jpegQuality == null && maxImageDimension == null
-                && stripMetadata == null && deduplicateImages == null;
+                && stripMetadata == null && deduplicateImages == null
+                && grayTolerance == null && bitonalRatio == null;
     }
 
     /**
@@ -51,6 +54,12 @@ public record CompressionOptions(Integer targetDpi, Float jpegQuality, Integer m
             if (deduplicateImages != null) {
                 target.setDeduplicateImages(deduplicateImages);
             }
+            if (grayTolerance != null) {
+                target.setGrayTolerance(grayTolerance);
+            }
+            if (bitonalRatio != null) {
+                target.setBitonalRatio(bitonalRatio);
+            }
         } catch (IllegalArgumentException e) {
             throw new InvalidCompressionOptionException(e.getMessage(), e);
         }
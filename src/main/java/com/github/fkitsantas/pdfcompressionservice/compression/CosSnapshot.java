@@ -0,0 +1,194 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+
+/**
+ * Copies an image XObject's stream, and everything its decode depends on,
+ * out of the {@link org.apache.pdfbox.pdmodel.PDDocument} into detached,
+ * heap-backed COS objects.
+ *
+ * <p>Only the <em>encoded</em> bytes are copied (no filter is run), together
+ * with the dictionary entries that drive decoding: {@code /Filter},
+ * {@code /DecodeParms}, {@code /ColorSpace} (including ICC profile and
+ * {@code /Indexed} lookup streams), {@code /Decode}, {@code /Mask} and
+ * {@code /SMask}. Indirect references are resolved while copying, so the
+ * result never reads from the document's backing source again and can be
+ * decoded on any thread. The copy is a plain byte transfer, cheap next to
+ * the decode it enables to move off the document thread.
+ *
+ * <p>{@link #digest} walks the same way to fingerprint such entries, so
+ * images whose dictionaries point at different but equal objects (two
+ * copies of one palette or ICC profile) compare equal.
+ *
+ * <p>Must itself be called on the document thread: resolving references and
+ * reading raw streams goes through the shared, non-thread-safe parser.
+ */
+final class CosSnapshot {
+
+    /** Entries that never influence how the image decodes, so are not worth copying. */
+    private static final Set<COSName> IGNORED_KEYS = Set.of(COSName.METADATA, COSName.getPDFName("OC"),
+            COSName.getPDFName("Alternates"), COSName.getPDFName("PieceInfo"), COSName.getPDFName("OPI"),
+            COSName.STRUCT_PARENT);
+
+    private CosSnapshot() {
+    }
+
+    /** Detached copy of {@code stream}; shared sub-objects are copied once and stay shared in the copy. */
+    static COSStream copyStream(COSStream stream) throws IOException {
+        return (COSStream) copy(stream, new IdentityHashMap<>());
+    }
+
+    /**
+     * SHA-256 over {@code base} with every reference resolved: dictionary
+     * entries in key order, array elements, stream dictionaries and raw
+     * stream bytes, and the values of names, numbers, strings and booleans.
+     * Equal for structurally equal objects wherever they live.
+     */
+    static ByteBuffer digest(COSBase base) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is a mandatory JDK algorithm", e);
+        }
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(),
+                sha256))) {
+            write(base, out, new IdentityHashMap<>());
+        }
+        return ByteBuffer.wrap(sha256.digest());
+    }
+
+    /** Writes {@code base} tagged by type; an object already written becomes a back-reference, so cycles end. */
+    private static void write(COSBase base, DataOutputStream out, Map<COSBase, Integer> written) throws IOException {
+        COSBase resolved = base instanceof COSObject indirect ? indirect.getObject() : base;
+        if (resolved == null || resolved instanceof COSNull) {
+            out.writeByte('0');
+            return;
+        }
+        Integer seen = written.get(resolved);
+        if (seen != null) {
+            out.writeByte('R');
+            out.writeInt(seen);
+            return;
+        }
+        if (resolved instanceof COSDictionary dictionary) {
+            written.put(dictionary, written.size());
+            List<COSName> keys = new ArrayList<>(dictionary.keySet());
+            keys.removeAll(IGNORED_KEYS);
+            keys.sort(Comparator.comparing(COSName::getName));
+            out.writeByte(resolved instanceof COSStream ? 'S' : 'D');
+            out.writeInt(keys.size());
+            for (COSName key : keys) {
+                out.writeUTF(key.getName());
+                write(dictionary.getItem(key), out, written);
+            }
+            if (resolved instanceof COSStream stream) {
+                try (InputStream in = stream.createRawInputStream()) {
+                    out.writeLong(in.transferTo(out));
+                }
+            }
+        } else if (resolved instanceof COSArray array) {
+            written.put(array, written.size());
+            out.writeByte('A');
+            out.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                write(array.get(i), out, written);
+            }
+        } else if (resolved instanceof COSName name) {
+            out.writeByte('N');
+            out.writeUTF(name.getName());
+        } else if (resolved instanceof COSInteger integer) {
+            out.writeByte('I');
+            out.writeLong(integer.longValue());
+        } else if (resolved instanceof COSFloat number) {
+            out.writeByte('F');
+            out.writeFloat(number.floatValue());
+        } else if (resolved instanceof COSString string) {
+            byte[] bytes = string.getBytes();
+            out.writeByte('T');
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (resolved instanceof COSBoolean bool) {
+            out.writeByte('B');
+            out.writeBoolean(bool.getValue());
+        } else {
+            throw new IOException("Unexpected COS object " + resolved.getClass().getSimpleName());
+        }
+    }
+
+    private static COSBase copy(COSBase base, Map<COSBase, COSBase> copies) throws IOException {
+        COSBase resolved = base instanceof COSObject indirect ? indirect.getObject() : base;
+        if (resolved == null) {
+            return null;
+        }
+        COSBase existing = copies.get(resolved);
+        if (existing != null) {
+            return existing;
+        }
+        if (resolved instanceof COSStream stream) {
+            COSStream copy = new COSStream();
+            copies.put(stream, copy);
+            copyEntries(stream, copy, copies);
+            try (InputStream in = stream.createRawInputStream();
+                 OutputStream out = copy.createRawOutputStream()) {
+                in.transferTo(out);
+            }
+            return copy;
+        }
+        if (resolved instanceof COSDictionary dictionary) {
+            COSDictionary copy = new COSDictionary();
+            copies.put(dictionary, copy);
+            copyEntries(dictionary, copy, copies);
+            return copy;
+        }
+        if (resolved instanceof COSArray array) {
+            COSArray copy = new COSArray();
+            copies.put(array, copy);
+            for (int i = 0; i < array.size(); i++) {
+                COSBase element = copy(array.get(i), copies);
+                copy.add(element == null ? COSNull.NULL : element);
+            }
+            return copy;
+        }
+        // Names, numbers, strings, booleans and null are never mutated by the decoders: share them.
+        return resolved;
+    }
+
+    private static void copyEntries(COSDictionary source, COSDictionary target, Map<COSBase, COSBase> copies)
+            throws IOException {
+        for (Map.Entry<COSName, COSBase> entry : source.entrySet()) {
+            if (IGNORED_KEYS.contains(entry.getKey())) {
+                continue;
+            }
+            COSBase value = copy(entry.getValue(), copies);
+            if (value != null) {
+                target.setItem(entry.getKey(), value);
+            }
+        }
+    }
+}
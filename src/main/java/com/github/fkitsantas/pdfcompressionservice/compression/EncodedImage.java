@@ -0,0 +1,62 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+/**
+ * A replacement image already in its final, filtered form: the stream bytes
+ * plus the few dictionary entries that describe them. Produced in Phase B
+ * without any document access; {@link #toXObject} then only has to wrap the
+ * bytes in a {@link COSStream} on the document thread, with no encoding and
+ * no re-parsing of what was just written.
+ *
+ * @param data             filtered stream data
+ * @param filter           the single filter {@code data} is encoded with
+ * @param decodeParms      {@code /DecodeParms} for that filter, or {@code null}
+ * @param width            width in pixels
+ * @param height           height in pixels
+ * @param bitsPerComponent bits per colour component
+ * @param colorSpace       the colour space; {@code null} until {@link #withColorSpace}
+ *                         supplies one that can only be read on the document thread
+ * @param softMask         an 8-bit {@code DeviceGray} soft mask, or {@code null}
+ */
+record EncodedImage(byte[] data, COSName filter, COSDictionary decodeParms, int width, int height,
+                    int bitsPerComponent, PDColorSpace colorSpace, EncodedImage softMask) {
+
+    EncodedImage withColorSpace(PDColorSpace newColorSpace) {
+        return new EncodedImage(data, filter, decodeParms, width, height, bitsPerComponent, newColorSpace, softMask);
+    }
+
+    EncodedImage withSoftMask(EncodedImage newSoftMask) {
+        return new EncodedImage(data, filter, decodeParms, width, height, bitsPerComponent, colorSpace, newSoftMask);
+    }
+
+    /** Builds the image XObject around {@link #data} in {@code doc}. Document thread only. */
+    PDImageXObject toXObject(PDDocument doc) throws IOException {
+        COSStream stream = doc.getDocument().createCOSStream();
+        try (OutputStream out = stream.createRawOutputStream()) {
+            out.write(data);
+        }
+        stream.setItem(COSName.FILTER, filter);
+        if (decodeParms != null) {
+            stream.setItem(COSName.DECODE_PARMS, decodeParms);
+        }
+        PDImageXObject image = new PDImageXObject(new PDStream(stream), null);
+        image.setWidth(width);
+        image.setHeight(height);
+        image.setBitsPerComponent(bitsPerComponent);
+        image.setColorSpace(colorSpace);
+        if (softMask != null) {
+            stream.setItem(COSName.SMASK, softMask.toXObject(doc));
+        }
+        return image;
+    }
+}
@@ -0,0 +1,268 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.filter.Filter;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+
+/**
+ * Lossless Flate encoding of RGB, ARGB and gray images for the non-JPEG colour
+ * paths, without a {@link org.apache.pdfbox.pdmodel.PDDocument}: the same
+ * output {@code LosslessFactory} produces (8-bit {@code DeviceRGB}, PNG
+ * predictors chosen per row, alpha split out into an 8-bit gray soft mask),
+ * but as plain bytes that Phase B can produce on the image pool.
+ *
+ * <p>Each row gets the PNG filter (None, Sub, Up, Average, Paeth) that
+ * compresses it best. For images up to the brute-force pixel budget that is
+ * measured: every candidate row is deflated behind the previous output row
+ * and the smallest wins, about five times the deflate work. Larger images
+ * use the minimum-sum-of-absolute-differences heuristic.
+ *
+ * <p>Deflaters are kept per thread between images (up to {@value
+ * #MAX_IDLE_DEFLATERS}), so a worker encoding a run of small images, as the
+ * engine's micro-image chunks do, does not set up fresh zlib state for each.
+ */
+final class FlateImageEncoder {
+
+    private static final int PNG_FILTER_TYPES = 5;
+
+    /** Bytes of preceding output a trial compression sees as its dictionary, bounding the cost per row. */
+    private static final int TRIAL_DICTIONARY_BYTES = 4 * 1024;
+
+    /** Deflaters one thread keeps between images: a colour and a mask stream, each with its trial deflater. */
+    static final int MAX_IDLE_DEFLATERS = 4;
+
+    private static final ThreadLocal<ArrayDeque<Deflater>> IDLE_DEFLATERS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private FlateImageEncoder() {
+    }
+
+    /**
+     * Encodes {@code image}; it gets a soft mask only when its colour model has alpha.
+     *
+     * @param bruteForcePixels images with at most this many pixels pick each row's
+     *                         filter by trial compression; {@code 0} = never
+     */
+    static EncodedImage encode(BufferedImage image, long bruteForcePixels) throws IOException {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        boolean bruteForce = (long) w * h <= bruteForcePixels;
+        PredictorStream color = new PredictorStream(w, 3, bruteForce);
+        PredictorStream mask = alpha ? new PredictorStream(w, 1, bruteForce) : null;
+        try {
+            int[] packed = PixelKernels.packedInts(image);
+            int[] row = packed == null ? new int[w] : null;
+            byte[] rgb = new byte[w * 3];
+            byte[] a = alpha ? new byte[w] : null;
+            for (int y = 0; y < h; y++) {
+                int[] source;
+                int offset;
+                if (packed != null) {
+                    source = packed;
+                    offset = y * w;
+                } else {
+                    source = image.getRGB(0, y, w, 1, row, 0, w);
+                    offset = 0;
+                }
+                for (int x = 0, j = 0; x < w; x++, j += 3) {
+                    int pixel = source[offset + x];
+                    rgb[j] = (byte) (pixel >> 16);
+                    rgb[j + 1] = (byte) (pixel >> 8);
+                    rgb[j + 2] = (byte) pixel;
+                    if (alpha) {
+                        a[x] = (byte) (pixel >>> 24);
+                    }
+                }
+                color.writeRow(rgb);
+                if (alpha) {
+                    mask.writeRow(a);
+                }
+            }
+            EncodedImage softMask = alpha ? mask.finish(w, h, PDDeviceGray.INSTANCE, null) : null;
+            return color.finish(w, h, PDDeviceRGB.INSTANCE, softMask);
+        } finally {
+            color.end();
+            if (mask != null) {
+                mask.end();
+            }
+        }
+    }
+
+    /**
+     * Encodes an 8-bit {@code TYPE_BYTE_GRAY} image as a single-component
+     * {@code DeviceGray} stream, the form a separately processed soft mask
+     * takes.
+     */
+    static EncodedImage encodeGray(BufferedImage gray, long bruteForcePixels) throws IOException {
+        int w = gray.getWidth();
+        int h = gray.getHeight();
+        PredictorStream stream = new PredictorStream(w, 1, (long) w * h <= bruteForcePixels);
+        try {
+            Raster raster = gray.getRaster();
+            byte[] row = new byte[w];
+            for (int y = 0; y < h; y++) {
+                raster.getDataElements(0, y, w, 1, row);
+                stream.writeRow(row);
+            }
+            return stream.finish(w, h, PDDeviceGray.INSTANCE, null);
+        } finally {
+            stream.end();
+        }
+    }
+
+    /** An idle deflater of this thread, reset to the current compression level, or a new one. */
+    private static Deflater borrowDeflater() {
+        Deflater deflater = IDLE_DEFLATERS.get().poll();
+        if (deflater == null) {
+            return new Deflater(Filter.getCompressionLevel());
+        }
+        deflater.setLevel(Filter.getCompressionLevel());
+        return deflater;
+    }
+
+    private static void releaseDeflater(Deflater deflater) {
+        ArrayDeque<Deflater> idle = IDLE_DEFLATERS.get();
+        if (idle.size() < MAX_IDLE_DEFLATERS) {
+            deflater.reset();
+            idle.push(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    /** One Flate stream of PNG-predicted rows (predictor 15) with {@code colors} 8-bit components per pixel. */
+    private static final class PredictorStream {
+        private final int colors;
+        private final Deflater deflater = borrowDeflater();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DeflaterOutputStream out;
+        private final byte[][] candidates;
+        private final byte[] previous;
+
+        /** Scratch deflater and state for trial compression, or {@code null} on the heuristic. */
+        private final Deflater trial;
+        private final byte[] trialOutput;
+        private final byte[] dictionary;
+        private int dictionaryLength;
+
+        PredictorStream(int width, int colors, boolean bruteForce) {
+            this.colors = colors;
+            int rowBytes = width * colors;
+            // A few rows' worth of output buffer: a thumbnail does not need the 64 KB a page scan does.
+            this.out = new DeflaterOutputStream(bytes, deflater, (int) Math.min(64 * 1024, 8L * (1 + rowBytes)));
+            this.candidates = new byte[PNG_FILTER_TYPES][1 + rowBytes];
+            this.previous = new byte[rowBytes];
+            for (int type = 0; type < PNG_FILTER_TYPES; type++) {
+                candidates[type][0] = (byte) type;
+            }
+            this.trial = bruteForce ? borrowDeflater() : null;
+            this.trialOutput = bruteForce ? new byte[1 + rowBytes + 64] : null;
+            this.dictionary = bruteForce ? new byte[TRIAL_DICTIONARY_BYTES] : null;
+        }
+
+        void writeRow(byte[] current) throws IOException {
+            int best = 0;
+            long bestCost = Long.MAX_VALUE;
+            for (int type = 0; type < PNG_FILTER_TYPES; type++) {
+                long sum = filter(type, current, candidates[type]);
+                long cost = trial != null ? trialSize(candidates[type]) : sum;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = type;
+                }
+            }
+            out.write(candidates[best]);
+            System.arraycopy(current, 0, previous, 0, current.length);
+            if (trial != null) {
+                remember(candidates[best]);
+            }
+        }
+
+        /** Deflated size of {@code row} following the last {@link #TRIAL_DICTIONARY_BYTES} bytes written. */
+        private long trialSize(byte[] row) {
+            trial.reset();
+            if (dictionaryLength > 0) {
+                trial.setDictionary(dictionary, TRIAL_DICTIONARY_BYTES - dictionaryLength, dictionaryLength);
+            }
+            trial.setInput(row);
+            trial.finish();
+            long size = 0;
+            while (!trial.finished()) {
+                size += trial.deflate(trialOutput);
+            }
+            return size;
+        }
+
+        /** Appends {@code row} to the right-aligned trial dictionary, dropping its oldest bytes. */
+        private void remember(byte[] row) {
+            int n = Math.min(row.length, TRIAL_DICTIONARY_BYTES);
+            int keep = Math.min(dictionaryLength, TRIAL_DICTIONARY_BYTES - n);
+            int end = TRIAL_DICTIONARY_BYTES;
+            System.arraycopy(dictionary, end - keep, dictionary, end - keep - n, keep);
+            System.arraycopy(row, row.length - n, dictionary, end - n, n);
+            dictionaryLength = keep + n;
+        }
+
+        /** Fills {@code target[1..]} with {@code current} under PNG filter {@code type}; returns the sum of |signed byte|. */
+        private long filter(int type, byte[] current, byte[] target) {
+            long sum = 0;
+            for (int i = 0; i < current.length; i++) {
+                int raw = current[i] & 0xFF;
+                int left = i >= colors ? current[i - colors] & 0xFF : 0;
+                int up = previous[i] & 0xFF;
+                int upLeft = i >= colors ? previous[i - colors] & 0xFF : 0;
+                int predicted = switch (type) {
+                    case 0 -> 0;
+                    case 1 -> left;
+                    case 2 -> up;
+                    case 3 -> (left + up) >>> 1;
+                    default -> paeth(left, up, upLeft);
+                };
+                byte value = (byte) (raw - predicted);
+                target[i + 1] = value;
+                sum += Math.abs(value);
+            }
+            return sum;
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) {
+                return a;
+            }
+            return pb <= pc ? b : c;
+        }
+
+        EncodedImage finish(int width, int height, PDColorSpace colorSpace, EncodedImage softMask) throws IOException {
+            out.finish();
+            COSDictionary decodeParms = new COSDictionary();
+            decodeParms.setInt(COSName.PREDICTOR, 15);
+            decodeParms.setInt(COSName.COLORS, colors);
+            decodeParms.setInt(COSName.BITS_PER_COMPONENT, 8);
+            decodeParms.setInt(COSName.COLUMNS, width);
+            return new EncodedImage(bytes.toByteArray(), COSName.FLATE_DECODE, decodeParms, width, height, 8,
+                    colorSpace, softMask);
+        }
+
+        void end() {
+            releaseDeflater(deflater);
+            if (trial != null) {
+                releaseDeflater(trial);
+            }
+        }
+    }
+}
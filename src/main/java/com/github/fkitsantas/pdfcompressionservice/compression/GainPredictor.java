@@ -0,0 +1,134 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegHeader;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegRequantizer;
+
+/**
+ * Decode-free estimate of what a pixel re-encode of an existing JPEG would
+ * weigh, from numbers {@link ImageOptimizer#evaluateGate} already has (the
+ * encoded size, source and target pixel counts) plus the source's luma
+ * quantization table, read from its headers. An image whose estimate
+ * cannot clear the size guard is left unchanged before it is ever
+ * decoded, classified and re-encoded only for the result to be discarded.
+ *
+ * <p>The model splits the source's bits into a fixed part (DC terms and
+ * end-of-block codes, about {@value #FIXED_BITS_PER_BLOCK} bits per 8x8
+ * block whatever the quality) and a detail part that scales with the ratio
+ * of target to source quantization steps (geometric mean over the 64 luma
+ * entries) to the power {@value #STEP_EXPONENT}. Fewer pixels shrink the
+ * result sub-linearly (exponent {@value #PIXEL_EXPONENT}): what is left
+ * after a downsample carries more detail per pixel. A baseline source is
+ * credited the entropy-coding gain of the optimized, progressive output.
+ * Each constant leans towards predicting a gain, so a skip means the
+ * image is well clear of the guard.
+ *
+ * <p>One instance lives on the engine and counts outcomes across requests
+ * for the {@code pcs.images.predictor} metrics. Every {@code
+ * gain-predictor-audit-interval}-th predicted skip is processed anyway, and
+ * the share of audited images the size guard then accepts estimates the
+ * false-skip rate. Thread-safe.
+ */
+final class GainPredictor {
+
+    /** Bits a block costs regardless of quantization: DC difference plus end-of-block. */
+    static final double FIXED_BITS_PER_BLOCK = 6.0;
+
+    /** Detail bits scale with the quantization step ratio to the power {@code -STEP_EXPONENT}. */
+    static final double STEP_EXPONENT = 0.6;
+
+    /** Encoded size scales with the pixel-count ratio to this power. */
+    static final double PIXEL_EXPONENT = 0.75;
+
+    /** Share of a baseline JPEG's size the optimized progressive output is credited with. */
+    static final double BASELINE_ENTROPY_GAIN = 0.9;
+
+    /** How far above the size guard's cut-off an estimate must land before the image is skipped. */
+    static final double SKIP_MARGIN = 0.05;
+
+    private final LongAdder evaluated = new LongAdder();
+    private final AtomicLong skipped = new AtomicLong();
+    private final LongAdder audited = new LongAdder();
+    private final LongAdder falseSkips = new LongAdder();
+
+    /**
+     * Estimated re-encoded size as a fraction of {@code encodedLength}.
+     *
+     * @param encodedLength  the source stream's length in bytes
+     * @param sourcePixels   source width x height
+     * @param targetPixels   width x height the re-encode is written at
+     * @param header         the source's JPEG headers
+     * @param targetQuality  the JPEG quality the pixel path encodes at
+     */
+    static double predictRatio(long encodedLength, long sourcePixels, long targetPixels, JpegHeader header,
+                               float targetQuality) {
+        int[] target = JpegRequantizer.standardTable(true, targetQuality);
+        int[] source = header.firstComponentQuant();
+        double logStepRatio = 0;
+        for (int k = 0; k < 64; k++) {
+            logStepRatio += Math.log((double) target[k] / source[k]);
+        }
+        double stepRatio = Math.exp(logStepRatio / 64);
+
+        // 4:2:0 chroma adds half a luma plane's worth of blocks.
+        double blocksPerPixel = (header.components() >= 3 ? 1.5 : 1.0) / 64;
+        double sourceBits = encodedLength * 8.0;
+        double fixedBits = Math.min(sourceBits, sourcePixels * blocksPerPixel * FIXED_BITS_PER_BLOCK);
+        double detailBits = (sourceBits - fixedBits) * Math.pow(stepRatio, -STEP_EXPONENT);
+
+        double pixelRatio = Math.min(1.0, (double) targetPixels / sourcePixels);
+        double entropy = header.progressive() ? 1.0 : BASELINE_ENTROPY_GAIN;
+        return entropy * Math.pow(pixelRatio, PIXEL_EXPONENT) * (fixedBits + detailBits) / sourceBits;
+    }
+
+    /** What {@link #judge} decided for one image. */
+    enum Verdict {
+        /** Expected to pay off: processed as usual. */
+        PROCESS,
+        /** Expected to be thrown away by the size guard: left unchanged without decoding. */
+        SKIP,
+        /** Would be skipped, but is processed to check the prediction; report it to {@link #recordAudit}. */
+        AUDIT
+    }
+
+    /**
+     * Judges an image predicted at {@code ratio} against {@code
+     * acceptedRatio}, the largest ratio the size guard keeps, and counts
+     * the prediction. Every {@code auditInterval}-th skip becomes an
+     * {@link Verdict#AUDIT} ({@code 0} = never).
+     */
+    Verdict judge(double ratio, double acceptedRatio, int auditInterval) {
+        evaluated.increment();
+        if (ratio <= acceptedRatio + SKIP_MARGIN) {
+            return Verdict.PROCESS;
+        }
+        long skips = skipped.incrementAndGet();
+        return auditInterval > 0 && skips % auditInterval == 0 ? Verdict.AUDIT : Verdict.SKIP;
+    }
+
+    /** Records how an audited image fared: {@code accepted} means skipping it would have been a mistake. */
+    void recordAudit(boolean accepted) {
+        audited.increment();
+        if (accepted) {
+            falseSkips.increment();
+        }
+    }
+
+    long evaluated() {
+        return evaluated.sum();
+    }
+
+    long skipped() {
+        return skipped.get();
+    }
+
+    long audited() {
+        return audited.sum();
+    }
+
+    long falseSkips() {
+        return falseSkips.sum();
+    }
+}
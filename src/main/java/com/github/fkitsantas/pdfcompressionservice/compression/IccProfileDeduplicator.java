@@ -1,18 +1,11 @@
 package com.github.fkitsantas.pdfcompressionservice.compression;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
-import java.util.HashMap;
-import java.util.HexFormat;
 import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.pdfbox.cos.COSArray;
@@ -46,23 +39,36 @@ final class IccProfileDeduplicator {
 
     /** De-duplicates ICC profiles in place and returns the approximate stored bytes saved. */
     static long deduplicate(PDDocument doc, String requestId) {
+        return deduplicate(doc, new StreamDigests(), requestId);
+    }
+
+    /**
+     * As {@link #deduplicate(PDDocument, String)}, comparing profiles through
+     * the request's {@code digests}: only profiles whose length and sampled
+     * bytes collide are hashed in full.
+     */
+    static long deduplicate(PDDocument doc, StreamDigests digests, String requestId) {
         List<COSArray> iccArrays = findIccBasedArrays(doc);
         if (iccArrays.size() < 2) {
             return 0;
         }
-        Map<String, COSStream> canonicalByHash = new HashMap<>();
+        List<COSStream> profiles = new ArrayList<>(iccArrays.size());
+        List<StreamDigests.Content> contents = new ArrayList<>(iccArrays.size());
+        for (COSArray array : iccArrays) {
+            COSStream profile = (COSStream) array.getObject(1);
+            profiles.add(profile);
+            // The component count is part of what must match, next to the stored bytes.
+            contents.add(new StreamDigests.Content(profile.getInt(COSName.N, 0), profile, null));
+        }
+        int[] firstCopy = digests.firstCopies(contents);
+
         Set<COSBase> eliminated = Collections.newSetFromMap(new IdentityHashMap<>());
         long saved = 0;
-        for (COSArray array : iccArrays) {
-            if (!(array.getObject(1) instanceof COSStream profile)) {
-                continue;
-            }
-            String hash = fingerprint(profile);
-            if (hash == null) {
-                continue;
-            }
-            COSStream canonical = canonicalByHash.putIfAbsent(hash, profile);
-            if (canonical != null && canonical != profile) {
+        for (int i = 0; i < iccArrays.size(); i++) {
+            COSArray array = iccArrays.get(i);
+            COSStream profile = profiles.get(i);
+            COSStream canonical = profiles.get(firstCopy[i]);
+            if (canonical != profile) {
                 array.set(1, canonical); // share the first identical profile
                 if (eliminated.add(profile)) {
                     saved += Math.max(0, profile.getLength());
@@ -111,22 +117,4 @@ final class IccProfileDeduplicator {
             return null;
         }
     }
-
-    /** SHA-256 over the profile's stored bytes plus its component count; {@code null} if unreadable. */
-    private static String fingerprint(COSStream profile) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            try (InputStream in = profile.createRawInputStream()) {
-                byte[] buffer = new byte[8192];
-                int read;
-                while ((read = in.read(buffer)) >= 0) {
-                    digest.update(buffer, 0, read);
-                }
-            }
-            digest.update((byte) profile.getInt(COSName.N, 0));
-            return HexFormat.of().formatHex(digest.digest());
-        } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
-            return null;
-        }
-    }
 }
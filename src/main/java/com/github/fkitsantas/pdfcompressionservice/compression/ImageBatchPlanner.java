@@ -0,0 +1,57 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Splits the gate-passed images of one document into the batches {@link
+ * PdfCompressionEngine} decodes, transforms and attaches together.
+ *
+ * <p>Batches are weighted by each image's estimated decoded size rather than
+ * by image count: a batch is filled, in discovery order, until adding the
+ * next image would exceed the byte budget. Sixteen 48-megapixel photos
+ * therefore no longer land in one batch just because sixteen workers exist,
+ * while hundreds of small logos can share a single batch and keep every
+ * worker busy. Order is never changed, only where the batch boundaries fall,
+ * so attach order (and with it the output) is independent of the budget.
+ */
+final class ImageBatchPlanner {
+
+    private ImageBatchPlanner() {
+    }
+
+    /**
+     * @param indices         pending image indices, in discovery order
+     * @param decodedBytes    estimated decoded size of the image at a given index
+     * @param byteBudget      decoded bytes one batch may hold; {@code 0} selects count-based batching
+     * @param imagesPerBatch  batch size used when {@code byteBudget} is {@code 0}
+     * @return consecutive, non-empty batches covering {@code indices} exactly once, in order
+     */
+    static List<List<Integer>> plan(List<Integer> indices, IntToLongFunction decodedBytes, long byteBudget,
+                                    int imagesPerBatch) {
+        List<List<Integer>> batches = new ArrayList<>();
+        if (byteBudget <= 0) {
+            int size = Math.max(1, imagesPerBatch);
+            for (int start = 0; start < indices.size(); start += size) {
+                batches.add(indices.subList(start, Math.min(start + size, indices.size())));
+            }
+            return batches;
+        }
+        int start = 0;
+        long filled = 0;
+        for (int i = 0; i < indices.size(); i++) {
+            long weight = Math.max(0L, decodedBytes.applyAsLong(indices.get(i)));
+            if (i > start && filled + weight > byteBudget) {
+                batches.add(indices.subList(start, i));
+                start = i;
+                filled = 0;
+            }
+            filled += weight;
+        }
+        if (start < indices.size()) {
+            batches.add(indices.subList(start, indices.size()));
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.pdfbox.cos.COSName;
+
+/**
+ * Decode-free estimate of how long one image takes to decode and transform,
+ * from what {@link ImageOptimizer#evaluateGate} already knows: the stream's
+ * filters and the source and target pixel counts. Decoding is charged per
+ * source pixel for every filter in the chain, at a rate measured for that
+ * filter's decoder; the JPEG 2000 and JBIG2 plug-ins are one to two orders
+ * of magnitude slower per pixel than the JDK's JPEG and Flate code, which is
+ * what makes a single large {@code /JPXDecode} image dominate a request.
+ * Resampling is charged per source pixel and encoding per target pixel. The
+ * rates are rough and lean high, so the estimate is a ceiling for ordinary
+ * hardware rather than a prediction.
+ *
+ * <p>The gate leaves an image whose estimate exceeds {@code
+ * max-image-cost-millis} unchanged without decoding it, and the engine gives
+ * one estimated at {@value #SLOW_MILLIS} ms or more a pool task of its own,
+ * decode included, where the {@code image-time-limit-millis} watchdog can
+ * abandon it. One instance lives on the engine and counts both for the
+ * {@code pcs.images.guard} metrics. Thread-safe.
+ */
+final class ImageCostModel {
+
+    /** Estimated cost from which an image is sent to the pool, under the watchdog, even on the serial path. */
+    static final long SLOW_MILLIS = 1_000;
+
+    /** Decode cost per source pixel, in nanoseconds, by filter. */
+    private static final Map<COSName, Double> DECODE_NANOS_PER_PIXEL = Map.of(
+            COSName.JPX_DECODE, 600.0,
+            COSName.JBIG2_DECODE, 150.0,
+            COSName.DCT_DECODE, 12.0,
+            COSName.LZW_DECODE, 10.0,
+            COSName.FLATE_DECODE, 8.0,
+            COSName.CCITTFAX_DECODE, 4.0,
+            COSName.RUN_LENGTH_DECODE, 4.0,
+            COSName.ASCII85_DECODE, 4.0,
+            COSName.ASCII_HEX_DECODE, 4.0);
+
+    /** Decode cost per source pixel of a filter not listed above. */
+    private static final double UNKNOWN_FILTER_NANOS_PER_PIXEL = 50.0;
+
+    /** Copying out unfiltered samples. */
+    private static final double RAW_NANOS_PER_PIXEL = 2.0;
+
+    /** Classification and resampling, per source pixel. */
+    private static final double RESAMPLE_NANOS_PER_PIXEL = 4.0;
+
+    /** Encoding the replacement, per target pixel. */
+    private static final double ENCODE_NANOS_PER_PIXEL = 30.0;
+
+    private final LongAdder overBudget = new LongAdder();
+    private final LongAdder watched = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * Estimated milliseconds to decode {@code sourcePixels} through {@code
+     * filters} (in stream order, empty when unfiltered) and transform the
+     * result into {@code targetPixels}.
+     */
+    static long estimateMillis(List<COSName> filters, long sourcePixels, long targetPixels) {
+        double decodeNanosPerPixel = filters.isEmpty() ? RAW_NANOS_PER_PIXEL : 0;
+        for (COSName filter : filters) {
+            decodeNanosPerPixel += DECODE_NANOS_PER_PIXEL.getOrDefault(filter, UNKNOWN_FILTER_NANOS_PER_PIXEL);
+        }
+        double nanos = sourcePixels * (decodeNanosPerPixel + RESAMPLE_NANOS_PER_PIXEL)
+                + targetPixels * ENCODE_NANOS_PER_PIXEL;
+        return (long) Math.ceil(nanos / 1_000_000);
+    }
+
+    /** Whether {@code estimateMillis} is over {@code budgetMillis} ({@code 0} = no budget); counts it if so. */
+    boolean overBudget(long estimateMillis, long budgetMillis) {
+        if (budgetMillis > 0 && estimateMillis > budgetMillis) {
+            overBudget.increment();
+            return true;
+        }
+        return false;
+    }
+
+    void recordWatched() {
+        watched.increment();
+    }
+
+    void recordTimedOut() {
+        timedOut.increment();
+    }
+
+    long overBudget() {
+        return overBudget.sum();
+    }
+
+    long watched() {
+        return watched.sum();
+    }
+
+    long timedOut() {
+        return timedOut.sum();
+    }
+}
@@ -1,30 +1,46 @@
 package com.github.fkitsantas.pdfcompressionservice.compression;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
-import java.util.HashSet;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.MemoryCacheImageOutputStream;
-
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
 import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
 import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
-import org.apache.pdfbox.pdmodel.graphics.image.CCITTFactory;
-import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
-import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegCoefficientReader;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegCoefficientWriter;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegCoefficients;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegHeader;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegPixelEncoder;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegRequantizer;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.RowSplitter;
+
 /**
  * Decides, per unique image XObject, whether and how to re-encode it, and
  * exposes that decision as three explicit phases so {@link PdfCompressionEngine}
@@ -34,22 +50,36 @@ import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
  *
  * <ol>
  *   <li>{@link #evaluateGate}, cheap, no-decode gate check (skip gates,
- *       target dimensions, the bitonal "already sharp enough" shortcut).
+ *       the crop to the part clipping ever shows, target dimensions, the
+ *       bitonal "already sharp enough" shortcut,
+ *       the {@link GainPredictor} estimate for JPEGs).
  *       Safe to run for the whole document up front; touches only image
  *       metadata, never raster data.</li>
- *   <li>{@link #finishPlan}, decodes the image ({@link PDImageXObject#getImage()})
- *       and classifies its codec path (bitonal / transparent / grayscale /
- *       photographic-or-line-art). Reads from the {@link PDDocument}'s
- *       backing stream, so, like {@link #evaluateGate}, it must stay on a
- *       single thread; the engine only calls it for one in-flight batch at a
- *       time, never concurrently.</li>
+ *   <li>{@link #finishPlan}, decodes the image ({@link PDImageXObject#getImage()},
+ *       subsampled by a power of two when it is about to be shrunk anyway)
+ *       and classifies its codec path (bitonal / soft-masked / transparent /
+ *       grayscale / photographic-or-line-art), for opaque images from a
+ *       sample of their pixels as well as their colour model, so a colour
+ *       scan of a black-and-white page goes bitonal. A JPEG that only needs its quality
+ *       lowered is instead read as DCT coefficients and never decoded to
+ *       pixels ({@link Codec#JPEG_REQUANTIZE}), as is one that keeps its
+ *       size and quality and is only re-entropy-coded
+ *       ({@link Codec#JPEG_LOSSLESS}), and a 1-bit gray scan is read
+ *       as packed bits ({@link PackedBitonal}). Reading the original goes through the
+ *       {@link PDDocument}'s backing stream, so, like {@link #evaluateGate},
+ *       it must stay on a single thread. Alternatively {@link #snapshot}
+ *       copies just the encoded bytes on that thread and
+ *       {@link #finishPlan(Snapshot)} decodes the detached copy anywhere,
+ *       which is how the engine moves decoding onto its executor.</li>
  *   <li>{@link #transform}, pure CPU work (resize + encode) on an already-
- *       decoded, doc-independent {@link BufferedImage}. Touches no
- *       {@link PDDocument} state at all, so the engine is free to run this on
- *       its shared executor.</li>
- *   <li>{@link #attach}, builds the replacement {@link PDImageXObject} via
- *       the PDFBox image factories (which allocate {@link COSStream}s against
- *       the document) and applies the size guard. Must run back on the
+ *       decoded, doc-independent {@link BufferedImage}, down to the final
+ *       filtered stream bytes ({@link EncodedImage}) for every codec. Touches
+ *       no {@link PDDocument} state at all, so the engine is free to run this
+ *       on its shared executor.</li>
+ *   <li>{@link #attach}, wraps those bytes in a {@link COSStream} allocated
+ *       against the document and applies the size guard, and places a
+ *       cropped image through a small form XObject; nothing is encoded
+ *       or parsed here. Must run back on the
  *       document thread, in the original discovery order, to keep object
  *       numbering, and therefore {@code compressedBytes}, independent of
  *       thread scheduling.</li>
@@ -71,26 +101,74 @@ final class ImageOptimizer {
 
     private static final int MAX_DISTINCT_COLOR_SAMPLES = 20_000;
     private static final int PHOTOGRAPHIC_COLOR_THRESHOLD = 256;
+    /** Gray content has at most 256 levels, so it is photographic well below the colour threshold. */
+    private static final int GRAY_PHOTOGRAPHIC_COLOR_THRESHOLD = 64;
+    private static final int MAX_TONE_SAMPLES = 50_000;
 
-    /**
-     * Whether the grayscale JPEG path encodes off-document (via {@code
-     * ImageIO} + {@link JPEGFactory#createFromStream}, letting it run on the
-     * parallel executor) or stays on the document thread (via {@link
-     * JPEGFactory#createFromImage}). Confirmed {@code true} is safe: a
-     * single-component JPEG produced by the JRE's own {@code ImageIO} writer
-     * and re-attached via {@code createFromStream} still round-trips as
-     * {@link PDDeviceGray} (see {@code PdfCompressionEngineFidelityTest
-     * #grayscaleImageStaysInDeviceGrayColorSpace}, which is green with this
-     * flag on), documented here rather than silently assumed so a future
-     * PDFBox upgrade regression is easy to bisect: flip to {@code false} and
-     * re-run the fidelity suite if that ever stops being true.
-     */
-    private static final boolean ENCODE_GRAYSCALE_OFF_DOCUMENT = true;
+    /** Pixels kept around the visible region of a cropped image, so resampling at the clip edge sees its neighbours. */
+    private static final int CROP_MARGIN = 2;
+
+    /** Cropping is only worth a wrapping form XObject when it keeps at most this share of the pixels. */
+    private static final double MAX_CROP_KEPT_AREA = 0.8;
+
+    /** How much of a JPEG stream {@link #predictGain} reads looking for its frame and quantization headers. */
+    private static final int JPEG_HEADER_BYTES = 16 * 1024;
 
     private final PdfCompressionProperties properties;
 
+    /** Row-stripe splitting for resizes of images above {@link PdfCompressionProperties#getParallelResamplePixels()}. */
+    private final Stripes stripes;
+
+    /** {@link #stripes} as the built-in JPEG encoder sees them. */
+    private final RowSplitter jpegRows;
+
+    private final GainPredictor predictor;
+
+    private final CmykColorConverter cmyk;
+
+    private final ImageCostModel costModel;
+
+    /**
+     * Images the predictor would have skipped that are processed to check it.
+     * Only touched by {@link #evaluateGate} and {@link #attach}, both on the
+     * document thread.
+     */
+    private final Set<PDImageXObject> audits = Collections.newSetFromMap(new IdentityHashMap<>());
+
     ImageOptimizer(PdfCompressionProperties properties) {
+        this(properties, null, new GainPredictor(), new CmykColorConverter(), new ImageCostModel());
+    }
+
+    /**
+     * @param stripeExecutor the engine's image pool, which single large
+     *                       resizes may split across, or {@code null} to keep
+     *                       every resize on the calling thread
+     * @param predictor      the engine's gain predictor, which counts its
+     *                       verdicts across requests
+     * @param cmyk           the engine's CMYK converter, whose per-profile
+     *                       tables are reused across requests
+     * @param costModel      the engine's cost model, which counts the images
+     *                       it rules over budget across requests
+     */
+    ImageOptimizer(PdfCompressionProperties properties, Executor stripeExecutor, GainPredictor predictor,
+                   CmykColorConverter cmyk, ImageCostModel costModel) {
         this.properties = properties;
+        this.predictor = predictor;
+        this.cmyk = cmyk;
+        this.costModel = costModel;
+        this.stripes = new Stripes(stripeExecutor, properties.resolveParallelism() - 1,
+                properties.getParallelResamplePixels());
+        this.jpegRows = new RowSplitter() {
+            @Override
+            public boolean splits(int rows, long pixels) {
+                return stripes.splits(rows, pixels);
+            }
+
+            @Override
+            public void forEach(int rows, long pixels, Range body) {
+                stripes.forEach(rows, pixels, body::run);
+            }
+        };
     }
 
     /**
@@ -100,25 +178,50 @@ final class ImageOptimizer {
      * @param downsampled whether pixel dimensions were reduced
      * @param recompressed whether the image was re-encoded (regardless of dimension change)
      * @param skipped whether the image never entered evaluation (a skip-gate matched)
+     * @param placement for a cropped replacement, the form XObject that draws
+     *                  it where the visible part of the original was; the
+     *                  engine puts this in the resources instead of the image
+     * @param pixels the original's decoded-pixel fingerprint, whether or not
+     *               it was replaced, or {@code null} when none was taken
      */
-    record Outcome(PDImageXObject replacement, boolean downsampled, boolean recompressed, boolean skipped) {
+    record Outcome(PDImageXObject replacement, boolean downsampled, boolean recompressed, boolean skipped,
+                   PDFormXObject placement, PixelFingerprint pixels) {
 
         static Outcome skip() {
-            return new Outcome(null, false, false, true);
+            return new Outcome(null, false, false, true, null, null);
         }
 
         static Outcome unchanged() {
-            return new Outcome(null, false, false, false);
+            return new Outcome(null, false, false, false, null, null);
         }
 
         static Outcome accepted(PDImageXObject replacement, boolean downsampled) {
-            return new Outcome(replacement, downsampled, true, false);
+            return new Outcome(replacement, downsampled, true, false, null, null);
+        }
+
+        Outcome placedBy(PDFormXObject form) {
+            return new Outcome(replacement, downsampled, recompressed, skipped, form, pixels);
+        }
+
+        Outcome withPixels(PixelFingerprint fingerprint) {
+            return new Outcome(replacement, downsampled, recompressed, skipped, placement, fingerprint);
         }
     }
 
-    /** Codec path an eligible image was classified into during {@link #finishPlan}. */
+    /**
+     * Codec path an eligible image was classified into during {@link #finishPlan}.
+     * {@code JPEG_REQUANTIZE} lowers an existing JPEG's quality in the DCT
+     * domain (see {@link JpegRequantizer}); {@code JPEG_LOSSLESS} rewrites
+     * one that is already at the target quality with better entropy coding
+     * and the same coefficients. Both are only chosen when they apply,
+     * everything else takes the pixel paths. {@code SOFT_MASKED} encodes
+     * an image and its {@code /SMask} separately, where {@code TRANSPARENT}
+     * composites them into one lossless ARGB raster. {@code CMYK_JPEG}
+     * re-encodes a CMYK JPEG from its raw samples as a 4-component JPEG,
+     * with no colour conversion.
+     */
     enum Codec {
-        BITONAL, TRANSPARENT, GRAYSCALE, COLOR
+        BITONAL, SOFT_MASKED, TRANSPARENT, GRAYSCALE, COLOR, CMYK_JPEG, JPEG_REQUANTIZE, JPEG_LOSSLESS
     }
 
     /** No-decode gate outcome: either the decision is already final, or the image needs full planning. */
@@ -130,31 +233,70 @@ final class ImageOptimizer {
         }
     }
 
-    /** Everything {@link #finishPlan} needs, computed without decoding the image. */
+    /**
+     * Everything {@link #finishPlan} needs, computed without decoding the image.
+     * {@code decodedBytes} is the estimated size of the decoded raster (width x
+     * height x colour components), used by {@link ImageBatchPlanner} to bound
+     * how much decoded data one batch may hold. {@code subsampling} is the
+     * power-of-two reduction {@link #finishPlan} decodes at ({@code 1} = full
+     * resolution), already accounted for in {@code decodedBytes}. {@code
+     * crop}, when not {@code null}, is the part of the image that is ever
+     * visible, in original pixels and aligned to {@code subsampling}; the
+     * target dimensions are then those of the crop. {@code costMillis} is
+     * the {@link ImageCostModel} estimate of its decode and transform.
+     */
     record GatePassed(PDImageXObject original, long originalLength, boolean bitonal, int targetW, int targetH,
-                       boolean downsample) {
+                       boolean downsample, int subsampling, long decodedBytes, Rectangle crop, long costMillis) {
     }
 
-    /** A fully-classified, decoded work item ready for {@link #transform}. Carries no live document state. */
+    /**
+     * A gate-passed image whose encoded stream has been copied off the
+     * document by {@link #snapshot}, ready to be decoded on any thread.
+     * {@code cmykProfileKey} is the {@link CmykColorConverter} key of the
+     * original's CMYK ICC profile, or {@code null} when it has none.
+     */
+    record Snapshot(GatePassed gate, COSStream stream, String cmykProfileKey) {
+    }
+
+    /**
+     * A fully-classified work item ready for {@link #transform}. Carries no
+     * live document state. {@code decoded} holds the pixels, except for
+     * {@link Codec#JPEG_REQUANTIZE} and {@link Codec#JPEG_LOSSLESS}, which
+     * carry the source JPEG's {@code coefficients} instead. {@link
+     * Codec#SOFT_MASKED} images carry the opaque colour data in {@code
+     * decoded} and their soft mask, decoded at its own size, in {@code mask}.
+     * {@link Codec#CMYK_JPEG} images carry their raw CMYK samples. A
+     * {@code crop} (in {@code decoded}'s pixels) is cut out by {@link
+     * #transform} before anything else, and the target dimensions are the
+     * crop's.
+     */
     record Planned(PDImageXObject original, long originalLength, Codec codec, BufferedImage decoded, int targetW,
-                    int targetH, boolean downsample) {
+                    int targetH, boolean downsample, JpegCoefficients coefficients, BufferedImage mask,
+                    Rectangle crop) {
+
+        Planned(PDImageXObject original, long originalLength, Codec codec, BufferedImage decoded, int targetW,
+                int targetH, boolean downsample, JpegCoefficients coefficients, BufferedImage mask) {
+            this(original, originalLength, codec, decoded, targetW, targetH, downsample, coefficients, mask, null);
+        }
     }
 
     /**
-     * Output of {@link #transform}: either encoded JPEG bytes (photographic
-     * colour/grayscale paths, safe to have produced off-document) or a
-     * resized {@link BufferedImage} still awaiting a document-thread factory
-     * call (lossless/CCITT paths, and grayscale if {@link
-     * #ENCODE_GRAYSCALE_OFF_DOCUMENT} is ever flipped off). Exactly one of
-     * {@code jpegBytes}/{@code bufferedImage} is non-null.
+     * Output of {@link #transform}: the replacement fully encoded (JPEG,
+     * Flate with its soft mask, or CCITT G4) together with its dictionary
+     * entries, so {@link #attach} only wraps the bytes in a stream. A cropped
+     * image carries its {@code placement}, the part of the original's unit
+     * square it covers, and an image eligible for {@link PixelDeduplication}
+     * the fingerprint of its decoded {@code pixels}.
      */
-    record Transformed(Codec codec, byte[] jpegBytes, BufferedImage bufferedImage, boolean downsampled) {
-        static Transformed jpeg(Codec codec, byte[] bytes, boolean downsampled) {
-            return new Transformed(codec, bytes, null, downsampled);
+    record Transformed(Codec codec, EncodedImage encoded, boolean downsampled, Rectangle2D placement,
+                       PixelFingerprint pixels) {
+
+        Transformed(Codec codec, EncodedImage encoded, boolean downsampled) {
+            this(codec, encoded, downsampled, null, null);
         }
 
-        static Transformed image(Codec codec, BufferedImage image, boolean downsampled) {
-            return new Transformed(codec, null, image, downsampled);
+        Transformed withPixels(PixelFingerprint fingerprint) {
+            return new Transformed(codec, encoded, downsampled, placement, fingerprint);
         }
     }
 
@@ -162,7 +304,14 @@ final class ImageOptimizer {
     // Phase A (part 1), cheap gate check, no decode
     // ------------------------------------------------------------------
 
-    GateResult evaluateGate(PDImageXObject original, float[] usagePoints) throws IOException {
+    /**
+     * @param usagePoints the largest size the image is drawn at, in points,
+     *                    or {@code null} when it was never seen drawn
+     * @param visible     the part of the image's unit square that is ever
+     *                    visible, or {@code null} to keep the whole image
+     *                    (not every drawing was observed, or cropping is off)
+     */
+    GateResult evaluateGate(PDImageXObject original, float[] usagePoints, Rectangle2D visible) throws IOException {
         long originalLength = encodedLength(original);
         if (shouldSkip(original, originalLength)) {
             return new GateResult.Decided(Outcome.skip());
@@ -183,20 +332,147 @@ final class ImageOptimizer {
 
         boolean bitonal = original.getBitsPerComponent() == 1;
 
-        double scale = computeScale(origW, origH, usagePoints);
+        Rectangle crop = croppable(original) ? visiblePixels(origW, origH, visible) : null;
+        int keptW = crop != null ? crop.width : origW;
+        int keptH = crop != null ? crop.height : origH;
+
+        double scale = computeScale(origW, origH, keptW, keptH, usagePoints);
         double threshold = bitonal ? BITONAL_DOWNSAMPLE_SCALE : DOWNSAMPLE_TOLERANCE_SCALE;
         boolean wantsDownsample = scale < threshold;
 
-        int targetW = wantsDownsample ? Math.max(1, (int) Math.round(origW * scale)) : origW;
-        int targetH = wantsDownsample ? Math.max(1, (int) Math.round(origH * scale)) : origH;
+        int targetW = wantsDownsample ? Math.max(1, (int) Math.round(keptW * scale)) : keptW;
+        int targetH = wantsDownsample ? Math.max(1, (int) Math.round(keptH * scale)) : keptH;
 
-        if (bitonal && !wantsDownsample) {
+        if (bitonal && !wantsDownsample && crop == null) {
             // Bitonal scans must stay pixel-exact unless meaningfully oversampled.
             return new GateResult.Decided(Outcome.unchanged());
         }
 
-        return new GateResult.Pending(
-                new GatePassed(original, originalLength, bitonal, targetW, targetH, wantsDownsample));
+        // Left as it is, like an unprofitable image, when even a successful decode would take too long.
+        long costMillis = ImageCostModel.estimateMillis(original.getStream().getFilters(), (long) origW * origH,
+                (long) targetW * targetH);
+        if (costModel.overBudget(costMillis, properties.getMaxImageCostMillis())) {
+            return new GateResult.Decided(Outcome.unchanged());
+        }
+
+        if (!bitonal && properties.isGainPredictor()) {
+            GainPredictor.Verdict verdict = predictGain(original, originalLength, wantsDownsample, targetW, targetH);
+            if (verdict == GainPredictor.Verdict.SKIP) {
+                return new GateResult.Decided(Outcome.unchanged());
+            }
+            if (verdict == GainPredictor.Verdict.AUDIT) {
+                audits.add(original);
+            }
+        }
+
+        // The raw CMYK raster is always read at full resolution.
+        int subsampling = wantsDownsample && !bitonal && properties.isSubsampledDecode() && !isNativeCmyk(original)
+                ? decodeSubsampling(keptW, keptH, targetW, targetH)
+                : 1;
+        if (crop != null && subsampling > 1) {
+            // Grown outward to whole decoded pixels, so the crop cuts the subsampled raster exactly.
+            crop = alignCrop(crop, subsampling, origW, origH);
+            targetW = Math.max(1, (int) Math.round(crop.width * scale));
+            targetH = Math.max(1, (int) Math.round(crop.height * scale));
+        }
+        long decodedBytes = bitonal && properties.isPackedBitonal() && PackedBitonal.isReadable(original)
+                ? (long) ceilDiv(origW, 8) * origH
+                : (long) ceilDiv(origW, subsampling) * ceilDiv(origH, subsampling)
+                        * Math.max(1, original.getColorSpace().getNumberOfComponents());
+        return new GateResult.Pending(new GatePassed(original, originalLength, bitonal, targetW, targetH,
+                wantsDownsample, subsampling, decodedBytes, crop, costMillis));
+    }
+
+    /**
+     * Whether the gate may crop {@code image}: it has no {@code /Mask} or
+     * {@code /SMask}, whose geometry would have to be cut to match.
+     */
+    private boolean croppable(PDImageXObject image) {
+        COSStream stream = image.getCOSObject();
+        return properties.isCropToClip()
+                && stream.getItem(COSName.MASK) == null && stream.getItem(COSName.SMASK) == null;
+    }
+
+    /**
+     * The pixels of an {@code origW x origH} image covered by {@code visible}
+     * (a region of its unit square, whose origin is the bottom-left corner
+     * while pixel rows run top-down), widened by {@value #CROP_MARGIN}
+     * pixels, or {@code null} when that keeps more than {@value
+     * #MAX_CROP_KEPT_AREA} of the image.
+     */
+    static Rectangle visiblePixels(int origW, int origH, Rectangle2D visible) {
+        if (visible == null || visible.isEmpty()) {
+            return null;
+        }
+        int x0 = Math.max(0, (int) Math.floor(visible.getMinX() * origW) - CROP_MARGIN);
+        int x1 = Math.min(origW, (int) Math.ceil(visible.getMaxX() * origW) + CROP_MARGIN);
+        int y0 = Math.max(0, (int) Math.floor((1.0 - visible.getMaxY()) * origH) - CROP_MARGIN);
+        int y1 = Math.min(origH, (int) Math.ceil((1.0 - visible.getMinY()) * origH) + CROP_MARGIN);
+        if (x1 <= x0 || y1 <= y0 || (double) (x1 - x0) * (y1 - y0) > MAX_CROP_KEPT_AREA * origW * origH) {
+            return null;
+        }
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /** {@code crop} grown outward to multiples of {@code subsampling}, within the image. */
+    private static Rectangle alignCrop(Rectangle crop, int subsampling, int origW, int origH) {
+        int x0 = crop.x / subsampling * subsampling;
+        int y0 = crop.y / subsampling * subsampling;
+        int x1 = Math.min(origW, ceilDiv(crop.x + crop.width, subsampling) * subsampling);
+        int y1 = Math.min(origH, ceilDiv(crop.y + crop.height, subsampling) * subsampling);
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Asks the {@link GainPredictor} about a plain DCTDecode image the pixel
+     * path would decode and re-encode, reading only the start of its stream
+     * for the headers. A JPEG that stays at its size and is rewritten in the
+     * DCT domain instead is cheap already, and anything else (other filters,
+     * masks, CMYK, headers past the first {@value #JPEG_HEADER_BYTES} bytes)
+     * is not predicted.
+     */
+    private GainPredictor.Verdict predictGain(PDImageXObject original, long originalLength, boolean downsample,
+                                              int targetW, int targetH) throws IOException {
+        COSStream stream = original.getCOSObject();
+        if (!List.of(COSName.DCT_DECODE).equals(original.getStream().getFilters())
+                || stream.getItem(COSName.MASK) != null || stream.getItem(COSName.SMASK) != null) {
+            return GainPredictor.Verdict.PROCESS;
+        }
+        byte[] head;
+        try (InputStream in = stream.createRawInputStream()) {
+            head = in.readNBytes(JPEG_HEADER_BYTES);
+        }
+        if (!downsample && (properties.isRequantizeJpeg() || properties.isLosslessJpeg())
+                && JpegCoefficientReader.isSupported(head)) {
+            return GainPredictor.Verdict.PROCESS;
+        }
+        JpegHeader header = JpegHeader.read(head);
+        if (header == null || header.precision() != 8 || (header.components() != 1 && header.components() != 3)) {
+            return GainPredictor.Verdict.PROCESS;
+        }
+        double ratio = GainPredictor.predictRatio(originalLength, (long) original.getWidth() * original.getHeight(),
+                (long) targetW * targetH, header, properties.getJpegQuality());
+        double acceptedRatio = properties.getLargerResultPolicy() == LargerResultPolicy.USE_SMALLEST
+                ? 1.0
+                : 1.0 - properties.getMinReductionRatio();
+        return predictor.judge(ratio, acceptedRatio, properties.getGainPredictorAuditInterval());
+    }
+
+    /**
+     * Largest power-of-two decode reduction that still leaves at least {@code
+     * targetW x targetH} pixels, so {@link #resize} only has the final step
+     * left to do. {@code 1} when the target is less than half the original.
+     */
+    static int decodeSubsampling(int origW, int origH, int targetW, int targetH) {
+        int subsampling = 1;
+        while ((long) targetW * subsampling * 2 <= origW && (long) targetH * subsampling * 2 <= origH) {
+            subsampling *= 2;
+        }
+        return subsampling;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
     }
 
     // ------------------------------------------------------------------
@@ -204,93 +480,478 @@ final class ImageOptimizer {
     // ------------------------------------------------------------------
 
     Planned finishPlan(GatePassed gate) throws IOException {
-        PDImageXObject original = gate.original();
-        BufferedImage decoded = original.getImage();
+        return plan(gate, gate.original(), null);
+    }
+
+    /**
+     * Copies the image's encoded bytes and decode parameters (see {@link
+     * CosSnapshot}) off the document, so the expensive decode in {@link
+     * #finishPlan(Snapshot)} can run on the shared executor. Must run on the
+     * document thread; only this byte copy stays single-threaded. A CMYK ICC
+     * profile's key is looked up here too, against the document's profile
+     * stream, so images sharing it hash it once rather than once per copy.
+     */
+    Snapshot snapshot(GatePassed gate) throws IOException {
+        COSStream profile = CmykColorConverter.iccProfile(gate.original());
+        return new Snapshot(gate, CosSnapshot.copyStream((COSStream) gate.original().getCOSObject()),
+                profile != null ? cmyk.profileKey(profile) : null);
+    }
+
+    /**
+     * As {@link #finishPlan(GatePassed)}, but decodes the detached copy taken
+     * by {@link #snapshot}, so it touches no document state and is safe to
+     * call from any thread. The image is wrapped here, not in {@link
+     * #snapshot}, because wrapping a JPXDecode stream already decodes it.
+     */
+    Planned finishPlan(Snapshot snapshot) throws IOException {
+        return plan(snapshot.gate(), new PDImageXObject(new PDStream(snapshot.stream()), null),
+                snapshot.cmykProfileKey());
+    }
+
+    /**
+     * Decodes {@code source} (the original, or its detached copy) and
+     * classifies its codec path. Heavily downsampled images are decoded
+     * already reduced by {@link GatePassed#subsampling()} (PDFBox reads only
+     * every n-th sample, and DCT streams are subsampled by the JPEG reader),
+     * which cuts both decode time and the transient raster by its square.
+     * A cropped image is classified by its visible part only. {@code
+     * cmykProfileKey} is the snapshot's, {@code null} for the original.
+     */
+    private Planned plan(GatePassed gate, PDImageXObject source, String cmykProfileKey) throws IOException {
+        Rectangle crop = decodedCrop(gate);
+        if (!gate.downsample() && crop == null && (properties.isRequantizeJpeg() || properties.isLosslessJpeg())) {
+            JpegCoefficients coefficients = readCoefficients(source);
+            // A colour JPEG without chroma is decoded instead, so it can become gray or bitonal below.
+            boolean mayBeGray = coefficients != null && properties.isToneClassification()
+                    && coefficients.isNearlyNeutral(properties.getGrayTolerance(),
+                    PixelKernels.GRAY_OUTLIERS_PER_MILLE);
+            if (coefficients != null && !mayBeGray) {
+                Codec codec = properties.isRequantizeJpeg()
+                        && JpegRequantizer.coarsens(coefficients, properties.getJpegQuality())
+                        ? Codec.JPEG_REQUANTIZE
+                        : properties.isLosslessJpeg() ? Codec.JPEG_LOSSLESS : null;
+                if (codec != null) {
+                    return new Planned(gate.original(), gate.originalLength(), codec, null,
+                            gate.targetW(), gate.targetH(), false, coefficients, null);
+                }
+            }
+        }
+
+        if (gate.bitonal() && properties.isPackedBitonal()) {
+            BufferedImage bits = PackedBitonal.read(source);
+            if (bits != null) {
+                return new Planned(gate.original(), gate.originalLength(), Codec.BITONAL, bits, gate.targetW(),
+                        gate.targetH(), gate.downsample(), null, null, crop);
+            }
+        }
+
+        if (isNativeCmyk(source)) {
+            BufferedImage raw = source.getRawImage();
+            if (raw != null && raw.getRaster().getNumBands() == 4) {
+                return new Planned(gate.original(), gate.originalLength(), Codec.CMYK_JPEG, raw, gate.targetW(),
+                        gate.targetH(), gate.downsample(), null, null, crop);
+            }
+        }
+
+        PDImageXObject softMask = !gate.bitonal() && properties.isSeparateSoftMask() ? separableSoftMask(source) : null;
+        if (softMask != null) {
+            BufferedImage opaque = CmykColorConverter.isConvertible(source)
+                    ? cmyk.toRgb(source, gate.subsampling(), cmykProfileKey)
+                    : source.getOpaqueImage(null, gate.subsampling());
+            int maskSubsampling = softMask.getWidth() == source.getWidth() && softMask.getHeight() == source.getHeight()
+                    ? gate.subsampling()
+                    : 1;
+            BufferedImage mask = toType(softMask.getImage(null, maskSubsampling), BufferedImage.TYPE_BYTE_GRAY);
+            return new Planned(gate.original(), gate.originalLength(), Codec.SOFT_MASKED, opaque, gate.targetW(),
+                    gate.targetH(), gate.downsample(), null, mask);
+        }
+
+        COSStream stream = source.getCOSObject();
+        BufferedImage decoded;
+        if (CmykColorConverter.isConvertible(source)
+                && stream.getItem(COSName.MASK) == null && stream.getItem(COSName.SMASK) == null) {
+            decoded = cmyk.toRgb(source, gate.subsampling(), cmykProfileKey);
+        } else {
+            decoded = gate.subsampling() > 1
+                    ? source.getImage(null, gate.subsampling())
+                    : source.getImage();
+        }
 
+        if (crop != null) {
+            crop = crop.intersection(new Rectangle(decoded.getWidth(), decoded.getHeight()));
+        }
+        BufferedImage visible = crop != null
+                ? decoded.getSubimage(crop.x, crop.y, crop.width, crop.height)
+                : decoded;
         Codec codec;
         if (gate.bitonal()) {
             codec = Codec.BITONAL;
-        } else if (isTransparent(original, decoded)) {
+        } else if (isTransparent(source, visible)) {
             codec = Codec.TRANSPARENT;
-        } else if (isGrayscale(decoded)) {
-            codec = Codec.GRAYSCALE;
         } else {
-            codec = Codec.COLOR;
+            PixelKernels.Tone tone = properties.isToneClassification()
+                    ? PixelKernels.tone(visible, properties.getGrayTolerance(), properties.getBitonalRatio(),
+                            MAX_TONE_SAMPLES)
+                    : null;
+            if (tone == PixelKernels.Tone.BITONAL) {
+                return planEffectivelyBitonal(gate, source, decoded, crop);
+            }
+            // Gray line art stays on the colour path, whose palette and Flate encoders keep it lossless.
+            boolean grayPhoto = tone == PixelKernels.Tone.GRAY && PixelKernels.hasMoreDistinctColorsThan(visible,
+                    GRAY_PHOTOGRAPHIC_COLOR_THRESHOLD, MAX_DISTINCT_COLOR_SAMPLES);
+            codec = isGrayscale(decoded) || grayPhoto ? Codec.GRAYSCALE : Codec.COLOR;
+        }
+
+        return new Planned(gate.original(), gate.originalLength(), codec, decoded, gate.targetW(), gate.targetH(),
+                gate.downsample(), null, null, crop);
+    }
+
+    /**
+     * The gate's crop in the pixels of the raster {@link #plan} decodes,
+     * which is reduced by the gate's subsampling (the crop is aligned to
+     * it), or {@code null} when the whole image is kept.
+     */
+    private static Rectangle decodedCrop(GatePassed gate) {
+        Rectangle crop = gate.crop();
+        if (crop == null) {
+            return null;
+        }
+        int s = gate.subsampling();
+        int x0 = crop.x / s;
+        int y0 = crop.y / s;
+        return new Rectangle(x0, y0, ceilDiv(crop.x + crop.width, s) - x0, ceilDiv(crop.y + crop.height, s) - y0);
+    }
+
+    /**
+     * A gray or colour image whose pixels are almost all ink and paper,
+     * typically a scanned text page, planned for the {@link Codec#BITONAL}
+     * path. Like a 1-bit original it keeps its resolution unless it is more
+     * than twice the target DPI: thresholded text needs the pixels more than
+     * gray text does.
+     */
+    private Planned planEffectivelyBitonal(GatePassed gate, PDImageXObject source, BufferedImage decoded,
+                                           Rectangle crop) {
+        int keptW = gate.crop() != null ? gate.crop().width : source.getWidth();
+        boolean downsample = gate.downsample() && (gate.subsampling() > 1
+                || (double) gate.targetW() / keptW < BITONAL_DOWNSAMPLE_SCALE);
+        int targetW = downsample ? gate.targetW() : crop != null ? crop.width : decoded.getWidth();
+        int targetH = downsample ? gate.targetH() : crop != null ? crop.height : decoded.getHeight();
+        return new Planned(gate.original(), gate.originalLength(), Codec.BITONAL, decoded, targetW, targetH,
+                downsample, null, null, crop);
+    }
+
+    /**
+     * The image's soft mask when colour and mask can be encoded separately:
+     * any {@code /SMask} without {@code /Matte}. A matted mask means the
+     * colour data is premultiplied against the matte colour, and lossy
+     * coding errors in it would be amplified where the mask is faint, so
+     * such images keep the composited {@link Codec#TRANSPARENT} path.
+     */
+    private static PDImageXObject separableSoftMask(PDImageXObject image) throws IOException {
+        PDImageXObject softMask = image.getSoftMask();
+        if (softMask == null || softMask.getCOSObject().getItem(COSName.MATTE) != null) {
+            return null;
         }
+        return softMask;
+    }
 
-        return new Planned(original, gate.originalLength(), codec, decoded, gate.targetW(), gate.targetH(),
-                gate.downsample());
+    /**
+     * Whether {@code image} is a CMYK JPEG that {@link Codec#CMYK_JPEG} may
+     * re-encode without leaving CMYK: a plain DCTDecode stream {@link
+     * CmykColorConverter#isConvertible} accepts, without masks. Other CMYK
+     * images go through the RGB paths, where line art is told apart from
+     * photographs.
+     */
+    private boolean isNativeCmyk(PDImageXObject image) throws IOException {
+        COSStream stream = image.getCOSObject();
+        return properties.isCmykJpeg()
+                && List.of(COSName.DCT_DECODE).equals(image.getStream().getFilters())
+                && stream.getItem(COSName.MASK) == null && stream.getItem(COSName.SMASK) == null
+                && CmykColorConverter.isConvertible(image);
+    }
+
+    /**
+     * The image's DCT coefficients when it can be rewritten in the DCT domain
+     * instead of decoded, otherwise {@code null}: a plain 8-bit DCTDecode
+     * stream in a gray, RGB-family or CMYK colour space, with no masks or
+     * {@code /ColorTransform} override, whose JPEG coding {@link
+     * JpegCoefficientReader} supports. A decode array is fine: the samples
+     * do not change, and {@link #attach} carries it over. Anything the coefficient reader
+     * rejects simply falls back to the pixel path.
+     */
+    private JpegCoefficients readCoefficients(PDImageXObject source) throws IOException {
+        COSStream stream = source.getCOSObject();
+        if (!List.of(COSName.DCT_DECODE).equals(source.getStream().getFilters())
+                || stream.getItem(COSName.DECODE_PARMS) != null || stream.getItem(COSName.DP) != null
+                || stream.getItem(COSName.MASK) != null || stream.getItem(COSName.SMASK) != null
+                || source.getBitsPerComponent() != 8) {
+            return null;
+        }
+        int components = source.getColorSpace().getNumberOfComponents();
+        if (components == 2) {
+            return null;
+        }
+        byte[] jpeg;
+        try (InputStream in = stream.createRawInputStream()) {
+            jpeg = in.readAllBytes();
+        }
+        if (!JpegCoefficientReader.isSupported(jpeg)) {
+            return null;
+        }
+        JpegCoefficients coefficients;
+        try {
+            coefficients = JpegCoefficientReader.read(jpeg);
+        } catch (IOException e) {
+            return null;
+        }
+        if (coefficients.components().size() != components
+                || coefficients.width() != source.getWidth() || coefficients.height() != source.getHeight()) {
+            return null;
+        }
+        return coefficients;
     }
 
     // ------------------------------------------------------------------
     // Phase B, pure CPU resize/encode, no PDDocument access
     // ------------------------------------------------------------------
 
+    /**
+     * Encodes {@code p}. A cropped image is cut out of its decoded raster
+     * first and always counts as downsampled, since it loses pixels either
+     * way; its result carries where the crop sits in the original's unit
+     * square. An uncropped opaque image is also fingerprinted here, for
+     * {@link PixelDeduplication}.
+     */
     Transformed transform(Planned p) throws IOException {
+        if (p.crop() == null) {
+            return encode(p).withPixels(fingerprint(p));
+        }
+        Rectangle crop = p.crop();
+        BufferedImage decoded = p.decoded();
+        Transformed cropped = encode(new Planned(p.original(), p.originalLength(), p.codec(), crop(decoded, crop),
+                p.targetW(), p.targetH(), p.downsample(), p.coefficients(), p.mask()));
+        Rectangle2D placement = new Rectangle2D.Double((double) crop.x / decoded.getWidth(),
+                1.0 - (double) (crop.y + crop.height) / decoded.getHeight(),
+                (double) crop.width / decoded.getWidth(), (double) crop.height / decoded.getHeight());
+        return new Transformed(cropped.codec(), cropped.encoded(), true, placement, null);
+    }
+
+    /**
+     * The decoded pixels' fingerprint under the configured {@link
+     * PixelDeduplication} mode, for the opaque pixel paths only: masked
+     * images would have to match on their masks too, and the DCT-domain
+     * paths never decode pixels. {@code null} when not taken.
+     */
+    private PixelFingerprint fingerprint(Planned p) {
+        if (!properties.isDeduplicateImages() || p.decoded() == null
+                || (p.codec() != Codec.BITONAL && p.codec() != Codec.GRAYSCALE && p.codec() != Codec.COLOR)) {
+            return null;
+        }
+        return switch (properties.getPixelDeduplication()) {
+            case OFF -> null;
+            case EXACT -> PixelFingerprint.exact(p.decoded());
+            case PERCEPTUAL -> PixelFingerprint.perceptual(p.decoded());
+        };
+    }
+
+    private Transformed encode(Planned p) throws IOException {
         return switch (p.codec()) {
             case BITONAL -> {
-                BufferedImage grayScaled = resize(p.decoded(), p.targetW(), p.targetH(), BufferedImage.TYPE_BYTE_GRAY);
-                BufferedImage rethresholded = threshold(grayScaled);
-                yield Transformed.image(Codec.BITONAL, rethresholded, p.downsample());
+                BufferedImage bits;
+                if (properties.isPackedBitonal() && PackedBitonal.isPacked(p.decoded())) {
+                    bits = p.decoded().getWidth() == p.targetW() && p.decoded().getHeight() == p.targetH()
+                            ? p.decoded()
+                            : PackedBitonal.downsample(p.decoded(), p.targetW(), p.targetH(), stripes);
+                } else {
+                    bits = threshold(resize(p.decoded(), p.targetW(), p.targetH(), BufferedImage.TYPE_BYTE_GRAY));
+                }
+                yield new Transformed(Codec.BITONAL, PackedBitonal.encodeG4(bits), p.downsample());
+            }
+            case SOFT_MASKED -> {
+                EncodedImage color = isGrayscale(p.decoded())
+                        ? encode(withCodec(p, Codec.GRAYSCALE)).encoded()
+                        : encode(withCodec(p, Codec.COLOR)).encoded();
+                yield new Transformed(Codec.SOFT_MASKED, color.withSoftMask(encodeSoftMask(p)), p.downsample());
             }
             case TRANSPARENT -> {
                 // PDImage#getImage() composites the soft mask into the alpha channel for us.
                 BufferedImage argb = p.downsample()
                         ? resize(p.decoded(), p.targetW(), p.targetH(), BufferedImage.TYPE_INT_ARGB)
                         : toType(p.decoded(), BufferedImage.TYPE_INT_ARGB);
-                yield Transformed.image(Codec.TRANSPARENT, argb, p.downsample());
+                yield new Transformed(Codec.TRANSPARENT, FlateImageEncoder.encode(argb, properties.getPngBruteForcePixels()), p.downsample());
             }
             case GRAYSCALE -> {
                 BufferedImage gray = p.downsample()
                         ? resize(p.decoded(), p.targetW(), p.targetH(), BufferedImage.TYPE_BYTE_GRAY)
                         : toType(p.decoded(), BufferedImage.TYPE_BYTE_GRAY);
-                if (ENCODE_GRAYSCALE_OFF_DOCUMENT) {
-                    yield Transformed.jpeg(Codec.GRAYSCALE, encodeJpegBytes(gray, properties.getJpegQuality()),
-                            p.downsample());
-                }
-                yield Transformed.image(Codec.GRAYSCALE, gray, p.downsample());
+                yield new Transformed(Codec.GRAYSCALE, encodeJpeg(gray, PDDeviceGray.INSTANCE), p.downsample());
             }
             case COLOR -> {
-                BufferedImage rgb = p.downsample()
+                int[] palette = properties.isPaletteImages()
+                        ? PaletteImageEncoder.palette(p.decoded(), PaletteImageEncoder.MAX_COLORS)
+                        : null;
+                BufferedImage resized = p.downsample()
                         ? resize(p.decoded(), p.targetW(), p.targetH(), BufferedImage.TYPE_INT_RGB)
-                        : toType(p.decoded(), BufferedImage.TYPE_INT_RGB);
+                        : null;
+                if (palette != null && resized != null) {
+                    // The resize blends edges into new colours: keep them while they still fit a palette,
+                    // rather than snapping them back onto the source colours and aliasing the edges.
+                    palette = PaletteImageEncoder.palette(resized, PaletteImageEncoder.MAX_COLORS);
+                }
+                if (palette != null) {
+                    // Indexed / low-colour content: stays a palette image, read straight from the decoded
+                    // raster unless it is resized first.
+                    BufferedImage source = resized != null ? resized : p.decoded();
+                    yield new Transformed(Codec.COLOR, PaletteImageEncoder.encode(source, palette), p.downsample());
+                }
+                BufferedImage rgb = resized != null ? resized : toType(p.decoded(), BufferedImage.TYPE_INT_RGB);
                 if (isPhotographic(rgb)) {
-                    yield Transformed.jpeg(Codec.COLOR, encodeJpegBytes(rgb, properties.getJpegQuality()),
-                            p.downsample());
+                    yield new Transformed(Codec.COLOR, encodeJpeg(rgb, PDDeviceRGB.INSTANCE), p.downsample());
                 }
-                // Indexed / low-colour / line-art content: avoid JPEG ringing artefacts.
-                yield Transformed.image(Codec.COLOR, rgb, p.downsample());
+                // Line-art content: avoid JPEG ringing artefacts.
+                yield new Transformed(Codec.COLOR, FlateImageEncoder.encode(rgb, properties.getPngBruteForcePixels()), p.downsample());
+            }
+            case CMYK_JPEG -> {
+                Raster raw = p.downsample()
+                        ? resizeBands(p.decoded().getRaster(), p.targetW(), p.targetH())
+                        : p.decoded().getRaster();
+                JpegCoefficients coefficients = JpegPixelEncoder.transformCmyk(raw, properties.getJpegQuality(),
+                        jpegRows);
+                byte[] jpeg = properties.getJpegEncoder() == JpegEncoder.PROGRESSIVE
+                        ? JpegCoefficientWriter.writeProgressive(coefficients)
+                        : JpegCoefficientWriter.write(coefficients, jpegRows);
+                // Same components as the original, so attach reuses its colour space (ICC profile included).
+                yield new Transformed(Codec.CMYK_JPEG, new EncodedImage(jpeg, COSName.DCT_DECODE, null,
+                        raw.getWidth(), raw.getHeight(), 8, null, null), p.downsample());
+            }
+            case JPEG_REQUANTIZE, JPEG_LOSSLESS -> {
+                JpegCoefficients coefficients = p.codec() == Codec.JPEG_REQUANTIZE
+                        ? JpegRequantizer.requantize(p.coefficients(), properties.getJpegQuality())
+                        : p.coefficients();
+                byte[] jpeg = JpegCoefficientWriter.writeSmallest(coefficients.withDecodingMarkersOnly());
+                // Colour space left null: attach reuses the original's, which it can only read on the
+                // document thread.
+                yield new Transformed(p.codec(), new EncodedImage(jpeg, COSName.DCT_DECODE, null,
+                        coefficients.width(), coefficients.height(), 8, null, null), false);
             }
         };
     }
 
+    /**
+     * A copy of {@code region} of {@code image} in a raster of its own, with
+     * the same colour model, so the fast paths that read a whole data buffer
+     * still apply.
+     */
+    private static BufferedImage crop(BufferedImage image, Rectangle region) {
+        WritableRaster raster = image.getRaster().createCompatibleWritableRaster(region.width, region.height);
+        raster.setRect(-region.x, -region.y, image.getRaster());
+        return new BufferedImage(image.getColorModel(), raster, image.isAlphaPremultiplied(), null);
+    }
+
+    private static Planned withCodec(Planned p, Codec codec) {
+        return new Planned(p.original(), p.originalLength(), codec, p.decoded(), p.targetW(), p.targetH(),
+                p.downsample(), null, null);
+    }
+
+    /**
+     * The soft mask of a {@link Codec#SOFT_MASKED} image, shrunk by the same
+     * factor as its colour data and Flate-encoded, or {@code null} when the
+     * image is not downsampled: {@link #attach} then points the replacement
+     * at the original {@code /SMask} stream rather than re-encoding it
+     * losslessly for nothing.
+     */
+    private EncodedImage encodeSoftMask(Planned p) throws IOException {
+        if (!p.downsample()) {
+            return null;
+        }
+        // The mask may have been decoded subsampled along with the colour data, or have its own size.
+        BufferedImage mask = p.mask();
+        int maskW = Math.min(mask.getWidth(),
+                Math.max(1, (int) Math.round((double) mask.getWidth() * p.targetW() / p.decoded().getWidth())));
+        int maskH = Math.min(mask.getHeight(),
+                Math.max(1, (int) Math.round((double) mask.getHeight() * p.targetH() / p.decoded().getHeight())));
+        return FlateImageEncoder.encodeGray(resize(mask, maskW, maskH, BufferedImage.TYPE_BYTE_GRAY),
+                properties.getPngBruteForcePixels());
+    }
+
     // ------------------------------------------------------------------
     // Phase C, attach to the document (document thread, original discovery order)
     // ------------------------------------------------------------------
 
     Outcome attach(PDDocument doc, Planned planned, Transformed transformed) throws IOException {
-        PDImageXObject candidate = switch (transformed.codec()) {
-            case BITONAL -> CCITTFactory.createFromImage(doc, transformed.bufferedImage());
-            case TRANSPARENT -> LosslessFactory.createFromImage(doc, transformed.bufferedImage());
-            case GRAYSCALE -> transformed.jpegBytes() != null
-                    ? JPEGFactory.createFromStream(doc, new ByteArrayInputStream(transformed.jpegBytes()))
-                    : JPEGFactory.createFromImage(doc, transformed.bufferedImage(), properties.getJpegQuality());
-            case COLOR -> transformed.jpegBytes() != null
-                    ? JPEGFactory.createFromStream(doc, new ByteArrayInputStream(transformed.jpegBytes()))
-                    : LosslessFactory.createFromImage(doc, transformed.bufferedImage());
-        };
+        EncodedImage encoded = transformed.encoded();
+        boolean sameSamples = encoded.colorSpace() == null;
+        if (sameSamples) {
+            // Requantized, losslessly rewritten or native CMYK JPEG: same components and colour space
+            // (ICC profile included) as the original, so its colour space is reused as-is.
+            encoded = encoded.withColorSpace(planned.original().getColorSpace());
+        }
+        PDImageXObject candidate = encoded.toXObject(doc);
+        if (sameSamples) {
+            // An inverted-CMYK /Decode applies to the rewritten samples exactly as to the original's.
+            candidate.getCOSObject().setItem(COSName.DECODE,
+                    planned.original().getCOSObject().getItem(COSName.DECODE));
+        }
+        long candidateLength = encodedLength(candidate);
+        long originalLength = planned.originalLength();
+        if (transformed.codec() == Codec.SOFT_MASKED) {
+            if (encoded.softMask() == null) {
+                // Mask kept at its size: share the original /SMask stream instead of writing a copy.
+                candidate.getCOSObject().setItem(COSName.SMASK,
+                        planned.original().getCOSObject().getItem(COSName.SMASK));
+            } else {
+                // The mask was re-encoded too, so it counts on both sides of the size guard.
+                candidateLength += encodedLength(candidate.getSoftMask());
+                originalLength += encodedLength(planned.original().getSoftMask());
+            }
+        }
 
-        return applySizeGuard(candidate, planned.originalLength(), transformed.downsampled());
+        Outcome outcome = applySizeGuard(candidate, candidateLength, originalLength, transformed.downsampled(),
+                transformed.codec() == Codec.JPEG_LOSSLESS);
+        if (audits.remove(planned.original())) {
+            predictor.recordAudit(outcome.replacement() != null);
+        }
+        if (outcome.replacement() != null && transformed.placement() != null) {
+            outcome = outcome.placedBy(placeCrop(doc, outcome.replacement(), transformed.placement()));
+        }
+        return outcome.withPixels(transformed.pixels());
     }
 
-    private Outcome applySizeGuard(PDImageXObject candidate, long originalLength, boolean downsampled)
+    /**
+     * A form XObject that draws {@code cropped} over {@code placement} of the
+     * unit square, clipped to it. Put in the resources in place of the
+     * original image, it is painted by the same {@code Do} under the same
+     * CTM, so the visible part lands exactly where it was without any
+     * content stream being rewritten.
+     */
+    private static PDFormXObject placeCrop(PDDocument doc, PDImageXObject cropped, Rectangle2D placement)
             throws IOException {
-        long candidateLength = encodedLength(candidate);
+        PDFormXObject form = new PDFormXObject(doc);
+        form.setBBox(new PDRectangle((float) placement.getX(), (float) placement.getY(),
+                (float) placement.getWidth(), (float) placement.getHeight()));
+        PDResources resources = new PDResources();
+        COSName name = resources.add(cropped);
+        form.setResources(resources);
+        String content = String.format(Locale.ROOT, "q %.6f 0 0 %.6f %.6f %.6f cm /%s Do Q",
+                placement.getWidth(), placement.getHeight(), placement.getX(), placement.getY(), name.getName());
+        try (OutputStream out = form.getContentStream().createOutputStream()) {
+            out.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return form;
+    }
+
+    /**
+     * Keeps {@code candidate} if it saves enough: the minimum reduction ratio
+     * weighs a saving against the quality a re-encode gives up, so a lossless
+     * candidate only has to be smaller.
+     */
+    private Outcome applySizeGuard(PDImageXObject candidate, long candidateLength, long originalLength,
+                                   boolean downsampled, boolean lossless) {
         boolean meetsRatio = candidateLength <= originalLength * (1.0 - properties.getMinReductionRatio());
         boolean accept;
         if (meetsRatio) {
             accept = true;
-        } else if (properties.getLargerResultPolicy() == LargerResultPolicy.USE_SMALLEST) {
+        } else if (lossless || properties.getLargerResultPolicy() == LargerResultPolicy.USE_SMALLEST) {
             accept = candidateLength < originalLength;
         } else {
             accept = false;
@@ -328,9 +989,12 @@ final class ImageOptimizer {
      * When {@code usagePoints} is {@code null} (the image was never observed
      * being drawn, e.g. annotation-only), only the {@code maxImageDimension}
      * cap applies - and when that cap is {@code 0} (the default, no cap) such
-     * an image is left at full resolution.
+     * an image is left at full resolution. The DPI follows from the whole
+     * image ({@code origW x origH}) and its rendered size; the cap applies to
+     * the {@code keptW x keptH} pixels that are actually written, which are
+     * fewer when the image is cropped.
      */
-    private double computeScale(int origW, int origH, float[] usagePoints) {
+    private double computeScale(int origW, int origH, int keptW, int keptH, float[] usagePoints) {
         double scale = 1.0;
         if (usagePoints != null && usagePoints[0] > 0f && usagePoints[1] > 0f) {
             double targetDpi = properties.getTargetDpi();
@@ -340,7 +1004,7 @@ final class ImageOptimizer {
         }
         int cap = properties.getMaxImageDimension();
         if (cap > 0) {
-            double maxDimScale = Math.min((double) cap / origW, (double) cap / origH);
+            double maxDimScale = Math.min((double) cap / keptW, (double) cap / keptH);
             scale = Math.min(scale, maxDimScale);
         }
         return Math.min(scale, 1.0);
@@ -354,7 +1018,9 @@ final class ImageOptimizer {
         if (image.getSoftMask() != null) {
             return true;
         }
-        return decoded.getColorModel().hasAlpha();
+        // An alpha channel alone is not enough: decoders hand back ARGB for plenty of
+        // opaque images, which would otherwise be kept lossless for no reason.
+        return PixelKernels.hasTranslucentPixel(decoded);
     }
 
     private boolean isGrayscale(BufferedImage decoded) {
@@ -367,20 +1033,7 @@ final class ImageOptimizer {
 
     /** Heuristic: many distinct sampled colours -> photographic content, better suited to JPEG. */
     private boolean isPhotographic(BufferedImage rgb) {
-        int w = rgb.getWidth();
-        int h = rgb.getHeight();
-        long totalPixels = (long) w * h;
-        int step = (int) Math.max(1, Math.sqrt((double) totalPixels / MAX_DISTINCT_COLOR_SAMPLES));
-        Set<Integer> colors = new HashSet<>();
-        for (int y = 0; y < h; y += step) {
-            for (int x = 0; x < w; x += step) {
-                colors.add(rgb.getRGB(x, y) & 0xFFFFFF);
-                if (colors.size() > PHOTOGRAPHIC_COLOR_THRESHOLD) {
-                    return true;
-                }
-            }
-        }
-        return colors.size() > PHOTOGRAPHIC_COLOR_THRESHOLD;
+        return PixelKernels.hasMoreDistinctColorsThan(rgb, PHOTOGRAPHIC_COLOR_THRESHOLD, MAX_DISTINCT_COLOR_SAMPLES);
     }
 
     // ------------------------------------------------------------------
@@ -388,35 +1041,18 @@ final class ImageOptimizer {
     // ------------------------------------------------------------------
 
     /**
-     * Encodes {@code image} to JPEG bytes via a freshly-obtained {@link
-     * ImageWriter} instance (thread-safe to call concurrently from multiple
-     * pool threads, {@link ImageIO#getImageWritersByFormatName} hands back a
-     * new writer per call, never a shared one) so Phase B can run this on the
-     * shared executor without touching the {@link PDDocument} at all; the
-     * bytes are attached via {@link JPEGFactory#createFromStream} back on the
-     * document thread in Phase C.
+     * {@code image} as JPEG at the configured quality through the configured
+     * {@link JpegEncoder}, as a {@code DCTDecode} image in {@code colorSpace}.
      */
-    private static byte[] encodeJpegBytes(BufferedImage image, float quality) throws IOException {
-        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
-        try {
-            ImageWriteParam param = writer.getDefaultWriteParam();
-            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            param.setCompressionQuality(quality);
-            // Progressive JPEG: same pixels and quality, but a smaller file (the scans entropy-code
-            // more efficiently). Universally supported by PDF viewers. Only enabled when the writer
-            // supports it, so this never fails on an exotic ImageIO plugin.
-            if (param.canWriteProgressive()) {
-                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
-            }
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
-                writer.setOutput(ios);
-                writer.write(null, new IIOImage(image, null, null), param);
-            }
-            return out.toByteArray();
-        } finally {
-            writer.dispose();
-        }
+    private EncodedImage encodeJpeg(BufferedImage image, PDColorSpace colorSpace) throws IOException {
+        float quality = properties.getJpegQuality();
+        byte[] jpeg = switch (properties.getJpegEncoder()) {
+            case IMAGEIO -> PooledJpegWriter.encode(image, quality);
+            case BASELINE -> JpegPixelEncoder.encode(image, quality, false, jpegRows);
+            case PROGRESSIVE -> JpegPixelEncoder.encode(image, quality, true, jpegRows);
+        };
+        return new EncodedImage(jpeg, COSName.DCT_DECODE, null, image.getWidth(), image.getHeight(), 8,
+                colorSpace, null);
     }
 
     // ------------------------------------------------------------------
@@ -427,6 +1063,10 @@ final class ImageOptimizer {
         if (src.getType() == imageType) {
             return src;
         }
+        BufferedImage fast = PixelKernels.convert(src, imageType);
+        if (fast != null) {
+            return fast;
+        }
         BufferedImage converted = new BufferedImage(src.getWidth(), src.getHeight(), imageType);
         Graphics2D g = converted.createGraphics();
         try {
@@ -437,11 +1077,22 @@ final class ImageOptimizer {
         return converted;
     }
 
-    /** High-quality downsample; uses progressive halving for large ratios to keep bicubic resampling stable. */
+    /**
+     * High-quality downsample. With {@link Resampler#JAVA2D} uses progressive
+     * halving for large ratios to keep bicubic resampling stable; any other
+     * {@link PdfCompressionProperties#getResampler()} runs {@link
+     * SeparableResampler} in a single pass, unless the resize is too extreme
+     * for its buffers ({@link SeparableResampler#fits}), which falls back to
+     * the Java2D path.
+     */
     private BufferedImage resize(BufferedImage src, int targetW, int targetH, int imageType) {
         if (src.getWidth() == targetW && src.getHeight() == targetH) {
             return toType(src, imageType);
         }
+        if (properties.getResampler() != Resampler.JAVA2D
+                && SeparableResampler.fits(src.getHeight(), targetW, targetH, imageType, properties.getResampler())) {
+            return SeparableResampler.resample(src, targetW, targetH, imageType, properties.getResampler(), stripes);
+        }
         BufferedImage current = src;
         int curW = src.getWidth();
         int curH = src.getHeight();
@@ -455,6 +1106,30 @@ final class ImageOptimizer {
         return scaleStep(current, targetW, targetH, imageType);
     }
 
+    /**
+     * {@link #resize} for a raster of four 8-bit bands that has no RGB
+     * meaning (raw CMYK samples): each band is resized as a gray plane.
+     */
+    private Raster resizeBands(Raster src, int targetW, int targetH) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        WritableRaster out = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, targetW, targetH, 4, null);
+        int[] samples = new int[Math.max(w, targetW)];
+        for (int band = 0; band < 4; band++) {
+            BufferedImage plane = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+            for (int y = 0; y < h; y++) {
+                src.getSamples(src.getMinX(), src.getMinY() + y, w, 1, band, samples);
+                plane.getRaster().setSamples(0, y, w, 1, 0, samples);
+            }
+            Raster resized = resize(plane, targetW, targetH, BufferedImage.TYPE_BYTE_GRAY).getRaster();
+            for (int y = 0; y < targetH; y++) {
+                resized.getSamples(0, y, targetW, 1, 0, samples);
+                out.setSamples(0, y, targetW, 1, band, samples);
+            }
+        }
+        return out;
+    }
+
     private BufferedImage scaleStep(BufferedImage src, int w, int h, int imageType) {
         BufferedImage out = new BufferedImage(w, h, imageType);
         Graphics2D g = out.createGraphics();
@@ -470,16 +1145,7 @@ final class ImageOptimizer {
     }
 
     private BufferedImage threshold(BufferedImage gray) {
-        int w = gray.getWidth();
-        int h = gray.getHeight();
-        BufferedImage bin = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY);
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int v = gray.getRGB(x, y) & 0xFF;
-                bin.setRGB(x, y, v < 128 ? 0x000000 : 0xFFFFFF);
-            }
-        }
-        return bin;
+        return PixelKernels.threshold(gray);
     }
 
     // ------------------------------------------------------------------
@@ -1,13 +1,22 @@
 package com.github.fkitsantas.pdfcompressionservice.compression;
 
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.pdfbox.contentstream.PDFGraphicsStreamEngine;
 import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.apache.pdfbox.util.Matrix;
@@ -16,21 +25,88 @@ import org.apache.pdfbox.util.Matrix;
  * Walks a page's content stream, including any nested Form XObjects, which
  * {@link org.apache.pdfbox.contentstream.PDFStreamEngine} recurses into
  * automatically whenever it encounters a {@code Do} operator invoking a
- * form, to record, for every distinct image XObject actually drawn, the
- * maximum size (in PDF points) it is ever rendered at across the page.
+ * form, to record, for every distinct image XObject actually drawn, its
+ * {@link Usage}: the maximum size (in PDF points) it is ever rendered at
+ * across the page, and which part of it the clipping path ever lets show.
  *
- * <p>This is read-only analysis: no content stream is modified. The
- * geometry-related abstract methods of {@link PDFGraphicsStreamEngine} are
- * implemented as no-ops (mirroring PDFBox's own {@code PrintImageLocations}
- * example) since only image placement matters here.
+ * <p>This is read-only analysis: no content stream is modified. Paths are
+ * only built to intersect clipping paths ({@code W n}, and clips that are
+ * also painted); painting operators otherwise do nothing, as in PDFBox's own
+ * {@code PrintImageLocations} example, since only image placement matters
+ * here. Text clipping modes are not followed, which can only leave more of
+ * an image counted as visible, never less.
  */
 final class ImageUsageAnalyzer extends PDFGraphicsStreamEngine {
 
-    private final Map<COSBase, float[]> maxRenderedPoints;
+    /**
+     * How one image XObject is drawn across every page analysed so far.
+     * {@link #visible()} is in the image's unit square (origin at its
+     * bottom-left corner, as placed by the CTM), unioned across every
+     * drawing; it is {@code null} until a drawing with a non-empty visible
+     * part has been seen.
+     */
+    static final class Usage {
+
+        private float widthPt;
+        private float heightPt;
+        private Rectangle2D visible;
+        private final Set<COSBase> drawnFrom = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /** Largest rendered {width, height} in PDF points, as the gate reads it. */
+        float[] points() {
+            return new float[]{widthPt, heightPt};
+        }
+
+        Rectangle2D visible() {
+            return visible;
+        }
+
+        /**
+         * Whether a drawing of the image was observed through {@code
+         * resources}, i.e. while they were the current resources of a page
+         * or form content stream.
+         */
+        boolean drawnFrom(PDResources resources) {
+            return drawnFrom.contains(resources.getCOSObject());
+        }
+
+        /**
+         * The usage of an image drawn wherever this one or {@code other} is,
+         * for byte-identical copies processed as one: the larger rendered
+         * size, the union of the visible regions and of the resources drawn
+         * from. {@code other} may be {@code null}.
+         */
+        Usage mergedWith(Usage other) {
+            Usage merged = new Usage();
+            merged.widthPt = widthPt;
+            merged.heightPt = heightPt;
+            merged.visible = visible;
+            merged.drawnFrom.addAll(drawnFrom);
+            if (other != null) {
+                merged.widthPt = Math.max(merged.widthPt, other.widthPt);
+                merged.heightPt = Math.max(merged.heightPt, other.heightPt);
+                if (other.visible != null) {
+                    merged.visible = merged.visible == null ? other.visible : merged.visible.createUnion(other.visible);
+                }
+                merged.drawnFrom.addAll(other.drawnFrom);
+            }
+            return merged;
+        }
+    }
 
-    ImageUsageAnalyzer(PDPage page, Map<COSBase, float[]> maxRenderedPoints) {
+    private static final Rectangle2D UNIT_SQUARE = new Rectangle2D.Double(0, 0, 1, 1);
+
+    private final Map<COSBase, Usage> usage;
+
+    /** Path under construction, in device (default user) space, as every point reaches this engine. */
+    private final GeneralPath path = new GeneralPath();
+
+    /** Winding rule of a pending {@code W}/{@code W*}, applied when the path is ended; {@code -1} when none. */
+    private int pendingClipRule = -1;
+
+    ImageUsageAnalyzer(PDPage page, Map<COSBase, Usage> usage) {
         super(page);
-        this.maxRenderedPoints = maxRenderedPoints;
+        this.usage = usage;
     }
 
     @Override
@@ -43,74 +119,111 @@ final class ImageUsageAnalyzer extends PDFGraphicsStreamEngine {
         float wPt = (float) Math.hypot(ctm.getScaleX(), ctm.getShearY());
         float hPt = (float) Math.hypot(ctm.getShearX(), ctm.getScaleY());
 
-        COSBase key = image.getCOSObject();
-        float[] existing = maxRenderedPoints.get(key);
-        if (existing == null) {
-            maxRenderedPoints.put(key, new float[]{wPt, hPt});
-        } else {
-            existing[0] = Math.max(existing[0], wPt);
-            existing[1] = Math.max(existing[1], hPt);
+        Usage entry = usage.computeIfAbsent(image.getCOSObject(), k -> new Usage());
+        entry.widthPt = Math.max(entry.widthPt, wPt);
+        entry.heightPt = Math.max(entry.heightPt, hPt);
+        PDResources resources = getResources();
+        if (resources != null) {
+            entry.drawnFrom.add(resources.getCOSObject());
+        }
+        Rectangle2D visible = visibleUnitBounds(ctm);
+        if (visible != null) {
+            entry.visible = entry.visible == null ? visible : entry.visible.createUnion(visible);
         }
     }
 
+    /**
+     * Bounding box, in the image's unit square, of the current clipping path
+     * mapped back through the CTM. A CTM that cannot be inverted (a
+     * degenerate placement) counts as showing the whole image; {@code null}
+     * when nothing of the image is visible.
+     */
+    private Rectangle2D visibleUnitBounds(Matrix ctm) {
+        AffineTransform inverse;
+        try {
+            inverse = ctm.createAffineTransform().createInverse();
+        } catch (NoninvertibleTransformException e) {
+            return UNIT_SQUARE;
+        }
+        Area clip = getGraphicsState().getCurrentClippingPath();
+        Rectangle2D bounds = clip.createTransformedArea(inverse).getBounds2D();
+        Rectangle2D visible = bounds.createIntersection(UNIT_SQUARE);
+        return visible.isEmpty() ? null : visible;
+    }
+
+    private void endPathAndClip() {
+        if (pendingClipRule >= 0) {
+            GeneralPath clip = new GeneralPath(pendingClipRule);
+            clip.append(path, false);
+            getGraphicsState().intersectClippingPath(clip);
+            pendingClipRule = -1;
+        }
+        path.reset();
+    }
+
     // ------------------------------------------------------------------
-    // Geometry no-ops: this engine only tracks image placements, it never
-    // renders or paints anything.
+    // Geometry: paths are kept only for clipping, this engine never renders
+    // or paints anything.
     // ------------------------------------------------------------------
 
     @Override
     public void appendRectangle(Point2D p0, Point2D p1, Point2D p2, Point2D p3) {
-        // no-op
+        path.moveTo((float) p0.getX(), (float) p0.getY());
+        path.lineTo((float) p1.getX(), (float) p1.getY());
+        path.lineTo((float) p2.getX(), (float) p2.getY());
+        path.lineTo((float) p3.getX(), (float) p3.getY());
+        path.closePath();
     }
 
     @Override
     public void clip(int windingRule) {
-        // no-op
+        pendingClipRule = windingRule;
     }
 
     @Override
     public void moveTo(float x, float y) {
-        // no-op
+        path.moveTo(x, y);
     }
 
     @Override
     public void lineTo(float x, float y) {
-        // no-op
+        path.lineTo(x, y);
     }
 
     @Override
     public void curveTo(float x1, float y1, float x2, float y2, float x3, float y3) {
-        // no-op
+        path.curveTo(x1, y1, x2, y2, x3, y3);
     }
 
     @Override
     public Point2D getCurrentPoint() {
-        return new Point2D.Float(0, 0);
+        Point2D current = path.getCurrentPoint();
+        return current != null ? current : new Point2D.Float(0, 0);
     }
 
     @Override
     public void closePath() {
-        // no-op
+        path.closePath();
     }
 
     @Override
     public void endPath() {
-        // no-op
+        endPathAndClip();
     }
 
     @Override
     public void strokePath() {
-        // no-op
+        endPathAndClip();
     }
 
     @Override
     public void fillPath(int windingRule) {
-        // no-op
+        endPathAndClip();
     }
 
     @Override
     public void fillAndStrokePath(int windingRule) {
-        // no-op
+        endPathAndClip();
     }
 
     @Override
@@ -0,0 +1,24 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+/**
+ * Selects how {@link ImageOptimizer} encodes pixels to JPEG. {@link
+ * #IMAGEIO} is the original JDK writer; the others use the built-in {@link
+ * com.github.fkitsantas.pdfcompressionservice.jpeg.JpegPixelEncoder}, which
+ * reads the raster directly, always optimizes its Huffman tables and splits
+ * large images across the image pool.
+ */
+public enum JpegEncoder {
+
+    /** The JDK's {@code ImageIO} writer, progressive where the plugin supports it. */
+    IMAGEIO,
+
+    /** Built-in sequential encoder; large images are coded as restart intervals in parallel. */
+    BASELINE,
+
+    /**
+     * Built-in progressive encoder (spectral selection only): smaller than
+     * {@link #BASELINE}, its DCT still runs in parallel but entropy coding
+     * is single-threaded.
+     */
+    PROGRESSIVE
+}
@@ -0,0 +1,215 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.filter.FilterFactory;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+/**
+ * The bitonal path kept at one bit per pixel end to end. A 1-bpc gray
+ * image's filtered-out sample data already is a {@code TYPE_BYTE_BINARY}
+ * raster (rows MSB-first, padded to a byte, 0 = black under the default
+ * decode array), so {@link #read} streams it straight into one, and
+ * {@link #downsample} reduces it by counting set bits per source box
+ * instead of expanding to 8-bit gray, resampling and re-thresholding, and
+ * {@link #encodeG4} hands the packed rows straight to the CCITT encoder.
+ *
+ * <p>A 600 dpi A4 page is ~4 MB packed versus ~35 MB as gray bytes, and the
+ * box count touches each source byte once.
+ */
+final class PackedBitonal {
+
+    private PackedBitonal() {
+    }
+
+    /**
+     * Whether {@link #read} can take {@code image}'s samples as they are: one
+     * bit per sample, {@code DeviceGray}, a default or inverted decode array
+     * and no masks. Metadata only, decodes nothing.
+     */
+    static boolean isReadable(PDImageXObject image) throws IOException {
+        COSStream stream = image.getCOSObject();
+        return image.getBitsPerComponent() == 1
+                && !image.isStencil()
+                && stream.getItem(COSName.MASK) == null && stream.getItem(COSName.SMASK) == null
+                && image.getColorSpace() instanceof PDDeviceGray
+                && decodeInversion(image.getDecode()) != null;
+    }
+
+    /**
+     * {@code image}'s samples as a {@code TYPE_BYTE_BINARY} image, read
+     * directly into its raster, or {@code null} if {@link #isReadable} says
+     * no or the stream holds fewer rows than declared (the caller then takes
+     * the regular decode, which has its own rules for short data).
+     */
+    static BufferedImage read(PDImageXObject image) throws IOException {
+        if (!isReadable(image)) {
+            return null;
+        }
+        BufferedImage bits = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+        byte[] data = ((DataBufferByte) bits.getRaster().getDataBuffer()).getData();
+        try (InputStream in = image.createInputStream()) {
+            if (in.readNBytes(data, 0, data.length) < data.length) {
+                return null;
+            }
+        }
+        if (decodeInversion(image.getDecode())) {
+            // Decode [1 0]: a set bit means black, the opposite of the binary palette.
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) ~data[i];
+            }
+        }
+        return bits;
+    }
+
+    /** Whether {@code image} is an unshared, tightly packed {@code TYPE_BYTE_BINARY} image {@link #downsample} can read. */
+    static boolean isPacked(BufferedImage image) {
+        return image != null && image.getType() == BufferedImage.TYPE_BYTE_BINARY
+                && image.getRaster().getParent() == null
+                && image.getRaster().getDataBuffer().getOffset() == 0
+                && image.getRaster().getSampleModel() instanceof MultiPixelPackedSampleModel model
+                && model.getPixelBitStride() == 1
+                && model.getScanlineStride() == (image.getWidth() + 7) / 8;
+    }
+
+    /**
+     * Shrinks {@code src} (see {@link #isPacked}) to {@code targetW x
+     * targetH}. Each output pixel covers a box of whole source pixels and is
+     * black when more than half of them are black; ties stay white, as a
+     * mid-gray did under the 8-bit threshold. Only ever called for a 2x or
+     * greater reduction, so every box is at least one pixel wide and tall.
+     */
+    static BufferedImage downsample(BufferedImage src, int targetW, int targetH) {
+        return downsample(src, targetW, targetH, Stripes.SERIAL);
+    }
+
+    /** As {@link #downsample(BufferedImage, int, int)}, output rows split across {@code stripes}. */
+    static BufferedImage downsample(BufferedImage src, int targetW, int targetH, Stripes stripes) {
+        int srcW = src.getWidth();
+        int srcH = src.getHeight();
+        byte[] in = ((DataBufferByte) src.getRaster().getDataBuffer()).getData();
+        int inStride = (srcW + 7) / 8;
+
+        BufferedImage out = new BufferedImage(targetW, targetH, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] packed = ((DataBufferByte) out.getRaster().getDataBuffer()).getData();
+        int outStride = (targetW + 7) / 8;
+
+        int[] colStart = boxEdges(srcW, targetW);
+        stripes.forEach(targetH, (long) srcW * srcH, (from, to) -> downsampleRows(in, inStride, srcH, colStart,
+                packed, outStride, targetW, targetH, from, to));
+        return out;
+    }
+
+    private static void downsampleRows(byte[] in, int inStride, int srcH, int[] colStart, byte[] packed,
+                                       int outStride, int targetW, int targetH, int fromRow, int toRow) {
+        int[] white = new int[targetW];
+        int y0 = (int) ((long) fromRow * srcH / targetH);
+        for (int oy = fromRow; oy < toRow; oy++) {
+            int y1 = (int) ((long) (oy + 1) * srcH / targetH);
+            Arrays.fill(white, 0);
+            for (int y = y0; y < y1; y++) {
+                int rowOffset = y * inStride;
+                for (int ox = 0; ox < targetW; ox++) {
+                    white[ox] += countSetBits(in, rowOffset, colStart[ox], colStart[ox + 1]);
+                }
+            }
+            int outOffset = oy * outStride;
+            int rows = y1 - y0;
+            for (int ox = 0; ox < targetW; ox++) {
+                int area = (colStart[ox + 1] - colStart[ox]) * rows;
+                if (2 * white[ox] >= area) {
+                    packed[outOffset + (ox >> 3)] |= (byte) (0x80 >>> (ox & 7));
+                }
+            }
+            y0 = y1;
+        }
+    }
+
+    /**
+     * CCITT Group 4 encoding of a packed image (see {@link #isPacked}), with
+     * the same {@code /DecodeParms} {@code CCITTFactory} writes. The encoder
+     * takes 1 = black, so the rows are inverted on the way in rather than
+     * setting {@code /BlackIs1}, which some viewers ignore.
+     */
+    static EncodedImage encodeG4(BufferedImage bits) throws IOException {
+        int w = bits.getWidth();
+        int h = bits.getHeight();
+        byte[] data = ((DataBufferByte) bits.getRaster().getDataBuffer()).getData();
+        byte[] blackIsOne = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            blackIsOne[i] = (byte) ~data[i];
+        }
+        COSDictionary size = new COSDictionary();
+        size.setInt(COSName.COLUMNS, w);
+        size.setInt(COSName.ROWS, h);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(Math.max(64, data.length / 8));
+        FilterFactory.INSTANCE.getFilter(COSName.CCITTFAX_DECODE)
+                .encode(new ByteArrayInputStream(blackIsOne), encoded, size, 0);
+
+        COSDictionary decodeParms = new COSDictionary();
+        decodeParms.setInt(COSName.COLUMNS, w);
+        decodeParms.setInt(COSName.ROWS, h);
+        decodeParms.setInt(COSName.K, -1);
+        return new EncodedImage(encoded.toByteArray(), COSName.CCITTFAX_DECODE, decodeParms, w, h, 1,
+                PDDeviceGray.INSTANCE, null);
+    }
+
+    /** {@code target + 1} source offsets; box {@code i} spans {@code [edges[i], edges[i + 1])}. */
+    private static int[] boxEdges(int source, int target) {
+        int[] edges = new int[target + 1];
+        for (int i = 0; i <= target; i++) {
+            edges[i] = (int) ((long) i * source / target);
+        }
+        return edges;
+    }
+
+    /** Set bits among pixels {@code [x0, x1)} of the packed row starting at {@code rowOffset}. */
+    private static int countSetBits(byte[] row, int rowOffset, int x0, int x1) {
+        int first = x0 >> 3;
+        int last = (x1 - 1) >> 3;
+        int headMask = 0xFF >>> (x0 & 7);
+        int tailMask = (0xFF << (7 - ((x1 - 1) & 7))) & 0xFF;
+        if (first == last) {
+            return Integer.bitCount(row[rowOffset + first] & headMask & tailMask);
+        }
+        int count = Integer.bitCount(row[rowOffset + first] & headMask);
+        for (int i = first + 1; i < last; i++) {
+            count += Integer.bitCount(row[rowOffset + i] & 0xFF);
+        }
+        return count + Integer.bitCount(row[rowOffset + last] & tailMask);
+    }
+
+    /**
+     * {@code false} for no or the default {@code [0 1]} decode array, {@code
+     * true} for {@code [1 0]}, {@code null} for anything else.
+     */
+    private static Boolean decodeInversion(COSArray decode) {
+        if (decode == null) {
+            return false;
+        }
+        if (decode.size() != 2 || !(decode.getObject(0) instanceof COSNumber d0)
+                || !(decode.getObject(1) instanceof COSNumber d1)) {
+            return null;
+        }
+        if (d0.floatValue() == 0f && d1.floatValue() == 1f) {
+            return false;
+        }
+        if (d0.floatValue() == 1f && d1.floatValue() == 0f) {
+            return true;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.filter.Filter;
+import org.apache.pdfbox.pdmodel.graphics.color.PDIndexed;
+
+/**
+ * Flate encoding of low-colour images as {@code /Indexed} over {@code
+ * DeviceRGB}, for {@code /Indexed} originals and for charts, screenshots and
+ * logos that use few enough colours: one index per pixel at 1, 2, 4 or 8
+ * bits instead of three bytes. Like {@link FlateImageEncoder} it produces
+ * plain bytes, so Phase B can run it on the image pool.
+ *
+ * <p>The palette is taken from the pixels being encoded, after any resize,
+ * so every pixel keeps its exact colour, including the edge blends a
+ * downsample introduces; a resized image whose blends no longer fit in
+ * {@value #MAX_COLORS} colours goes down the RGB path instead. A colour
+ * missing from the palette is snapped to the nearest entry.
+ */
+final class PaletteImageEncoder {
+
+    /** Most colours an {@code /Indexed} colour space can hold. */
+    static final int MAX_COLORS = 256;
+
+    /** Direct-mapped cache of nearest-entry lookups for colours outside the palette. */
+    private static final int NEAREST_CACHE_SIZE = 1 << 12;
+
+    private PaletteImageEncoder() {
+    }
+
+    /**
+     * The distinct RGB colours of {@code image} in scan order, or {@code null}
+     * as soon as there are more than {@code maxColors}; photographic images
+     * give up within the first few rows.
+     */
+    static int[] palette(BufferedImage image, int maxColors) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        ColorIndex index = new ColorIndex(maxColors);
+        int[] colors = new int[maxColors];
+        int size = 0;
+        int[] packed = PixelKernels.packedInts(image);
+        int[] row = packed == null ? new int[w] : null;
+        for (int y = 0; y < h; y++) {
+            int[] source;
+            int offset;
+            if (packed != null) {
+                source = packed;
+                offset = y * w;
+            } else {
+                source = image.getRGB(0, y, w, 1, row, 0, w);
+                offset = 0;
+            }
+            for (int x = 0; x < w; x++) {
+                int rgb = source[offset + x] & 0xFFFFFF;
+                if (index.get(rgb) < 0) {
+                    if (size == maxColors) {
+                        return null;
+                    }
+                    index.put(rgb, size);
+                    colors[size++] = rgb;
+                }
+            }
+        }
+        return Arrays.copyOf(colors, size);
+    }
+
+    /** Encodes {@code image} against {@code palette} (at most {@value #MAX_COLORS} colours). */
+    static EncodedImage encode(BufferedImage image, int[] palette) throws IOException {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int bits = palette.length <= 2 ? 1 : palette.length <= 4 ? 2 : palette.length <= 16 ? 4 : 8;
+        ColorIndex exact = new ColorIndex(palette.length);
+        for (int i = 0; i < palette.length; i++) {
+            exact.put(palette[i], i);
+        }
+        int[] cachedColors = new int[NEAREST_CACHE_SIZE];
+        Arrays.fill(cachedColors, -1);
+        int[] cachedIndices = new int[NEAREST_CACHE_SIZE];
+
+        Deflater deflater = new Deflater(Filter.getCompressionLevel());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater, 64 * 1024)) {
+            int[] packed = PixelKernels.packedInts(image);
+            int[] row = packed == null ? new int[w] : null;
+            byte[] indices = new byte[(w * bits + 7) / 8];
+            for (int y = 0; y < h; y++) {
+                int[] source;
+                int offset;
+                if (packed != null) {
+                    source = packed;
+                    offset = y * w;
+                } else {
+                    source = image.getRGB(0, y, w, 1, row, 0, w);
+                    offset = 0;
+                }
+                Arrays.fill(indices, (byte) 0);
+                for (int x = 0; x < w; x++) {
+                    int rgb = source[offset + x] & 0xFFFFFF;
+                    int index = exact.get(rgb);
+                    if (index < 0) {
+                        int slot = (rgb * 0x9E3779B9) >>> 20;
+                        if (cachedColors[slot] != rgb) {
+                            cachedColors[slot] = rgb;
+                            cachedIndices[slot] = nearest(palette, rgb);
+                        }
+                        index = cachedIndices[slot];
+                    }
+                    int bit = x * bits;
+                    indices[bit >>> 3] |= (byte) (index << (8 - bits - (bit & 7)));
+                }
+                out.write(indices);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new EncodedImage(bytes.toByteArray(), COSName.FLATE_DECODE, null, w, h, bits,
+                indexedColorSpace(palette), null);
+    }
+
+    /** Index of the palette entry closest to {@code rgb} in RGB distance; the lowest index wins ties. */
+    private static int nearest(int[] palette, int rgb) {
+        int r = rgb >> 16 & 0xFF;
+        int g = rgb >> 8 & 0xFF;
+        int b = rgb & 0xFF;
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; i++) {
+            int dr = (palette[i] >> 16 & 0xFF) - r;
+            int dg = (palette[i] >> 8 & 0xFF) - g;
+            int db = (palette[i] & 0xFF) - b;
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static PDIndexed indexedColorSpace(int[] palette) throws IOException {
+        byte[] lookup = new byte[palette.length * 3];
+        for (int i = 0, j = 0; i < palette.length; i++, j += 3) {
+            lookup[j] = (byte) (palette[i] >> 16);
+            lookup[j + 1] = (byte) (palette[i] >> 8);
+            lookup[j + 2] = (byte) palette[i];
+        }
+        COSArray array = new COSArray();
+        array.add(COSName.INDEXED);
+        array.add(COSName.DEVICERGB);
+        array.add(COSInteger.get(palette.length - 1));
+        array.add(new COSString(lookup));
+        return new PDIndexed(array);
+    }
+
+    /**
+     * Open-addressing map from 24-bit RGB to palette index, linear probing,
+     * {@code -1} marking an empty slot. Sized up front for the whole
+     * palette, so it never rehashes.
+     */
+    private static final class ColorIndex {
+        private final int[] colors;
+        private final int[] indices;
+        private final int mask;
+
+        ColorIndex(int maxEntries) {
+            int capacity = Integer.highestOneBit(Math.max(4, maxEntries) * 2 - 1) << 1;
+            colors = new int[capacity];
+            Arrays.fill(colors, -1);
+            indices = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        /** The index stored for {@code color}, or {@code -1}. */
+        int get(int color) {
+            int i = (color * 0x9E3779B9) >>> 16 & mask;
+            while (true) {
+                int existing = colors[i];
+                if (existing == color) {
+                    return indices[i];
+                }
+                if (existing == -1) {
+                    return -1;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        void put(int color, int index) {
+            int i = (color * 0x9E3779B9) >>> 16 & mask;
+            while (colors[i] != -1 && colors[i] != color) {
+                i = (i + 1) & mask;
+            }
+            colors[i] = color;
+            indices[i] = index;
+        }
+    }
+}
@@ -1,25 +1,25 @@
 package com.github.fkitsantas.pdfcompressionservice.compression;
 
+import java.awt.geom.Rectangle2D;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HexFormat;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -28,7 +28,9 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import jakarta.annotation.PreDestroy;
 
@@ -38,6 +40,7 @@ import com.github.fkitsantas.pdfcompressionservice.fonts.TrueTypeSubsetter;
 
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.io.IOUtils;
@@ -65,14 +68,18 @@ import org.springframework.stereotype.Service;
  * <p>Only image XObjects are ever touched. Content streams (page, form or
  * annotation appearance) are never rewritten by this engine, the {@code cm}
  * placement matrices are left exactly as they are, which is what keeps page
- * geometry, rotation and aspect ratio inherently intact.
+ * geometry, rotation and aspect ratio inherently intact. An image cropped to
+ * its visible region is the one exception to "only images": its resource
+ * entry becomes a small form XObject that draws the cropped image where
+ * that region was, under the same {@code cm}.
  *
  * <p>Processing outline:
  * <ol>
  *   <li>Load the document, honouring {@link PdfCompressionProperties#getStreamCache()}.</li>
  *   <li>Analyze every page's content stream (recursing into nested Form
  *       XObjects automatically) to learn the maximum size, in PDF points,
- *       each image is ever rendered at, its "usage".</li>
+ *       each image is ever rendered at and the part of it the clipping path
+ *       ever shows, its "usage".</li>
  *   <li>Recursively discover every unique image XObject reachable from page
  *       resources, nested form resources and annotation appearance streams,
  *       de-duplicated by underlying COS object identity so a shared image is
@@ -128,10 +135,14 @@ public class PdfCompressionEngine {
      * executor once an eligible-image count exceeds {@link
      * PdfCompressionProperties#getParallelImageThreshold()} and {@link
      * PdfCompressionProperties#resolveParallelism()} is more than {@code 1}
-     *, see {@link #processImages}. Decoding ({@link ImageOptimizer#finishPlan})
-     * and attaching ({@link ImageOptimizer#attach}) always stay on the
-     * calling thread, since both touch the shared {@link PDDocument}, which
-     * PDFBox does not support concurrent access to.
+     *, see {@link #processImages}. With {@link
+     * PdfCompressionProperties#isParallelDecode()} the decode ({@link
+     * ImageOptimizer#finishPlan}) moves onto it too, reading a detached
+     * {@link CosSnapshot} copy of the encoded stream. Only image discovery,
+     * snapshotting ({@link ImageOptimizer#snapshot}) and attaching ({@link
+     * ImageOptimizer#attach}) stay on the calling thread, since those touch
+     * the shared {@link PDDocument}, which PDFBox does not support concurrent
+     * access to.
      */
     private final ExecutorService imageProcessingExecutor;
 
@@ -146,6 +157,26 @@ public class PdfCompressionEngine {
      */
     private final Semaphore compressionPermits;
 
+    /**
+     * Shared by every request's {@link ImageOptimizer}, so its verdict
+     * counters cover the engine's lifetime for the {@code pcs.images.predictor}
+     * metrics.
+     */
+    private final GainPredictor gainPredictor = new GainPredictor();
+
+    /**
+     * Shared by every request's {@link ImageOptimizer}, so a CMYK profile
+     * embedded in every upload has its lookup table built only once.
+     */
+    private final CmykColorConverter cmykColorConverter = new CmykColorConverter();
+
+    /**
+     * Shared by every request's {@link ImageOptimizer}, so the images it rules
+     * over budget, and those the watchdog watches or abandons, are counted
+     * across the engine's lifetime for the {@code pcs.images.guard} metrics.
+     */
+    private final ImageCostModel imageCostModel = new ImageCostModel();
+
     public PdfCompressionEngine(PdfCompressionProperties properties) {
         this.properties = properties;
         this.imageProcessingExecutor = createImageProcessingExecutor(properties);
@@ -169,6 +200,48 @@ public class PdfCompressionEngine {
         return getMaxConcurrentCompressions() - compressionPermits.availablePermits();
     }
 
+    /**
+     * JPEGs the decode-free gain predictor has judged so far. Exposed, like
+     * the three accessors below, for the {@code pcs.images.predictor} metrics.
+     */
+    public long getPredictorEvaluations() {
+        return gainPredictor.evaluated();
+    }
+
+    /** Predicted skips, audited ones included. */
+    public long getPredictorSkips() {
+        return gainPredictor.skipped();
+    }
+
+    /** Predicted skips that were processed anyway and reached the size guard. */
+    public long getPredictorAudits() {
+        return gainPredictor.audited();
+    }
+
+    /** Audited images the size guard accepted, i.e. skips that would have lost a saving. */
+    public long getPredictorFalseSkips() {
+        return gainPredictor.falseSkips();
+    }
+
+    /**
+     * Images left unchanged because their estimated cost exceeded {@link
+     * PdfCompressionProperties#getMaxImageCostMillis()}. Exposed, like the
+     * two accessors below, for the {@code pcs.images.guard} metrics.
+     */
+    public long getImagesOverBudget() {
+        return imageCostModel.overBudget();
+    }
+
+    /** Images estimated slow enough to be sent to the pool under the watchdog whatever the path. */
+    public long getImagesWatched() {
+        return imageCostModel.watched();
+    }
+
+    /** Images abandoned after {@link PdfCompressionProperties#getImageTimeLimitMillis()}. */
+    public long getImagesTimedOut() {
+        return imageCostModel.timedOut();
+    }
+
     /**
      * How long an idle {@code pdf-img-*} worker thread is kept alive before it
      * terminates (paired with {@code allowCoreThreadTimeOut(true)} below). This
@@ -388,7 +461,7 @@ public class PdfCompressionEngine {
                     + "compressed output could be written - visible content is unchanged\"", requestId);
         }
 
-        Map<COSBase, float[]> usage = analyzeImageUsage(doc, requestId);
+        UsageAnalysis usage = analyzeImageUsage(doc, requestId);
 
         Map<COSBase, PDImageXObject> uniqueImages = new LinkedHashMap<>();
         Map<COSBase, List<ImageRef>> referencesByImage = new IdentityHashMap<>();
@@ -407,11 +480,15 @@ public class PdfCompressionEngine {
             discoveryPageIndex++;
         }
 
-        ImageOptimizer optimizer = new ImageOptimizer(effective);
+        ImageOptimizer optimizer = new ImageOptimizer(effective, imageProcessingExecutor, gainPredictor,
+                cmykColorConverter, imageCostModel);
+        // Shared by both deduplication passes, so no stream is hashed twice in this request.
+        StreamDigests digests = new StreamDigests(properties.resolveParallelism() != 1 ? imageProcessingExecutor : null,
+                properties.getBatchDecodedBytes());
         ImageProcessingStats stats = processImages(doc, effective, uniqueImages, referencesByImage,
-                usage, optimizer, requestId);
+                usage, optimizer, digests, requestId);
         // Lossless: merge byte-identical embedded ICC colour profiles (common on many-image scans).
-        IccProfileDeduplicator.deduplicate(doc, requestId);
+        IccProfileDeduplicator.deduplicate(doc, digests, requestId);
         if (effective.isStripMetadata()) {
             stripMetadata(doc);
         }
@@ -508,18 +585,38 @@ public class PdfCompressionEngine {
     }
 
     /**
-     * Per-work-item outcome of the Phase B transform step. Capturing this
+     * Per-work-item outcome of the Phase B transform step (and, when decoding
+     * was deferred to the pool, of the decode before it). Capturing this
      * instead of letting a pool task's exception propagate is what keeps one
-     * poisoned image from aborting {@code invokeAll} (and therefore every
-     * sibling task in the same batch).
+     * poisoned image from aborting its siblings in the same batch. {@code
+     * planned} is {@code null} when the decode itself failed, in which case
+     * {@code failedPhase} is {@code "decode"}, and when the watchdog
+     * abandoned the image, with a {@link TimeoutException} and {@code
+     * "time-limit"}.
      */
-    private record TransformAttempt(int index, ImageOptimizer.Transformed transformed, Exception failure) {
+    private record TransformAttempt(int index, ImageOptimizer.Planned planned, ImageOptimizer.Transformed transformed,
+                                    Exception failure, String failedPhase) {
+    }
+
+    /**
+     * An image of the current batch that is ready for Phase B: either already
+     * decoded on the document thread, or a detached snapshot whose decode
+     * runs as part of the Phase B task (see {@link
+     * PdfCompressionProperties#isParallelDecode()}).
+     */
+    @FunctionalInterface
+    private interface PendingPlan {
+        ImageOptimizer.Planned plan() throws IOException;
     }
 
     /**
      * Runs every unique image through the three-phase pipeline described on
-     * {@link ImageOptimizer}'s class Javadoc, batched so peak memory stays
-     * bounded to roughly one batch of decoded/encoded images, and dispatches
+     * {@link ImageOptimizer}'s class Javadoc, batched by {@link
+     * ImageBatchPlanner} so the decoded images live at once stay within
+     * {@link PdfCompressionProperties#getBatchDecodedBytes()} (pipelined
+     * batches are planned at half of it, as two are live; an image larger
+     * than a batch's share is never split and is processed alone, so it alone
+     * can exceed the budget), and dispatches
      * the CPU-heavy Phase B transform step to {@link #imageProcessingExecutor}
      * once there are more eligible images than {@link
      * PdfCompressionProperties#getParallelImageThreshold()} (and parallelism
@@ -538,26 +635,79 @@ public class PdfCompressionEngine {
      * Phase B work first or in what order, this is what keeps {@code
      * COSWriter} object numbering, and therefore {@code compressedBytes},
      * identical between a serial and a parallel run of the same input.
+     * With {@link PdfCompressionProperties#isPipelineBatches()} the parallel
+     * path overlaps consecutive batches (see {@link #processBatchesPipelined})
+     * without changing that order.
+     *
+     * <p>With {@link PdfCompressionProperties#isDeduplicateImages()}, images
+     * embedded as separate objects with byte-identical originals, read
+     * through equal colour spaces, decode arrays and masks, are gated,
+     * decoded, transformed and attached once, as the first copy, for the
+     * largest size and the full visible region any copy is drawn at; every
+     * copy's references then take that one result, and each copy is still
+     * counted in the stats.
+     *
+     * <p>With {@link PdfCompressionProperties#getImageTimeLimitMillis()}, an
+     * image the {@link ImageCostModel} estimates at {@value
+     * ImageCostModel#SLOW_MILLIS} ms or more always goes to the pool, its
+     * decode included, so the watchdog in {@link #awaitTransforms} can
+     * abandon it; a document holding one takes the parallel path however few
+     * images it has.
      */
     private ImageProcessingStats processImages(PDDocument doc,
                                                 PdfCompressionProperties effective,
                                                 Map<COSBase, PDImageXObject> uniqueImages,
                                                 Map<COSBase, List<ImageRef>> referencesByImage,
-                                                Map<COSBase, float[]> usage,
+                                                UsageAnalysis usage,
                                                 ImageOptimizer optimizer,
+                                                StreamDigests digests,
                                                 String requestId) throws PdfCompressionException {
         List<Map.Entry<COSBase, PDImageXObject>> entries = new ArrayList<>(uniqueImages.entrySet());
         int total = entries.size();
         ImageOptimizer.Outcome[] outcomes = new ImageOptimizer.Outcome[total];
 
+        // Byte-identical originals embedded as separate objects go through the pipeline once, as their first copy.
+        int[] firstCopy = IntStream.range(0, total).toArray();
+        if (effective.isDeduplicateImages()) {
+            List<StreamDigests.Content> originals = new ArrayList<>(total);
+            entries.forEach(entry -> originals.add(content(entry.getValue())));
+            firstCopy = digests.firstCopies(originals);
+        }
+
         // Phase A part 1: cheap, no-decode gate check for every image, serially. Metadata-only (no raster data),
         // so holding every pending gate result for the whole document costs nothing worth batching.
         Map<Integer, ImageOptimizer.GatePassed> pendingGates = new LinkedHashMap<>();
         for (int i = 0; i < total; i++) {
+            if (firstCopy[i] != i) {
+                continue;
+            }
             PDImageXObject original = entries.get(i).getValue();
-            float[] usagePoints = usage.get(entries.get(i).getKey());
+            // A first copy is gated for every copy's uses, so no copy is downsampled or cropped below its needs.
+            ImageUsageAnalyzer.Usage imageUsage = null;
+            List<ImageRef> references = new ArrayList<>();
+            int copies = 0;
+            boolean everyCopyObserved = true;
+            for (int j = i; j < total; j++) {
+                if (firstCopy[j] == i) {
+                    copies++;
+                    ImageUsageAnalyzer.Usage copyUsage = usage.byImage().get(entries.get(j).getKey());
+                    List<ImageRef> copyReferences = referencesByImage.getOrDefault(entries.get(j).getKey(), List.of());
+                    everyCopyObserved &= copyUsage != null && everyReferenceObserved(copyUsage, copyReferences);
+                    imageUsage = imageUsage == null ? copyUsage
+                            : copyUsage == null ? imageUsage : imageUsage.mergedWith(copyUsage);
+                    references.addAll(copyReferences);
+                }
+            }
+            // A copy also used where the analysis did not look (an annotation appearance, a form never painted)
+            // may need every pixel, so the shared result keeps them, as an image never seen drawn does.
+            float[] usagePoints = imageUsage != null && (copies == 1 || everyCopyObserved) ? imageUsage.points()
+                    : null;
+            Rectangle2D visible = usage.complete() && imageUsage != null
+                    && everyReferenceObserved(imageUsage, references)
+                    ? imageUsage.visible()
+                    : null;
             try {
-                ImageOptimizer.GateResult gateResult = optimizer.evaluateGate(original, usagePoints);
+                ImageOptimizer.GateResult gateResult = optimizer.evaluateGate(original, usagePoints, visible);
                 if (gateResult instanceof ImageOptimizer.GateResult.Decided decided) {
                     outcomes[i] = decided.outcome();
                 } else {
@@ -572,48 +722,46 @@ public class PdfCompressionEngine {
 
         List<Integer> pendingIndices = new ArrayList<>(pendingGates.keySet());
         int parallelism = properties.resolveParallelism();
-        boolean useParallel = pendingIndices.size() > properties.getParallelImageThreshold() && parallelism != 1;
-        int batchSize = Math.max(1, parallelism);
-
-        for (int start = 0; start < pendingIndices.size(); start += batchSize) {
-            List<Integer> batch = pendingIndices.subList(start, Math.min(start + batchSize, pendingIndices.size()));
-
-            // Phase A part 2: decode + classify THIS BATCH ONLY, serially (PDFBox stream access is not
-            // thread-safe), so peak memory stays bounded to ~one batch of decoded images at a time.
-            Map<Integer, ImageOptimizer.Planned> plannedBatch = new LinkedHashMap<>();
-            for (int idx : batch) {
-                try {
-                    plannedBatch.put(idx, optimizer.finishPlan(pendingGates.get(idx)));
-                } catch (Exception e) {
-                    // Could not be decoded, so never actually inspected -> skipped (not inspected).
-                    logImageFailure(requestId, idx, "decode", e);
-                    outcomes[idx] = ImageOptimizer.Outcome.skip();
-                }
+        Set<Integer> slowImages = parallelism != 1 ? slowImages(pendingGates) : Set.of();
+        boolean useParallel = (pendingIndices.size() > properties.getParallelImageThreshold() || !slowImages.isEmpty())
+                && parallelism != 1;
+        boolean pipelined = useParallel && properties.isPipelineBatches();
+        // Pipelining keeps two batches live, so each gets half the budget and together they stay within it.
+        long batchBudget = properties.getBatchDecodedBytes();
+        if (pipelined && batchBudget > 0) {
+            batchBudget = Math.max(1L, batchBudget / 2);
+        }
+        List<List<Integer>> batches = ImageBatchPlanner.plan(pendingIndices,
+                idx -> pendingGates.get(idx).decodedBytes(), batchBudget,
+                Math.max(1, parallelism));
+
+        // Decoding moves onto the pool only when there is a pool to move it to; the serial path keeps it here,
+        // except for slow images, which the watchdog can only abandon on the pool.
+        Set<Integer> deferDecode = useParallel && properties.isParallelDecode() ? pendingGates.keySet() : slowImages;
+        slowImages.forEach(idx -> imageCostModel.recordWatched());
+        Set<Integer> microImages = useParallel ? microImages(pendingGates) : Set.of();
+        if (pipelined) {
+            processBatchesPipelined(doc, batches, pendingGates, microImages, deferDecode, optimizer, outcomes,
+                    requestId);
+        } else {
+            for (List<Integer> batch : batches) {
+                Map<Integer, PendingPlan> pendingBatch =
+                        prepareBatch(batch, pendingGates, deferDecode, optimizer, outcomes, requestId);
+
+                // Phase B: CPU-heavy (decode +) resize/encode, off the PDDocument entirely, safe to fan out.
+                List<TransformAttempt> attempts = useParallel
+                        ? transformBatchInParallel(pendingBatch, microImages, optimizer, requestId)
+                        : transformBatchSerially(pendingBatch, optimizer);
+
+                attachBatch(doc, attempts, optimizer, outcomes, requestId);
+                // pendingBatch/attempts fall out of scope here, their decoded BufferedImages/encoded byte[]s become
+                // eligible for GC before the next batch starts, bounding peak memory to ~one batch's worth.
             }
-            List<Integer> readyIndices = new ArrayList<>(plannedBatch.keySet());
-
-            // Phase B: CPU-heavy resize/encode, off the PDDocument entirely, safe to fan out across the pool.
-            List<TransformAttempt> attempts = useParallel
-                    ? transformBatchInParallel(readyIndices, plannedBatch, optimizer, requestId)
-                    : transformBatchSerially(readyIndices, plannedBatch, optimizer);
+        }
 
-            // Phase C: attach back to the document, serially, in the batch's (== original discovery) order.
-            for (TransformAttempt attempt : attempts) {
-                int idx = attempt.index();
-                if (attempt.failure() != null) {
-                    logImageFailure(requestId, idx, "transform", attempt.failure());
-                    outcomes[idx] = ImageOptimizer.Outcome.unchanged();
-                    continue;
-                }
-                try {
-                    outcomes[idx] = optimizer.attach(doc, plannedBatch.get(idx), attempt.transformed());
-                } catch (Exception e) {
-                    logImageFailure(requestId, idx, "attach", e);
-                    outcomes[idx] = ImageOptimizer.Outcome.unchanged();
-                }
-            }
-            // plannedBatch/attempts fall out of scope here, their decoded BufferedImages/encoded byte[]s become
-            // eligible for GC before the next batch starts, bounding peak memory to ~one batch's worth.
+        // A later copy shares its first copy's result, and is counted like it.
+        for (int i = 0; i < total; i++) {
+            outcomes[i] = outcomes[firstCopy[i]];
         }
 
         int inspected = 0;
@@ -637,17 +785,41 @@ public class PdfCompressionEngine {
             if (outcome.recompressed()) {
                 recompressed++;
             }
+            PDXObject placed = outcome.placement() != null ? outcome.placement() : outcome.replacement();
             for (ImageRef ref : referencesByImage.getOrDefault(entries.get(i).getKey(), List.of())) {
-                ref.resources().put(ref.name(), outcome.replacement());
+                ref.resources().put(ref.name(), placed);
             }
         }
 
         if (effective.isDeduplicateImages()) {
-            deduplicateByContent(entries, outcomes, referencesByImage, requestId);
+            PDImageXObject[] finalImages = deduplicateByContent(entries, outcomes, referencesByImage, digests,
+                    requestId);
+            if (effective.getPixelDeduplication() != PixelDeduplication.OFF) {
+                deduplicateByPixels(entries, outcomes, finalImages, referencesByImage, effective, requestId);
+            }
         }
         return new ImageProcessingStats(inspected, downsampled, recompressed, unchanged);
     }
 
+    /**
+     * Whether every resources entry naming the image was seen drawing it, so
+     * its recorded visible region covers every use and it may be cropped.
+     * An image also named from an annotation appearance, a form that was
+     * never painted, or anywhere else the analysis did not run, keeps all
+     * its pixels.
+     */
+    private static boolean everyReferenceObserved(ImageUsageAnalyzer.Usage imageUsage, List<ImageRef> references) {
+        if (references == null || references.isEmpty()) {
+            return false;
+        }
+        for (ImageRef ref : references) {
+            if (!imageUsage.drawnFrom(ref.resources())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Collapses images with identical content that are embedded as separate
      * objects into a single shared object. For each unique image its final form
@@ -655,126 +827,549 @@ public class PdfCompressionEngine {
      * over its dimensions, colour space, filters, encoded bytes and soft mask;
      * duplicates are re-pointed at the first object seen with that fingerprint,
      * leaving the extra copies unreferenced so the writer drops them. Merging
-     * only ever happens on a full-fingerprint match, so it is lossless.
-     * Fingerprinting failures are swallowed per image (that image is just not
-     * deduplicated), so a quirky image can never fail the request.
-     */
-    private void deduplicateByContent(List<Map.Entry<COSBase, PDImageXObject>> entries,
-                                      ImageOptimizer.Outcome[] outcomes,
-                                      Map<COSBase, List<ImageRef>> referencesByImage,
-                                      String requestId) {
-        Map<String, PDImageXObject> canonicalByFingerprint = new HashMap<>();
-        int merged = 0;
+     * only ever happens on a full-fingerprint match, so it is lossless. A
+     * cropped image is referenced through its placing form XObject and is
+     * left out. Fingerprinting failures are swallowed per image (that image
+     * is just not deduplicated), so a quirky image can never fail the request.
+     *
+     * <p>Copies that were byte-identical as originals already share one
+     * outcome (see {@link #processImages}); this pass re-points the ones left
+     * unchanged, and catches different originals that happened to produce
+     * identical replacements. {@code digests} remembers every stream it has
+     * sampled or hashed, so the originals cost nothing the second time.
+     *
+     * @return per unique image, the image its references now point at, or
+     *         {@code null} for a cropped one
+     */
+    private PDImageXObject[] deduplicateByContent(List<Map.Entry<COSBase, PDImageXObject>> entries,
+                                                  ImageOptimizer.Outcome[] outcomes,
+                                                  Map<COSBase, List<ImageRef>> referencesByImage,
+                                                  StreamDigests digests,
+                                                  String requestId) {
+        PDImageXObject[] finalImages = new PDImageXObject[entries.size()];
+        List<StreamDigests.Content> contents = new ArrayList<>(entries.size());
         for (int i = 0; i < entries.size(); i++) {
             ImageOptimizer.Outcome outcome = outcomes[i];
-            PDImageXObject finalImage = outcome != null && outcome.replacement() != null
-                    ? outcome.replacement()
-                    : entries.get(i).getValue();
-            String fingerprint;
-            try {
-                fingerprint = fingerprint(finalImage);
-            } catch (Exception e) {
-                continue; // cannot fingerprint this image: leave it as-is
+            if (outcome == null || outcome.placement() == null) {
+                finalImages[i] = outcome != null && outcome.replacement() != null
+                        ? outcome.replacement()
+                        : entries.get(i).getValue();
             }
-            PDImageXObject canonical = canonicalByFingerprint.putIfAbsent(fingerprint, finalImage);
-            if (canonical != null && canonical.getCOSObject() != finalImage.getCOSObject()) {
+            contents.add(finalImages[i] != null ? content(finalImages[i]) : null);
+        }
+        int[] firstCopy = digests.firstCopies(contents);
+
+        int merged = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            PDImageXObject finalImage = finalImages[i];
+            PDImageXObject canonical = finalImages[firstCopy[i]];
+            if (firstCopy[i] != i && canonical.getCOSObject() != finalImage.getCOSObject()) {
                 for (ImageRef ref : referencesByImage.getOrDefault(entries.get(i).getKey(), List.of())) {
                     ref.resources().put(ref.name(), canonical);
                 }
+                finalImages[i] = canonical;
                 merged++;
             }
         }
         if (merged > 0) {
             log.debug("requestId={} action=deduplicated-images count={}", requestId, merged);
         }
+        return finalImages;
     }
 
-    /** SHA-256 over the image's identity (dimensions, colour space, filters) and its encoded bytes plus soft mask. */
-    private static String fingerprint(PDImageXObject image) throws IOException, NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        digest.update(("w=" + image.getWidth() + ";h=" + image.getHeight()
-                + ";bpc=" + image.getBitsPerComponent()
-                + ";cs=" + image.getColorSpace().getName()
-                + ";f=" + String.valueOf(((COSStream) image.getCOSObject()).getFilters()))
-                .getBytes(StandardCharsets.UTF_8));
-        updateWithRawStream(digest, (COSStream) image.getCOSObject());
-        PDImageXObject softMask = image.getSoftMask();
-        if (softMask != null) {
-            digest.update((byte) 0x01);
-            updateWithRawStream(digest, (COSStream) softMask.getCOSObject());
+    /**
+     * Collapses images that show the same picture under different encodings,
+     * after {@link #deduplicateByContent}: images whose decoded-pixel
+     * fingerprints (taken in Phase B, see {@link PixelFingerprint}) match
+     * under {@link PdfCompressionProperties#getPixelDeduplication()} are
+     * grouped, and every member is re-pointed at the group's final image
+     * with the most pixels (the smallest stream on a tie), so no reference
+     * loses resolution. Images without a fingerprint, cropped ones included,
+     * are left alone. Exact fingerprints are grouped by their digest in one
+     * pass; perceptual ones are only similar, not equal, so each is compared
+     * with every group so far.
+     */
+    private void deduplicateByPixels(List<Map.Entry<COSBase, PDImageXObject>> entries,
+                                     ImageOptimizer.Outcome[] outcomes,
+                                     PDImageXObject[] finalImages,
+                                     Map<COSBase, List<ImageRef>> referencesByImage,
+                                     PdfCompressionProperties effective,
+                                     String requestId) {
+        // Each group is led by its first member, which later images are compared against.
+        List<List<Integer>> groups = new ArrayList<>();
+        Map<ByteBuffer, List<Integer>> exactGroups = new HashMap<>();
+        boolean exact = effective.getPixelDeduplication() == PixelDeduplication.EXACT;
+        for (int i = 0; i < entries.size(); i++) {
+            PixelFingerprint pixels = outcomes[i] != null ? outcomes[i].pixels() : null;
+            if (pixels == null || finalImages[i] == null) {
+                continue;
+            }
+            List<Integer> group = null;
+            if (exact) {
+                if (pixels.digest() == null) {
+                    continue;
+                }
+                group = exactGroups.get(ByteBuffer.wrap(pixels.digest()));
+            } else {
+                for (List<Integer> candidate : groups) {
+                    if (outcomes[candidate.get(0)].pixels().matches(pixels, effective.getPixelDeduplication(),
+                            effective.getPerceptualHashDistance())) {
+                        group = candidate;
+                        break;
+                    }
+                }
+            }
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+                if (exact) {
+                    exactGroups.put(ByteBuffer.wrap(pixels.digest()), group);
+                }
+            }
+            group.add(i);
+        }
+
+        int merged = 0;
+        for (List<Integer> group : groups) {
+            if (group.size() < 2) {
+                continue;
+            }
+            PDImageXObject canonical = null;
+            for (int i : group) {
+                if (canonical == null || isBetterCanonical(finalImages[i], canonical)) {
+                    canonical = finalImages[i];
+                }
+            }
+            for (int i : group) {
+                if (finalImages[i].getCOSObject() == canonical.getCOSObject()) {
+                    continue;
+                }
+                for (ImageRef ref : referencesByImage.getOrDefault(entries.get(i).getKey(), List.of())) {
+                    ref.resources().put(ref.name(), canonical);
+                }
+                finalImages[i] = canonical;
+                merged++;
+            }
+        }
+        if (merged > 0) {
+            log.debug("requestId={} action=pixel-deduplicated-images mode={} count={}", requestId,
+                    effective.getPixelDeduplication(), merged);
+        }
+    }
+
+    private static boolean isBetterCanonical(PDImageXObject image, PDImageXObject current) {
+        long pixels = (long) image.getWidth() * image.getHeight();
+        long currentPixels = (long) current.getWidth() * current.getHeight();
+        if (pixels != currentPixels) {
+            return pixels > currentPixels;
         }
-        return HexFormat.of().formatHex(digest.digest());
+        return ((COSStream) image.getCOSObject()).getLength() < ((COSStream) current.getCOSObject()).getLength();
     }
 
-    private static void updateWithRawStream(MessageDigest digest, COSStream stream) throws IOException {
-        try (InputStream in = stream.createRawInputStream()) {
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                digest.update(buffer, 0, read);
+    /**
+     * What makes two images' stored forms interchangeable, next to their
+     * bytes. {@code decoding} is a {@link CosSnapshot#digest} of every other
+     * entry that changes the decoded pixels (see {@link #DECODING_KEYS}), so
+     * equal samples read through a different palette, ICC profile, {@code
+     * /Decode} array or mask never share a result.
+     */
+    private record ImageIdentity(int width, int height, int bitsPerComponent, String colorSpace,
+                                 List<COSName> filters, ByteBuffer decoding) {
+    }
+
+    /**
+     * Image dictionary entries that change how the samples decode or
+     * render: the resolved colour space (palette and profile contents
+     * included), decode parameters, {@code /Decode}, colour-key or stencil
+     * {@code /Mask}, and the stencil and interpolation flags.
+     */
+    private static final List<COSName> DECODING_KEYS = List.of(COSName.COLORSPACE, COSName.DECODE_PARMS,
+            COSName.DP, COSName.DECODE, COSName.MASK, COSName.IMAGE_MASK, COSName.INTERPOLATE);
+
+    /**
+     * The image's identity, stream and soft mask stream as compared by
+     * {@link StreamDigests}; {@code null} when any of it cannot be read, so
+     * the image is just not deduplicated.
+     */
+    private static StreamDigests.Content content(PDImageXObject image) {
+        try {
+            COSStream stream = image.getCOSObject();
+            COSDictionary decoding = new COSDictionary();
+            for (COSName key : DECODING_KEYS) {
+                if (stream.getItem(key) != null) {
+                    decoding.setItem(key, stream.getItem(key));
+                }
             }
+            ImageIdentity identity = new ImageIdentity(image.getWidth(), image.getHeight(),
+                    image.getBitsPerComponent(), image.getColorSpace().getName(), image.getStream().getFilters(),
+                    CosSnapshot.digest(decoding));
+            PDImageXObject softMask = image.getSoftMask();
+            return new StreamDigests.Content(identity, image.getStream().getCOSObject(),
+                    softMask != null ? softMask.getStream().getCOSObject() : null);
+        } catch (Exception e) {
+            return null;
         }
     }
 
-    private List<TransformAttempt> transformBatchSerially(List<Integer> indices,
-                                                            Map<Integer, ImageOptimizer.Planned> plannedBatch,
-                                                            ImageOptimizer optimizer) {
-        List<TransformAttempt> results = new ArrayList<>(indices.size());
-        for (int idx : indices) {
+    /**
+     * Phase A part 2 for one batch, serially on the calling thread (PDFBox
+     * stream access is not thread-safe). An image not in {@code deferDecode}
+     * is decoded + classified here, so peak memory stays bounded to roughly
+     * one batch of decoded images at a time. For one in it, only the
+     * encoded bytes are copied off the document ({@link
+     * ImageOptimizer#snapshot}) and the decode itself becomes part of the
+     * image's Phase B task. An image that cannot be decoded (or copied) was
+     * never actually inspected, so it is recorded as skipped and left out of
+     * the returned map.
+     */
+    private Map<Integer, PendingPlan> prepareBatch(List<Integer> batch,
+                                                   Map<Integer, ImageOptimizer.GatePassed> pendingGates,
+                                                   Set<Integer> deferDecode,
+                                                   ImageOptimizer optimizer,
+                                                   ImageOptimizer.Outcome[] outcomes,
+                                                   String requestId) {
+        Map<Integer, PendingPlan> pendingBatch = new LinkedHashMap<>();
+        for (int idx : batch) {
+            boolean deferred = deferDecode.contains(idx);
             try {
-                results.add(new TransformAttempt(idx, optimizer.transform(plannedBatch.get(idx)), null));
+                if (deferred) {
+                    ImageOptimizer.Snapshot snapshot = optimizer.snapshot(pendingGates.get(idx));
+                    pendingBatch.put(idx, () -> optimizer.finishPlan(snapshot));
+                } else {
+                    ImageOptimizer.Planned planned = optimizer.finishPlan(pendingGates.get(idx));
+                    pendingBatch.put(idx, () -> planned);
+                }
             } catch (Exception e) {
-                results.add(new TransformAttempt(idx, null, e));
+                logImageFailure(requestId, idx, deferred ? "snapshot" : "decode", e);
+                outcomes[idx] = ImageOptimizer.Outcome.skip();
+            }
+        }
+        return pendingBatch;
+    }
+
+    /**
+     * Phase B for one image: resolves its plan (decoding it first if that was
+     * deferred) and transforms it. Never throws; every failure is captured in
+     * the returned attempt. A task the watchdog abandoned during the decode
+     * does not go on to transform.
+     */
+    private static TransformAttempt runTransform(int idx, PendingPlan pending, ImageOptimizer optimizer) {
+        ImageOptimizer.Planned planned;
+        try {
+            planned = pending.plan();
+        } catch (Exception e) {
+            return new TransformAttempt(idx, null, null, e, "decode");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            return new TransformAttempt(idx, planned, null, new CancellationException("Image work abandoned"),
+                    "transform");
+        }
+        try {
+            return new TransformAttempt(idx, planned, optimizer.transform(planned), null, null);
+        } catch (Exception e) {
+            return new TransformAttempt(idx, planned, null, e, "transform");
+        }
+    }
+
+    /**
+     * Phase C: attaches one batch back to the document, serially, in the
+     * batch's (== discovery) order. A failed decode counts as skipped, as it
+     * does on the document thread; a failed transform or attach, or an image
+     * the watchdog abandoned, leaves the inspected original unchanged.
+     */
+    private void attachBatch(PDDocument doc,
+                             List<TransformAttempt> attempts,
+                             ImageOptimizer optimizer,
+                             ImageOptimizer.Outcome[] outcomes,
+                             String requestId) {
+        for (TransformAttempt attempt : attempts) {
+            int idx = attempt.index();
+            if (attempt.failure() != null) {
+                logImageFailure(requestId, idx, attempt.failedPhase(), attempt.failure());
+                outcomes[idx] = attempt.planned() == null && !(attempt.failure() instanceof TimeoutException)
+                        ? ImageOptimizer.Outcome.skip()
+                        : ImageOptimizer.Outcome.unchanged();
+                continue;
+            }
+            try {
+                outcomes[idx] = optimizer.attach(doc, attempt.planned(), attempt.transformed());
+            } catch (Exception e) {
+                logImageFailure(requestId, idx, "attach", e);
+                outcomes[idx] = ImageOptimizer.Outcome.unchanged();
+            }
+        }
+    }
+
+    /**
+     * Gate-passed images of at most {@link
+     * PdfCompressionProperties#getMicroImagePixels()} source pixels, whose
+     * Phase B work is too small to be worth a pool task of its own.
+     */
+    private Set<Integer> microImages(Map<Integer, ImageOptimizer.GatePassed> pendingGates) {
+        long limit = properties.getMicroImagePixels();
+        Set<Integer> micro = new HashSet<>();
+        if (limit > 0) {
+            pendingGates.forEach((idx, gate) -> {
+                if ((long) gate.original().getWidth() * gate.original().getHeight() <= limit) {
+                    micro.add(idx);
+                }
+            });
+        }
+        return micro;
+    }
+
+    /**
+     * Gate-passed images the {@link ImageCostModel} estimates at {@value
+     * ImageCostModel#SLOW_MILLIS} ms or more, when the watchdog is on.
+     */
+    private Set<Integer> slowImages(Map<Integer, ImageOptimizer.GatePassed> pendingGates) {
+        Set<Integer> slow = new HashSet<>();
+        if (properties.getImageTimeLimitMillis() > 0) {
+            pendingGates.forEach((idx, gate) -> {
+                if (gate.costMillis() >= ImageCostModel.SLOW_MILLIS) {
+                    slow.add(idx);
+                }
+            });
+        }
+        return slow;
+    }
+
+    /**
+     * One pool task: Phase B for one image, or for a chunk of micro images in
+     * turn, with its {@code progress} for the watchdog.
+     */
+    private record PoolTask(List<Integer> indices, TaskProgress progress, Future<List<TransformAttempt>> future) {
+    }
+
+    /**
+     * What a pool task has done so far: when it started the image it is on,
+     * and the attempts it has finished, which survive the task being
+     * abandoned. Written by the worker, read by the document thread.
+     */
+    private static final class TaskProgress {
+
+        private volatile boolean started;
+        private volatile long imageStartNanos;
+        private final List<TransformAttempt> finished = Collections.synchronizedList(new ArrayList<>());
+
+        /** Runs {@code indices} in turn, stopping early once the task has been cancelled. */
+        List<TransformAttempt> run(List<Integer> indices, Map<Integer, PendingPlan> pendingBatch,
+                                   ImageOptimizer optimizer) {
+            for (int idx : indices) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                imageStartNanos = System.nanoTime();
+                started = true;
+                finished.add(runTransform(idx, pendingBatch.get(idx), optimizer));
             }
+            return finished();
+        }
+
+        /** Nanoseconds until the image in progress reaches {@code limitNanos}, or {@code limitNanos} while queued. */
+        long remainingNanos(long limitNanos) {
+            return started ? imageStartNanos + limitNanos - System.nanoTime() : limitNanos;
         }
+
+        List<TransformAttempt> finished() {
+            synchronized (finished) {
+                return new ArrayList<>(finished);
+            }
+        }
+    }
+
+    /** One batch whose Phase B work has been handed to the pool but not yet attached. */
+    private record InFlightBatch(List<Integer> indices, List<PoolTask> tasks) {
+    }
+
+    /**
+     * Pipelined variant of the per-batch loop (see {@link
+     * PdfCompressionProperties#isPipelineBatches()}): batch N+1 is prepared
+     * on the calling thread while batch N is still being transformed on the
+     * pool, and batch N-1 is attached only once batch N has been submitted,
+     * so neither the document thread nor the pool sits idle waiting for the
+     * other. At most two batches are ever in flight.
+     *
+     * <p>Batches are attached strictly in submission order, and each batch in
+     * its own discovery order, so Phase C sees exactly the same sequence as
+     * the non-pipelined loop and the output is byte-for-byte the same. Any
+     * batch still in flight when this method exits abnormally (interrupt) has
+     * its pool work cancelled.
+     */
+    private void processBatchesPipelined(PDDocument doc,
+                                         List<List<Integer>> batches,
+                                         Map<Integer, ImageOptimizer.GatePassed> pendingGates,
+                                         Set<Integer> microImages,
+                                         Set<Integer> deferDecode,
+                                         ImageOptimizer optimizer,
+                                         ImageOptimizer.Outcome[] outcomes,
+                                         String requestId) throws PdfCompressionException {
+        Deque<InFlightBatch> inFlight = new ArrayDeque<>();
+        try {
+            for (List<Integer> batch : batches) {
+                // Overlaps with the pool still transforming the previously submitted batch.
+                Map<Integer, PendingPlan> pendingBatch =
+                        prepareBatch(batch, pendingGates, deferDecode, optimizer, outcomes, requestId);
+                inFlight.addLast(new InFlightBatch(new ArrayList<>(pendingBatch.keySet()),
+                        submitTransforms(pendingBatch, microImages, optimizer)));
+                if (inFlight.size() > 1) {
+                    // Overlaps with the pool transforming the batch just submitted.
+                    attachInFlight(doc, inFlight.peekFirst(), optimizer, outcomes, requestId);
+                    inFlight.removeFirst();
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                attachInFlight(doc, inFlight.peekFirst(), optimizer, outcomes, requestId);
+                inFlight.removeFirst();
+            }
+        } finally {
+            for (InFlightBatch abandoned : inFlight) {
+                abandoned.tasks().forEach(task -> task.future().cancel(true));
+            }
+        }
+    }
+
+    private void attachInFlight(PDDocument doc, InFlightBatch batch, ImageOptimizer optimizer,
+                                ImageOptimizer.Outcome[] outcomes, String requestId)
+            throws PdfCompressionException {
+        List<TransformAttempt> attempts = awaitTransforms(batch.indices(), batch.tasks(), requestId);
+        attachBatch(doc, attempts, optimizer, outcomes, requestId);
+    }
+
+    private List<TransformAttempt> transformBatchSerially(Map<Integer, PendingPlan> pendingBatch,
+                                                            ImageOptimizer optimizer) {
+        List<TransformAttempt> results = new ArrayList<>(pendingBatch.size());
+        pendingBatch.forEach((idx, pending) -> results.add(runTransform(idx, pending, optimizer)));
         return results;
     }
 
     /**
      * Dispatches this batch's Phase B work to {@link #imageProcessingExecutor}
-     * via {@link ExecutorService#invokeAll}, which submits every task then
-     * blocks until all complete, each task catches its own exception
-     * internally and returns a failed {@link TransformAttempt} rather than
-     * letting it propagate, so one poisoned image's {@code Future} can never
-     * abort the others in the same {@code invokeAll} call.
-     */
-    private List<TransformAttempt> transformBatchInParallel(List<Integer> indices,
-                                                              Map<Integer, ImageOptimizer.Planned> plannedBatch,
+     * and blocks until all of it completes. Each task catches its own
+     * exception internally and returns a failed {@link TransformAttempt}
+     * rather than letting it propagate, so one poisoned image's {@code Future}
+     * can never abort the others in the same batch.
+     */
+    private List<TransformAttempt> transformBatchInParallel(Map<Integer, PendingPlan> pendingBatch,
+                                                              Set<Integer> microImages,
                                                               ImageOptimizer optimizer,
                                                               String requestId) throws PdfCompressionException {
-        List<Callable<TransformAttempt>> tasks = new ArrayList<>(indices.size());
-        for (int idx : indices) {
-            ImageOptimizer.Planned planned = plannedBatch.get(idx);
-            tasks.add(() -> {
-                try {
-                    return new TransformAttempt(idx, optimizer.transform(planned), null);
-                } catch (Exception e) {
-                    return new TransformAttempt(idx, null, e);
-                }
-            });
+        return awaitTransforms(new ArrayList<>(pendingBatch.keySet()),
+                submitTransforms(pendingBatch, microImages, optimizer), requestId);
+    }
+
+    /**
+     * Submits the batch's Phase B work without waiting for any of it: one
+     * task per image, in batch order, then the batch's {@code microImages}
+     * in chunks of up to {@link PdfCompressionProperties#getMicroImageChunk()},
+     * each chunk one task that transforms its images in turn on one worker.
+     * Chunks are made smaller when that is what it takes to give every
+     * worker one.
+     */
+    private List<PoolTask> submitTransforms(Map<Integer, PendingPlan> pendingBatch,
+                                            Set<Integer> microImages,
+                                            ImageOptimizer optimizer) {
+        List<PoolTask> tasks = new ArrayList<>();
+        List<Integer> micro = new ArrayList<>();
+        pendingBatch.forEach((idx, pending) -> {
+            if (microImages.contains(idx)) {
+                micro.add(idx);
+            } else {
+                tasks.add(submitTask(List.of(idx), pendingBatch, optimizer));
+            }
+        });
+        int workers = Math.max(1, properties.resolveParallelism());
+        int chunkSize = Math.max(1, Math.min(properties.getMicroImageChunk(), (micro.size() + workers - 1) / workers));
+        for (int start = 0; start < micro.size(); start += chunkSize) {
+            tasks.add(submitTask(micro.subList(start, Math.min(start + chunkSize, micro.size())), pendingBatch,
+                    optimizer));
         }
+        return tasks;
+    }
+
+    private PoolTask submitTask(List<Integer> indices, Map<Integer, PendingPlan> pendingBatch,
+                                ImageOptimizer optimizer) {
+        TaskProgress progress = new TaskProgress();
+        return new PoolTask(indices, progress,
+                imageProcessingExecutor.submit(() -> progress.run(indices, pendingBatch, optimizer)));
+    }
 
+    /**
+     * Collects the results of {@link #submitTransforms} and returns them in
+     * {@code indices} (== discovery) order, however they were chunked. On
+     * interrupt every not-yet-finished task of the batch is cancelled before
+     * the failure is surfaced.
+     *
+     * <p>This is also the watchdog: with {@link
+     * PdfCompressionProperties#getImageTimeLimitMillis()}, a task whose
+     * current image has run for longer than that is cancelled, and that image
+     * and any of its chunk not yet started come back as {@code "time-limit"}
+     * failures, while the images it had finished are kept. Cancelling only
+     * interrupts the worker: it stops at the next stripe, image or
+     * decode-to-transform boundary, but a PDFBox or ImageIO decode or encode
+     * already under way ignores the interrupt and keeps its pool thread
+     * until it returns.
+     */
+    private List<TransformAttempt> awaitTransforms(List<Integer> indices,
+                                                    List<PoolTask> tasks,
+                                                    String requestId) throws PdfCompressionException {
+        Map<Integer, TransformAttempt> byIndex = new HashMap<>();
+        long limitNanos = TimeUnit.MILLISECONDS.toNanos(properties.getImageTimeLimitMillis());
         try {
-            List<Future<TransformAttempt>> futures = imageProcessingExecutor.invokeAll(tasks);
-            List<TransformAttempt> results = new ArrayList<>(futures.size());
-            for (int i = 0; i < futures.size(); i++) {
-                int idx = indices.get(i);
+            for (PoolTask task : tasks) {
                 try {
-                    results.add(futures.get(i).get());
+                    List<TransformAttempt> attempts = limitNanos > 0 ? awaitWatched(task, limitNanos)
+                            : task.future().get();
+                    attempts.forEach(attempt -> byIndex.put(attempt.index(), attempt));
                 } catch (ExecutionException e) {
-                    // Defensive only: the callables above always catch their own exceptions internally, so this
+                    // Defensive only: runTransform always catches its own exceptions internally, so this
                     // should be unreachable in practice.
-                    results.add(new TransformAttempt(idx, null, e));
+                    task.indices().forEach(idx -> byIndex.put(idx, new TransformAttempt(idx, null, null, e,
+                            "transform")));
                 }
             }
+            List<TransformAttempt> results = new ArrayList<>(indices.size());
+            indices.forEach(idx -> results.add(byIndex.get(idx)));
             return results;
         } catch (InterruptedException e) {
+            tasks.forEach(task -> task.future().cancel(true));
             Thread.currentThread().interrupt();
             throw new PdfCompressionException(
                     "Interrupted while processing images in parallel for request " + requestId, e);
         }
     }
 
+    /**
+     * Waits for {@code task}, waking up whenever the image it is on would
+     * reach {@code limitNanos}. Once one has, the task is cancelled and its
+     * unfinished images are reported as timed out; a task that completes
+     * just as it is cancelled keeps its results.
+     */
+    private List<TransformAttempt> awaitWatched(PoolTask task, long limitNanos)
+            throws InterruptedException, ExecutionException {
+        while (true) {
+            long remaining = task.progress().remainingNanos(limitNanos);
+            if (remaining <= 0 && task.future().cancel(true)) {
+                List<TransformAttempt> attempts = task.progress().finished();
+                Set<Integer> finished = new HashSet<>();
+                attempts.forEach(attempt -> finished.add(attempt.index()));
+                for (int idx : task.indices()) {
+                    if (!finished.contains(idx)) {
+                        imageCostModel.recordTimedOut();
+                        attempts.add(new TransformAttempt(idx, null, null, new TimeoutException(
+                                "Image exceeded " + TimeUnit.NANOSECONDS.toMillis(limitNanos) + " ms"), "time-limit"));
+                    }
+                }
+                return attempts;
+            }
+            try {
+                return task.future().get(Math.max(1, remaining), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // Re-checked above against the image the task is on now.
+            }
+        }
+    }
+
     /**
      * Operational-only WARN log: request id, image index/phase and exception
      * class, deliberately never the exception message or any document
@@ -858,8 +1453,17 @@ public class PdfCompressionEngine {
     // Usage analysis
     // ------------------------------------------------------------------
 
-    private Map<COSBase, float[]> analyzeImageUsage(PDDocument doc, String requestId) {
-        Map<COSBase, float[]> usage = new IdentityHashMap<>();
+    /**
+     * Per-image usage across the document. {@code complete} is {@code false}
+     * once any page failed to analyse: the images it draws may then have
+     * uses nobody saw, so none is cropped.
+     */
+    private record UsageAnalysis(Map<COSBase, ImageUsageAnalyzer.Usage> byImage, boolean complete) {
+    }
+
+    private UsageAnalysis analyzeImageUsage(PDDocument doc, String requestId) {
+        Map<COSBase, ImageUsageAnalyzer.Usage> usage = new IdentityHashMap<>();
+        boolean complete = true;
         int pageIndex = 0;
         for (PDPage page : doc.getPages()) {
             // Isolate per page: a single malformed content stream must not abort usage
@@ -868,12 +1472,13 @@ public class PdfCompressionEngine {
             try {
                 new ImageUsageAnalyzer(page, usage).processPage(page);
             } catch (Exception e) {
+                complete = false;
                 log.warn("Usage analysis failed for request {} page #{}, its images fall back to the "
                         + "dimension cap only (exception: {})", requestId, pageIndex, e.getClass().getName());
             }
             pageIndex++;
         }
-        return usage;
+        return new UsageAnalysis(usage, complete);
     }
 
     // ------------------------------------------------------------------
@@ -36,6 +36,8 @@ public class PdfCompressionProperties {
     private int targetDpi = 150;
     private int maxImageDimension = 0;
     private long maxDecodePixels = 500_000_000L;
+    private long maxImageCostMillis = 60_000L;
+    private long imageTimeLimitMillis = 30_000L;
     private float jpegQuality = 0.75f;
     private int minDimension = 16;
     private long minByteSize = 8192L;
@@ -45,8 +47,32 @@ public class PdfCompressionProperties {
     private boolean recompressCmyk = false;
     private int parallelism = 0;
     private int parallelImageThreshold = 2;
+    private boolean pipelineBatches = true;
+    private boolean parallelDecode = true;
+    private boolean subsampledDecode = true;
+    private boolean requantizeJpeg = true;
+    private Resampler resampler = Resampler.JAVA2D;
+    private boolean packedBitonal = true;
+    private long parallelResamplePixels = 8_000_000L;
+    private long microImagePixels = 65_536L;
+    private int microImageChunk = 64;
+    private JpegEncoder jpegEncoder = JpegEncoder.IMAGEIO;
+    private boolean losslessJpeg = true;
+    private boolean gainPredictor = true;
+    private int gainPredictorAuditInterval = 20;
+    private boolean separateSoftMask = true;
+    private boolean paletteImages = true;
+    private long pngBruteForcePixels = 1_000_000L;
+    private boolean cmykJpeg = true;
+    private boolean toneClassification = true;
+    private int grayTolerance = 10;
+    private float bitonalRatio = 0.95f;
+    private boolean cropToClip = true;
+    private long batchDecodedBytes = 256L * 1024 * 1024;
     private int maxConcurrentCompressions = 0;
     private boolean deduplicateImages = true;
+    private PixelDeduplication pixelDeduplication = PixelDeduplication.EXACT;
+    private int perceptualHashDistance = 4;
     private boolean stripMetadata = false;
     private boolean stripPrivateData = false;
     private boolean logComposition = true;
@@ -64,6 +90,8 @@ public class PdfCompressionProperties {
         c.targetDpi = this.targetDpi;
         c.maxImageDimension = this.maxImageDimension;
         c.maxDecodePixels = this.maxDecodePixels;
+        c.maxImageCostMillis = this.maxImageCostMillis;
+        c.imageTimeLimitMillis = this.imageTimeLimitMillis;
         c.jpegQuality = this.jpegQuality;
         c.minDimension = this.minDimension;
         c.minByteSize = this.minByteSize;
@@ -73,8 +101,32 @@ public class PdfCompressionProperties {
         c.recompressCmyk = this.recompressCmyk;
         c.parallelism = this.parallelism;
         c.parallelImageThreshold = this.parallelImageThreshold;
+        c.pipelineBatches = this.pipelineBatches;
+        c.parallelDecode = this.parallelDecode;
+        c.subsampledDecode = this.subsampledDecode;
+        c.requantizeJpeg = this.requantizeJpeg;
+        c.resampler = this.resampler;
+        c.packedBitonal = this.packedBitonal;
+        c.parallelResamplePixels = this.parallelResamplePixels;
+        c.microImagePixels = this.microImagePixels;
+        c.microImageChunk = this.microImageChunk;
+        c.jpegEncoder = this.jpegEncoder;
+        c.losslessJpeg = this.losslessJpeg;
+        c.gainPredictor = this.gainPredictor;
+        c.gainPredictorAuditInterval = this.gainPredictorAuditInterval;
+        c.separateSoftMask = this.separateSoftMask;
+        c.paletteImages = this.paletteImages;
+        c.pngBruteForcePixels = this.pngBruteForcePixels;
+        c.cmykJpeg = this.cmykJpeg;
+        c.toneClassification = this.toneClassification;
+        c.grayTolerance = this.grayTolerance;
+        c.bitonalRatio = this.bitonalRatio;
+        c.cropToClip = this.cropToClip;
+        c.batchDecodedBytes = this.batchDecodedBytes;
         c.maxConcurrentCompressions = this.maxConcurrentCompressions;
         c.deduplicateImages = this.deduplicateImages;
+        c.pixelDeduplication = this.pixelDeduplication;
+        c.perceptualHashDistance = this.perceptualHashDistance;
         c.stripMetadata = this.stripMetadata;
         c.stripPrivateData = this.stripPrivateData;
         c.logComposition = this.logComposition;
@@ -143,6 +195,52 @@ public class PdfCompressionProperties {
         this.maxDecodePixels = maxDecodePixels;
     }
 
+    /**
+     * Estimated decode and transform time, in milliseconds, above which an
+     * image is left unchanged without being decoded. The estimate comes from
+     * {@link ImageCostModel}: source and target pixels weighted by how fast
+     * each filter decodes, so a large JPEG 2000 or JBIG2 image reaches it
+     * long before a JPEG of the same size does. Defaults to 60,000, which
+     * only stops images no request should wait for; {@code 0} disables it.
+     * Not overridable per request, like {@link #getMaxDecodePixels()}.
+     */
+    public long getMaxImageCostMillis() {
+        return maxImageCostMillis;
+    }
+
+    public void setMaxImageCostMillis(long maxImageCostMillis) {
+        Assert.isTrue(maxImageCostMillis >= 0L,
+                () -> "pdf.compression.max-image-cost-millis must be >= 0 (0 = disabled) but was "
+                        + maxImageCostMillis);
+        this.maxImageCostMillis = maxImageCostMillis;
+    }
+
+    /**
+     * Wall-clock time, in milliseconds, one image may spend decoding and
+     * transforming on the image pool before it is abandoned and its original
+     * left in place. Timed from when a worker picks the image up, not from
+     * when it was queued. Abandoning only interrupts the worker, which skips
+     * what is left of the image at its next stripe or decode-to-transform
+     * boundary. A decode or encode inside PDFBox or ImageIO ignores the
+     * interrupt, so it runs on until it returns, keeping its pool thread
+     * busy the whole time, and then its result is dropped. The limit bounds
+     * how long a request waits, not how long the pool works.
+     * Images the cost model rates as slow are always sent to the pool, decode
+     * included, so this covers them on the serial path too, except with a
+     * {@link #resolveParallelism() parallelism} of {@code 1}, where nothing
+     * leaves the calling thread. Defaults to 30,000; {@code 0} disables it.
+     */
+    public long getImageTimeLimitMillis() {
+        return imageTimeLimitMillis;
+    }
+
+    public void setImageTimeLimitMillis(long imageTimeLimitMillis) {
+        Assert.isTrue(imageTimeLimitMillis >= 0L,
+                () -> "pdf.compression.image-time-limit-millis must be >= 0 (0 = disabled) but was "
+                        + imageTimeLimitMillis);
+        this.imageTimeLimitMillis = imageTimeLimitMillis;
+    }
+
     public float getJpegQuality() {
         return jpegQuality;
     }
@@ -202,6 +300,14 @@ public class PdfCompressionProperties {
         this.streamCache = streamCache;
     }
 
+    /**
+     * Whether CMYK images ({@code DeviceCMYK} or 4-component {@code
+     * ICCBased}) are processed at all (default {@code false}, leaving them
+     * untouched). When on, CMYK JPEGs stay 4-component JPEGs in their
+     * original colour space (see {@link #isCmykJpeg()}), and every other
+     * CMYK image is converted to RGB through a per-profile lookup table
+     * shared across requests.
+     */
     public boolean isRecompressCmyk() {
         return recompressCmyk;
     }
@@ -258,6 +364,388 @@ public class PdfCompressionProperties {
         this.parallelImageThreshold = parallelImageThreshold;
     }
 
+    /**
+     * Whether the parallel image path overlaps consecutive batches (default
+     * {@code true}): while the shared pool resizes/encodes batch N, the
+     * document thread decodes batch N+1 and then attaches batch N-1, instead
+     * of idling until each batch's pool work completes. Attach order is
+     * unchanged (strict discovery order), so the output is identical either
+     * way; only wall-clock time differs. Two batches are then live at once,
+     * so each is planned at half of {@link #getBatchDecodedBytes()} and the
+     * peak stays within it. {@code false} restores the strict decode,
+     * transform, attach sequence per batch.
+     */
+    public boolean isPipelineBatches() {
+        return pipelineBatches;
+    }
+
+    public void setPipelineBatches(boolean pipelineBatches) {
+        this.pipelineBatches = pipelineBatches;
+    }
+
+    /**
+     * Whether the parallel image path also moves image decoding onto the
+     * shared pool (default {@code true}). The document thread then only
+     * copies each image's encoded stream (and soft mask) into a detached
+     * snapshot, which is cheap, and the decode/classify step runs inside the
+     * image's pool task next to its resize/encode. Output is identical either
+     * way. Has no effect on the sequential path, which always decodes on the
+     * document thread. {@code false} keeps decoding on the document thread.
+     */
+    public boolean isParallelDecode() {
+        return parallelDecode;
+    }
+
+    public void setParallelDecode(boolean parallelDecode) {
+        this.parallelDecode = parallelDecode;
+    }
+
+    /**
+     * Whether images about to be downsampled by 2x or more are decoded at a
+     * reduced resolution (default {@code true}): the largest power-of-two
+     * subsampling that still leaves at least the target pixel size, so only
+     * the final resample step remains. Saves decode time and transient heap
+     * roughly by the square of the reduction. Bitonal images are always
+     * decoded in full, since dropping samples would lose thin strokes.
+     */
+    public boolean isSubsampledDecode() {
+        return subsampledDecode;
+    }
+
+    public void setSubsampledDecode(boolean subsampledDecode) {
+        this.subsampledDecode = subsampledDecode;
+    }
+
+    /**
+     * Whether an existing JPEG that is not being downsampled, only lowered to
+     * {@link #getJpegQuality()}, is requantized in the DCT domain (default
+     * {@code true}) instead of being decoded to pixels and re-encoded. That
+     * skips the IDCT, colour conversion and forward DCT, avoids generation
+     * loss and keeps the original colour space. Applies to plain baseline or
+     * extended 8-bit gray/RGB JPEGs whose quality is above the target; any
+     * other image takes the normal path.
+     */
+    public boolean isRequantizeJpeg() {
+        return requantizeJpeg;
+    }
+
+    public void setRequantizeJpeg(boolean requantizeJpeg) {
+        this.requantizeJpeg = requantizeJpeg;
+    }
+
+    /**
+     * How images are shrunk to their target size (default {@link
+     * Resampler#JAVA2D}, the original {@code Graphics2D} halving). {@code
+     * AREA}, {@code BICUBIC} and {@code LANCZOS3} use the single-pass
+     * separable resampler on raw raster arrays instead, which allocates one
+     * output image per resize rather than one per halving step.
+     */
+    public Resampler getResampler() {
+        return resampler;
+    }
+
+    public void setResampler(Resampler resampler) {
+        Assert.notNull(resampler, "pdf.compression.resampler must not be null");
+        this.resampler = resampler;
+    }
+
+    /**
+     * Whether 1-bit gray images are read and downsampled as packed bits
+     * (default {@code true}): samples go straight into a one-bit raster and
+     * each output pixel is the majority of its source box, so a scan is never
+     * expanded to 8-bit gray. Images with masks, another colour space or an
+     * unusual decode array take the gray resample-and-threshold path.
+     */
+    public boolean isPackedBitonal() {
+        return packedBitonal;
+    }
+
+    public void setPackedBitonal(boolean packedBitonal) {
+        this.packedBitonal = packedBitonal;
+    }
+
+    /**
+     * Source pixel count from which a single image's resize is split into
+     * row stripes across the shared image pool, so one huge image (a
+     * poster, a large-format drawing) uses every core instead of one.
+     * Applies to the separable {@link #getResampler() resamplers}, the
+     * {@link #isPackedBitonal() packed bitonal} downsample and the built-in
+     * {@link #getJpegEncoder() JPEG encoders}, whose rows are independent,
+     * so the output is pixel-identical to a single-threaded run (a split
+     * {@code BASELINE} JPEG gains one restart marker per MCU row); {@link
+     * Resampler#JAVA2D} is not split, since clipped
+     * {@code Graphics2D} drawing does not reproduce it exactly at the seams.
+     * Defaults to 8,000,000; {@code 0} disables splitting.
+     */
+    public long getParallelResamplePixels() {
+        return parallelResamplePixels;
+    }
+
+    public void setParallelResamplePixels(long parallelResamplePixels) {
+        Assert.isTrue(parallelResamplePixels >= 0L,
+                () -> "pdf.compression.parallel-resample-pixels must be >= 0 (0 = never split) but was "
+                        + parallelResamplePixels);
+        this.parallelResamplePixels = parallelResamplePixels;
+    }
+
+    /**
+     * Source pixel count up to which an image counts as a micro image on the
+     * parallel path (icons, table glyphs, thumbnails, map tiles): instead of
+     * a pool task each, micro images are transformed in chunks of {@link
+     * #getMicroImageChunk()} per task, one after another on one worker, so
+     * per-task bookkeeping stays small next to their encode work and they
+     * reuse that worker's encoder scratch. Output is identical either way.
+     * Defaults to 65,536 (256x256); {@code 0} gives every image its own task.
+     */
+    public long getMicroImagePixels() {
+        return microImagePixels;
+    }
+
+    public void setMicroImagePixels(long microImagePixels) {
+        Assert.isTrue(microImagePixels >= 0L,
+                () -> "pdf.compression.micro-image-pixels must be >= 0 (0 = no micro lane) but was "
+                        + microImagePixels);
+        this.microImagePixels = microImagePixels;
+    }
+
+    /**
+     * Most micro images (see {@link #getMicroImagePixels()}) one pool task
+     * transforms. A batch with fewer micro images than workers times this
+     * spreads them evenly instead, so every worker still gets a chunk.
+     * Defaults to 64; must be {@code >= 1}.
+     */
+    public int getMicroImageChunk() {
+        return microImageChunk;
+    }
+
+    public void setMicroImageChunk(int microImageChunk) {
+        Assert.isTrue(microImageChunk >= 1,
+                () -> "pdf.compression.micro-image-chunk must be >= 1 but was " + microImageChunk);
+        this.microImageChunk = microImageChunk;
+    }
+
+    /**
+     * Which encoder writes JPEG replacements (default {@link
+     * JpegEncoder#IMAGEIO}, the JDK writer). {@code BASELINE} and {@code
+     * PROGRESSIVE} use the built-in encoder, which works on the raster
+     * arrays and optimizes its Huffman tables per image; images above
+     * {@link #getParallelResamplePixels()} are transformed, and as {@code
+     * BASELINE} also entropy-coded, across the image pool.
+     */
+    public JpegEncoder getJpegEncoder() {
+        return jpegEncoder;
+    }
+
+    public void setJpegEncoder(JpegEncoder jpegEncoder) {
+        Assert.notNull(jpegEncoder, "pdf.compression.jpeg-encoder must not be null");
+        this.jpegEncoder = jpegEncoder;
+    }
+
+    /**
+     * Whether existing JPEGs that keep their size and that {@link
+     * #isRequantizeJpeg() requantizing} would not change are rewritten
+     * losslessly instead of decoded and re-encoded (default {@code true}):
+     * the same DCT coefficients with optimized Huffman tables, sequential or
+     * progressive, whichever is smaller, and without metadata segments. The
+     * result decodes to exactly the original pixels, so it is kept whenever
+     * it is smaller at all. Requantized JPEGs are written the same way.
+     */
+    public boolean isLosslessJpeg() {
+        return losslessJpeg;
+    }
+
+    public void setLosslessJpeg(boolean losslessJpeg) {
+        this.losslessJpeg = losslessJpeg;
+    }
+
+    /**
+     * Whether a JPEG headed for the pixel path (decode, re-encode) is first
+     * checked by a decode-free size estimate, built from its bytes per pixel,
+     * its quantization table and the target size, and left unchanged when
+     * the re-encode could not clear the size guard anyway (default {@code
+     * true}). JPEGs rewritten in the DCT domain are cheap already and are
+     * not predicted.
+     */
+    public boolean isGainPredictor() {
+        return gainPredictor;
+    }
+
+    public void setGainPredictor(boolean gainPredictor) {
+        this.gainPredictor = gainPredictor;
+    }
+
+    /**
+     * Every how many predicted skips one is processed anyway to check the
+     * prediction, feeding the false-skip estimate in the {@code
+     * pcs.images.predictor} metrics (default {@code 20}; {@code 0} = never).
+     */
+    public int getGainPredictorAuditInterval() {
+        return gainPredictorAuditInterval;
+    }
+
+    public void setGainPredictorAuditInterval(int gainPredictorAuditInterval) {
+        Assert.isTrue(gainPredictorAuditInterval >= 0,
+                () -> "pdf.compression.gain-predictor-audit-interval must be >= 0 (0 = never) but was "
+                        + gainPredictorAuditInterval);
+        this.gainPredictorAuditInterval = gainPredictorAuditInterval;
+    }
+
+    /**
+     * Whether an image with a soft mask is processed as two images (default
+     * {@code true}): its colour data takes the grayscale or colour path
+     * (JPEG when photographic), and the mask is resampled by the same factor
+     * and Flate-encoded as its own {@code /SMask}, or kept as it is when the
+     * image is not downsampled. When {@code false}, or when the mask has a
+     * {@code /Matte}, both are composited and re-encoded as lossless ARGB.
+     */
+    public boolean isSeparateSoftMask() {
+        return separateSoftMask;
+    }
+
+    public void setSeparateSoftMask(boolean separateSoftMask) {
+        this.separateSoftMask = separateSoftMask;
+    }
+
+    /**
+     * Whether colour images with at most 256 distinct colours, {@code
+     * /Indexed} originals among them, are written as {@code /Indexed} Flate
+     * images at 1, 2, 4 or 8 bits per pixel instead of RGB (default {@code
+     * true}). A downsampled image is counted again after the resize and
+     * stays a palette image only if its blended edges still fit.
+     */
+    public boolean isPaletteImages() {
+        return paletteImages;
+    }
+
+    public void setPaletteImages(boolean paletteImages) {
+        this.paletteImages = paletteImages;
+    }
+
+    /**
+     * Pixel budget up to which lossless Flate output picks each row's PNG
+     * filter by trial-compressing all five candidates (default {@code
+     * 1000000}, roughly five times the deflate work of those images).
+     * Larger images choose by the minimum-sum-of-absolute-differences
+     * heuristic. {@code 0} = always use the heuristic.
+     */
+    public long getPngBruteForcePixels() {
+        return pngBruteForcePixels;
+    }
+
+    public void setPngBruteForcePixels(long pngBruteForcePixels) {
+        Assert.isTrue(pngBruteForcePixels >= 0L,
+                () -> "pdf.compression.png-brute-force-pixels must be >= 0 (0 = never) but was "
+                        + pngBruteForcePixels);
+        this.pngBruteForcePixels = pngBruteForcePixels;
+    }
+
+    /**
+     * Whether CMYK JPEGs, when {@link #isRecompressCmyk()} lets them through
+     * and they have to be re-encoded from pixels (downsampled, or in a JPEG
+     * coding the DCT-domain paths cannot read), are written as 4-component
+     * Adobe JPEGs in their original colour space instead of being converted
+     * to RGB (default {@code true}). Images with a mask always take the RGB
+     * path.
+     */
+    public boolean isCmykJpeg() {
+        return cmykJpeg;
+    }
+
+    public void setCmykJpeg(boolean cmykJpeg) {
+        this.cmykJpeg = cmykJpeg;
+    }
+
+    /**
+     * Whether opaque images are classified by a sample of their pixels, not
+     * just their colour model (default {@code true}): colour images whose
+     * pixels are all gray (see {@link #getGrayTolerance()}) take the
+     * grayscale path when photographic, and gray content that is almost all
+     * ink and paper (see {@link #getBitonalRatio()}) is thresholded to a
+     * CCITT G4 bitonal image. Colour scans of black-and-white pages are the
+     * case this is for.
+     */
+    public boolean isToneClassification() {
+        return toneClassification;
+    }
+
+    public void setToneClassification(boolean toneClassification) {
+        this.toneClassification = toneClassification;
+    }
+
+    /**
+     * Largest difference between a pixel's red, green and blue levels for it
+     * to count as gray when {@linkplain #isToneClassification() classifying}
+     * a colour image (default {@code 10}, enough for scanner noise and JPEG
+     * chroma error). {@code 0} accepts only exact grays.
+     */
+    public int getGrayTolerance() {
+        return grayTolerance;
+    }
+
+    public void setGrayTolerance(int grayTolerance) {
+        Assert.isTrue(grayTolerance >= 0 && grayTolerance <= 255,
+                () -> "pdf.compression.gray-tolerance must be within [0, 255] but was " + grayTolerance);
+        this.grayTolerance = grayTolerance;
+    }
+
+    /**
+     * Share of sampled pixels that must be near black or near white for
+     * gray content to be treated as bitonal (default {@code 0.95}; the rest
+     * is the anti-aliased edge of the text). {@code 1.0} admits only pages
+     * with no mid-tones at all.
+     */
+    public float getBitonalRatio() {
+        return bitonalRatio;
+    }
+
+    public void setBitonalRatio(float bitonalRatio) {
+        Assert.isTrue(bitonalRatio > 0.0f && bitonalRatio <= 1.0f,
+                () -> "pdf.compression.bitonal-ratio must be within (0.0, 1.0] but was " + bitonalRatio);
+        this.bitonalRatio = bitonalRatio;
+    }
+
+    /**
+     * Whether to crop an image to the part of it its clipping paths ever let
+     * show (default {@code true}). A large photo framed through a small clip
+     * window keeps only the visible pixels (plus a small margin), and its
+     * resource entry is replaced by a form XObject that draws the cropped
+     * image at the same place, so the page looks the same while no content
+     * stream is edited. Only applies when every drawing of the image was
+     * observed on a page or form, and never to masked images.
+     */
+    public boolean isCropToClip() {
+        return cropToClip;
+    }
+
+    public void setCropToClip(boolean cropToClip) {
+        this.cropToClip = cropToClip;
+    }
+
+    /**
+     * Budget, in bytes of estimated decoded raster (width x height x colour
+     * components, read from image metadata before anything is decoded), that
+     * one image batch may hold. Batches are filled in discovery order up to
+     * this budget, so many small images (logos, icons) share one batch and
+     * keep the pool busy, while a handful of very large photos go to separate
+     * batches and peak heap stays predictable. With {@link
+     * #isPipelineBatches()} on the parallel path two batches are live, so
+     * each is planned at half this budget. An image is never split: one
+     * larger than a batch's share is processed alone, and only it can take
+     * the peak over the budget. Defaults to 256 MiB;
+     * {@code 0} restores the plain count-based batching (one image per worker
+     * thread per batch).
+     */
+    public long getBatchDecodedBytes() {
+        return batchDecodedBytes;
+    }
+
+    public void setBatchDecodedBytes(long batchDecodedBytes) {
+        Assert.isTrue(batchDecodedBytes >= 0L,
+                () -> "pdf.compression.batch-decoded-bytes must be >= 0 (0 = count-based) but was "
+                        + batchDecodedBytes);
+        this.batchDecodedBytes = batchDecodedBytes;
+    }
+
     /**
      * Maximum number of documents {@link PdfCompressionEngine} will process
      * concurrently. This is an admission gate that bounds peak heap: each
@@ -311,6 +799,40 @@ public class PdfCompressionProperties {
         this.deduplicateImages = deduplicateImages;
     }
 
+    /**
+     * How images that are the same picture under different encodings are
+     * merged, with {@link #isDeduplicateImages()} on (default {@link
+     * PixelDeduplication#EXACT}). Decoded pixels are fingerprinted on the
+     * image pool, for every image that takes a pixel path; each group of
+     * matches is pointed at the member with the most pixels, so no reference
+     * ends up with less resolution than it had.
+     */
+    public PixelDeduplication getPixelDeduplication() {
+        return pixelDeduplication;
+    }
+
+    public void setPixelDeduplication(PixelDeduplication pixelDeduplication) {
+        Assert.notNull(pixelDeduplication, "pdf.compression.pixel-deduplication must not be null");
+        this.pixelDeduplication = pixelDeduplication;
+    }
+
+    /**
+     * Most bits, of 64, in which the difference hashes of two images may
+     * differ for {@link PixelDeduplication#PERCEPTUAL} to merge them (default
+     * {@code 4}). {@code 0} still tolerates re-encoding losses that leave
+     * every hash bit alone.
+     */
+    public int getPerceptualHashDistance() {
+        return perceptualHashDistance;
+    }
+
+    public void setPerceptualHashDistance(int perceptualHashDistance) {
+        Assert.isTrue(perceptualHashDistance >= 0 && perceptualHashDistance <= 32,
+                () -> "pdf.compression.perceptual-hash-distance must be within [0, 32] but was "
+                        + perceptualHashDistance);
+        this.perceptualHashDistance = perceptualHashDistance;
+    }
+
     /**
      * Whether to strip document metadata (the XMP {@code /Metadata} stream and
      * the {@code /Info} dictionary) from the output (default {@code false}).
@@ -0,0 +1,25 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+/**
+ * Selects how {@link PdfCompressionEngine} recognises the same picture
+ * embedded more than once under different encodings (a logo as JPEG on one
+ * page and as Flate on the next), on top of the byte-level deduplication of
+ * {@link PdfCompressionProperties#isDeduplicateImages()}. Compared on the
+ * decoded pixels of every image that goes through the pixel paths.
+ */
+public enum PixelDeduplication {
+
+    /** Only byte-identical images are merged. */
+    OFF,
+
+    /** Images whose decoded pixels are identical, at the same size, are merged. */
+    EXACT,
+
+    /**
+     * Images that look the same are merged: same aspect ratio and average
+     * colour, and difference hashes no more than {@link
+     * PdfCompressionProperties#getPerceptualHashDistance()} bits apart. Lossy,
+     * since copies re-encoded with different losses all become the one kept.
+     */
+    PERCEPTUAL
+}
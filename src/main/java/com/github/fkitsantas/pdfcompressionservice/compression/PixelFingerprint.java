@@ -0,0 +1,119 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * What an image's decoded pixels look like, for {@link PixelDeduplication}.
+ * {@code digest} is a SHA-256 over the dimensions and every ARGB pixel, set
+ * only for {@link PixelDeduplication#EXACT}; {@code hash} (a 64-bit
+ * difference hash of the luma, averaged over a 9x8 grid) and {@code meanRgb}
+ * are set only for {@link PixelDeduplication#PERCEPTUAL}. Computed in
+ * {@link ImageOptimizer#transform} on the image pool, in one pass over the
+ * pixels.
+ */
+record PixelFingerprint(int width, int height, byte[] digest, long hash, int meanRgb) {
+
+    /** Largest difference in aspect ratio, relative, between perceptual duplicates. */
+    private static final double MAX_ASPECT_DIFFERENCE = 0.02;
+
+    /** Largest difference in any channel's average level between perceptual duplicates. */
+    private static final int MAX_MEAN_DIFFERENCE = 8;
+
+    private static final int GRID_W = 9;
+    private static final int GRID_H = 8;
+
+    static PixelFingerprint exact(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        MessageDigest sha256 = sha256();
+        sha256.update(new byte[]{(byte) (w >>> 24), (byte) (w >>> 16), (byte) (w >>> 8), (byte) w,
+                (byte) (h >>> 24), (byte) (h >>> 16), (byte) (h >>> 8), (byte) h});
+        int[] row = new int[w];
+        byte[] bytes = new byte[w * 4];
+        for (int y = 0; y < h; y++) {
+            image.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0, i = 0; x < w; x++, i += 4) {
+                int argb = row[x];
+                bytes[i] = (byte) (argb >>> 24);
+                bytes[i + 1] = (byte) (argb >>> 16);
+                bytes[i + 2] = (byte) (argb >>> 8);
+                bytes[i + 3] = (byte) argb;
+            }
+            sha256.update(bytes);
+        }
+        return new PixelFingerprint(w, h, sha256.digest(), 0L, 0);
+    }
+
+    static PixelFingerprint perceptual(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        long[] luma = new long[GRID_W * GRID_H];
+        long[] counts = new long[GRID_W * GRID_H];
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRGB(0, y, w, 1, row, 0, w);
+            int cellRow = (int) ((long) y * GRID_H / h) * GRID_W;
+            for (int x = 0; x < w; x++) {
+                int rgb = row[x];
+                int r = rgb >> 16 & 0xFF;
+                int g = rgb >> 8 & 0xFF;
+                int b = rgb & 0xFF;
+                int cell = cellRow + (int) ((long) x * GRID_W / w);
+                luma[cell] += PixelKernels.gray(r, g, b);
+                counts[cell]++;
+                red += r;
+                green += g;
+                blue += b;
+            }
+        }
+        long hash = 0L;
+        for (int cy = 0; cy < GRID_H; cy++) {
+            for (int cx = 0; cx < GRID_W - 1; cx++) {
+                int left = cy * GRID_W + cx;
+                // Compared as averages, cross-multiplied so unequal cells need no division.
+                boolean brighter = luma[left] * counts[left + 1] > luma[left + 1] * counts[left];
+                hash = hash << 1 | (brighter ? 1 : 0);
+            }
+        }
+        long pixels = (long) w * h;
+        int meanRgb = (int) (red / pixels) << 16 | (int) (green / pixels) << 8 | (int) (blue / pixels);
+        return new PixelFingerprint(w, h, null, hash, meanRgb);
+    }
+
+    /** Whether this and {@code other} show the same picture under {@code mode}. */
+    boolean matches(PixelFingerprint other, PixelDeduplication mode, int maxHashDistance) {
+        return switch (mode) {
+            case OFF -> false;
+            case EXACT -> width == other.width && height == other.height && digest != null
+                    && Arrays.equals(digest, other.digest);
+            case PERCEPTUAL -> digest == null && other.digest == null
+                    && Math.abs((double) width * other.height / ((double) height * other.width) - 1.0)
+                            <= MAX_ASPECT_DIFFERENCE
+                    && Long.bitCount(hash ^ other.hash) <= maxHashDistance
+                    && channelsWithin(meanRgb, other.meanRgb, MAX_MEAN_DIFFERENCE);
+        };
+    }
+
+    private static boolean channelsWithin(int a, int b, int tolerance) {
+        for (int shift = 0; shift <= 16; shift += 8) {
+            if (Math.abs((a >> shift & 0xFF) - (b >> shift & 0xFF)) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is a mandatory JDK algorithm", e);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Per-pixel classification and conversion loops for {@link ImageOptimizer},
+ * run directly on the {@code int[]}/{@code byte[]} behind a raster instead of
+ * through {@code getRGB}/{@code setRGB} or {@code Graphics2D}. The loops are
+ * plain counted loops over primitive arrays, the shape HotSpot's
+ * auto-vectorizer handles, and allocate nothing per pixel.
+ *
+ * <p>Every kernel only takes its fast path for the tightly packed standard
+ * layouts {@link BufferedImage} itself creates; anything else (sub-images,
+ * custom rasters, indexed colour) falls back to the generic accessors, so
+ * results never depend on which path ran. Conversions reproduce Java2D's
+ * own loops exactly (e.g. its {@code (77r + 150g + 29b + 128) / 256} gray
+ * weighting), so swapping them in changes no output.
+ */
+final class PixelKernels {
+
+    /**
+     * {@code getRGB} level of each raw {@code TYPE_BYTE_GRAY} sample. The
+     * gray colour model converts through its linear colour space on the way
+     * to sRGB, so the two differ; thresholding has always compared the
+     * {@code getRGB} level, and still does.
+     */
+    private static final int[] GRAY_SAMPLE_TO_RGB_LEVEL = grayLevels();
+
+    /** Sampled pixels per thousand that may fall outside the gray tolerance (scanner colour fringing). */
+    static final int GRAY_OUTLIERS_PER_MILLE = 1;
+
+    /** Gray levels at or below which a pixel counts as ink for {@link Tone#BITONAL}. */
+    private static final int BITONAL_DARK_LEVEL = 96;
+
+    /** Gray levels at or above which a pixel counts as paper for {@link Tone#BITONAL}. */
+    private static final int BITONAL_LIGHT_LEVEL = 160;
+
+    /** What an opaque image's pixels amount to, whatever its colour model says; see {@link #tone}. */
+    enum Tone {
+        COLOR, GRAY, BITONAL
+    }
+
+    private PixelKernels() {
+    }
+
+    private static int[] grayLevels() {
+        BufferedImage ramp = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+        for (int v = 0; v < 256; v++) {
+            ramp.getRaster().setSample(v, 0, 0, v);
+        }
+        int[] levels = ramp.getRGB(0, 0, 256, 1, null, 0, 256);
+        for (int v = 0; v < 256; v++) {
+            levels[v] &= 0xFF;
+        }
+        return levels;
+    }
+
+    // ------------------------------------------------------------------
+    // Classification
+    // ------------------------------------------------------------------
+
+    /**
+     * Whether more than {@code threshold} distinct RGB colours appear among
+     * roughly {@code maxSamples} pixels sampled on a regular grid. Stops as
+     * soon as the threshold is crossed.
+     */
+    static boolean hasMoreDistinctColorsThan(BufferedImage image, int threshold, int maxSamples) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        long totalPixels = (long) w * h;
+        int step = (int) Math.max(1, Math.sqrt((double) totalPixels / maxSamples));
+        ColorSet colors = new ColorSet(threshold + 1);
+        int[] packed = packedInts(image);
+        int[] row = packed == null ? new int[w] : null;
+        for (int y = 0; y < h; y += step) {
+            int[] source;
+            int offset;
+            if (packed != null) {
+                source = packed;
+                offset = y * w;
+            } else {
+                source = image.getRGB(0, y, w, 1, row, 0, w);
+                offset = 0;
+            }
+            for (int x = 0; x < w; x += step) {
+                if (colors.add(source[offset + x] & 0xFFFFFF) && colors.size() > threshold) {
+                    return true;
+                }
+            }
+        }
+        return colors.size() > threshold;
+    }
+
+    /**
+     * Classifies an opaque image from roughly {@code maxSamples} pixels
+     * sampled on a regular grid. It is {@link Tone#COLOR} as soon as more
+     * than {@value #GRAY_OUTLIERS_PER_MILLE} in a thousand samples have
+     * channels further than {@code grayTolerance} apart, otherwise {@link
+     * Tone#BITONAL} when at least {@code bitonalRatio} of them are near
+     * black or near white, otherwise {@link Tone#GRAY}.
+     */
+    static Tone tone(BufferedImage image, int grayTolerance, double bitonalRatio, int maxSamples) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        long totalPixels = (long) w * h;
+        int step = (int) Math.max(1, Math.sqrt((double) totalPixels / maxSamples));
+        long samples = (long) ((w + step - 1) / step) * ((h + step - 1) / step);
+        long outlierLimit = samples * GRAY_OUTLIERS_PER_MILLE / 1000;
+        long outliers = 0;
+        long extremes = 0;
+        int[] packed = packedInts(image);
+        int[] row = packed == null ? new int[w] : null;
+        for (int y = 0; y < h; y += step) {
+            int[] source;
+            int offset;
+            if (packed != null) {
+                source = packed;
+                offset = y * w;
+            } else {
+                source = image.getRGB(0, y, w, 1, row, 0, w);
+                offset = 0;
+            }
+            for (int x = 0; x < w; x += step) {
+                int p = source[offset + x];
+                int r = p >> 16 & 0xFF;
+                int g = p >> 8 & 0xFF;
+                int b = p & 0xFF;
+                int spread = Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b));
+                if (spread > grayTolerance && ++outliers > outlierLimit) {
+                    return Tone.COLOR;
+                }
+                int level = gray(r, g, b);
+                if (level <= BITONAL_DARK_LEVEL || level >= BITONAL_LIGHT_LEVEL) {
+                    extremes++;
+                }
+            }
+        }
+        return extremes >= Math.ceil(samples * bitonalRatio) ? Tone.BITONAL : Tone.GRAY;
+    }
+
+    /** Whether any pixel is less than fully opaque. {@code false} for images without alpha. */
+    static boolean hasTranslucentPixel(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return false;
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] packed = packedInts(image);
+            if (packed != null) {
+                for (int pixel : packed) {
+                    if ((pixel >>> 24) != 0xFF) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        Raster alpha = image.getAlphaRaster();
+        if (alpha != null) {
+            int opaque = (1 << alpha.getSampleModel().getSampleSize(0)) - 1;
+            int[] row = new int[w];
+            for (int y = 0; y < h; y++) {
+                alpha.getSamples(alpha.getMinX(), alpha.getMinY() + y, w, 1, 0, row);
+                for (int x = 0; x < w; x++) {
+                    if (row[x] != opaque) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++) {
+                if ((row[x] >>> 24) != 0xFF) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------
+    // Conversion
+    // ------------------------------------------------------------------
+
+    /**
+     * Binarizes {@code gray} at mid-level (pixels whose {@code getRGB} level
+     * is below 128 become black) into a {@code TYPE_BYTE_BINARY} image,
+     * packing eight pixels per byte straight into its raster.
+     */
+    static BufferedImage threshold(BufferedImage gray) {
+        int w = gray.getWidth();
+        int h = gray.getHeight();
+        BufferedImage bin = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] out = ((DataBufferByte) bin.getRaster().getDataBuffer()).getData();
+        int outStride = (w + 7) / 8;
+        byte[] packed = gray.getType() == BufferedImage.TYPE_BYTE_GRAY ? packedBytes(gray, 1) : null;
+        int[] levels = new int[w];
+        for (int y = 0; y < h; y++) {
+            if (packed != null) {
+                int offset = y * w;
+                for (int x = 0; x < w; x++) {
+                    levels[x] = GRAY_SAMPLE_TO_RGB_LEVEL[packed[offset + x] & 0xFF];
+                }
+            } else {
+                gray.getRGB(0, y, w, 1, levels, 0, w);
+            }
+            int outOffset = y * outStride;
+            for (int x = 0; x < w; x++) {
+                // Default TYPE_BYTE_BINARY palette: bit 0 = black, bit 1 = white.
+                if ((levels[x] & 0xFF) >= 128) {
+                    out[outOffset + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                }
+            }
+        }
+        return bin;
+    }
+
+    /**
+     * {@code src} converted to {@code imageType} for the opaque conversions
+     * {@link ImageOptimizer} actually performs (packed RGB/BGR and gray,
+     * into RGB, ARGB or gray), or {@code null} when there is no fast path
+     * and the caller should fall back to {@code Graphics2D}.
+     */
+    static BufferedImage convert(BufferedImage src, int imageType) {
+        if (src.getColorModel().hasAlpha()) {
+            return null; // compositing rules apply, leave it to Java2D
+        }
+        int srcType = src.getType();
+        int[] ints = srcType == BufferedImage.TYPE_INT_RGB ? packedInts(src) : null;
+        byte[] bgr = srcType == BufferedImage.TYPE_3BYTE_BGR ? packedBytes(src, 3) : null;
+        byte[] gray = srcType == BufferedImage.TYPE_BYTE_GRAY ? packedBytes(src, 1) : null;
+        int n = src.getWidth() * src.getHeight();
+        if (imageType == BufferedImage.TYPE_INT_RGB || imageType == BufferedImage.TYPE_INT_ARGB) {
+            if (ints == null && bgr == null && gray == null) {
+                return null;
+            }
+            BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), imageType);
+            int[] dst = ((DataBufferInt) out.getRaster().getDataBuffer()).getData();
+            int alpha = imageType == BufferedImage.TYPE_INT_ARGB ? 0xFF000000 : 0;
+            if (ints != null) {
+                for (int i = 0; i < n; i++) {
+                    dst[i] = ints[i] | alpha;
+                }
+            } else if (bgr != null) {
+                for (int i = 0, j = 0; i < n; i++, j += 3) {
+                    dst[i] = alpha | ((bgr[j + 2] & 0xFF) << 16) | ((bgr[j + 1] & 0xFF) << 8) | (bgr[j] & 0xFF);
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    int v = gray[i] & 0xFF;
+                    dst[i] = alpha | (v << 16) | (v << 8) | v;
+                }
+            }
+            return out;
+        }
+        if (imageType == BufferedImage.TYPE_BYTE_GRAY && (ints != null || bgr != null)) {
+            BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), imageType);
+            byte[] dst = ((DataBufferByte) out.getRaster().getDataBuffer()).getData();
+            if (ints != null) {
+                for (int i = 0; i < n; i++) {
+                    int p = ints[i];
+                    dst[i] = (byte) gray((p >> 16) & 0xFF, (p >> 8) & 0xFF, p & 0xFF);
+                }
+            } else {
+                for (int i = 0, j = 0; i < n; i++, j += 3) {
+                    dst[i] = (byte) gray(bgr[j + 2] & 0xFF, bgr[j + 1] & 0xFF, bgr[j] & 0xFF);
+                }
+            }
+            return out;
+        }
+        return null;
+    }
+
+    /** Java2D's RGB to 8-bit gray weighting ({@code ComposeByteGrayFrom3ByteRgb}). */
+    static int gray(int r, int g, int b) {
+        return (77 * r + 150 * g + 29 * b + 128) >> 8;
+    }
+
+    // ------------------------------------------------------------------
+    // Raw raster access
+    // ------------------------------------------------------------------
+
+    /** The backing array of a tightly packed TYPE_INT_RGB/ARGB image, or {@code null}. */
+    static int[] packedInts(BufferedImage image) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        Raster raster = image.getRaster();
+        if (raster.getParent() != null || raster.getDataBuffer().getOffset() != 0
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel model)
+                || model.getScanlineStride() != image.getWidth()) {
+            return null;
+        }
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
+    /** The backing array of a tightly packed byte-interleaved image with {@code pixelStride} bytes per pixel. */
+    private static byte[] packedBytes(BufferedImage image, int pixelStride) {
+        Raster raster = image.getRaster();
+        if (raster.getParent() != null || raster.getDataBuffer().getOffset() != 0
+                || !(raster.getDataBuffer() instanceof DataBufferByte buffer)
+                || !(raster.getSampleModel() instanceof ComponentSampleModel model)
+                || model.getPixelStride() != pixelStride
+                || model.getScanlineStride() != image.getWidth() * pixelStride) {
+            return null;
+        }
+        int[] offsets = model.getBandOffsets();
+        if (pixelStride == 3 && !Arrays.equals(offsets, new int[] {2, 1, 0})) {
+            return null;
+        }
+        return buffer.getData();
+    }
+
+    /**
+     * Open-addressing set of 24-bit RGB values, linear probing, {@code -1}
+     * marking an empty slot (never a valid colour). Sized up front for the
+     * most entries it will ever need, so it never rehashes.
+     */
+    private static final class ColorSet {
+        private final int[] slots;
+        private final int mask;
+        private int size;
+
+        ColorSet(int maxEntries) {
+            int capacity = Integer.highestOneBit(Math.max(4, maxEntries) * 2 - 1) << 1;
+            slots = new int[capacity];
+            Arrays.fill(slots, -1);
+            mask = capacity - 1;
+        }
+
+        /** Adds {@code color}; returns whether it was new. */
+        boolean add(int color) {
+            int i = (color * 0x9E3779B9) >>> 16 & mask;
+            while (true) {
+                int existing = slots[i];
+                if (existing == -1) {
+                    slots[i] = color;
+                    size++;
+                    return true;
+                }
+                if (existing == color) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
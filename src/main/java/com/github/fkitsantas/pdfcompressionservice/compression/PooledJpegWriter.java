@@ -0,0 +1,195 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * The {@code ImageIO} JPEG path with its per-call setup kept per worker: each
+ * {@code pdf-img-*} thread holds one {@link ImageWriter}, its {@link
+ * ImageWriteParam} and an in-memory output buffer, and reuses them for every
+ * image it encodes, instead of looking up a writer, building a param and
+ * growing a fresh stream (through repeated copies) per image. The buffer
+ * starts at a size estimated from the image's pixel count and quality, so a
+ * typical image is written without a single regrow.
+ *
+ * <p>Other threads (the sequential path runs Phase B on the document
+ * thread, which may be a short-lived virtual thread) get a one-shot writer
+ * that is disposed after the call, so nothing is parked on threads that
+ * will not encode again. A writer that fails mid-write is disposed and
+ * replaced rather than reused.
+ *
+ * <p>Output is byte-identical to a fresh writer's: each call sets the
+ * quality on the param and {@link ImageWriter#reset() resets} the writer
+ * afterwards.
+ */
+final class PooledJpegWriter {
+
+    /** Largest output buffer kept per thread between calls; a bigger one is dropped after use. */
+    static final int MAX_RETAINED_BUFFER = 8 * 1024 * 1024;
+
+    private static final int MIN_BUFFER = 8 * 1024;
+
+    private static final ThreadLocal<PooledJpegWriter> POOL = new ThreadLocal<>();
+
+    private final ImageWriter writer;
+    private final ImageWriteParam param;
+    private final BufferStream buffer = new BufferStream();
+
+    private PooledJpegWriter() {
+        writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        // Progressive JPEG: same pixels and quality, but a smaller file (the scans entropy-code
+        // more efficiently). Universally supported by PDF viewers. Only enabled when the writer
+        // supports it, so this never fails on an exotic ImageIO plugin.
+        if (param.canWriteProgressive()) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+    }
+
+    /** Encodes {@code image} at {@code quality}, reusing this thread's writer when it is a pool worker. */
+    static byte[] encode(BufferedImage image, float quality) throws IOException {
+        if (!Thread.currentThread().getName().startsWith(PdfCompressionEngine.IMAGE_THREAD_NAME_PREFIX)) {
+            PooledJpegWriter oneShot = new PooledJpegWriter();
+            try {
+                return oneShot.write(image, quality);
+            } finally {
+                oneShot.writer.dispose();
+            }
+        }
+        PooledJpegWriter pooled = POOL.get();
+        if (pooled == null) {
+            pooled = new PooledJpegWriter();
+            POOL.set(pooled);
+        }
+        boolean done = false;
+        try {
+            byte[] jpeg = pooled.write(image, quality);
+            done = true;
+            return jpeg;
+        } finally {
+            if (!done) {
+                POOL.remove();
+                pooled.writer.dispose();
+            }
+        }
+    }
+
+    private byte[] write(BufferedImage image, float quality) throws IOException {
+        buffer.rewind(estimateSize((long) image.getWidth() * image.getHeight(),
+                image.getRaster().getNumBands() == 1, quality));
+        param.setCompressionQuality(quality);
+        try {
+            writer.setOutput(buffer);
+            writer.write(null, new IIOImage(image, null, null), param);
+            return buffer.toByteArray();
+        } finally {
+            writer.reset();
+            buffer.release();
+        }
+    }
+
+    /**
+     * Expected JPEG size for {@code pixels} pixels at {@code quality}: bits per pixel
+     * grow roughly linearly with quality on scanned and photographic content
+     * (about 2.75 at 0.75 for colour), and a single gray component costs
+     * about 60% of a 4:2:0 colour image.
+     */
+    static int estimateSize(long pixels, boolean gray, float quality) {
+        double bitsPerPixel = 0.5 + 3.0 * quality;
+        if (gray) {
+            bitsPerPixel *= 0.6;
+        }
+        double bytes = pixels * bitsPerPixel / 8;
+        return (int) Math.max(MIN_BUFFER, Math.min(MAX_RETAINED_BUFFER, bytes));
+    }
+
+    /** Random-access in-memory {@code ImageOutputStream} over one reusable, growable array. */
+    static final class BufferStream extends ImageOutputStreamImpl {
+        private byte[] data = new byte[0];
+        private int length;
+
+        /** Empties the stream, making sure the array holds at least {@code capacity} bytes. */
+        void rewind(int capacity) {
+            if (data.length < capacity) {
+                data = new byte[capacity];
+            }
+            length = 0;
+            streamPos = 0;
+            flushedPos = 0;
+            bitOffset = 0;
+        }
+
+        /** Drops an array that grew past {@link #MAX_RETAINED_BUFFER}, so one huge image does not pin it. */
+        void release() {
+            if (data.length > MAX_RETAINED_BUFFER) {
+                data = new byte[0];
+            }
+        }
+
+        int capacity() {
+            return data.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            ensureCapacity(streamPos + 1);
+            data[(int) streamPos++] = (byte) b;
+            length = Math.max(length, (int) streamPos);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            ensureCapacity(streamPos + len);
+            System.arraycopy(b, off, data, (int) streamPos, len);
+            streamPos += len;
+            length = Math.max(length, (int) streamPos);
+        }
+
+        @Override
+        public int read() {
+            bitOffset = 0;
+            return streamPos < length ? data[(int) streamPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            bitOffset = 0;
+            if (streamPos >= length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, length - streamPos);
+            System.arraycopy(data, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        private void ensureCapacity(long needed) throws IOException {
+            if (needed > Integer.MAX_VALUE - 8) {
+                throw new IOException("JPEG output exceeds 2 GB");
+            }
+            if (needed > data.length) {
+                data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8,
+                        Math.max(needed, (long) data.length * 2)));
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+/**
+ * Selects how {@link ImageOptimizer} shrinks an image to its target pixel
+ * size. {@link #JAVA2D} is the original {@code Graphics2D} path; the others
+ * use {@link SeparableResampler}, a single-pass separable filter working
+ * directly on raster arrays.
+ */
+public enum Resampler {
+
+    /** Repeated bicubic halving through {@code Graphics2D.drawImage}. */
+    JAVA2D,
+
+    /** Exact area averaging (box filter over each output pixel's footprint): softest, no ringing. */
+    AREA,
+
+    /** Catmull-Rom bicubic, widened to the downscale ratio: sharp, mild ringing. */
+    BICUBIC,
+
+    /** Three-lobe Lanczos, widened to the downscale ratio: sharpest, most ringing. */
+    LANCZOS3
+}
@@ -0,0 +1,473 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Downscales a {@link BufferedImage} in one separable pass (horizontal, then
+ * vertical) at any ratio, working directly on {@code int[]}/{@code byte[]}
+ * raster data with precomputed fixed-point filter weights instead of going
+ * through Java2D's generic loops and a chain of intermediate images.
+ *
+ * <p>Produces {@code TYPE_INT_RGB}, {@code TYPE_INT_ARGB} (filtered with
+ * premultiplied alpha, so transparent pixels do not bleed their colour into
+ * opaque neighbours) and {@code TYPE_BYTE_GRAY}, the three types {@link
+ * ImageOptimizer#transform} resizes into. Sources whose raster already has
+ * the target layout are read in place; any other source goes through {@code
+ * getRGB} row by row (or, for gray, the same {@code Graphics2D} conversion
+ * the Java2D path uses).
+ *
+ * <p>The image is processed in horizontal bands of output rows: the
+ * horizontal pass fills a {@code short} buffer with just the source rows a
+ * band's output rows read (at most {@link #MAX_BAND_ENTRIES} samples, or one
+ * output row's taps if that is more), and the vertical pass reads them back.
+ * Rows shared by two bands are filtered twice, which is a few rows per
+ * band, and the output does not depend on where the bands fall. The buffer
+ * is a per-thread scratch reused across calls on the same pool thread;
+ * buffers above {@link #MAX_RETAINED_SCRATCH} entries are allocated per call
+ * and not retained, so one huge image cannot pin its scratch memory on the
+ * thread forever. {@link #fits} says whether even one output row's taps
+ * would not fit in an array, in which case the caller resizes through
+ * Java2D instead.
+ *
+ * <p>Both passes compute each row independently, so a large band is split
+ * into row stripes across the image pool by {@link Stripes} (source rows for
+ * the horizontal pass, output rows for the vertical one) with output
+ * identical to a serial run.
+ */
+final class SeparableResampler {
+
+    /** Fixed-point precision of the filter weights. */
+    private static final int WEIGHT_BITS = 14;
+
+    /** Extra fractional bits carried between the two passes. */
+    private static final int INTERMEDIATE_BITS = 6;
+
+    /** Largest scratch buffer (in samples) kept per thread between calls. */
+    static final int MAX_RETAINED_SCRATCH = 4 * 1024 * 1024;
+
+    /** Samples one band's horizontal pass result may hold, unless a single output row needs more. */
+    static final int MAX_BAND_ENTRIES = 16 * 1024 * 1024;
+
+    /** Largest array the JVM reliably allocates. */
+    private static final long MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    private static final ThreadLocal<short[]> SCRATCH = ThreadLocal.withInitial(() -> new short[0]);
+
+    private SeparableResampler() {
+    }
+
+    static BufferedImage resample(BufferedImage src, int targetW, int targetH, int imageType, Resampler filter) {
+        return resample(src, targetW, targetH, imageType, filter, Stripes.SERIAL);
+    }
+
+    /**
+     * Whether {@link #resample} can take a {@code srcH}-row source to {@code
+     * targetW x targetH}: the source rows one output row reads, at the target
+     * width, must fit in one array. Only a vertical ratio in the thousands on
+     * a very wide target fails this.
+     */
+    static boolean fits(int srcH, int targetW, int targetH, int imageType, Resampler filter) {
+        return (long) Weights.maxTaps(srcH, targetH, filter) * targetW * channels(imageType) <= MAX_ARRAY;
+    }
+
+    static BufferedImage resample(BufferedImage src, int targetW, int targetH, int imageType, Resampler filter,
+                                  Stripes stripes) {
+        if (filter == Resampler.JAVA2D) {
+            throw new IllegalArgumentException("JAVA2D is not a separable filter");
+        }
+        int channels = channels(imageType);
+        int srcW = src.getWidth();
+        int srcH = src.getHeight();
+        if (!fits(srcH, targetW, targetH, imageType, filter)) {
+            throw new IllegalArgumentException("Resampling " + srcW + "x" + srcH + " to " + targetW + "x"
+                    + targetH + " needs more than one array per output row");
+        }
+        Weights horizontal = Weights.of(srcW, targetW, filter);
+        Weights vertical = Weights.of(srcH, targetH, filter);
+
+        long pixels = (long) srcW * srcH;
+        int stride = targetW * channels;
+        int bandRows = Math.max(Math.min(srcH, MAX_BAND_ENTRIES / stride), vertical.widest());
+        short[] band = scratch(bandRows * stride);
+        byte[] gray = channels == 1 ? grayPixels(src) : null;
+        BufferedImage out = new BufferedImage(targetW, targetH, imageType);
+        byte[] grayDst = channels == 1 ? ((DataBufferByte) out.getRaster().getDataBuffer()).getData() : null;
+        int[] packedDst = channels == 1 ? null : ((DataBufferInt) out.getRaster().getDataBuffer()).getData();
+
+        int outFrom = 0;
+        while (outFrom < targetH) {
+            // Grow the band by output rows while the source rows they read still fit in the buffer.
+            int srcFrom = vertical.start[outFrom];
+            int srcTo = srcFrom + vertical.count[outFrom];
+            int outTo = outFrom + 1;
+            while (outTo < targetH) {
+                int from = Math.min(srcFrom, vertical.start[outTo]);
+                int to = Math.max(srcTo, vertical.start[outTo] + vertical.count[outTo]);
+                if (to - from > bandRows) {
+                    break;
+                }
+                srcFrom = from;
+                srcTo = to;
+                outTo++;
+            }
+            int firstSource = srcFrom;
+            int firstOutput = outFrom;
+            if (channels == 1) {
+                stripes.forEach(srcTo - srcFrom, pixels, (from, to) -> horizontalGray(gray, srcW,
+                        firstSource + from, firstSource + to, firstSource, targetW, horizontal, band));
+                stripes.forEach(outTo - outFrom, pixels, (from, to) -> verticalGray(band, targetW,
+                        firstOutput + from, firstOutput + to, firstSource, vertical, grayDst));
+            } else {
+                stripes.forEach(srcTo - srcFrom, pixels, (from, to) -> horizontalPacked(src, srcW,
+                        firstSource + from, firstSource + to, firstSource, targetW, channels, horizontal, band));
+                stripes.forEach(outTo - outFrom, pixels, (from, to) -> verticalPacked(band, targetW,
+                        firstOutput + from, firstOutput + to, firstSource, channels, vertical, packedDst));
+            }
+            outFrom = outTo;
+        }
+        if (band.length <= MAX_RETAINED_SCRATCH) {
+            SCRATCH.set(band);
+        }
+        return out;
+    }
+
+    private static int channels(int imageType) {
+        return switch (imageType) {
+            case BufferedImage.TYPE_BYTE_GRAY -> 1;
+            case BufferedImage.TYPE_INT_RGB -> 3;
+            case BufferedImage.TYPE_INT_ARGB -> 4;
+            default -> throw new IllegalArgumentException("Unsupported target image type " + imageType);
+        };
+    }
+
+    private static short[] scratch(int size) {
+        short[] buffer = SCRATCH.get();
+        return buffer.length >= size ? buffer : new short[size];
+    }
+
+    // ------------------------------------------------------------------
+    // Source access
+    // ------------------------------------------------------------------
+
+    private static byte[] grayPixels(BufferedImage src) {
+        BufferedImage gray = src;
+        if (src.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            gray = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g = gray.createGraphics();
+            try {
+                g.drawImage(src, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+        }
+        // TYPE_BYTE_GRAY rasters created by BufferedImage are tightly packed; sub-images are not.
+        if (gray.getRaster().getParent() == null) {
+            return ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        }
+        byte[] copy = new byte[gray.getWidth() * gray.getHeight()];
+        gray.getRaster().getDataElements(0, 0, gray.getWidth(), gray.getHeight(), copy);
+        return copy;
+    }
+
+    /** Row {@code y} of {@code src} as packed ARGB, read in place when the raster already is packed ARGB/RGB. */
+    private static int[] argbRow(BufferedImage src, int y, int[] row) {
+        int type = src.getType();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && src.getRaster().getParent() == null) {
+            int[] data = ((DataBufferInt) src.getRaster().getDataBuffer()).getData();
+            int w = src.getWidth();
+            System.arraycopy(data, y * w, row, 0, w);
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                for (int x = 0; x < w; x++) {
+                    row[x] |= 0xFF000000;
+                }
+            }
+            return row;
+        }
+        return src.getRGB(0, y, src.getWidth(), 1, row, 0, src.getWidth());
+    }
+
+    // ------------------------------------------------------------------
+    // Passes
+    // ------------------------------------------------------------------
+
+    private static void horizontalGray(byte[] src, int srcW, int fromRow, int toRow, int bandRow, int targetW,
+                                       Weights w, short[] out) {
+        int shift = WEIGHT_BITS - INTERMEDIATE_BITS;
+        int round = 1 << (shift - 1);
+        for (int y = fromRow; y < toRow; y++) {
+            int rowOffset = y * srcW;
+            int outOffset = (y - bandRow) * targetW;
+            for (int x = 0; x < targetW; x++) {
+                int start = w.start[x];
+                int base = w.offset[x];
+                int sum = 0;
+                for (int i = 0; i < w.count[x]; i++) {
+                    sum += (src[rowOffset + start + i] & 0xFF) * w.weights[base + i];
+                }
+                out[outOffset + x] = narrow((sum + round) >> shift);
+            }
+        }
+    }
+
+    private static void horizontalPacked(BufferedImage src, int srcW, int fromRow, int toRow, int bandRow,
+                                         int targetW, int channels, Weights w, short[] out) {
+        int shift = WEIGHT_BITS - INTERMEDIATE_BITS;
+        int round = 1 << (shift - 1);
+        boolean alpha = channels == 4;
+        int[] row = new int[srcW];
+        for (int y = fromRow; y < toRow; y++) {
+            argbRow(src, y, row);
+            if (alpha) {
+                premultiply(row);
+            }
+            int outOffset = (y - bandRow) * targetW * channels;
+            for (int x = 0; x < targetW; x++) {
+                int start = w.start[x];
+                int base = w.offset[x];
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                int a = 0;
+                for (int i = 0; i < w.count[x]; i++) {
+                    int pixel = row[start + i];
+                    int weight = w.weights[base + i];
+                    r += ((pixel >> 16) & 0xFF) * weight;
+                    g += ((pixel >> 8) & 0xFF) * weight;
+                    b += (pixel & 0xFF) * weight;
+                    a += (pixel >>> 24) * weight;
+                }
+                int o = outOffset + x * channels;
+                out[o] = narrow((r + round) >> shift);
+                out[o + 1] = narrow((g + round) >> shift);
+                out[o + 2] = narrow((b + round) >> shift);
+                if (alpha) {
+                    out[o + 3] = narrow((a + round) >> shift);
+                }
+            }
+        }
+    }
+
+    private static void verticalGray(short[] in, int targetW, int fromRow, int toRow, int bandRow, Weights w,
+                                     byte[] dst) {
+        int shift = WEIGHT_BITS + INTERMEDIATE_BITS;
+        int round = 1 << (shift - 1);
+        for (int y = fromRow; y < toRow; y++) {
+            int start = w.start[y] - bandRow;
+            int base = w.offset[y];
+            int count = w.count[y];
+            for (int x = 0; x < targetW; x++) {
+                int sum = 0;
+                for (int i = 0; i < count; i++) {
+                    sum += in[(start + i) * targetW + x] * w.weights[base + i];
+                }
+                dst[y * targetW + x] = (byte) clamp((sum + round) >> shift);
+            }
+        }
+    }
+
+    private static void verticalPacked(short[] in, int targetW, int fromRow, int toRow, int bandRow, int channels,
+                                       Weights w, int[] dst) {
+        int shift = WEIGHT_BITS + INTERMEDIATE_BITS;
+        int round = 1 << (shift - 1);
+        boolean alpha = channels == 4;
+        int stride = targetW * channels;
+        for (int y = fromRow; y < toRow; y++) {
+            int start = w.start[y] - bandRow;
+            int base = w.offset[y];
+            int count = w.count[y];
+            for (int x = 0; x < targetW; x++) {
+                int column = x * channels;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                int a = 0;
+                for (int i = 0; i < count; i++) {
+                    int o = (start + i) * stride + column;
+                    int weight = w.weights[base + i];
+                    r += in[o] * weight;
+                    g += in[o + 1] * weight;
+                    b += in[o + 2] * weight;
+                    if (alpha) {
+                        a += in[o + 3] * weight;
+                    }
+                }
+                int red = clamp((r + round) >> shift);
+                int green = clamp((g + round) >> shift);
+                int blue = clamp((b + round) >> shift);
+                if (alpha) {
+                    int opacity = clamp((a + round) >> shift);
+                    dst[y * targetW + x] = unpremultiply(opacity, red, green, blue);
+                } else {
+                    dst[y * targetW + x] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+                }
+            }
+        }
+    }
+
+    private static void premultiply(int[] row) {
+        for (int x = 0; x < row.length; x++) {
+            int pixel = row[x];
+            int a = pixel >>> 24;
+            if (a == 0xFF) {
+                continue;
+            }
+            int r = ((pixel >> 16) & 0xFF) * a / 255;
+            int g = ((pixel >> 8) & 0xFF) * a / 255;
+            int b = (pixel & 0xFF) * a / 255;
+            row[x] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static int unpremultiply(int a, int r, int g, int b) {
+        if (a == 0) {
+            return 0;
+        }
+        if (a < 0xFF) {
+            r = Math.min(255, (r * 255 + a / 2) / a);
+            g = Math.min(255, (g * 255 + a / 2) / a);
+            b = Math.min(255, (b * 255 + a / 2) / a);
+        }
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : Math.min(255, v);
+    }
+
+    /**
+     * A horizontal pass sample as stored between the passes: at most 255 with
+     * {@code INTERMEDIATE_BITS} fraction bits plus the filters' overshoot,
+     * well inside a {@code short}; clamped only as a guard.
+     */
+    private static short narrow(int v) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+    }
+
+    // ------------------------------------------------------------------
+    // Filter weights
+    // ------------------------------------------------------------------
+
+    /**
+     * Per-output-pixel contributions along one axis: source samples {@code
+     * start[o] .. start[o] + count[o] - 1} with fixed-point weights at
+     * {@code weights[offset[o] ..]}, normalized to sum to exactly {@code
+     * 1 << WEIGHT_BITS}.
+     */
+    private record Weights(int[] start, int[] count, int[] offset, int[] weights) {
+
+        /** Most source samples one output sample can read, an upper bound for {@link #widest}. */
+        static int maxTaps(int srcSize, int dstSize, Resampler filter) {
+            return (int) Math.min(srcSize, (long) Math.ceil(support(srcSize, dstSize, filter)) * 2 + 2);
+        }
+
+        private static double support(int srcSize, int dstSize, Resampler filter) {
+            double scale = Math.max(1.0, (double) srcSize / dstSize);
+            return filter == Resampler.AREA ? 0.5 * scale : radius(filter) * scale;
+        }
+
+        static Weights of(int srcSize, int dstSize, Resampler filter) {
+            double ratio = (double) srcSize / dstSize;
+            double scale = Math.max(1.0, ratio);
+            double support = support(srcSize, dstSize, filter);
+            int maxTaps = (int) Math.ceil(support) * 2 + 2;
+
+            int[] start = new int[dstSize];
+            int[] count = new int[dstSize];
+            int[] offset = new int[dstSize];
+            int[] weights = new int[dstSize * maxTaps];
+            double[] raw = new double[maxTaps];
+            int next = 0;
+            for (int o = 0; o < dstSize; o++) {
+                double center = (o + 0.5) * ratio;
+                int first = Math.max(0, (int) Math.floor(center - support));
+                int last = Math.min(srcSize - 1, (int) Math.ceil(center + support) - 1);
+                int taps = Math.min(maxTaps, last - first + 1);
+                double total = 0;
+                for (int i = 0; i < taps; i++) {
+                    double weight = filter == Resampler.AREA
+                            ? overlap(first + i, center - support, center + support)
+                            : kernel(filter, (first + i + 0.5 - center) / scale);
+                    raw[i] = weight;
+                    total += weight;
+                }
+                if (total == 0) {
+                    // Degenerate footprint: fall back to the nearest sample.
+                    first = Math.min(srcSize - 1, Math.max(0, (int) center));
+                    taps = 1;
+                    raw[0] = 1;
+                    total = 1;
+                }
+                start[o] = first;
+                count[o] = taps;
+                offset[o] = next;
+                int sum = 0;
+                int largest = 0;
+                for (int i = 0; i < taps; i++) {
+                    int fixed = (int) Math.round(raw[i] / total * (1 << WEIGHT_BITS));
+                    weights[next + i] = fixed;
+                    sum += fixed;
+                    if (Math.abs(fixed) > Math.abs(weights[next + largest])) {
+                        largest = i;
+                    }
+                }
+                // Put the rounding residue on the dominant tap so flat areas stay exactly flat.
+                weights[next + largest] += (1 << WEIGHT_BITS) - sum;
+                next += taps;
+            }
+            return new Weights(start, count, offset, weights);
+        }
+
+        /** Most source samples any output sample reads. */
+        int widest() {
+            int widest = 0;
+            for (int taps : count) {
+                widest = Math.max(widest, taps);
+            }
+            return widest;
+        }
+
+        private static double radius(Resampler filter) {
+            return switch (filter) {
+                case BICUBIC -> 2.0;
+                case LANCZOS3 -> 3.0;
+                default -> 0.5;
+            };
+        }
+
+        /** Length of {@code [sample, sample + 1)} covered by {@code [from, to)}. */
+        private static double overlap(int sample, double from, double to) {
+            return Math.max(0, Math.min(sample + 1, to) - Math.max(sample, from));
+        }
+
+        private static double kernel(Resampler filter, double t) {
+            double x = Math.abs(t);
+            return switch (filter) {
+                case BICUBIC -> {
+                    // Catmull-Rom (a = -0.5).
+                    if (x < 1) {
+                        yield 1.5 * x * x * x - 2.5 * x * x + 1;
+                    }
+                    if (x < 2) {
+                        yield -0.5 * x * x * x + 2.5 * x * x - 4 * x + 2;
+                    }
+                    yield 0;
+                }
+                case LANCZOS3 -> {
+                    if (x < 1e-9) {
+                        yield 1;
+                    }
+                    if (x >= 3) {
+                        yield 0;
+                    }
+                    double px = Math.PI * x;
+                    yield 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+                }
+                default -> x <= 0.5 ? 1 : 0;
+            };
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.pdfbox.cos.COSStream;
+
+/**
+ * Finds stored streams with identical bytes, for the deduplication passes,
+ * without hashing every byte of every candidate. Candidates are bucketed
+ * first by a cheap key, their raw length and a 64-bit hash of at most the
+ * first and last {@value #SAMPLE_BYTES} bytes, and only streams that share
+ * a bucket with a different stream get a full SHA-256. Both are memoized per
+ * {@link COSStream}, so no stream is sampled or hashed twice in a request.
+ *
+ * <p>Raw bytes are always read on the document thread, since PDFBox stream
+ * access is not thread-safe; with an executor the SHA-256 work itself runs
+ * on the image pool, up to {@code maxInFlightBytes} of copied stream bytes
+ * at a time. A stream larger than that is hashed while it is read. One
+ * instance per request, used from the document thread only.
+ */
+final class StreamDigests {
+
+    /** Bytes sampled from each end of a stream for its cheap key. */
+    static final int SAMPLE_BYTES = 1024;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * What to compare: {@code stream}'s raw bytes, those of an optional
+     * {@code mask} stream, and a {@code header} of further properties that
+     * must be equal (dimensions, colour space, filters, ...), compared with
+     * {@link Object#equals}.
+     */
+    record Content(Object header, COSStream stream, COSStream mask) {
+    }
+
+    /** A stream's cheap key. */
+    private record Sample(long length, long hash) {
+    }
+
+    private record CheapKey(Object header, Sample stream, Sample mask) {
+    }
+
+    /** Full digests, as {@link ByteBuffer}s so they compare by content. */
+    private record FullKey(ByteBuffer stream, ByteBuffer mask) {
+    }
+
+    private final ExecutorService executor;
+    private final long maxInFlightBytes;
+    private final Map<COSStream, Sample> samples = new IdentityHashMap<>();
+    private final Map<COSStream, ByteBuffer> digests = new IdentityHashMap<>();
+    private int digested;
+
+    /**
+     * @param executor         pool the SHA-256 work runs on, or {@code null}
+     *                         to hash on the calling thread
+     * @param maxInFlightBytes most copied stream bytes waiting for the pool;
+     *                         {@code 0} for no limit
+     */
+    StreamDigests(ExecutorService executor, long maxInFlightBytes) {
+        this.executor = executor;
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /** Hashes on the calling thread. */
+    StreamDigests() {
+        this(null, 0);
+    }
+
+    /**
+     * For each of {@code contents}, the index of the first one with
+     * identical content, or its own index when it is the first, is {@code
+     * null} or cannot be read. Unreadable streams are never an error, their
+     * content is just not shared.
+     */
+    int[] firstCopies(List<Content> contents) {
+        int[] firstCopy = new int[contents.size()];
+        Map<CheapKey, List<Integer>> buckets = new LinkedHashMap<>();
+        for (int i = 0; i < contents.size(); i++) {
+            firstCopy[i] = i;
+            Content content = contents.get(i);
+            CheapKey key = content == null ? null : cheapKey(content);
+            if (key != null) {
+                buckets.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // Only streams whose bucket holds another stream need their full digest.
+        Set<COSStream> toDigest = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (List<Integer> bucket : buckets.values()) {
+            if (bucket.size() > 1 && !sameStreams(contents, bucket)) {
+                for (int i : bucket) {
+                    toDigest.add(contents.get(i).stream());
+                    if (contents.get(i).mask() != null) {
+                        toDigest.add(contents.get(i).mask());
+                    }
+                }
+            }
+        }
+        toDigest.removeAll(digests.keySet());
+        digestAll(new ArrayList<>(toDigest));
+
+        for (List<Integer> bucket : buckets.values()) {
+            if (bucket.size() < 2) {
+                continue;
+            }
+            if (sameStreams(contents, bucket)) {
+                bucket.forEach(i -> firstCopy[i] = bucket.get(0));
+                continue;
+            }
+            Map<FullKey, Integer> firstByKey = new HashMap<>();
+            for (int i : bucket) {
+                FullKey key = fullKey(contents.get(i));
+                if (key != null) {
+                    firstCopy[i] = firstByKey.computeIfAbsent(key, k -> i);
+                }
+            }
+        }
+        return firstCopy;
+    }
+
+    /** Streams given a full SHA-256 so far, for tests. */
+    int digested() {
+        return digested;
+    }
+
+    private CheapKey cheapKey(Content content) {
+        Sample stream = sample(content.stream());
+        Sample mask = content.mask() != null ? sample(content.mask()) : null;
+        if (stream == null || (content.mask() != null && mask == null)) {
+            return null;
+        }
+        return new CheapKey(content.header(), stream, mask);
+    }
+
+    /** {@code null} when a stream could not be digested. */
+    private FullKey fullKey(Content content) {
+        ByteBuffer stream = digests.get(content.stream());
+        ByteBuffer mask = content.mask() != null ? digests.get(content.mask()) : null;
+        if (stream == null || (content.mask() != null && mask == null)) {
+            return null;
+        }
+        return new FullKey(stream, mask);
+    }
+
+    private static boolean sameStreams(List<Content> contents, List<Integer> bucket) {
+        Content first = contents.get(bucket.get(0));
+        for (int i : bucket) {
+            if (contents.get(i).stream() != first.stream() || contents.get(i).mask() != first.mask()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Length plus FNV-1a over the first and last {@value #SAMPLE_BYTES} raw bytes; {@code null} if unreadable. */
+    private Sample sample(COSStream stream) {
+        if (samples.containsKey(stream)) {
+            return samples.get(stream);
+        }
+        Sample sample;
+        try (InputStream in = stream.createRawInputStream()) {
+            long length = stream.getLength();
+            long hash = FNV_OFFSET;
+            byte[] head = in.readNBytes(SAMPLE_BYTES);
+            hash = fnv(hash, head, head.length);
+            if (length > 2L * SAMPLE_BYTES) {
+                in.skipNBytes(length - 2L * SAMPLE_BYTES);
+            }
+            byte[] tail = in.readNBytes(SAMPLE_BYTES);
+            hash = fnv(hash, tail, tail.length);
+            sample = new Sample(length, hash);
+        } catch (IOException | RuntimeException e) {
+            sample = null;
+        }
+        samples.put(stream, sample);
+        return sample;
+    }
+
+    private static long fnv(long hash, byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Puts a SHA-256 of each stream's raw bytes in {@link #digests}, or
+     * {@code null} when it cannot be read. Streams are read in order on this
+     * thread; with an executor the hashing overlaps the reading of the next.
+     */
+    private void digestAll(List<COSStream> streams) {
+        if (executor == null || streams.size() < 2) {
+            streams.forEach(stream -> digests.put(stream, digestInline(stream)));
+            return;
+        }
+        Deque<Pending> inFlight = new ArrayDeque<>();
+        long inFlightBytes = 0;
+        try {
+            for (COSStream stream : streams) {
+                long length = stream.getLength();
+                if (maxInFlightBytes > 0 && length > maxInFlightBytes) {
+                    digests.put(stream, digestInline(stream));
+                    continue;
+                }
+                while (!inFlight.isEmpty() && maxInFlightBytes > 0 && inFlightBytes + length > maxInFlightBytes) {
+                    inFlightBytes -= await(inFlight.removeFirst());
+                }
+                byte[] raw;
+                try (InputStream in = stream.createRawInputStream()) {
+                    raw = in.readAllBytes();
+                } catch (IOException | RuntimeException e) {
+                    digests.put(stream, null);
+                    continue;
+                }
+                inFlight.addLast(new Pending(stream, raw.length, executor.submit(() -> sha256(raw))));
+                inFlightBytes += raw.length;
+            }
+            while (!inFlight.isEmpty()) {
+                await(inFlight.removeFirst());
+            }
+        } catch (InterruptedException e) {
+            // Whatever is left undigested is simply not deduplicated; the caller sees the interrupt flag.
+            inFlight.forEach(pending -> pending.future().cancel(true));
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Pending(COSStream stream, int length, Future<ByteBuffer> future) {
+    }
+
+    /** Records the pending digest and returns its stream's byte count, now no longer in flight. */
+    private int await(Pending pending) throws InterruptedException {
+        try {
+            digests.put(pending.stream(), pending.future().get());
+            digested++;
+        } catch (ExecutionException e) {
+            digests.put(pending.stream(), null);
+        }
+        return pending.length();
+    }
+
+    private ByteBuffer digestInline(COSStream stream) {
+        MessageDigest sha256 = newSha256();
+        try (InputStream in = stream.createRawInputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                sha256.update(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        digested++;
+        return ByteBuffer.wrap(sha256.digest());
+    }
+
+    private static ByteBuffer sha256(byte[] raw) {
+        return ByteBuffer.wrap(newSha256().digest(raw));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is a mandatory JDK algorithm", e);
+        }
+    }
+}
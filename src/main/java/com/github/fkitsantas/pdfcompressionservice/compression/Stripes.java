@@ -0,0 +1,141 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Splits one image's rows into horizontal stripes and works through them on
+ * the shared {@code pdf-img-*} pool, so a single huge image is not resized
+ * by one thread while the others idle. Only for kernels whose rows are
+ * independent: every row is computed exactly as in a serial run, so seams
+ * are pixel-identical by construction.
+ *
+ * <p>The calling thread always takes stripes itself and helpers only claim
+ * stripes nobody has started, so this never waits on queued work: a call
+ * made from a pool thread while every other worker is busy simply runs all
+ * stripes inline. Helpers that get scheduled after the last stripe was
+ * claimed find nothing to do and return at once.
+ *
+ * <p>Once the calling thread is interrupted (its pool task abandoned by the
+ * watchdog), no further stripe is started, on any thread, and the call
+ * fails with a {@link CancellationException}.
+ */
+final class Stripes {
+
+    /** Runs every call inline. */
+    static final Stripes SERIAL = new Stripes(null, 0, 0L);
+
+    /** Rows per stripe never drop below this, so per-stripe overhead stays negligible. */
+    private static final int MIN_STRIPE_ROWS = 16;
+
+    /** Stripes per participating thread, so an unlucky slow stripe does not hold the others up. */
+    private static final int STRIPES_PER_THREAD = 4;
+
+    @FunctionalInterface
+    interface RowRange {
+        /** Processes rows {@code [from, to)}. */
+        void run(int from, int to);
+    }
+
+    private final Executor executor;
+    private final int helpers;
+    private final long minPixels;
+
+    /**
+     * @param executor  pool the helpers run on, or {@code null} for serial
+     * @param helpers   most helper tasks one call may submit besides the caller
+     * @param minPixels source pixel count from which a call is split ({@code 0} = never)
+     */
+    Stripes(Executor executor, int helpers, long minPixels) {
+        this.executor = executor;
+        this.helpers = helpers;
+        this.minPixels = minPixels;
+    }
+
+    /**
+     * Runs {@code body} over rows {@code [0, rows)}: in stripes across the
+     * pool when {@code pixels} reaches the configured threshold, otherwise in
+     * one call on this thread. Returns once every row is done; a failure in
+     * any stripe is rethrown here.
+     */
+    void forEach(int rows, long pixels, RowRange body) {
+        if (!splits(rows, pixels)) {
+            body.run(0, rows);
+            return;
+        }
+        int stripeRows = Math.max(MIN_STRIPE_ROWS, rows / ((helpers + 1) * STRIPES_PER_THREAD));
+        int stripes = (rows + stripeRows - 1) / stripeRows;
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(stripes);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread caller = Thread.currentThread();
+        Runnable worker = () -> {
+            int stripe;
+            while ((stripe = next.getAndIncrement()) < stripes) {
+                try {
+                    if (failure.get() == null && caller.isInterrupted()) {
+                        failure.compareAndSet(null, new CancellationException("Image work abandoned"));
+                    }
+                    if (failure.get() == null) {
+                        int from = stripe * stripeRows;
+                        body.run(from, Math.min(rows, from + stripeRows));
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        for (int i = 0; i < Math.min(helpers, stripes - 1); i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                break; // pool shutting down: the caller covers the remaining stripes
+            }
+        }
+        worker.run();
+        awaitClaimedStripes(done);
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (t instanceof Error error) {
+            throw error;
+        }
+        if (t != null) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /** Whether {@link #forEach} with these arguments would split rather than run inline. */
+    boolean splits(int rows, long pixels) {
+        return executor != null && helpers > 0 && minPixels > 0 && pixels >= minPixels
+                && rows >= 2 * MIN_STRIPE_ROWS;
+    }
+
+    /**
+     * Waits for stripes helpers already started. They are running, not
+     * queued, and write into the caller's arrays, so the wait is short and
+     * not abandoned on interrupt; the interrupt is restored afterwards.
+     */
+    private static void awaitClaimedStripes(CountDownLatch done) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
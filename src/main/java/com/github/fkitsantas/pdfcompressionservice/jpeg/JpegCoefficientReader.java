@@ -0,0 +1,556 @@
+package com.github.fkitsantas.pdfcompressionservice.jpeg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entropy-decodes a baseline or extended-sequential, Huffman-coded, 8-bit
+ * JPEG into its quantized DCT coefficients ({@link JpegCoefficients}),
+ * stopping short of dequantization and the IDCT. Restart intervals,
+ * interleaved and non-interleaved scans and any sampling factors are
+ * handled. Progressive, lossless, hierarchical, arithmetic-coded and 12-bit
+ * streams are rejected, as is a frame whose height is only given by a
+ * trailing DNL marker; {@link #isSupported} spots all of those from the
+ * headers alone, so callers can pick another path without decoding
+ * anything.
+ *
+ * <p>Stateless and thread-safe: every call works on its own buffers.
+ */
+public final class JpegCoefficientReader {
+
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int DNL = 0xDC;
+    private static final int DRI = 0xDD;
+    private static final int DHT = 0xC4;
+    private static final int COM = 0xFE;
+
+    private JpegCoefficientReader() {
+    }
+
+    /**
+     * Header-only check: {@code true} when {@link #read} can handle this
+     * stream's frame type (SOF0/SOF1, 8-bit, 1 to 4 components, height in
+     * the frame header). Never touches the entropy-coded data.
+     */
+    public static boolean isSupported(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != SOI) {
+            return false;
+        }
+        int pos = 2;
+        while (pos + 4 <= jpeg.length) {
+            if ((jpeg[pos] & 0xFF) != 0xFF) {
+                return false;
+            }
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (isFrameMarker(marker)) {
+                if ((marker != 0xC0 && marker != 0xC1) || pos + 10 > jpeg.length) {
+                    return false;
+                }
+                int precision = jpeg[pos + 4] & 0xFF;
+                int height = u16(jpeg, pos + 5);
+                int components = jpeg[pos + 9] & 0xFF;
+                return precision == 8 && height > 0 && components >= 1 && components <= 4;
+            }
+            if (marker == SOS || marker == EOI) {
+                return false;
+            }
+            pos += 2 + u16(jpeg, pos + 2);
+        }
+        return false;
+    }
+
+    /**
+     * Decodes {@code jpeg} into its coefficients. Truncated entropy data is
+     * padded with zero bits, as a decoder would render it, rather than
+     * failing; structural problems (unsupported frame type, missing tables,
+     * invalid Huffman codes) throw.
+     */
+    public static JpegCoefficients read(byte[] jpeg) throws IOException {
+        return new Parser(jpeg).parse();
+    }
+
+    private static boolean isFrameMarker(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != DHT && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static int u16(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    private static final class FrameComponent {
+        final int id;
+        final int h;
+        final int v;
+        final int quantSelector;
+        int[] quant;
+        int blocksPerLine;
+        int blocksPerColumn;
+        short[] coefficients;
+        boolean decoded;
+
+        FrameComponent(int id, int h, int v, int quantSelector) {
+            this.id = id;
+            this.h = h;
+            this.v = v;
+            this.quantSelector = quantSelector;
+        }
+    }
+
+    private static final class Parser {
+        private final byte[] data;
+        private final int[][] quantTables = new int[4][];
+        private final HuffmanDecoder[] dcTables = new HuffmanDecoder[4];
+        private final HuffmanDecoder[] acTables = new HuffmanDecoder[4];
+        private final List<byte[]> markerSegments = new ArrayList<>();
+        private FrameComponent[] frame;
+        private int width;
+        private int height;
+        private int maxH;
+        private int maxV;
+        private int mcusPerLine;
+        private int mcusPerColumn;
+        private int restartInterval;
+        private int pos;
+
+        Parser(byte[] data) {
+            this.data = data;
+        }
+
+        JpegCoefficients parse() throws IOException {
+            if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != SOI) {
+                throw new IOException("Not a JPEG stream (missing SOI)");
+            }
+            pos = 2;
+            while (true) {
+                int marker = nextMarker();
+                if (marker == EOI || marker < 0) {
+                    break;
+                }
+                if (marker >= 0xD0 && marker <= 0xD7) {
+                    continue; // stray restart marker between scans, carries no segment
+                }
+                int length = u16At(pos);
+                int segmentEnd = pos + length;
+                if (length < 2 || segmentEnd > data.length) {
+                    throw new IOException("Truncated JPEG marker segment 0x" + Integer.toHexString(marker));
+                }
+                if ((marker >= 0xE0 && marker <= 0xEF) || marker == COM) {
+                    byte[] segment = new byte[length + 2];
+                    System.arraycopy(data, pos - 2, segment, 0, segment.length);
+                    markerSegments.add(segment);
+                } else if (marker == DQT) {
+                    readQuantTables(pos + 2, segmentEnd);
+                } else if (marker == DHT) {
+                    readHuffmanTables(pos + 2, segmentEnd);
+                } else if (marker == DRI) {
+                    restartInterval = u16At(pos + 2);
+                } else if (marker == SOS) {
+                    pos = segmentEnd;
+                    readScanHeaderAndDecode(segmentEnd - length + 2);
+                    continue; // pos now sits on the marker that ended the entropy-coded data
+                } else if (marker == DNL) {
+                    throw new IOException("JPEG frames sized by a DNL marker are not supported");
+                } else if (isFrameMarker(marker)) {
+                    readFrame(marker, pos + 2);
+                }
+                pos = segmentEnd;
+            }
+            if (frame == null) {
+                throw new IOException("JPEG stream has no frame header");
+            }
+            List<JpegCoefficients.Component> components = new ArrayList<>(frame.length);
+            for (FrameComponent c : frame) {
+                if (!c.decoded) {
+                    throw new IOException("JPEG component " + c.id + " is never coded in any scan");
+                }
+                components.add(new JpegCoefficients.Component(c.id, c.h, c.v, c.quant, c.blocksPerLine,
+                        c.blocksPerColumn, c.coefficients));
+            }
+            return new JpegCoefficients(width, height, List.copyOf(components), List.copyOf(markerSegments));
+        }
+
+        /** Advances past the next marker (skipping fill bytes) and returns its code, or -1 at end of data. */
+        private int nextMarker() {
+            while (pos + 1 < data.length) {
+                if ((data[pos] & 0xFF) == 0xFF) {
+                    int marker = data[pos + 1] & 0xFF;
+                    if (marker != 0xFF && marker != 0x00) {
+                        pos += 2;
+                        return marker;
+                    }
+                }
+                pos++;
+            }
+            return -1;
+        }
+
+        private int u16At(int at) throws IOException {
+            if (at + 1 >= data.length) {
+                throw new IOException("Truncated JPEG stream");
+            }
+            return u16(data, at);
+        }
+
+        private void readQuantTables(int at, int end) throws IOException {
+            while (at < end) {
+                int pqTq = data[at++] & 0xFF;
+                int precision = pqTq >> 4;
+                int id = pqTq & 0x0F;
+                if (id > 3 || at + 64 * (precision + 1) > end) {
+                    throw new IOException("Malformed JPEG quantization table");
+                }
+                int[] table = new int[64];
+                for (int k = 0; k < 64; k++) {
+                    if (precision == 0) {
+                        table[k] = data[at++] & 0xFF;
+                    } else {
+                        table[k] = u16(data, at);
+                        at += 2;
+                    }
+                    if (table[k] == 0) {
+                        throw new IOException("JPEG quantization table has a zero entry");
+                    }
+                }
+                quantTables[id] = table;
+            }
+        }
+
+        private void readHuffmanTables(int at, int end) throws IOException {
+            while (at < end) {
+                int tcTh = data[at++] & 0xFF;
+                int tableClass = tcTh >> 4;
+                int id = tcTh & 0x0F;
+                if (tableClass > 1 || id > 3 || at + 16 > end) {
+                    throw new IOException("Malformed JPEG Huffman table");
+                }
+                int[] counts = new int[16];
+                int total = 0;
+                for (int i = 0; i < 16; i++) {
+                    counts[i] = data[at++] & 0xFF;
+                    total += counts[i];
+                }
+                if (total > 256 || at + total > end) {
+                    throw new IOException("Malformed JPEG Huffman table");
+                }
+                int[] values = new int[total];
+                for (int i = 0; i < total; i++) {
+                    values[i] = data[at++] & 0xFF;
+                }
+                HuffmanDecoder decoder = new HuffmanDecoder(counts, values);
+                if (tableClass == 0) {
+                    dcTables[id] = decoder;
+                } else {
+                    acTables[id] = decoder;
+                }
+            }
+        }
+
+        private void readFrame(int marker, int at) throws IOException {
+            if (marker != 0xC0 && marker != 0xC1) {
+                throw new IOException("Unsupported JPEG frame type SOF" + (marker - 0xC0));
+            }
+            if (frame != null) {
+                throw new IOException("JPEG stream has more than one frame");
+            }
+            int precision = data[at] & 0xFF;
+            height = u16At(at + 1);
+            width = u16At(at + 3);
+            int count = data[at + 5] & 0xFF;
+            if (precision != 8) {
+                throw new IOException("Unsupported JPEG sample precision " + precision);
+            }
+            if (width == 0 || height == 0 || count < 1 || count > 4) {
+                throw new IOException("Unsupported JPEG frame geometry");
+            }
+            frame = new FrameComponent[count];
+            at += 6;
+            for (int i = 0; i < count; i++, at += 3) {
+                int hv = data[at + 1] & 0xFF;
+                int h = hv >> 4;
+                int v = hv & 0x0F;
+                int tq = data[at + 2] & 0xFF;
+                if (h < 1 || h > 4 || v < 1 || v > 4 || tq > 3) {
+                    throw new IOException("Malformed JPEG frame component");
+                }
+                frame[i] = new FrameComponent(data[at] & 0xFF, h, v, tq);
+                maxH = Math.max(maxH, h);
+                maxV = Math.max(maxV, v);
+            }
+            mcusPerLine = (width + 8 * maxH - 1) / (8 * maxH);
+            mcusPerColumn = (height + 8 * maxV - 1) / (8 * maxV);
+            for (FrameComponent c : frame) {
+                c.blocksPerLine = mcusPerLine * c.h;
+                c.blocksPerColumn = mcusPerColumn * c.v;
+                c.coefficients = new short[c.blocksPerLine * c.blocksPerColumn * 64];
+            }
+        }
+
+        private void readScanHeaderAndDecode(int at) throws IOException {
+            if (frame == null) {
+                throw new IOException("JPEG scan before frame header");
+            }
+            int count = data[at++] & 0xFF;
+            if (count < 1 || count > frame.length) {
+                throw new IOException("Malformed JPEG scan header");
+            }
+            FrameComponent[] scan = new FrameComponent[count];
+            HuffmanDecoder[] dc = new HuffmanDecoder[count];
+            HuffmanDecoder[] ac = new HuffmanDecoder[count];
+            for (int i = 0; i < count; i++) {
+                int id = data[at++] & 0xFF;
+                int tables = data[at++] & 0xFF;
+                scan[i] = componentById(id);
+                dc[i] = dcTables[tables >> 4 & 0x03];
+                ac[i] = acTables[tables & 0x03];
+                if (dc[i] == null || ac[i] == null) {
+                    throw new IOException("JPEG scan references an undefined Huffman table");
+                }
+                if (scan[i].quant == null) {
+                    int[] quant = quantTables[scan[i].quantSelector];
+                    if (quant == null) {
+                        throw new IOException("JPEG component references an undefined quantization table");
+                    }
+                    scan[i].quant = quant.clone();
+                }
+            }
+            int ss = data[at] & 0xFF;
+            int se = data[at + 1] & 0xFF;
+            int ahAl = data[at + 2] & 0xFF;
+            if (ss != 0 || se != 63 || ahAl != 0) {
+                throw new IOException("JPEG scan is not a sequential full-spectrum scan");
+            }
+
+            BitReader bits = new BitReader(data, pos);
+            int[] predictors = new int[count];
+            if (count == 1) {
+                decodeNonInterleaved(scan[0], dc[0], ac[0], bits, predictors);
+            } else {
+                decodeInterleaved(scan, dc, ac, bits, predictors);
+            }
+            for (FrameComponent c : scan) {
+                c.decoded = true;
+            }
+            pos = bits.markerPosition();
+        }
+
+        private FrameComponent componentById(int id) throws IOException {
+            for (FrameComponent c : frame) {
+                if (c.id == id) {
+                    return c;
+                }
+            }
+            throw new IOException("JPEG scan references unknown component " + id);
+        }
+
+        private void decodeInterleaved(FrameComponent[] scan, HuffmanDecoder[] dc, HuffmanDecoder[] ac,
+                                       BitReader bits, int[] predictors) throws IOException {
+            int total = mcusPerLine * mcusPerColumn;
+            for (int mcu = 0; mcu < total; mcu++) {
+                if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                    bits.restart();
+                    Arrays.fill(predictors, 0);
+                }
+                int mcuX = mcu % mcusPerLine;
+                int mcuY = mcu / mcusPerLine;
+                for (int i = 0; i < scan.length; i++) {
+                    FrameComponent c = scan[i];
+                    for (int by = 0; by < c.v; by++) {
+                        for (int bx = 0; bx < c.h; bx++) {
+                            int block = (mcuY * c.v + by) * c.blocksPerLine + mcuX * c.h + bx;
+                            predictors[i] = decodeBlock(c.coefficients, block * 64, dc[i], ac[i], bits,
+                                    predictors[i]);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void decodeNonInterleaved(FrameComponent c, HuffmanDecoder dc, HuffmanDecoder ac,
+                                          BitReader bits, int[] predictors) throws IOException {
+            int componentWidth = (width * c.h + maxH - 1) / maxH;
+            int componentHeight = (height * c.v + maxV - 1) / maxV;
+            int blocksWide = (componentWidth + 7) / 8;
+            int blocksHigh = (componentHeight + 7) / 8;
+            int total = blocksWide * blocksHigh;
+            for (int n = 0; n < total; n++) {
+                if (restartInterval > 0 && n > 0 && n % restartInterval == 0) {
+                    bits.restart();
+                    predictors[0] = 0;
+                }
+                int block = (n / blocksWide) * c.blocksPerLine + n % blocksWide;
+                predictors[0] = decodeBlock(c.coefficients, block * 64, dc, ac, bits, predictors[0]);
+            }
+        }
+
+        /** Decodes one block into {@code out[offset..offset+63]} (zigzag order); returns the new DC predictor. */
+        private static int decodeBlock(short[] out, int offset, HuffmanDecoder dc, HuffmanDecoder ac,
+                                       BitReader bits, int predictor) throws IOException {
+            int s = dc.decode(bits);
+            if (s > 11) {
+                throw new IOException("JPEG DC difference category " + s + " is out of range");
+            }
+            int dcValue = predictor + (s == 0 ? 0 : bits.receiveExtend(s));
+            out[offset] = (short) dcValue;
+            for (int k = 1; k < 64; ) {
+                int rs = ac.decode(bits);
+                int r = rs >> 4;
+                int size = rs & 0x0F;
+                if (size == 0) {
+                    if (r != 15) {
+                        break; // EOB
+                    }
+                    k += 16;
+                    continue;
+                }
+                k += r;
+                if (k > 63) {
+                    throw new IOException("JPEG AC coefficient run overflows the block");
+                }
+                out[offset + k] = (short) bits.receiveExtend(size);
+                k++;
+            }
+            return dcValue;
+        }
+    }
+
+    /**
+     * MSB-first bit reader over the entropy-coded segment, undoing 0xFF00
+     * byte stuffing. Stops in front of the first real marker and pads with
+     * zero bits from there on, which is how decoders render truncated data.
+     */
+    private static final class BitReader {
+        private final byte[] data;
+        private int pos;
+        private long buffer;
+        private int bits;
+        private boolean atMarker;
+
+        BitReader(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        private void fill() {
+            while (bits <= 56) {
+                int b = 0;
+                if (!atMarker && pos < data.length) {
+                    b = data[pos] & 0xFF;
+                    if (b == 0xFF) {
+                        int next = pos + 1 < data.length ? data[pos + 1] & 0xFF : EOI;
+                        if (next == 0x00) {
+                            pos += 2;
+                        } else {
+                            atMarker = true;
+                            b = 0;
+                        }
+                    } else {
+                        pos++;
+                    }
+                }
+                buffer = (buffer << 8) | b;
+                bits += 8;
+            }
+        }
+
+        int peek(int n) {
+            if (bits < n) {
+                fill();
+            }
+            return (int) (buffer >>> (bits - n)) & ((1 << n) - 1);
+        }
+
+        void skip(int n) {
+            bits -= n;
+        }
+
+        int receiveExtend(int s) {
+            int value = peek(s);
+            skip(s);
+            return value < (1 << (s - 1)) ? value - (1 << s) + 1 : value;
+        }
+
+        /** Byte-aligns and consumes the expected RSTn marker before the next restart interval. */
+        void restart() {
+            buffer = 0;
+            bits = 0;
+            if (!atMarker) {
+                while (pos + 1 < data.length
+                        && !((data[pos] & 0xFF) == 0xFF && (data[pos + 1] & 0xFF) != 0x00)) {
+                    pos++;
+                }
+            }
+            if (pos + 1 < data.length && (data[pos] & 0xFF) == 0xFF
+                    && (data[pos + 1] & 0xFF) >= 0xD0 && (data[pos + 1] & 0xFF) <= 0xD7) {
+                pos += 2;
+                atMarker = false;
+            }
+        }
+
+        /** Position the outer marker parser resumes from once the scan's MCUs are all decoded. */
+        int markerPosition() {
+            return pos;
+        }
+    }
+
+    /** Canonical Huffman decoder (ITU T.81 Annex F.2.2.3) with a 9-bit fast lookup table. */
+    private static final class HuffmanDecoder {
+        private static final int LOOKAHEAD = 9;
+
+        private final int[] lookup = new int[1 << LOOKAHEAD];
+        private final int[] maxCode = new int[17];
+        private final int[] minCode = new int[17];
+        private final int[] valuePointer = new int[17];
+        private final int[] values;
+
+        HuffmanDecoder(int[] counts, int[] values) throws IOException {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valuePointer[length] = k;
+                minCode[length] = code;
+                for (int i = 0; i < counts[length - 1]; i++) {
+                    if (length <= LOOKAHEAD) {
+                        int shift = LOOKAHEAD - length;
+                        int first = code << shift;
+                        for (int j = 0; j < (1 << shift); j++) {
+                            lookup[first + j] = (length << 8) | values[k];
+                        }
+                    }
+                    code++;
+                    k++;
+                }
+                if (code > (1 << length)) {
+                    throw new IOException("Invalid JPEG Huffman table (over-subscribed)");
+                }
+                maxCode[length] = counts[length - 1] == 0 ? -1 : code - 1;
+                code <<= 1;
+            }
+        }
+
+        int decode(BitReader bits) throws IOException {
+            int entry = lookup[bits.peek(LOOKAHEAD)];
+            if (entry != 0) {
+                bits.skip((entry >> 8) & 0xFF);
+                return entry & 0xFF;
+            }
+            for (int length = LOOKAHEAD + 1; length <= 16; length++) {
+                int code = bits.peek(length);
+                if (code <= maxCode[length]) {
+                    bits.skip(length);
+                    return values[valuePointer[length] + code - minCode[length]];
+                }
+            }
+            throw new IOException("Invalid JPEG Huffman code");
+        }
+    }
+}
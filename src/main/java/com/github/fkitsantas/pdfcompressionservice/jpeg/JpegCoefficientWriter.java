@@ -0,0 +1,710 @@
+package com.github.fkitsantas.pdfcompressionservice.jpeg;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes {@link JpegCoefficients} back out as a baseline (or, if a table
+ * needs 16-bit entries, extended-sequential) JPEG with a single scan and
+ * Huffman tables optimized for this image's own symbol statistics, the same
+ * two-pass approach as libjpeg's {@code optimize_coding}. The coefficients
+ * are entropy-coded exactly as given, so the output decodes to the same
+ * pixels as any other encoding of the same coefficients.
+ *
+ * <p>The first component gets Huffman tables 0 and every other component
+ * shares tables 1, matching the usual luma/chroma split. Quantization
+ * tables are shared between components whose tables are identical.
+ *
+ * <p>{@link #writeProgressive} writes the same coefficients as a
+ * progressive JPEG instead: one DC scan, then spectral-selection AC scans
+ * (no successive approximation), each with its own optimized table.
+ *
+ * <p>Stateless and thread-safe.
+ */
+public final class JpegCoefficientWriter {
+
+    private static final int[] ALL_COMPONENTS = {0, 1, 2, 3};
+
+    /** Last coefficient of the first luma AC scan; the low band gets its own table. */
+    private static final int LOW_BAND_END = 5;
+
+    /** Longest run of end-of-band blocks one EOBn symbol can carry. */
+    private static final int MAX_EOB_RUN = 0x7FFF;
+
+    private JpegCoefficientWriter() {
+    }
+
+    public static byte[] write(JpegCoefficients image) throws IOException {
+        return write(image, RowSplitter.SERIAL);
+    }
+
+    /**
+     * {@link #write(JpegCoefficients)}, but when {@code rows} would split
+     * the scan's MCU rows across threads, every MCU row becomes its own
+     * restart interval and the intervals are counted and entropy-coded in
+     * parallel. A restart resets the DC predictors and byte-aligns the
+     * bitstream, so each interval's bytes depend on its own blocks only; the
+     * cost is one {@code RSTn} marker and a partial byte per MCU row.
+     */
+    public static byte[] write(JpegCoefficients image, RowSplitter rows) throws IOException {
+        int count = image.components().size();
+        int tableSets = count > 1 ? 2 : 1;
+        int scanRows = scanRows(image, count);
+        long pixels = (long) image.width() * image.height();
+        boolean restarts = rows.splits(scanRows, pixels);
+
+        long[][] dcFrequencies = new long[tableSets][257];
+        long[][] acFrequencies = new long[tableSets][257];
+        if (restarts) {
+            forEachRow(rows, scanRows, pixels, (from, to) -> {
+                long[][] dc = new long[tableSets][257];
+                long[][] ac = new long[tableSets][257];
+                for (int row = from; row < to; row++) {
+                    encodeSequential(image, row, row + 1, SymbolSink.counting(dc, ac));
+                }
+                synchronized (dcFrequencies) {
+                    for (int t = 0; t < tableSets; t++) {
+                        for (int symbol = 0; symbol < 257; symbol++) {
+                            dcFrequencies[t][symbol] += dc[t][symbol];
+                            acFrequencies[t][symbol] += ac[t][symbol];
+                        }
+                    }
+                }
+            });
+        } else {
+            encodeSequential(image, 0, scanRows, SymbolSink.counting(dcFrequencies, acFrequencies));
+        }
+
+        HuffmanTable[] dcTables = new HuffmanTable[tableSets];
+        HuffmanTable[] acTables = new HuffmanTable[tableSets];
+        for (int t = 0; t < tableSets; t++) {
+            dcTables[t] = HuffmanTable.optimal(dcFrequencies[t]);
+            acTables[t] = HuffmanTable.optimal(acFrequencies[t]);
+        }
+
+        ByteSink out = new ByteSink(estimateSize(image));
+        writeFrame(out, image, false);
+        for (int t = 0; t < tableSets; t++) {
+            dcTables[t].writeSegment(out, 0x00 | t);
+            acTables[t].writeSegment(out, 0x10 | t);
+        }
+        if (restarts) {
+            JpegCoefficients.Component first = image.components().get(0);
+            out.u16(0xFFDD);
+            out.u16(4);
+            out.u16(count == 1 ? image.visibleBlocksPerLine(first) : image.mcusPerLine());
+        }
+        writeScanHeader(out, image, ALL_COMPONENTS, count, 0, 63, true);
+
+        if (restarts) {
+            byte[][] intervals = new byte[scanRows][];
+            int intervalSize = Math.max(64, estimateSize(image) / scanRows);
+            forEachRow(rows, scanRows, pixels, (from, to) -> {
+                for (int row = from; row < to; row++) {
+                    ByteSink interval = new ByteSink(intervalSize);
+                    BitSink bits = new BitSink(interval);
+                    encodeSequential(image, row, row + 1, SymbolSink.emitting(bits, dcTables, acTables));
+                    bits.flush();
+                    intervals[row] = interval.toByteArray();
+                }
+            });
+            for (int row = 0; row < scanRows; row++) {
+                if (row > 0) {
+                    out.u16(0xFFD0 + (row - 1) % 8);
+                }
+                out.bytes(intervals[row]);
+            }
+        } else {
+            BitSink bits = new BitSink(out);
+            encodeSequential(image, 0, scanRows, SymbolSink.emitting(bits, dcTables, acTables));
+            bits.flush();
+        }
+        out.u16(0xFFD9);
+        return out.toByteArray();
+    }
+
+    /**
+     * Whichever of {@link #write} and {@link #writeProgressive} is smaller.
+     * Progressive usually wins; on small images its extra scan headers and
+     * tables can outweigh the gain, and the sequential form is kept.
+     */
+    public static byte[] writeSmallest(JpegCoefficients image) throws IOException {
+        byte[] sequential = write(image);
+        byte[] progressive = writeProgressive(image);
+        return progressive.length < sequential.length ? progressive : sequential;
+    }
+
+    /**
+     * Writes the coefficients as a progressive JPEG: an interleaved DC scan,
+     * then for the first component coefficients 1-5 and 6-63 as two AC
+     * scans and for every other component 1-63 as one, the shape of
+     * libjpeg's spectral-selection script. Each AC scan gets a Huffman table
+     * optimized for that band alone (and zero bands collapse into long
+     * end-of-band runs), which is where the size gain over {@link #write}
+     * comes from. Decodes to exactly the same pixels.
+     */
+    public static byte[] writeProgressive(JpegCoefficients image) throws IOException {
+        int count = image.components().size();
+        int tableSets = count > 1 ? 2 : 1;
+        ByteSink out = new ByteSink(estimateSize(image));
+        writeFrame(out, image, true);
+
+        long[][] dcFrequencies = new long[tableSets][257];
+        encodeDcScan(image, count, SymbolSink.counting(dcFrequencies, null));
+        HuffmanTable[] dcTables = new HuffmanTable[tableSets];
+        for (int t = 0; t < tableSets; t++) {
+            dcTables[t] = HuffmanTable.optimal(dcFrequencies[t]);
+            dcTables[t].writeSegment(out, 0x00 | t);
+        }
+        writeScanHeader(out, image, ALL_COMPONENTS, count, 0, 0, true);
+        BitSink bits = new BitSink(out);
+        encodeDcScan(image, count, SymbolSink.emitting(bits, dcTables, null));
+        bits.flush();
+
+        List<int[]> bands = new ArrayList<>();
+        bands.add(new int[] {0, 1, LOW_BAND_END});
+        for (int i = 1; i < count; i++) {
+            bands.add(new int[] {i, 1, 63});
+        }
+        bands.add(new int[] {0, LOW_BAND_END + 1, 63});
+        for (int[] band : bands) {
+            int[] component = {band[0]};
+            long[][] acFrequencies = new long[1][257];
+            encodeAcScan(image, band[0], band[1], band[2], SymbolSink.counting(null, acFrequencies));
+            HuffmanTable[] acTables = {HuffmanTable.optimal(acFrequencies[0])};
+            acTables[0].writeSegment(out, 0x10);
+            writeScanHeader(out, image, component, 1, band[1], band[2], false);
+            bits = new BitSink(out);
+            encodeAcScan(image, band[0], band[1], band[2], SymbolSink.emitting(bits, null, acTables));
+            bits.flush();
+        }
+        out.u16(0xFFD9);
+        return out.toByteArray();
+    }
+
+    /** SOI, the carried APPn/COM segments, DQT and the frame header. */
+    private static void writeFrame(ByteSink out, JpegCoefficients image, boolean progressive) throws IOException {
+        List<JpegCoefficients.Component> components = image.components();
+        int count = components.size();
+
+        // Quantization table ids, deduplicated by content.
+        List<int[]> quantTables = new ArrayList<>();
+        int[] quantIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            int[] quant = components.get(i).quant();
+            int id = -1;
+            for (int t = 0; t < quantTables.size(); t++) {
+                if (Arrays.equals(quantTables.get(t), quant)) {
+                    id = t;
+                }
+            }
+            if (id < 0) {
+                id = quantTables.size();
+                quantTables.add(quant);
+            }
+            quantIds[i] = id;
+        }
+        boolean extended = false;
+        for (int[] table : quantTables) {
+            for (int q : table) {
+                if (q < 1 || q > 65535) {
+                    throw new IOException("Quantization table entry out of range: " + q);
+                }
+                extended |= q > 255;
+            }
+        }
+
+        out.u16(0xFFD8);
+        for (byte[] segment : image.markerSegments()) {
+            out.bytes(segment);
+        }
+        for (int t = 0; t < quantTables.size(); t++) {
+            int[] table = quantTables.get(t);
+            boolean wide = Arrays.stream(table).anyMatch(q -> q > 255);
+            out.u16(0xFFDB);
+            out.u16(2 + 1 + 64 * (wide ? 2 : 1));
+            out.u8((wide ? 0x10 : 0x00) | t);
+            for (int q : table) {
+                if (wide) {
+                    out.u16(q);
+                } else {
+                    out.u8(q);
+                }
+            }
+        }
+
+        out.u16(progressive ? 0xFFC2 : extended ? 0xFFC1 : 0xFFC0);
+        out.u16(8 + 3 * count);
+        out.u8(8);
+        out.u16(image.height());
+        out.u16(image.width());
+        out.u8(count);
+        for (int i = 0; i < count; i++) {
+            JpegCoefficients.Component c = components.get(i);
+            out.u8(c.id());
+            out.u8((c.h() << 4) | c.v());
+            out.u8(quantIds[i]);
+        }
+    }
+
+    /**
+     * SOS for the first {@code count} of {@code scanComponents}; DC tables
+     * follow the luma/chroma split, AC scans of a progressive image always
+     * use the table just redefined as 0.
+     */
+    private static void writeScanHeader(ByteSink out, JpegCoefficients image, int[] scanComponents, int count,
+                                        int ss, int se, boolean splitTables) {
+        out.u16(0xFFDA);
+        out.u16(6 + 2 * count);
+        out.u8(count);
+        for (int i = 0; i < count; i++) {
+            int component = scanComponents[i];
+            int t = splitTables ? Math.min(component, 1) : 0;
+            out.u8(image.components().get(component).id());
+            out.u8((t << 4) | t);
+        }
+        out.u8(ss);
+        out.u8(se);
+        out.u8(0);
+    }
+
+    /** MCU rows of a scan over {@code count} components (block rows when it is not interleaved). */
+    private static int scanRows(JpegCoefficients image, int count) {
+        return count == 1 ? image.visibleBlocksPerColumn(image.components().get(0)) : image.mcusPerColumn();
+    }
+
+    /** {@link RowSplitter#forEach} for bodies that may throw {@link IOException}. */
+    private static void forEachRow(RowSplitter rows, int scanRows, long pixels, IoRange body) throws IOException {
+        try {
+            rows.forEach(scanRows, pixels, (from, to) -> {
+                try {
+                    body.run(from, to);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoRange {
+        void run(int from, int to) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BlockCoder {
+        void code(int component, short[] coefficients, int offset) throws IOException;
+    }
+
+    /**
+     * Visits the blocks of MCU rows {@code [fromRow, toRow)} of a scan over
+     * the first {@code count} components, in bitstream order: whole MCUs
+     * when interleaved, otherwise only the blocks that carry image data.
+     */
+    private static void walkScan(JpegCoefficients image, int[] scanComponents, int count, int fromRow, int toRow,
+                                 BlockCoder coder) throws IOException {
+        List<JpegCoefficients.Component> components = image.components();
+        if (count == 1) {
+            int component = scanComponents[0];
+            JpegCoefficients.Component c = components.get(component);
+            int blocksWide = image.visibleBlocksPerLine(c);
+            for (int by = fromRow; by < toRow; by++) {
+                for (int bx = 0; bx < blocksWide; bx++) {
+                    coder.code(component, c.coefficients(), (by * c.blocksPerLine() + bx) * 64);
+                }
+            }
+            return;
+        }
+        int mcusPerLine = image.mcusPerLine();
+        for (int mcuY = fromRow; mcuY < toRow; mcuY++) {
+            for (int mcuX = 0; mcuX < mcusPerLine; mcuX++) {
+                for (int i = 0; i < count; i++) {
+                    JpegCoefficients.Component c = components.get(scanComponents[i]);
+                    for (int by = 0; by < c.v(); by++) {
+                        for (int bx = 0; bx < c.h(); bx++) {
+                            int block = (mcuY * c.v() + by) * c.blocksPerLine() + mcuX * c.h() + bx;
+                            coder.code(scanComponents[i], c.coefficients(), block * 64);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Codes MCU rows {@code [fromRow, toRow)} of the single sequential scan,
+     * with DC predictors starting from zero (the start of the scan or of a
+     * restart interval).
+     */
+    private static void encodeSequential(JpegCoefficients image, int fromRow, int toRow, SymbolSink sink)
+            throws IOException {
+        int count = image.components().size();
+        int[] predictors = new int[count];
+        walkScan(image, ALL_COMPONENTS, count, fromRow, toRow, (component, coefficients, offset) -> {
+            int table = Math.min(component, 1);
+            encodeDc(coefficients[offset] - predictors[component], table, sink);
+            predictors[component] = coefficients[offset];
+            encodeAc(coefficients, offset, table, sink);
+        });
+    }
+
+    private static void encodeDcScan(JpegCoefficients image, int count, SymbolSink sink) throws IOException {
+        int[] predictors = new int[count];
+        walkScan(image, ALL_COMPONENTS, count, 0, scanRows(image, count), (component, coefficients, offset) -> {
+            encodeDc(coefficients[offset] - predictors[component], Math.min(component, 1), sink);
+            predictors[component] = coefficients[offset];
+        });
+    }
+
+    private static void encodeAcScan(JpegCoefficients image, int component, int ss, int se, SymbolSink sink)
+            throws IOException {
+        int[] scanComponents = {component};
+        JpegCoefficients.Component c = image.components().get(component);
+        walkScan(image, scanComponents, 1, 0, image.visibleBlocksPerColumn(c),
+                (ignored, coefficients, offset) -> encodeAcBand(coefficients, offset, ss, se, sink));
+        flushEobRun(sink);
+    }
+
+    private static void encodeDc(int diff, int table, SymbolSink sink) throws IOException {
+        int size = magnitudeCategory(diff);
+        if (size > 11) {
+            throw new IOException("DC difference out of baseline range: " + diff);
+        }
+        sink.dc(table, size);
+        sink.value(diff, size);
+    }
+
+    private static void encodeAc(short[] coefficients, int offset, int table, SymbolSink sink) throws IOException {
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[offset + k];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                sink.ac(table, 0xF0);
+                run -= 16;
+            }
+            int size = magnitudeCategory(value);
+            if (size > 10) {
+                throw new IOException("AC coefficient out of baseline range: " + value);
+            }
+            sink.ac(table, (run << 4) | size);
+            sink.value(value, size);
+            run = 0;
+        }
+        if (run > 0) {
+            sink.ac(table, 0x00);
+        }
+    }
+
+    /**
+     * One block's share of a progressive first AC scan ({@code Ah = Al = 0}):
+     * like {@link #encodeAc} over {@code [ss, se]}, except that a block
+     * ending in zeros only extends the pending end-of-band run (T.81 G.1.2.2).
+     */
+    private static void encodeAcBand(short[] coefficients, int offset, int ss, int se, SymbolSink sink)
+            throws IOException {
+        int run = 0;
+        for (int k = ss; k <= se; k++) {
+            int value = coefficients[offset + k];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            flushEobRun(sink);
+            while (run > 15) {
+                sink.ac(0, 0xF0);
+                run -= 16;
+            }
+            int size = magnitudeCategory(value);
+            if (size > 10) {
+                throw new IOException("AC coefficient out of range: " + value);
+            }
+            sink.ac(0, (run << 4) | size);
+            sink.value(value, size);
+            run = 0;
+        }
+        if (run > 0 && ++sink.eobRun == MAX_EOB_RUN) {
+            flushEobRun(sink);
+        }
+    }
+
+    private static void flushEobRun(SymbolSink sink) throws IOException {
+        if (sink.eobRun > 0) {
+            int extraBits = 31 - Integer.numberOfLeadingZeros(sink.eobRun);
+            sink.ac(0, extraBits << 4);
+            sink.value(sink.eobRun, extraBits);
+            sink.eobRun = 0;
+        }
+    }
+
+    private static int magnitudeCategory(int value) {
+        return value == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    private static int estimateSize(JpegCoefficients image) {
+        long samples = 0;
+        for (JpegCoefficients.Component c : image.components()) {
+            samples += c.coefficients().length;
+        }
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, samples / 8));
+    }
+
+    /**
+     * Destination of one pass over a scan: with no {@link BitSink} only the
+     * symbol frequencies are gathered, otherwise the symbols are emitted
+     * with the given tables.
+     */
+    private static final class SymbolSink {
+        private final BitSink bits;
+        private final long[][] dcFrequencies;
+        private final long[][] acFrequencies;
+        private final HuffmanTable[] dcTables;
+        private final HuffmanTable[] acTables;
+        /** Blocks whose band ended in zeros since the last EOBn symbol (progressive AC scans only). */
+        int eobRun;
+
+        private SymbolSink(BitSink bits, long[][] dcFrequencies, long[][] acFrequencies,
+                           HuffmanTable[] dcTables, HuffmanTable[] acTables) {
+            this.bits = bits;
+            this.dcFrequencies = dcFrequencies;
+            this.acFrequencies = acFrequencies;
+            this.dcTables = dcTables;
+            this.acTables = acTables;
+        }
+
+        static SymbolSink counting(long[][] dcFrequencies, long[][] acFrequencies) {
+            return new SymbolSink(null, dcFrequencies, acFrequencies, null, null);
+        }
+
+        static SymbolSink emitting(BitSink bits, HuffmanTable[] dcTables, HuffmanTable[] acTables) {
+            return new SymbolSink(bits, null, null, dcTables, acTables);
+        }
+
+        void dc(int table, int symbol) throws IOException {
+            if (bits == null) {
+                dcFrequencies[table][symbol]++;
+            } else {
+                dcTables[table].emit(bits, symbol);
+            }
+        }
+
+        void ac(int table, int symbol) throws IOException {
+            if (bits == null) {
+                acFrequencies[table][symbol]++;
+            } else {
+                acTables[table].emit(bits, symbol);
+            }
+        }
+
+        /** The {@code size} extra bits of a coefficient, difference or run length. */
+        void value(int value, int size) {
+            if (bits != null) {
+                bits.put(value < 0 ? value - 1 : value, size);
+            }
+        }
+    }
+
+    /** Huffman code table in both encoder form (code/size per symbol) and DHT form (counts + values). */
+    static final class HuffmanTable {
+        private final int[] counts;
+        private final int[] values;
+        private final int[] codes = new int[256];
+        private final int[] sizes = new int[256];
+
+        HuffmanTable(int[] counts, int[] values) {
+            this.counts = counts;
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < counts[length - 1]; i++) {
+                    codes[values[k]] = code;
+                    sizes[values[k]] = length;
+                    code++;
+                    k++;
+                }
+                code <<= 1;
+            }
+        }
+
+        /**
+         * Length-limited optimal code for the given symbol frequencies (ITU
+         * T.81 Annex K.2, as libjpeg's {@code jpeg_gen_optimal_table}).
+         * {@code frequencies} must have 257 entries; the last is reserved so
+         * that no real symbol is assigned the all-ones code.
+         */
+        static HuffmanTable optimal(long[] frequencies) {
+            long[] freq = Arrays.copyOf(frequencies, 257);
+            freq[256] = 1;
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            Arrays.fill(others, -1);
+            while (true) {
+                int c1 = -1;
+                long v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] != 0 && freq[i] <= v) {
+                        v = freq[i];
+                        c1 = i;
+                    }
+                }
+                int c2 = -1;
+                v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] != 0 && freq[i] <= v && i != c1) {
+                        v = freq[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;
+                }
+                freq[c1] += freq[c2];
+                freq[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            int[] bits = new int[258];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) {
+                    bits[codeSize[i]]++;
+                }
+            }
+            for (int i = bits.length - 1; i > 16; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+            int longest = 16;
+            while (bits[longest] == 0) {
+                longest--;
+            }
+            bits[longest]--; // drop the reserved symbol's code
+
+            int[] counts = Arrays.copyOfRange(bits, 1, 17);
+            int total = Arrays.stream(counts).sum();
+            int[] values = new int[total];
+            int k = 0;
+            for (int length = 1; length < codeSize.length && k < total; length++) {
+                for (int symbol = 0; symbol < 256; symbol++) {
+                    if (codeSize[symbol] == length) {
+                        values[k++] = symbol;
+                    }
+                }
+            }
+            return new HuffmanTable(counts, values);
+        }
+
+        void emit(BitSink bits, int symbol) throws IOException {
+            if (sizes[symbol] == 0) {
+                throw new IOException("Huffman symbol 0x" + Integer.toHexString(symbol) + " has no code");
+            }
+            bits.put(codes[symbol], sizes[symbol]);
+        }
+
+        void writeSegment(ByteSink out, int classAndId) {
+            out.u16(0xFFC4);
+            out.u16(2 + 1 + 16 + values.length);
+            out.u8(classAndId);
+            for (int count : counts) {
+                out.u8(count);
+            }
+            for (int value : values) {
+                out.u8(value);
+            }
+        }
+    }
+
+    /** Growable byte buffer; cheaper than a synchronized {@code ByteArrayOutputStream} per emitted byte. */
+    static final class ByteSink {
+        private byte[] buffer;
+        private int size;
+
+        ByteSink(int initialCapacity) {
+            buffer = new byte[Math.max(16, initialCapacity)];
+        }
+
+        void u8(int value) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void u16(int value) {
+            u8(value >> 8);
+            u8(value);
+        }
+
+        void bytes(byte[] values) {
+            if (buffer.length - size < values.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + values.length));
+            }
+            System.arraycopy(values, 0, buffer, size, values.length);
+            size += values.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    /** MSB-first bit packer with JPEG 0xFF byte stuffing. */
+    static final class BitSink {
+        private final ByteSink out;
+        private long accumulator;
+        private int count;
+
+        BitSink(ByteSink out) {
+            this.out = out;
+        }
+
+        void put(int value, int size) {
+            if (size == 0) {
+                return;
+            }
+            accumulator = (accumulator << size) | (value & ((1L << size) - 1));
+            count += size;
+            while (count >= 8) {
+                int b = (int) (accumulator >>> (count - 8)) & 0xFF;
+                out.u8(b);
+                if (b == 0xFF) {
+                    out.u8(0x00);
+                }
+                count -= 8;
+            }
+        }
+
+        /** Pads the final partial byte with 1-bits, as T.81 requires. */
+        void flush() {
+            if (count > 0) {
+                put(0x7F, 8 - count);
+            }
+        }
+    }
+}
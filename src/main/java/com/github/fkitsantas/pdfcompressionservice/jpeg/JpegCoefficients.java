@@ -0,0 +1,157 @@
+package com.github.fkitsantas.pdfcompressionservice.jpeg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JPEG image held in the DCT domain: the frame geometry, each component's
+ * quantization table and its quantized coefficient blocks, plus the
+ * application/comment segments that travel with the image (JFIF, Adobe
+ * colour transform, ICC profile). This is everything needed to write the
+ * image back out without ever running an IDCT.
+ *
+ * <p>Quantization tables and coefficient blocks are both kept in zigzag
+ * order, the order they appear in the bitstream, so requantizing is a plain
+ * element-wise operation.
+ *
+ * @param width            image width in pixels
+ * @param height           image height in pixels
+ * @param components       frame components, in frame-header order
+ * @param markerSegments   APPn/COM segments to re-emit verbatim (marker and length included), in source order
+ */
+public record JpegCoefficients(int width, int height, List<Component> components, List<byte[]> markerSegments) {
+
+    /**
+     * One frame component.
+     *
+     * @param id               component identifier from the frame header (kept so an Adobe
+     *                         transform or viewer heuristics still see the same ids)
+     * @param h                horizontal sampling factor
+     * @param v                vertical sampling factor
+     * @param quant            quantization table, 64 entries in zigzag order
+     * @param blocksPerLine    blocks per row, padded out to whole MCUs
+     * @param blocksPerColumn  block rows, padded out to whole MCUs
+     * @param coefficients     {@code blocksPerLine * blocksPerColumn} blocks of 64 quantized
+     *                         coefficients each, row-major, zigzag order within a block
+     */
+    public record Component(int id, int h, int v, int[] quant, int blocksPerLine, int blocksPerColumn,
+                            short[] coefficients) {
+
+        /** Same component with a different table and coefficients (same geometry). */
+        public Component with(int[] newQuant, short[] newCoefficients) {
+            return new Component(id, h, v, newQuant, blocksPerLine, blocksPerColumn, newCoefficients);
+        }
+    }
+
+    /**
+     * Same image keeping only the marker segments that can affect decoding:
+     * JFIF (APP0) and Adobe (APP14, which carries the colour transform). EXIF
+     * and XMP (APP1), ICC profiles (APP2), Photoshop data (APP13), other
+     * application segments and comments are dropped; inside a PDF the image's
+     * colour space comes from its dictionary, not from the stream.
+     */
+    public JpegCoefficients withDecodingMarkersOnly() {
+        List<byte[]> kept = new ArrayList<>();
+        for (byte[] segment : markerSegments) {
+            int marker = segment[1] & 0xFF;
+            if ((marker == 0xE0 && hasIdentifier(segment, "JFIF"))
+                    || (marker == 0xEE && hasIdentifier(segment, "Adobe"))) {
+                kept.add(segment);
+            }
+        }
+        return new JpegCoefficients(width, height, components, List.copyOf(kept));
+    }
+
+    /**
+     * Whether this is a YCbCr image (three components, not marked as RGB by
+     * an Adobe transform 0) whose chroma stays within about {@code
+     * tolerance} levels of neutral in all but {@code outliersPerMille} in a
+     * thousand chroma blocks, judged from the coefficients alone. A block's
+     * deviation is estimated as its DC offset plus an eighth of its weighted
+     * AC magnitudes, generous on purpose: this only picks the images worth
+     * decoding to look at their pixels.
+     */
+    public boolean isNearlyNeutral(int tolerance, int outliersPerMille) {
+        if (components.size() != 3 || adobeTransform() == 0) {
+            return false;
+        }
+        for (int i = 1; i < 3; i++) {
+            Component c = components.get(i);
+            short[] coefficients = c.coefficients();
+            int[] quant = c.quant();
+            int blocks = c.blocksPerLine() * c.blocksPerColumn();
+            long outlierLimit = (long) blocks * outliersPerMille / 1000;
+            long outliers = 0;
+            for (int offset = 0; offset < coefficients.length; offset += 64) {
+                long deviation = (long) Math.abs(coefficients[offset]) * quant[0];
+                for (int k = 1; k < 64; k++) {
+                    deviation += (long) Math.abs(coefficients[offset + k]) * quant[k];
+                }
+                if (deviation > tolerance * 8L && ++outliers > outlierLimit) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** The transform flag of the Adobe APP14 segment, or {@code -1} without one. */
+    private int adobeTransform() {
+        for (byte[] segment : markerSegments) {
+            if ((segment[1] & 0xFF) == 0xEE && hasIdentifier(segment, "Adobe") && segment.length >= 16) {
+                return segment[15] & 0xFF;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasIdentifier(byte[] segment, String identifier) {
+        if (segment.length < 4 + identifier.length()) {
+            return false;
+        }
+        for (int i = 0; i < identifier.length(); i++) {
+            if (segment[4 + i] != identifier.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int maxH() {
+        int max = 1;
+        for (Component c : components) {
+            max = Math.max(max, c.h());
+        }
+        return max;
+    }
+
+    public int maxV() {
+        int max = 1;
+        for (Component c : components) {
+            max = Math.max(max, c.v());
+        }
+        return max;
+    }
+
+    /** MCUs per row of an interleaved scan. */
+    public int mcusPerLine() {
+        return (width + 8 * maxH() - 1) / (8 * maxH());
+    }
+
+    /** MCU rows of an interleaved scan. */
+    public int mcusPerColumn() {
+        return (height + 8 * maxV() - 1) / (8 * maxV());
+    }
+
+    /** Blocks per row that actually carry image data (a non-interleaved scan codes only these). */
+    int visibleBlocksPerLine(Component c) {
+        int componentWidth = (width * c.h() + maxH() - 1) / maxH();
+        return (componentWidth + 7) / 8;
+    }
+
+    /** Block rows that actually carry image data. */
+    int visibleBlocksPerColumn(Component c) {
+        int componentHeight = (height * c.v() + maxV() - 1) / maxV();
+        return (componentHeight + 7) / 8;
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.fkitsantas.pdfcompressionservice.jpeg;
+
+/**
+ * What a JPEG's marker segments say about it before the first scan: frame
+ * type, dimensions and the quantization table of its first (luma)
+ * component. Read by {@link #read} from the headers alone, so a prefix of
+ * the stream is enough and no entropy-coded data is touched.
+ *
+ * @param frameMarker         the SOFn marker code ({@code 0xC0} baseline, {@code 0xC2} progressive, ...)
+ * @param precision           sample precision in bits
+ * @param width               frame width in pixels
+ * @param height              frame height in pixels, {@code 0} when a DNL marker supplies it later
+ * @param components          number of frame components
+ * @param firstComponentQuant quantization table of the first frame component, zigzag order
+ */
+public record JpegHeader(int frameMarker, int precision, int width, int height, int components,
+                         int[] firstComponentQuant) {
+
+    private static final int SOS = 0xDA;
+    private static final int EOI = 0xD9;
+    private static final int DQT = 0xDB;
+
+    /** Whether the frame is progressive (SOF2, or the arithmetic-coded SOF6/SOF10/SOF14 variants). */
+    public boolean progressive() {
+        return frameMarker == 0xC2 || frameMarker == 0xC6 || frameMarker == 0xCA || frameMarker == 0xCE;
+    }
+
+    /**
+     * Parses the headers of {@code jpeg}, which may be just the first part
+     * of the stream. Returns {@code null} when the data is not a JPEG, ends
+     * before the first scan, or the first component's quantization table is
+     * never defined.
+     */
+    public static JpegHeader read(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+            return null;
+        }
+        int[][] quantTables = new int[4][];
+        int frameMarker = -1;
+        int precision = 0;
+        int width = 0;
+        int height = 0;
+        int components = 0;
+        int firstTable = -1;
+        int pos = 2;
+        while (pos + 4 <= jpeg.length) {
+            if ((jpeg[pos] & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == SOS || marker == EOI) {
+                break;
+            }
+            int length = u16(jpeg, pos + 2);
+            int end = pos + 2 + length;
+            if (end > jpeg.length) {
+                return null;
+            }
+            if (marker == DQT && !readQuantTables(jpeg, pos + 4, end, quantTables)) {
+                return null;
+            }
+            if (isFrameMarker(marker) && pos + 13 <= end) {
+                frameMarker = marker;
+                precision = jpeg[pos + 4] & 0xFF;
+                height = u16(jpeg, pos + 5);
+                width = u16(jpeg, pos + 7);
+                components = jpeg[pos + 9] & 0xFF;
+                firstTable = jpeg[pos + 12] & 0x03;
+            }
+            pos = end;
+        }
+        if (frameMarker < 0 || quantTables[firstTable] == null) {
+            return null;
+        }
+        return new JpegHeader(frameMarker, precision, width, height, components, quantTables[firstTable]);
+    }
+
+    private static boolean readQuantTables(byte[] data, int at, int end, int[][] tables) {
+        while (at < end) {
+            int pqTq = data[at++] & 0xFF;
+            int precision = pqTq >> 4;
+            int id = pqTq & 0x0F;
+            if (id > 3 || at + 64 * (precision + 1) > end) {
+                return false;
+            }
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                table[k] = precision == 0 ? data[at] & 0xFF : u16(data, at);
+                at += precision + 1;
+                if (table[k] == 0) {
+                    return false;
+                }
+            }
+            tables[id] = table;
+        }
+        return true;
+    }
+
+    private static boolean isFrameMarker(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static int u16(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+}
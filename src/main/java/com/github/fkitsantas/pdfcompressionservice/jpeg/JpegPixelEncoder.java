@@ -0,0 +1,307 @@
+package com.github.fkitsantas.pdfcompressionservice.jpeg;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Pure-Java JPEG encoder working straight off the raster: colour conversion,
+ * chroma subsampling, forward DCT and quantization produce {@link
+ * JpegCoefficients}, which {@link JpegCoefficientWriter} entropy-codes with
+ * Huffman tables optimized for the image, as a sequential or progressive
+ * JFIF stream.
+ *
+ * <p>Output matches the JDK's {@code ImageIO} writer in shape: JFIF YCbCr
+ * with 2x2-subsampled chroma for colour images, one component for {@code
+ * TYPE_BYTE_GRAY}, and the standard tables scaled for the quality setting
+ * the same way ({@link JpegRequantizer#standardTable}). The transform is
+ * libjpeg's floating-point AAN DCT, so the coefficients can differ from
+ * {@code ImageIO}'s integer DCT by one quantization step here and there.
+ *
+ * <p>{@link #transformCmyk} encodes four-channel rasters as they are, with
+ * no colour conversion: an Adobe stream (transform 0) of four
+ * full-resolution components, each quantized with the luminance table as
+ * {@link JpegRequantizer} treats them.
+ *
+ * <p>Every MCU row is independent in the DCT domain, so large images are
+ * transformed in row stripes through a {@link RowSplitter}, and the
+ * sequential writer entropy-codes them as parallel restart intervals.
+ *
+ * <p>Stateless and thread-safe.
+ */
+public final class JpegPixelEncoder {
+
+    /** AAN DCT output scale per frequency (libjpeg {@code jfdctflt.c}). */
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    /** JFIF 1.01 APP0, no thumbnail, 1:1 pixel aspect. */
+    private static final byte[] JFIF_SEGMENT = {
+            (byte) 0xFF, (byte) 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0x00, 0x01, 0x01, 0x00,
+            0x00, 0x01, 0x00, 0x01, 0x00, 0x00
+    };
+
+    /** Adobe APP14, version 100, no flags, transform 0: components are stored as given. */
+    private static final byte[] ADOBE_SEGMENT = {
+            (byte) 0xFF, (byte) 0xEE, 0x00, 0x0E, 'A', 'd', 'o', 'b', 'e', 0x00, 0x64, 0x00, 0x00, 0x00, 0x00, 0x00
+    };
+
+    private JpegPixelEncoder() {
+    }
+
+    /**
+     * Encodes {@code image} at {@code quality} (0..1, as {@code
+     * ImageWriteParam#setCompressionQuality}). Only the colour channels are
+     * written; alpha is ignored.
+     */
+    public static byte[] encode(BufferedImage image, float quality, boolean progressive, RowSplitter rows)
+            throws IOException {
+        JpegCoefficients coefficients = transform(image, quality, rows);
+        return progressive
+                ? JpegCoefficientWriter.writeProgressive(coefficients)
+                : JpegCoefficientWriter.write(coefficients, rows);
+    }
+
+    /** The quantized coefficients {@link #encode} writes. */
+    public static JpegCoefficients transform(BufferedImage image, float quality, RowSplitter rows) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        int mcuSize = gray ? 8 : 16;
+        int mcusPerLine = (width + mcuSize - 1) / mcuSize;
+        int mcusPerColumn = (height + mcuSize - 1) / mcuSize;
+
+        int[] lumaQuant = JpegRequantizer.standardTable(true, quality);
+        JpegCoefficients.Component luma = component(1, mcuSize / 8, lumaQuant, mcusPerLine, mcusPerColumn);
+        List<JpegCoefficients.Component> components;
+        if (gray) {
+            components = List.of(luma);
+        } else {
+            int[] chromaQuant = JpegRequantizer.standardTable(false, quality);
+            components = List.of(luma,
+                    component(2, 1, chromaQuant, mcusPerLine, mcusPerColumn),
+                    component(3, 1, chromaQuant, mcusPerLine, mcusPerColumn));
+        }
+        JpegCoefficients result = new JpegCoefficients(width, height, components, List.of(JFIF_SEGMENT));
+
+        float[][] divisors = new float[components.size()][];
+        for (int i = 0; i < divisors.length; i++) {
+            divisors[i] = reciprocalDivisors(components.get(i).quant());
+        }
+        rows.forEach(mcusPerColumn, (long) width * height, (from, to) -> {
+            McuRow row = new McuRow(width, mcusPerLine * mcuSize, mcuSize);
+            for (int mcuY = from; mcuY < to; mcuY++) {
+                if (gray) {
+                    row.readGray(image, mcuY * mcuSize, height);
+                    row.transform(row.y, mcusPerLine * 8, 8, luma, mcuY, divisors[0]);
+                } else {
+                    row.readColor(image, mcuY * mcuSize, height);
+                    row.transform(row.y, mcusPerLine * 16, 16, luma, mcuY * 2, divisors[0]);
+                    row.transform(row.subsample(row.cb), mcusPerLine * 8, 8, components.get(1), mcuY, divisors[1]);
+                    row.transform(row.subsample(row.cr), mcusPerLine * 8, 8, components.get(2), mcuY, divisors[2]);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The quantized coefficients of a four-band 8-bit raster (CMYK samples,
+     * typically) written as four unsubsampled components, the raster's
+     * samples used as they are.
+     */
+    public static JpegCoefficients transformCmyk(Raster raster, float quality, RowSplitter rows) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int mcusPerLine = (width + 7) / 8;
+        int mcusPerColumn = (height + 7) / 8;
+
+        int[] quant = JpegRequantizer.standardTable(true, quality);
+        List<JpegCoefficients.Component> components = List.of(
+                component(1, 1, quant, mcusPerLine, mcusPerColumn),
+                component(2, 1, quant, mcusPerLine, mcusPerColumn),
+                component(3, 1, quant, mcusPerLine, mcusPerColumn),
+                component(4, 1, quant, mcusPerLine, mcusPerColumn));
+        JpegCoefficients result = new JpegCoefficients(width, height, components, List.of(ADOBE_SEGMENT));
+
+        float[] divisors = reciprocalDivisors(quant);
+        rows.forEach(mcusPerColumn, (long) width * height, (from, to) -> {
+            McuRow row = new McuRow(width, mcusPerLine * 8, 8);
+            for (int mcuY = from; mcuY < to; mcuY++) {
+                for (int band = 0; band < 4; band++) {
+                    row.readBand(raster, band, mcuY * 8, height);
+                    row.transform(row.y, mcusPerLine * 8, 8, components.get(band), mcuY, divisors);
+                }
+            }
+        });
+        return result;
+    }
+
+    private static JpegCoefficients.Component component(int id, int sampling, int[] quant, int mcusPerLine,
+                                                        int mcusPerColumn) {
+        int blocksPerLine = mcusPerLine * sampling;
+        int blocksPerColumn = mcusPerColumn * sampling;
+        return new JpegCoefficients.Component(id, sampling, sampling, quant, blocksPerLine, blocksPerColumn,
+                new short[blocksPerLine * blocksPerColumn * 64]);
+    }
+
+    /** {@code 1 / (q * scale[row] * scale[col] * 8)} in natural order, folding the AAN output scale into quantization. */
+    private static float[] reciprocalDivisors(int[] zigzagQuant) {
+        float[] divisors = new float[64];
+        for (int k = 0; k < 64; k++) {
+            int natural = JpegRequantizer.ZIGZAG_TO_NATURAL[k];
+            divisors[natural] = (float) (1.0
+                    / (zigzagQuant[k] * AAN_SCALE[natural >> 3] * AAN_SCALE[natural & 7] * 8.0));
+        }
+        return divisors;
+    }
+
+    /**
+     * Per-thread working set for one MCU row: level-shifted planes padded to
+     * whole MCUs by repeating the last column and row, as libjpeg does.
+     */
+    private static final class McuRow {
+        private final int width;
+        private final int paddedWidth;
+        private final int rows;
+        private final int[] pixels;
+        final float[] y;
+        final float[] cb;
+        final float[] cr;
+        private final float[] subsampled;
+        private final float[] block = new float[64];
+
+        McuRow(int width, int paddedWidth, int rows) {
+            this.width = width;
+            this.paddedWidth = paddedWidth;
+            this.rows = rows;
+            this.pixels = new int[width];
+            this.y = new float[paddedWidth * rows];
+            this.cb = rows == 16 ? new float[paddedWidth * rows] : null;
+            this.cr = rows == 16 ? new float[paddedWidth * rows] : null;
+            this.subsampled = rows == 16 ? new float[paddedWidth / 2 * 8] : null;
+        }
+
+        void readGray(BufferedImage image, int top, int height) {
+            readBand(image.getRaster(), 0, top, height);
+        }
+
+        /** Level-shifted samples of one band into {@link #y}. */
+        void readBand(Raster raster, int band, int top, int height) {
+            for (int dy = 0; dy < rows; dy++) {
+                raster.getSamples(raster.getMinX(), raster.getMinY() + Math.min(height - 1, top + dy), width, 1, band,
+                        pixels);
+                int base = dy * paddedWidth;
+                for (int x = 0; x < paddedWidth; x++) {
+                    y[base + x] = pixels[Math.min(x, width - 1)] - 128f;
+                }
+            }
+        }
+
+        void readColor(BufferedImage image, int top, int height) {
+            boolean packed = image.getType() == BufferedImage.TYPE_INT_RGB
+                    || image.getType() == BufferedImage.TYPE_INT_ARGB;
+            for (int dy = 0; dy < rows; dy++) {
+                int sy = Math.min(height - 1, top + dy);
+                if (packed) {
+                    image.getRaster().getDataElements(0, sy, width, 1, pixels);
+                } else {
+                    image.getRGB(0, sy, width, 1, pixels, 0, width);
+                }
+                int base = dy * paddedWidth;
+                for (int x = 0; x < paddedWidth; x++) {
+                    int pixel = pixels[Math.min(x, width - 1)];
+                    float r = (pixel >> 16) & 0xFF;
+                    float g = (pixel >> 8) & 0xFF;
+                    float b = pixel & 0xFF;
+                    y[base + x] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+                    cb[base + x] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+                    cr[base + x] = 0.5f * r - 0.418688f * g - 0.081312f * b;
+                }
+            }
+        }
+
+        /** 2x2 box average of a full-resolution chroma plane into {@link #subsampled}. */
+        float[] subsample(float[] plane) {
+            int half = paddedWidth / 2;
+            for (int sy = 0; sy < 8; sy++) {
+                int top = 2 * sy * paddedWidth;
+                int bottom = top + paddedWidth;
+                for (int sx = 0; sx < half; sx++) {
+                    int x = 2 * sx;
+                    subsampled[sy * half + sx] = 0.25f
+                            * (plane[top + x] + plane[top + x + 1] + plane[bottom + x] + plane[bottom + x + 1]);
+                }
+            }
+            return subsampled;
+        }
+
+        /** Transforms and quantizes every 8x8 block of a plane into block row {@code blockRow} onward. */
+        void transform(float[] plane, int planeWidth, int planeRows, JpegCoefficients.Component c, int blockRow,
+                       float[] divisors) {
+            short[] out = c.coefficients();
+            for (int by = 0; by < planeRows / 8; by++) {
+                for (int bx = 0; bx < planeWidth / 8; bx++) {
+                    for (int r = 0; r < 8; r++) {
+                        System.arraycopy(plane, (by * 8 + r) * planeWidth + bx * 8, block, r * 8, 8);
+                    }
+                    forwardDct(block);
+                    int offset = ((blockRow + by) * c.blocksPerLine() + bx) * 64;
+                    for (int k = 0; k < 64; k++) {
+                        int natural = JpegRequantizer.ZIGZAG_TO_NATURAL[k];
+                        out[offset + k] = (short) Math.round(block[natural] * divisors[natural]);
+                    }
+                }
+            }
+        }
+    }
+
+    /** In-place AAN forward DCT of one block, rows then columns (libjpeg {@code jpeg_fdct_float}). */
+    static void forwardDct(float[] data) {
+        for (int i = 0; i < 8; i++) {
+            pass(data, i * 8, 1);
+        }
+        for (int i = 0; i < 8; i++) {
+            pass(data, i, 8);
+        }
+    }
+
+    private static void pass(float[] d, int o, int s) {
+        float tmp0 = d[o] + d[o + 7 * s];
+        float tmp7 = d[o] - d[o + 7 * s];
+        float tmp1 = d[o + s] + d[o + 6 * s];
+        float tmp6 = d[o + s] - d[o + 6 * s];
+        float tmp2 = d[o + 2 * s] + d[o + 5 * s];
+        float tmp5 = d[o + 2 * s] - d[o + 5 * s];
+        float tmp3 = d[o + 3 * s] + d[o + 4 * s];
+        float tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+        // Even part.
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+        d[o] = tmp10 + tmp11;
+        d[o + 4 * s] = tmp10 - tmp11;
+        float z1 = (tmp12 + tmp13) * 0.707106781f;
+        d[o + 2 * s] = tmp13 + z1;
+        d[o + 6 * s] = tmp13 - z1;
+
+        // Odd part.
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+        float z5 = (tmp10 - tmp12) * 0.382683433f;
+        float z2 = 0.541196100f * tmp10 + z5;
+        float z4 = 1.306562965f * tmp12 + z5;
+        float z3 = tmp11 * 0.707106781f;
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+        d[o + 5 * s] = z13 + z2;
+        d[o + 3 * s] = z13 - z2;
+        d[o + s] = z11 + z4;
+        d[o + 7 * s] = z11 - z4;
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.fkitsantas.pdfcompressionservice.jpeg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lowers a JPEG's quality in the DCT domain: each quantized coefficient is
+ * rescaled from the source table to a coarser target table, so the image
+ * is never inverse-transformed, colour-converted or re-transformed, and
+ * picks up no generation loss beyond the one rounding per coefficient.
+ *
+ * <p>The target table for a component is the standard JPEG (ITU T.81 Annex
+ * K) luminance or chrominance table scaled for {@code quality} exactly as
+ * the JDK's {@code ImageIO} JPEG writer scales it, so a requantized image
+ * lands at the same nominal quality as one re-encoded from pixels. Each
+ * entry is clamped so it is never finer than the source entry: precision
+ * that was already thrown away cannot be restored, and a finer step would
+ * only spend bits on noise.
+ *
+ * <p>Stateless and thread-safe.
+ */
+public final class JpegRequantizer {
+
+    /** Natural (row-major) index of each zigzag position. */
+    static final int[] ZIGZAG_TO_NATURAL = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /** ITU T.81 Table K.1, natural order. */
+    private static final int[] STANDARD_LUMINANCE = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+
+    /** ITU T.81 Table K.2, natural order. */
+    private static final int[] STANDARD_CHROMINANCE = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    private JpegRequantizer() {
+    }
+
+    /**
+     * Standard luminance or chrominance table for {@code quality} (0..1, as
+     * {@code ImageWriteParam#setCompressionQuality}), in zigzag order and
+     * clamped to baseline's 1..255.
+     */
+    public static int[] standardTable(boolean luminance, float quality) {
+        double q = Math.max(0.01, Math.min(1.0, quality));
+        double scale = q < 0.5 ? 0.5 / q : 2.0 - 2.0 * q;
+        int[] natural = luminance ? STANDARD_LUMINANCE : STANDARD_CHROMINANCE;
+        int[] table = new int[64];
+        for (int k = 0; k < 64; k++) {
+            table[k] = (int) Math.max(1, Math.min(255, Math.round(natural[ZIGZAG_TO_NATURAL[k]] * scale)));
+        }
+        return table;
+    }
+
+    /**
+     * Whether requantizing to {@code quality} would coarsen at least one
+     * table entry of {@code image}; if not, {@link #requantize} could only
+     * reproduce the same coefficients.
+     */
+    public static boolean coarsens(JpegCoefficients image, float quality) {
+        List<JpegCoefficients.Component> components = image.components();
+        for (int i = 0; i < components.size(); i++) {
+            int[] source = components.get(i).quant();
+            int[] target = standardTable(isLuminanceLike(i, components.size()), quality);
+            for (int k = 0; k < 64; k++) {
+                if (target[k] > source[k]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns {@code image} requantized to {@code quality}; the source is left untouched. */
+    public static JpegCoefficients requantize(JpegCoefficients image, float quality) {
+        List<JpegCoefficients.Component> components = image.components();
+        List<JpegCoefficients.Component> requantized = new ArrayList<>(components.size());
+        for (int i = 0; i < components.size(); i++) {
+            JpegCoefficients.Component c = components.get(i);
+            int[] source = c.quant();
+            int[] standard = standardTable(isLuminanceLike(i, components.size()), quality);
+            int[] target = new int[64];
+            for (int k = 0; k < 64; k++) {
+                target[k] = Math.max(source[k], standard[k]);
+            }
+            short[] in = c.coefficients();
+            short[] out = new short[in.length];
+            for (int offset = 0; offset < in.length; offset += 64) {
+                for (int k = 0; k < 64; k++) {
+                    int value = in[offset + k];
+                    if (value != 0) {
+                        out[offset + k] = (short) rescale(value, source[k], target[k]);
+                    }
+                }
+            }
+            requantized.add(c.with(target, out));
+        }
+        return new JpegCoefficients(image.width(), image.height(), List.copyOf(requantized),
+                image.markerSegments());
+    }
+
+    /** {@code round(value * from / to)}, rounding half away from zero like the forward quantizer. */
+    private static int rescale(int value, int from, int to) {
+        if (from == to) {
+            return value;
+        }
+        int scaled = Math.abs(value) * from;
+        int magnitude = (scaled + to / 2) / to;
+        return value < 0 ? -magnitude : magnitude;
+    }
+
+    /**
+     * The first component of a 1/3-component image is luma; in a
+     * 4-component (CMYK/YCCK) image every channel carries full detail, so
+     * all of them get the luminance table.
+     */
+    private static boolean isLuminanceLike(int index, int componentCount) {
+        return index == 0 || componentCount == 4;
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.fkitsantas.pdfcompressionservice.jpeg;
+
+/**
+ * Hook through which the encoder spreads independent rows of work (MCU
+ * rows) over threads. The package has no executor of its own: the caller's
+ * implementation decides whether a call is split and where the pieces run.
+ * Every row in {@code [0, rows)} must be passed to exactly one
+ * {@link Range#run} call, and {@link #forEach} must not return before all of
+ * them have finished.
+ */
+public interface RowSplitter {
+
+    /** Never splits: every call runs inline on the calling thread. */
+    RowSplitter SERIAL = new RowSplitter() {
+        @Override
+        public boolean splits(int rows, long pixels) {
+            return false;
+        }
+
+        @Override
+        public void forEach(int rows, long pixels, Range body) {
+            body.run(0, rows);
+        }
+    };
+
+    @FunctionalInterface
+    interface Range {
+        /** Processes rows {@code [from, to)}. */
+        void run(int from, int to);
+    }
+
+    /** Whether {@link #forEach} with these arguments would run on more than one thread. */
+    boolean splits(int rows, long pixels);
+
+    /**
+     * Runs {@code body} over rows {@code [0, rows)} of an image of {@code
+     * pixels} pixels, rethrowing the first failure.
+     */
+    void forEach(int rows, long pixels, Range body);
+}
@@ -1,6 +1,7 @@
 package com.github.fkitsantas.pdfcompressionservice.metrics;
 
 import java.time.Duration;
+import java.util.function.ToDoubleFunction;
 
 import org.springframework.stereotype.Component;
 
@@ -8,6 +9,7 @@ import com.github.fkitsantas.pdfcompressionservice.compression.CompressionResult
 import com.github.fkitsantas.pdfcompressionservice.compression.PdfCompressionEngine;
 
 import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 
@@ -15,8 +17,8 @@ import io.micrometer.core.instrument.Timer;
  * Records Micrometer metrics for every compression request, surfaced at
  * {@code /actuator/prometheus} (and {@code /actuator/metrics}). Kept separate
  * from {@link PdfCompressionEngine} so the engine stays a plain, directly
- * testable object with no telemetry dependency; the engine only exposes the two
- * gauge accessors this class binds.
+ * testable object with no telemetry dependency; the engine only exposes the
+ * gauge and counter accessors this class binds.
  *
  * <p>Meter names are namespaced under {@code pcs.} (pdf-compression-service):
  * <ul>
@@ -31,7 +33,16 @@ import io.micrometer.core.instrument.Timer;
  *       saved percentage;</li>
  *   <li>{@code pcs.images} - counter of images handled, tagged {@code action}=
  *       inspected|downsampled|recompressed|unchanged;</li>
- *   <li>{@code pcs.compression.slots.max|inflight} - admission-gate gauges.</li>
+ *   <li>{@code pcs.compression.slots.max|inflight} - admission-gate gauges;</li>
+ *   <li>{@code pcs.images.predictor} - counter of decode-free gain-predictor
+ *       verdicts, tagged {@code result}=evaluated|skipped|audited|false-skip;</li>
+ *   <li>{@code pcs.images.predictor.skip.ratio|false.skip.ratio} - gauges of
+ *       the share of evaluated JPEGs skipped, and of audited skips the size
+ *       guard accepted after all (the false-skip estimate);</li>
+ *   <li>{@code pcs.images.guard} - counter of images the time guards acted
+ *       on, tagged {@code result}=over-budget (left unchanged on the cost
+ *       estimate) | watched (sent to the pool under the watchdog) |
+ *       timed-out (abandoned by it).</li>
  * </ul>
  */
 @Component
@@ -48,6 +59,39 @@ public class CompressionMetrics {
                 .register(registry);
         registry.gauge("pcs.compression.slots.max", engine, PdfCompressionEngine::getMaxConcurrentCompressions);
         registry.gauge("pcs.compression.slots.inflight", engine, PdfCompressionEngine::getInFlightCompressions);
+
+        predictorCounter(registry, engine, "evaluated", PdfCompressionEngine::getPredictorEvaluations);
+        predictorCounter(registry, engine, "skipped", PdfCompressionEngine::getPredictorSkips);
+        predictorCounter(registry, engine, "audited", PdfCompressionEngine::getPredictorAudits);
+        predictorCounter(registry, engine, "false-skip", PdfCompressionEngine::getPredictorFalseSkips);
+        registry.gauge("pcs.images.predictor.skip.ratio", engine,
+                e -> ratio(e.getPredictorSkips(), e.getPredictorEvaluations()));
+        registry.gauge("pcs.images.predictor.false.skip.ratio", engine,
+                e -> ratio(e.getPredictorFalseSkips(), e.getPredictorAudits()));
+
+        guardCounter(registry, engine, "over-budget", PdfCompressionEngine::getImagesOverBudget);
+        guardCounter(registry, engine, "watched", PdfCompressionEngine::getImagesWatched);
+        guardCounter(registry, engine, "timed-out", PdfCompressionEngine::getImagesTimedOut);
+    }
+
+    private static void predictorCounter(MeterRegistry registry, PdfCompressionEngine engine, String result,
+                                         ToDoubleFunction<PdfCompressionEngine> count) {
+        FunctionCounter.builder("pcs.images.predictor", engine, count)
+                .description("Decode-free gain predictor verdicts on JPEGs headed for re-encoding")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static void guardCounter(MeterRegistry registry, PdfCompressionEngine engine, String result,
+                                     ToDoubleFunction<PdfCompressionEngine> count) {
+        FunctionCounter.builder("pcs.images.guard", engine, count)
+                .description("Images left unchanged or abandoned for their estimated or actual processing time")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static double ratio(long part, long whole) {
+        return whole == 0 ? 0.0 : (double) part / whole;
     }
 
     /** Records a successful compression from its result. */
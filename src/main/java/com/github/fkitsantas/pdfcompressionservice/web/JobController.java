@@ -60,6 +60,8 @@ public class JobController {
      * @param maxImageDimension optional override for the output longest-edge cap (0 = no cap)
      * @param stripMetadata     optional override for stripping XMP/Info metadata
      * @param deduplicateImages optional override for merging byte-identical images
+     * @param grayTolerance     optional override for the channel spread still counted as gray
+     * @param bitonalRatio      optional override for the ink-and-paper share that makes a scan bitonal
      * @return {@code 202 Accepted} with the job view and a {@code Location} header pointing at
      *         {@code /jobs/{id}}; {@code 400} if an override is out of range, {@code 429} if the
      *         in-flight job limit is reached
@@ -72,9 +74,12 @@ public class JobController {
             @RequestParam(value = "jpegQuality", required = false) Float jpegQuality,
             @RequestParam(value = "maxImageDimension", required = false) Integer maxImageDimension,
             @RequestParam(value = "stripMetadata", required = false) Boolean stripMetadata,
-            @RequestParam(value = "deduplicateImages", required = false) Boolean deduplicateImages) throws IOException {
+            @RequestParam(value = "deduplicateImages", required = false) Boolean deduplicateImages,
+            @RequestParam(value = "grayTolerance", required = false) Integer grayTolerance,
+            @RequestParam(value = "bitonalRatio", required = false) Float bitonalRatio) throws IOException {
         CompressionOptions options = new CompressionOptions(
-                targetDpi, jpegQuality, maxImageDimension, stripMetadata, deduplicateImages);
+                targetDpi, jpegQuality, maxImageDimension, stripMetadata, deduplicateImages, grayTolerance,
+                bitonalRatio);
 
         // Stream the upload to a temp file; the job service takes ownership and deletes it.
         Path source = Files.createTempFile("pcs-jobin-", ".pdf");
@@ -0,0 +1,155 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the CMYK paths behind {@code recompress-cmyk}: CMYK JPEGs are
+ * re-encoded as 4-component JPEGs in their own colour space ({@code
+ * cmyk-jpeg}), and the lookup-table conversion used for everything else
+ * stays close to PDFBox's own, builds each profile's table once and
+ * hashes each embedded profile once.
+ */
+class CmykPipelineTest {
+
+    @Test
+    void downsampledCmykJpegStaysAFourComponentCmykJpeg() throws IOException {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        props.setRecompressCmyk(true);
+        byte[] pdf = InvoiceCorpusFactory.cmykJpegBrochure(288, 216);
+
+        CompressionResult result = new PdfCompressionEngine(props).compress(pdf, "brochure.pdf", "req-cmyk");
+
+        assertThat(result.getImagesDownsampled()).isEqualTo(1);
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            PDImageXObject image = firstImage(doc);
+            assertThat(image.getStream().getFilters()).containsExactly(COSName.DCT_DECODE);
+            assertThat(image.getColorSpace()).isInstanceOf(PDDeviceCMYK.class);
+            assertThat(image.getWidth()).isEqualTo(600);
+            assertThat(image.getHeight()).isEqualTo(450);
+            assertThat(image.getRawRaster().getNumBands()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    void cmykImagesAreLeftUntouchedByDefault() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.cmykJpegBrochure(288, 216);
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "brochure.pdf", "req-cmyk-off");
+
+        assertThat(result.getImagesRecompressed()).isZero();
+        try (PDDocument original = Loader.loadPDF(pdf);
+             PDDocument compressed = Loader.loadPDF(result.getCompressedPdf())) {
+            assertThat(firstImage(compressed).getStream().toByteArray())
+                    .isEqualTo(firstImage(original).getStream().toByteArray());
+        }
+    }
+
+    @Test
+    void disablingCmykJpegConvertsToRgb() throws IOException {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        props.setRecompressCmyk(true);
+        props.setCmykJpeg(false);
+        byte[] pdf = InvoiceCorpusFactory.cmykJpegBrochure(288, 216);
+
+        CompressionResult result = new PdfCompressionEngine(props).compress(pdf, "brochure.pdf", "req-cmyk-rgb");
+
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            PDImageXObject image = firstImage(doc);
+            assertThat(image.getColorSpace()).isInstanceOf(PDDeviceRGB.class);
+            assertThat(image.getWidth()).isEqualTo(600);
+        }
+    }
+
+    @Test
+    void lookupTableConversionMatchesPdfBoxAndIsBuiltOncePerProfile() throws IOException {
+        CmykColorConverter converter = new CmykColorConverter();
+        try (PDDocument doc = Loader.loadPDF(InvoiceCorpusFactory.cmykJpegBrochure(576, 432))) {
+            PDImageXObject image = firstImage(doc);
+            assertThat(CmykColorConverter.isConvertible(image)).isTrue();
+
+            BufferedImage fast = converter.toRgb(image, 1);
+            BufferedImage reference = image.getImage();
+            long totalError = 0;
+            int maxError = 0;
+            int samples = 0;
+            for (int y = 0; y < reference.getHeight(); y += 13) {
+                for (int x = 0; x < reference.getWidth(); x += 13) {
+                    int a = fast.getRGB(x, y);
+                    int b = reference.getRGB(x, y);
+                    for (int shift = 0; shift <= 16; shift += 8) {
+                        int error = Math.abs((a >> shift & 0xFF) - (b >> shift & 0xFF));
+                        totalError += error;
+                        maxError = Math.max(maxError, error);
+                        samples++;
+                    }
+                }
+            }
+            assertThat((double) totalError / samples).isLessThan(3.0);
+            assertThat(maxError).isLessThan(32);
+
+            BufferedImage half = converter.toRgb(image, 2);
+            assertThat(half.getWidth()).isEqualTo(600);
+            assertThat(converter.cachedProfiles()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void profileSharedByManyImagesIsHashedOnceOnEitherDecodePath() throws IOException {
+        CmykColorConverter converter = new CmykColorConverter();
+        ImageOptimizer optimizer = new ImageOptimizer(new PdfCompressionProperties(), null, new GainPredictor(),
+                converter, new ImageCostModel());
+        try (PDDocument doc = Loader.loadPDF(InvoiceCorpusFactory.cmykImagesSharingOneIccProfile(3))) {
+            PDResources resources = doc.getPage(0).getResources();
+            int images = 0;
+            for (COSName name : resources.getXObjectNames()) {
+                if (resources.getXObject(name) instanceof PDImageXObject image) {
+                    assertThat(CmykColorConverter.isConvertible(image)).isTrue();
+                    ImageOptimizer.GatePassed gate = new ImageOptimizer.GatePassed(image, 0, false,
+                            image.getWidth(), image.getHeight(), false, 1, 4L * image.getWidth() * image.getHeight(),
+                            null, 0);
+                    // A detached snapshot carries its own copy of the profile, keyed from the original's.
+                    assertThat(optimizer.finishPlan(optimizer.snapshot(gate)).decoded()).isNotNull();
+                    assertThat(optimizer.finishPlan(gate).decoded()).isNotNull();
+                    images++;
+                }
+            }
+            assertThat(images).isEqualTo(3);
+            assertThat(converter.profilesHashed()).isEqualTo(1);
+            assertThat(converter.cachedProfiles()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void cmykJpegDefaultsToOnAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isCmykJpeg()).isTrue();
+
+        props.setCmykJpeg(false);
+        assertThat(props.copy().isCmykJpeg()).isFalse();
+    }
+
+    private static PDImageXObject firstImage(PDDocument doc) throws IOException {
+        PDResources resources = doc.getPage(0).getResources();
+        for (COSName name : resources.getXObjectNames()) {
+            if (resources.getXObject(name) instanceof PDImageXObject image) {
+                return image;
+            }
+        }
+        throw new IllegalStateException("No image XObject found on page");
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+import com.github.fkitsantas.pdfcompressionservice.quality.PdfVisualComparator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Covers {@code crop-to-clip}: an image only ever shown through a small clip
+ * window keeps just the visible pixels, drawn through a form XObject at the
+ * original placement, and the page renders as it did.
+ */
+class CropToClipTest {
+
+    @Test
+    void photoShownThroughASmallClipIsCroppedAndPlacedByAForm() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.clippedPhoto();
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "framed.pdf", "req-crop");
+
+        assertThat(result.getImagesDownsampled()).isEqualTo(1);
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            PDFormXObject form = (PDFormXObject) firstXObject(doc.getPage(0).getResources());
+            PDRectangle bbox = form.getBBox();
+            assertThat(bbox.getLowerLeftX()).isCloseTo(0.3f, within(0.01f));
+            assertThat(bbox.getUpperRightX()).isCloseTo(0.6f, within(0.01f));
+            assertThat(bbox.getLowerLeftY()).isCloseTo(0.267f, within(0.01f));
+            assertThat(bbox.getUpperRightY()).isCloseTo(0.533f, within(0.01f));
+
+            PDImageXObject image = (PDImageXObject) firstXObject(form.getResources());
+            assertThat(image.getStream().getFilters()).containsExactly(COSName.DCT_DECODE);
+            // About 604x404 visible pixels at 288 dpi, brought down to 150 dpi.
+            assertThat(image.getWidth()).isBetween(310, 320);
+            assertThat(image.getHeight()).isBetween(206, 215);
+        }
+    }
+
+    @Test
+    void croppedPageRendersLikeTheUncroppedOne() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.clippedPhoto();
+        PdfCompressionProperties whole = new PdfCompressionProperties();
+        whole.setCropToClip(false);
+
+        CompressionResult cropped = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "framed.pdf", "req-crop-visual");
+        CompressionResult uncropped = new PdfCompressionEngine(whole).compress(pdf, "framed.pdf", "req-crop-whole");
+
+        // The clip window at 72 dpi, inset a pixel: x 200-350 pt, y 342-442 from the top of the page.
+        Rectangle window = new Rectangle(201, 343, 148, 98);
+        assertThat(PdfVisualComparator.regionSsim(uncropped.getCompressedPdf(), cropped.getCompressedPdf(), 72, 0,
+                window)).isGreaterThan(0.95);
+        assertThat(PdfVisualComparator.regionSsim(pdf, cropped.getCompressedPdf(), 72, 0, window))
+                .isGreaterThan(0.9);
+        assertThat(cropped.getCompressedBytes()).isLessThan(uncropped.getCompressedBytes());
+    }
+
+    @Test
+    void disablingItKeepsTheWholeImage() throws IOException {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        props.setCropToClip(false);
+
+        CompressionResult result = new PdfCompressionEngine(props)
+                .compress(InvoiceCorpusFactory.clippedPhoto(), "framed.pdf", "req-crop-off");
+
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            PDImageXObject image = (PDImageXObject) firstXObject(doc.getPage(0).getResources());
+            assertThat(image.getWidth()).isBetween(1030, 1050);
+        }
+    }
+
+    @Test
+    void visiblePixelsAddAMarginAndIgnoreCropsThatKeepMostOfTheImage() {
+        // Unit-square y runs bottom-up, pixel rows top-down.
+        assertThat(ImageOptimizer.visiblePixels(2000, 1600, new Rectangle2D.Double(0.25, 0.25, 0.5, 0.25)))
+                .isEqualTo(new Rectangle(498, 798, 1004, 404));
+        assertThat(ImageOptimizer.visiblePixels(2000, 1600, new Rectangle2D.Double(0, 0, 0.875, 1))).isNull();
+        assertThat(ImageOptimizer.visiblePixels(2000, 1600, null)).isNull();
+
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isCropToClip()).isTrue();
+        props.setCropToClip(false);
+        assertThat(props.copy().isCropToClip()).isFalse();
+    }
+
+    private static PDXObject firstXObject(PDResources resources) throws IOException {
+        for (COSName name : resources.getXObjectNames()) {
+            return resources.getXObject(name);
+        }
+        throw new IllegalStateException("No XObject found");
+    }
+}
@@ -0,0 +1,235 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Covers the Phase B encoders behind {@link EncodedImage}: every codec path
+ * leaves {@link ImageOptimizer#transform} fully encoded, and the stream
+ * {@link ImageOptimizer#attach} wraps around those bytes decodes back to
+ * exactly the transformed pixels. The built-in JPEG encoders are checked
+ * through the same transform-and-attach route.
+ */
+class EncodedImageTest {
+
+    private final ImageOptimizer optimizer = new ImageOptimizer(new PdfCompressionProperties());
+
+    @Test
+    void transparentImageIsFlateEncodedWithPredictorsAndASoftMaskThatRoundTrips() throws IOException {
+        BufferedImage argb = new BufferedImage(211, 97, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(3);
+        for (int y = 0; y < argb.getHeight(); y++) {
+            for (int x = 0; x < argb.getWidth(); x++) {
+                int alpha = x * 255 / (argb.getWidth() - 1);
+                int rgb = (x / 20 + y / 20) % 2 == 0 ? 0x2050A0 : random.nextInt(0x1000000);
+                argb.setRGB(x, y, (alpha << 24) | rgb);
+            }
+        }
+
+        ImageOptimizer.Transformed transformed = optimizer.transform(planned(ImageOptimizer.Codec.TRANSPARENT, argb,
+                argb.getWidth(), argb.getHeight(), false));
+
+        EncodedImage encoded = transformed.encoded();
+        assertThat(encoded.filter()).isEqualTo(COSName.FLATE_DECODE);
+        assertThat(encoded.decodeParms().getInt(COSName.PREDICTOR)).isEqualTo(15);
+        assertThat(encoded.softMask()).isNotNull();
+
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject attached = attach(doc, transformed);
+            assertThat(attached.getSoftMask()).isNotNull();
+            BufferedImage decoded = attached.getImage();
+            for (int y = 0; y < argb.getHeight(); y++) {
+                for (int x = 0; x < argb.getWidth(); x++) {
+                    int expected = argb.getRGB(x, y);
+                    int actual = decoded.getRGB(x, y);
+                    assertThat(actual >>> 24).as("alpha at (%d,%d)", x, y).isEqualTo(expected >>> 24);
+                    if ((expected >>> 24) == 0xFF) {
+                        assertThat(actual).as("pixel at (%d,%d)", x, y).isEqualTo(expected);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void opaqueLineArtOutsideThePalettePathIsRgbFlateEncodedWithoutASoftMask() throws IOException {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        props.setPaletteImages(false);
+        ImageOptimizer rgbOnly = new ImageOptimizer(props);
+        BufferedImage rgb = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < rgb.getHeight(); y++) {
+            for (int x = 0; x < rgb.getWidth(); x++) {
+                rgb.setRGB(x, y, x < 80 ? 0xC00000 : 0xFFFFFF);
+            }
+        }
+
+        ImageOptimizer.Transformed transformed = rgbOnly.transform(planned(ImageOptimizer.Codec.COLOR, rgb,
+                rgb.getWidth(), rgb.getHeight(), false));
+
+        assertThat(transformed.encoded().filter()).isEqualTo(COSName.FLATE_DECODE);
+        assertThat(transformed.encoded().softMask()).isNull();
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject attached = attach(doc, transformed);
+            assertThat(attached.getColorSpace().getName()).isEqualTo("DeviceRGB");
+            BufferedImage decoded = attached.getImage();
+            assertThat(decoded.getRGB(10, 10)).isEqualTo(0xFFC00000);
+            assertThat(decoded.getRGB(150, 110)).isEqualTo(0xFFFFFFFF);
+        }
+    }
+
+    @Test
+    void bruteForceFilterSearchKeepsUpWithTheHeuristicAndRoundTrips() throws IOException {
+        BufferedImage art = new BufferedImage(240, 180, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < art.getHeight(); y++) {
+            for (int x = 0; x < art.getWidth(); x++) {
+                int shade = (x * 255 / art.getWidth()) & 0xF0;
+                art.setRGB(x, y, (y / 12) % 2 == 0 ? shade << 16 | (255 - shade) : ((x ^ y) & 8) != 0 ? 0 : 0xFFFFFF);
+            }
+        }
+
+        EncodedImage heuristic = FlateImageEncoder.encode(art, 0);
+        EncodedImage bruteForce = FlateImageEncoder.encode(art, Long.MAX_VALUE);
+
+        // Rows are judged one at a time, so the whole stream is only held to the heuristic's size within slack.
+        assertThat(bruteForce.data().length).isLessThanOrEqualTo(heuristic.data().length * 51 / 50);
+        assertThat(bruteForce.decodeParms().getInt(COSName.PREDICTOR)).isEqualTo(15);
+        try (PDDocument doc = new PDDocument()) {
+            BufferedImage decoded = bruteForce.toXObject(doc).getImage();
+            for (int y = 0; y < art.getHeight(); y++) {
+                for (int x = 0; x < art.getWidth(); x++) {
+                    assertThat(decoded.getRGB(x, y)).as("pixel at (%d,%d)", x, y).isEqualTo(art.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    void pngBruteForcePixelsDefaultsToAMegapixelAndRejectsNegatives() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.getPngBruteForcePixels()).isEqualTo(1_000_000L);
+
+        props.setPngBruteForcePixels(0);
+        assertThat(props.copy().getPngBruteForcePixels()).isZero();
+        assertThatThrownBy(() -> props.setPngBruteForcePixels(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void bitonalImageIsG4EncodedAndDecodesToTheDownsampledBits() throws IOException {
+        BufferedImage bits = new BufferedImage(403, 301, BufferedImage.TYPE_BYTE_BINARY);
+        for (int y = 0; y < bits.getHeight(); y++) {
+            for (int x = 0; x < bits.getWidth(); x++) {
+                bits.setRGB(x, y, (y / 9) % 3 == 0 && (x / 5) % 4 != 0 ? 0x000000 : 0xFFFFFF);
+            }
+        }
+        BufferedImage expected = PackedBitonal.downsample(bits, 201, 150);
+
+        ImageOptimizer.Transformed transformed = optimizer.transform(planned(ImageOptimizer.Codec.BITONAL, bits,
+                201, 150, true));
+
+        EncodedImage encoded = transformed.encoded();
+        assertThat(encoded.filter()).isEqualTo(COSName.CCITTFAX_DECODE);
+        assertThat(encoded.bitsPerComponent()).isEqualTo(1);
+        assertThat(encoded.decodeParms().getInt(COSName.K)).isEqualTo(-1);
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject attached = attach(doc, transformed);
+            COSDictionary parms = (COSDictionary) attached.getCOSObject().getDictionaryObject(COSName.DECODE_PARMS);
+            assertThat(parms.getInt(COSName.COLUMNS)).isEqualTo(201);
+            BufferedImage decoded = attached.getImage();
+            for (int y = 0; y < 150; y++) {
+                for (int x = 0; x < 201; x++) {
+                    assertThat(decoded.getRGB(x, y) & 0xFFFFFF).as("pixel at (%d,%d)", x, y)
+                            .isEqualTo(expected.getRGB(x, y) & 0xFFFFFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    void photographicImageIsJpegEncodedInItsDeviceColourSpace() throws IOException {
+        BufferedImage photo = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(9);
+        for (int y = 0; y < photo.getHeight(); y++) {
+            for (int x = 0; x < photo.getWidth(); x++) {
+                photo.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        ImageOptimizer.Transformed transformed = optimizer.transform(planned(ImageOptimizer.Codec.COLOR, photo,
+                photo.getWidth(), photo.getHeight(), false));
+
+        assertThat(transformed.encoded().filter()).isEqualTo(COSName.DCT_DECODE);
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject attached = attach(doc, transformed);
+            assertThat(attached.getColorSpace().getName()).isEqualTo("DeviceRGB");
+            assertThat(attached.getBitsPerComponent()).isEqualTo(8);
+            assertThat(attached.getImage().getWidth()).isEqualTo(300);
+        }
+    }
+
+    @Test
+    void builtInJpegEncodersProduceDctImagesThatDecodeLikeTheImageIoOnes() throws IOException {
+        BufferedImage photo = new BufferedImage(257, 143, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < photo.getHeight(); y++) {
+            for (int x = 0; x < photo.getWidth(); x++) {
+                int v = (int) (128 + 90 * Math.sin(x / 11.0) * Math.cos(y / 7.0));
+                photo.setRGB(x, y, (v << 16) | ((255 - v) << 8) | ((x + y) & 0xFF));
+            }
+        }
+
+        for (JpegEncoder encoder : new JpegEncoder[] {JpegEncoder.BASELINE, JpegEncoder.PROGRESSIVE}) {
+            PdfCompressionProperties props = new PdfCompressionProperties();
+            props.setJpegEncoder(encoder);
+            ImageOptimizer builtin = new ImageOptimizer(props);
+
+            ImageOptimizer.Transformed transformed = builtin.transform(planned(ImageOptimizer.Codec.COLOR, photo,
+                    photo.getWidth(), photo.getHeight(), false));
+
+            assertThat(transformed.encoded().filter()).isEqualTo(COSName.DCT_DECODE);
+            try (PDDocument doc = new PDDocument()) {
+                BufferedImage decoded = attach(doc, transformed).getImage();
+                assertThat(decoded.getWidth()).isEqualTo(257);
+                assertThat(decoded.getHeight()).isEqualTo(143);
+                int expected = photo.getRGB(100, 70);
+                int actual = decoded.getRGB(100, 70);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    assertThat(Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF)))
+                            .as("%s, channel at bit %d", encoder, shift)
+                            .isLessThan(24);
+                }
+            }
+        }
+    }
+
+    @Test
+    void jpegEncoderDefaultsToImageIoAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.getJpegEncoder()).isEqualTo(JpegEncoder.IMAGEIO);
+
+        props.setJpegEncoder(JpegEncoder.PROGRESSIVE);
+        assertThat(props.copy().getJpegEncoder()).isEqualTo(JpegEncoder.PROGRESSIVE);
+        assertThatThrownBy(() -> props.setJpegEncoder(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static ImageOptimizer.Planned planned(ImageOptimizer.Codec codec, BufferedImage decoded, int targetW,
+                                                  int targetH, boolean downsample) {
+        return new ImageOptimizer.Planned(null, Long.MAX_VALUE, codec, decoded, targetW, targetH, downsample, null,
+                null);
+    }
+
+    private PDImageXObject attach(PDDocument doc, ImageOptimizer.Transformed transformed) throws IOException {
+        ImageOptimizer.Outcome outcome = optimizer.attach(doc,
+                planned(transformed.codec(), null, 0, 0, transformed.downsampled()), transformed);
+        assertThat(outcome.replacement()).isNotNull();
+        return outcome.replacement();
+    }
+}
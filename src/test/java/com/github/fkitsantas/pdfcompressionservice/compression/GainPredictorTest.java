@@ -0,0 +1,192 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegCoefficientReader;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegHeader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Covers the decode-free {@link GainPredictor}: its estimate tracks the
+ * source quality and the target size, it reads the headers it needs from a
+ * stream prefix, and in the engine it skips a JPEG whose re-encode the size
+ * guard would discard, while leaving high-quality sources and the DCT-domain
+ * paths alone.
+ */
+class GainPredictorTest {
+
+    @Test
+    void estimateFallsWithSourceQualityAndTargetSize() throws IOException {
+        BufferedImage image = texturedImage(400, 300);
+        double previous = Double.MAX_VALUE;
+        for (float quality : new float[] {0.5f, 0.75f, 0.95f}) {
+            byte[] jpeg = encode(image, quality, false);
+            double ratio = GainPredictor.predictRatio(jpeg.length, 400 * 300, 400 * 300, JpegHeader.read(jpeg),
+                    0.75f);
+            assertThat(ratio).as("quality %s", quality).isLessThan(previous);
+            previous = ratio;
+        }
+
+        byte[] jpeg = encode(image, 0.75f, false);
+        JpegHeader header = JpegHeader.read(jpeg);
+        assertThat(GainPredictor.predictRatio(jpeg.length, 400 * 300, 200 * 150, header, 0.75f))
+                .isLessThan(GainPredictor.predictRatio(jpeg.length, 400 * 300, 400 * 300, header, 0.75f));
+    }
+
+    @Test
+    void headersAreReadFromAPrefixOfTheStream() throws IOException {
+        BufferedImage image = texturedImage(400, 300);
+        byte[] baseline = encode(image, 0.6f, false);
+        byte[] progressive = encode(image, 0.6f, true);
+
+        JpegHeader header = JpegHeader.read(Arrays.copyOf(baseline, 1024));
+        assertThat(header).isNotNull();
+        assertThat(header.progressive()).isFalse();
+        assertThat(header.width()).isEqualTo(400);
+        assertThat(header.height()).isEqualTo(300);
+        assertThat(header.components()).isEqualTo(3);
+        assertThat(header.firstComponentQuant())
+                .isEqualTo(JpegCoefficientReader.read(baseline).components().get(0).quant());
+        assertThat(JpegHeader.read(Arrays.copyOf(progressive, 1024)).progressive()).isTrue();
+        assertThat(JpegHeader.read(new byte[] {1, 2, 3, 4})).isNull();
+    }
+
+    @Test
+    void everyNthPredictedSkipIsAudited() {
+        GainPredictor predictor = new GainPredictor();
+
+        assertThat(predictor.judge(0.5, 0.9, 3)).isEqualTo(GainPredictor.Verdict.PROCESS);
+        assertThat(predictor.judge(1.2, 0.9, 3)).isEqualTo(GainPredictor.Verdict.SKIP);
+        assertThat(predictor.judge(1.2, 0.9, 3)).isEqualTo(GainPredictor.Verdict.SKIP);
+        assertThat(predictor.judge(1.2, 0.9, 3)).isEqualTo(GainPredictor.Verdict.AUDIT);
+        assertThat(predictor.judge(1.2, 0.9, 0)).isEqualTo(GainPredictor.Verdict.SKIP);
+        predictor.recordAudit(true);
+
+        assertThat(predictor.evaluated()).isEqualTo(5L);
+        assertThat(predictor.skipped()).isEqualTo(4L);
+        assertThat(predictor.audited()).isEqualTo(1L);
+        assertThat(predictor.falseSkips()).isEqualTo(1L);
+    }
+
+    @Test
+    void jpegAlreadyAtTargetQualityIsSkippedBeforeDecoding() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.jpegAtTargetResolutionAndQuality();
+        PdfCompressionEngine engine = new PdfCompressionEngine(pixelPathOnly());
+
+        CompressionResult result = engine.compress(pdf, "photo.pdf", "req-predicted-skip");
+
+        assertThat(result.getImagesInspected()).isEqualTo(1);
+        assertThat(result.getImagesRecompressed()).isZero();
+        assertThat(engine.getPredictorEvaluations()).isEqualTo(1L);
+        assertThat(engine.getPredictorSkips()).isEqualTo(1L);
+        assertThat(engine.getPredictorAudits()).isZero();
+    }
+
+    @Test
+    void auditedSkipIsProcessedAndReported() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.jpegAtTargetResolutionAndQuality();
+        PdfCompressionProperties props = pixelPathOnly();
+        props.setGainPredictorAuditInterval(1);
+        PdfCompressionEngine engine = new PdfCompressionEngine(props);
+
+        engine.compress(pdf, "photo.pdf", "req-predicted-audit");
+
+        assertThat(engine.getPredictorSkips()).isEqualTo(1L);
+        assertThat(engine.getPredictorAudits()).isEqualTo(1L);
+    }
+
+    @Test
+    void highQualityJpegIsStillReEncoded() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.highQualityJpegAtTargetResolution();
+        PdfCompressionEngine engine = new PdfCompressionEngine(pixelPathOnly());
+
+        CompressionResult result = engine.compress(pdf, "photo.pdf", "req-predicted-gain");
+
+        assertThat(result.getImagesRecompressed()).isEqualTo(1);
+        assertThat(engine.getPredictorEvaluations()).isEqualTo(1L);
+        assertThat(engine.getPredictorSkips()).isZero();
+    }
+
+    @Test
+    void jpegsRewrittenInTheDctDomainAreNotPredicted() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.jpegAtTargetResolutionAndQuality();
+        PdfCompressionEngine engine = new PdfCompressionEngine(new PdfCompressionProperties());
+
+        CompressionResult result = engine.compress(pdf, "photo.pdf", "req-not-predicted");
+
+        assertThat(result.getImagesRecompressed()).isEqualTo(1);
+        assertThat(engine.getPredictorEvaluations()).isZero();
+    }
+
+    @Test
+    void gainPredictorDefaultsAreCopiedAndValidated() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isGainPredictor()).isTrue();
+        assertThat(props.getGainPredictorAuditInterval()).isEqualTo(20);
+
+        props.setGainPredictor(false);
+        props.setGainPredictorAuditInterval(0);
+        PdfCompressionProperties copy = props.copy();
+        assertThat(copy.isGainPredictor()).isFalse();
+        assertThat(copy.getGainPredictorAuditInterval()).isZero();
+
+        assertThatThrownBy(() -> props.setGainPredictorAuditInterval(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /** Turns off both DCT-domain paths, so every JPEG at its target size is headed for a pixel re-encode. */
+    private static PdfCompressionProperties pixelPathOnly() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        props.setRequantizeJpeg(false);
+        props.setLosslessJpeg(false);
+        return props;
+    }
+
+    private static BufferedImage texturedImage(int width, int height) {
+        Random random = new Random(5);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = (int) (128 + 60 * Math.sin(x / 15.0) + 40 * Math.cos(y / 9.0) + random.nextInt(30));
+                v = Math.max(0, Math.min(255, v));
+                image.setRGB(x, y, (v << 16) | (((v + x) & 0xFF) << 8) | ((v * 3 + y) & 0xFF));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, float quality, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            return out.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+/**
+ * Covers the memory-weighted batching in {@link ImageBatchPlanner}: batch
+ * boundaries follow the decoded-byte budget, order is preserved, an
+ * oversized image still gets a batch of its own, and a zero budget falls
+ * back to plain count-based batches.
+ */
+class ImageBatchPlannerTest {
+
+    private static final long MB = 1024L * 1024;
+
+    @Test
+    void manySmallImagesShareOneBatch() {
+        List<Integer> indices = List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+        List<List<Integer>> batches = ImageBatchPlanner.plan(indices, idx -> 120_000L, 256 * MB, 4);
+
+        assertThat(batches).containsExactly(indices);
+    }
+
+    @Test
+    void largeImagesAreSplitAtTheBudgetAndKeepTheirOrder() {
+        List<Integer> indices = List.of(3, 5, 8, 13);
+
+        List<List<Integer>> batches = ImageBatchPlanner.plan(indices, idx -> 150 * MB, 256 * MB, 16);
+
+        assertThat(batches).containsExactly(List.of(3), List.of(5), List.of(8), List.of(13));
+    }
+
+    @Test
+    void imageLargerThanTheBudgetStillGetsItsOwnBatch() {
+        List<Integer> indices = List.of(0, 1, 2);
+
+        List<List<Integer>> batches = ImageBatchPlanner.plan(indices,
+                idx -> idx == 1 ? 1024 * MB : 10 * MB, 256 * MB, 16);
+
+        assertThat(batches).containsExactly(List.of(0), List.of(1), List.of(2));
+    }
+
+    @Test
+    void zeroBudgetFallsBackToCountBasedBatches() {
+        List<Integer> indices = List.of(0, 1, 2, 3, 4);
+
+        List<List<Integer>> batches = ImageBatchPlanner.plan(indices, idx -> 1L, 0L, 2);
+
+        assertThat(batches).containsExactly(List.of(0, 1), List.of(2, 3), List.of(4));
+    }
+
+    @Test
+    void batchDecodedBytesRejectsNegativeValues() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+
+        assertThat(props.getBatchDecodedBytes()).isEqualTo(256 * MB);
+        props.setBatchDecodedBytes(0L);
+        assertThat(props.copy().getBatchDecodedBytes()).isZero();
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> props.setBatchDecodedBytes(-1L))
+                .withMessageContaining("batch-decoded-bytes");
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.fkitsantas.pdfcompressionservice.compression;
 
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -57,6 +58,60 @@ class ImageDeduplicationTest {
         }
     }
 
+    @Test
+    void identicalOriginalsAreProcessedOnceForTheirLargestUse() throws IOException {
+        byte[] source = InvoiceCorpusFactory.sameImageAtTwoSizesAsSeparateObjects();
+        PdfCompressionProperties dedupOff = new PdfCompressionProperties();
+        dedupOff.setDeduplicateImages(false);
+
+        CompressionResult on = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(source, "logos.pdf", "req-dedup-early");
+        CompressionResult off = new PdfCompressionEngine(dedupOff)
+                .compress(source, "logos.pdf", "req-dedup-early-off");
+
+        assertThat(on.getImagesDownsampled()).as("each copy is still counted").isEqualTo(2);
+        assertThat(distinctImageObjects(off.getCompressedPdf())).isEqualTo(2);
+        assertThat(distinctImageObjects(on.getCompressedPdf())).isEqualTo(1);
+        try (PDDocument doc = Loader.loadPDF(on.getCompressedPdf())) {
+            for (PDPage page : doc.getPages()) {
+                // 216 pt at 150 dpi: the page 1 use decides the shared copy's size.
+                assertThat(firstImage(page.getResources()).getWidth()).isEqualTo(450);
+            }
+        }
+    }
+
+    @Test
+    void copyUsedOnlyInAnAnnotationKeepsTheSharedResultAtFullResolution() throws IOException {
+        byte[] source = InvoiceCorpusFactory.sameImageOnPageAndInAnnotation();
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(source, "stamp.pdf", "req-dedup-annotation");
+
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            PDPage page = doc.getPage(0);
+            PDResources appearance = page.getAnnotations().get(0).getNormalAppearanceStream().getResources();
+            // The page use alone (600 dpi) would bring the shared copy down to 225 px.
+            assertThat(firstImage(page.getResources()).getWidth()).isEqualTo(900);
+            assertThat(firstImage(appearance).getWidth()).isEqualTo(900);
+        }
+    }
+
+    @Test
+    void sameSamplesUnderDifferentPalettesAreNeverShared() throws IOException {
+        byte[] source = InvoiceCorpusFactory.sameSamplesWithTwoPalettes();
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(source, "palettes.pdf", "req-dedup-palettes");
+
+        assertThat(distinctImageObjects(result.getCompressedPdf())).isEqualTo(2);
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            BufferedImage red = firstImage(doc.getPage(0).getResources()).getImage();
+            BufferedImage blue = firstImage(doc.getPage(1).getResources()).getImage();
+            assertThat(meanChannel(red, 16)).isGreaterThan(meanChannel(red, 0) + 100);
+            assertThat(meanChannel(blue, 0)).isGreaterThan(meanChannel(blue, 16) + 100);
+        }
+    }
+
     @Test
     void stripMetadataRemovesXmpAndInfoWhenEnabledButKeepsThemByDefault() throws IOException {
         byte[] withMetadata = withMetadata(InvoiceCorpusFactory.multipleLargeInvoiceImages(1));
@@ -77,6 +132,26 @@ class ImageDeduplicationTest {
                 .isTrue();
     }
 
+    /** Mean of the 8-bit channel at {@code shift} in {@code image}'s RGB pixels. */
+    private static double meanChannel(BufferedImage image, int shift) {
+        long sum = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                sum += image.getRGB(x, y) >> shift & 0xFF;
+            }
+        }
+        return (double) sum / ((long) image.getWidth() * image.getHeight());
+    }
+
+    private static PDImageXObject firstImage(PDResources resources) throws IOException {
+        for (COSName name : resources.getXObjectNames()) {
+            if (resources.getXObject(name) instanceof PDImageXObject image) {
+                return image;
+            }
+        }
+        throw new IllegalStateException("No image XObject found");
+    }
+
     private static int distinctImageObjects(byte[] pdf) throws IOException {
         try (PDDocument doc = Loader.loadPDF(pdf)) {
             Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<>());
@@ -0,0 +1,111 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSName;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Covers the time guards: an image whose estimated cost exceeds {@code
+ * max-image-cost-millis} is left unchanged without being decoded, one
+ * estimated slow is sent to the pool even on its own, and the {@code
+ * image-time-limit-millis} watchdog abandons pool work that runs over,
+ * keeping the original. Abandoning only stops the request waiting: a
+ * PDFBox or ImageIO decode under way ignores the interrupt and finishes on
+ * its pool thread, so these tests check outcomes and counters, never that
+ * the pool was freed.
+ */
+class ImageTimeGuardTest {
+
+    @Test
+    void costModelRatesJpeg2000FarAboveJpegOfTheSameSize() {
+        long jpx = ImageCostModel.estimateMillis(List.of(COSName.JPX_DECODE), 48_000_000L, 1_000_000L);
+        long jpeg = ImageCostModel.estimateMillis(List.of(COSName.DCT_DECODE), 48_000_000L, 1_000_000L);
+        long chained = ImageCostModel.estimateMillis(List.of(COSName.ASCII85_DECODE, COSName.DCT_DECODE),
+                48_000_000L, 1_000_000L);
+
+        assertThat(jpx).isGreaterThan(20 * jpeg);
+        assertThat(chained).as("every filter in the chain is charged").isGreaterThan(jpeg);
+        assertThat(ImageCostModel.estimateMillis(List.of(), 0, 0)).isZero();
+    }
+
+    @Test
+    void imageOverTheCostBudgetIsLeftUnchangedWithoutDecoding() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.jpeg2000Image();
+        PdfCompressionProperties budgeted = new PdfCompressionProperties();
+        budgeted.setMaxImageCostMillis(1);
+
+        PdfCompressionEngine engine = new PdfCompressionEngine(budgeted);
+        CompressionResult result = engine.compress(pdf, "jpx.pdf", "req-cost-budget");
+        CompressionResult normal = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "jpx.pdf", "req-cost-default");
+
+        assertThat(result.getImagesRecompressed()).isZero();
+        assertThat(result.getImagesUnchanged()).isEqualTo(1);
+        assertThat(engine.getImagesOverBudget()).isEqualTo(1);
+        assertThat(normal.getImagesRecompressed()).as("the default budget is far above this image").isEqualTo(1);
+    }
+
+    @Test
+    void slowImageGoesToThePoolWhereTheWatchdogAbandonsIt() throws IOException {
+        // About 1.9 MP of JPEG 2000: estimated above a second, though it is the document's only image.
+        byte[] pdf = InvoiceCorpusFactory.jpeg2000Image(1600, 1200);
+        PdfCompressionProperties watched = new PdfCompressionProperties();
+        watched.setParallelism(2);
+        PdfCompressionProperties limited = watched.copy();
+        limited.setImageTimeLimitMillis(1);
+
+        PdfCompressionEngine watchedEngine = new PdfCompressionEngine(watched);
+        CompressionResult processed = watchedEngine.compress(pdf, "jpx.pdf", "req-watched");
+        PdfCompressionEngine limitedEngine = new PdfCompressionEngine(limited);
+        CompressionResult abandoned = limitedEngine.compress(pdf, "jpx.pdf", "req-timed-out");
+
+        assertThat(watchedEngine.getImagesWatched()).isEqualTo(1);
+        assertThat(watchedEngine.getImagesTimedOut()).isZero();
+        assertThat(processed.getImagesRecompressed()).isEqualTo(1);
+
+        assertThat(limitedEngine.getImagesTimedOut()).isEqualTo(1);
+        assertThat(abandoned.getImagesInspected()).isEqualTo(1);
+        assertThat(abandoned.getImagesUnchanged()).as("its original is kept").isEqualTo(1);
+    }
+
+    @Test
+    void watchdogNeedsAPoolAndCanBeTurnedOff() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.jpeg2000Image(1600, 1200);
+        PdfCompressionProperties serial = new PdfCompressionProperties();
+        serial.setParallelism(1);
+        serial.setImageTimeLimitMillis(1);
+        PdfCompressionProperties off = new PdfCompressionProperties();
+        off.setParallelism(2);
+        off.setImageTimeLimitMillis(0);
+
+        PdfCompressionEngine serialEngine = new PdfCompressionEngine(serial);
+        PdfCompressionEngine offEngine = new PdfCompressionEngine(off);
+
+        assertThat(serialEngine.compress(pdf, "jpx.pdf", "req-serial").getImagesRecompressed()).isEqualTo(1);
+        assertThat(offEngine.compress(pdf, "jpx.pdf", "req-off").getImagesRecompressed()).isEqualTo(1);
+        assertThat(serialEngine.getImagesWatched() + serialEngine.getImagesTimedOut()).isZero();
+        assertThat(offEngine.getImagesWatched() + offEngine.getImagesTimedOut()).isZero();
+    }
+
+    @Test
+    void settingsDefaultValidateAndAreCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.getMaxImageCostMillis()).isEqualTo(60_000L);
+        assertThat(props.getImageTimeLimitMillis()).isEqualTo(30_000L);
+        assertThatThrownBy(() -> props.setMaxImageCostMillis(-1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> props.setImageTimeLimitMillis(-1)).isInstanceOf(IllegalArgumentException.class);
+
+        props.setMaxImageCostMillis(5_000L);
+        props.setImageTimeLimitMillis(0L);
+        PdfCompressionProperties copy = props.copy();
+        assertThat(copy.getMaxImageCostMillis()).isEqualTo(5_000L);
+        assertThat(copy.getImageTimeLimitMillis()).isZero();
+    }
+}
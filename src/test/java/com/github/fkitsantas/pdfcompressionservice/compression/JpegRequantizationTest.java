@@ -0,0 +1,80 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+import com.github.fkitsantas.pdfcompressionservice.quality.PdfVisualComparator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the DCT-domain requantization path ({@code requantize-jpeg}): a
+ * high-quality JPEG that is already at the target resolution has its
+ * quality lowered without a pixel round trip, keeping its dimensions and
+ * colour space, and looks the same as the pixel re-encode would.
+ */
+class JpegRequantizationTest {
+
+    @Test
+    void highQualityJpegAtTargetResolutionIsRequantizedInPlace() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.highQualityJpegAtTargetResolution();
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "photo.pdf", "req-requantize");
+
+        assertThat(result.getImagesRecompressed()).isEqualTo(1);
+        assertThat(result.getImagesDownsampled()).isZero();
+        assertThat(result.getCompressedBytes()).isLessThan(result.getOriginalBytes() / 2);
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            PDImageXObject image = firstImage(doc);
+            assertThat(image.getWidth()).isEqualTo(800);
+            assertThat(image.getHeight()).isEqualTo(600);
+            assertThat(image.getStream().getFilters()).containsExactly(COSName.DCT_DECODE);
+            assertThat(image.getColorSpace().getName()).isEqualTo("DeviceRGB");
+        }
+        assertThat(PdfVisualComparator.ssim(pdf, result.getCompressedPdf(), 72)).isGreaterThan(0.9);
+    }
+
+    @Test
+    void requantizedResultMatchesThePixelPathVisually() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.highQualityJpegAtTargetResolution();
+        PdfCompressionProperties pixelProps = new PdfCompressionProperties();
+        pixelProps.setRequantizeJpeg(false);
+        pixelProps.setLosslessJpeg(false);
+
+        CompressionResult requantized = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "photo.pdf", "req-dct");
+        CompressionResult reEncoded = new PdfCompressionEngine(pixelProps)
+                .compress(pdf, "photo.pdf", "req-pixels");
+
+        assertThat(reEncoded.getImagesRecompressed()).isEqualTo(1);
+        assertThat(PdfVisualComparator.ssim(requantized.getCompressedPdf(), reEncoded.getCompressedPdf(), 72))
+                .isGreaterThan(0.95);
+    }
+
+    @Test
+    void requantizeJpegDefaultsToOnAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isRequantizeJpeg()).isTrue();
+
+        props.setRequantizeJpeg(false);
+        assertThat(props.copy().isRequantizeJpeg()).isFalse();
+    }
+
+    private static PDImageXObject firstImage(PDDocument doc) throws IOException {
+        PDResources resources = doc.getPage(0).getResources();
+        for (COSName name : resources.getXObjectNames()) {
+            if (resources.getXObject(name) instanceof PDImageXObject image) {
+                return image;
+            }
+        }
+        throw new IllegalStateException("No image XObject found on page");
+    }
+}
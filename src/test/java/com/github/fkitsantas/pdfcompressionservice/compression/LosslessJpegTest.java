@@ -0,0 +1,78 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the lossless JPEG path ({@code lossless-jpeg}): a JPEG that is
+ * already at the target resolution and quality is rewritten with optimized
+ * entropy coding only, so it shrinks while decoding to exactly the same
+ * pixels.
+ */
+class LosslessJpegTest {
+
+    @Test
+    void jpegAtTargetIsRewrittenSmallerWithIdenticalPixels() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.jpegAtTargetResolutionAndQuality();
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "photo.pdf", "req-lossless");
+
+        assertThat(result.getImagesRecompressed()).isEqualTo(1);
+        assertThat(result.getImagesDownsampled()).isZero();
+        assertThat(result.getCompressedBytes()).isLessThan(result.getOriginalBytes());
+        try (PDDocument original = Loader.loadPDF(pdf);
+             PDDocument compressed = Loader.loadPDF(result.getCompressedPdf())) {
+            PDImageXObject before = firstImage(original);
+            PDImageXObject after = firstImage(compressed);
+            assertThat(after.getStream().getFilters()).containsExactly(COSName.DCT_DECODE);
+            assertThat(after.getColorSpace().getName()).isEqualTo("DeviceRGB");
+            assertThat(after.getStream().getLength()).isLessThan(before.getStream().getLength());
+            assertThat(samePixels(before.getImage(), after.getImage())).isTrue();
+        }
+    }
+
+    @Test
+    void losslessJpegDefaultsToOnAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isLosslessJpeg()).isTrue();
+
+        props.setLosslessJpeg(false);
+        assertThat(props.copy().isLosslessJpeg()).isFalse();
+    }
+
+    private static boolean samePixels(BufferedImage a, BufferedImage b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+            return false;
+        }
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static PDImageXObject firstImage(PDDocument doc) throws IOException {
+        PDResources resources = doc.getPage(0).getResources();
+        for (COSName name : resources.getXObjectNames()) {
+            if (resources.getXObject(name) instanceof PDImageXObject image) {
+                return image;
+            }
+        }
+        throw new IllegalStateException("No image XObject found on page");
+    }
+}
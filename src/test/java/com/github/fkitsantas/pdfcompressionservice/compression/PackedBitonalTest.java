@@ -0,0 +1,126 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+import com.github.fkitsantas.pdfcompressionservice.quality.PdfVisualComparator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the packed-bit bitonal path ({@code packed-bitonal}): the box
+ * majority matches a straightforward per-pixel count, including boxes that
+ * straddle byte boundaries, and an oversampled scan comes out one-bit, at
+ * the target size and looking like the gray-path result.
+ */
+class PackedBitonalTest {
+
+    @Test
+    void eachOutputPixelIsTheMajorityOfItsSourceBoxWithTiesWhite() {
+        BufferedImage src = new BufferedImage(4, 2, BufferedImage.TYPE_BYTE_BINARY);
+        // Box 0: 3 of 4 black. Box 1: 2 of 4 black (tie).
+        int[][] black = {{0, 0}, {1, 0}, {0, 1}, {2, 0}, {3, 1}};
+        fillWhite(src);
+        for (int[] p : black) {
+            src.setRGB(p[0], p[1], 0x000000);
+        }
+
+        BufferedImage out = PackedBitonal.downsample(src, 2, 1);
+
+        assertThat(out.getType()).isEqualTo(BufferedImage.TYPE_BYTE_BINARY);
+        assertThat(out.getRGB(0, 0)).isEqualTo(0xFF000000);
+        assertThat(out.getRGB(1, 0)).isEqualTo(0xFFFFFFFF);
+    }
+
+    @Test
+    void downsampleMatchesAPerPixelBoxCountAtUnevenRatios() {
+        Random random = new Random(42);
+        BufferedImage src = new BufferedImage(1237, 419, BufferedImage.TYPE_BYTE_BINARY);
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) {
+                // Mostly-black clusters so majorities are not all one colour.
+                boolean dark = ((x / 13 + y / 7) % 3 == 0) ^ random.nextInt(5) == 0;
+                src.setRGB(x, y, dark ? 0x000000 : 0xFFFFFF);
+            }
+        }
+
+        for (int[] size : new int[][] {{618, 209}, {401, 133}, {97, 31}, {1, 1}}) {
+            BufferedImage out = PackedBitonal.downsample(src, size[0], size[1]);
+            for (int oy = 0; oy < size[1]; oy++) {
+                int y0 = (int) ((long) oy * src.getHeight() / size[1]);
+                int y1 = (int) ((long) (oy + 1) * src.getHeight() / size[1]);
+                for (int ox = 0; ox < size[0]; ox++) {
+                    int x0 = (int) ((long) ox * src.getWidth() / size[0]);
+                    int x1 = (int) ((long) (ox + 1) * src.getWidth() / size[0]);
+                    int white = 0;
+                    for (int y = y0; y < y1; y++) {
+                        for (int x = x0; x < x1; x++) {
+                            white += (src.getRGB(x, y) & 0xFF) == 0xFF ? 1 : 0;
+                        }
+                    }
+                    int expected = 2 * white >= (x1 - x0) * (y1 - y0) ? 0xFFFFFFFF : 0xFF000000;
+                    assertThat(out.getRGB(ox, oy)).as("%dx%d at (%d,%d)", size[0], size[1], ox, oy)
+                            .isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    void oversampledScanIsDownsampledOnPackedBitsToTheSameSizeAndLook() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.oversampledBitonalScan();
+
+        PdfCompressionProperties grayProps = new PdfCompressionProperties();
+        grayProps.setPackedBitonal(false);
+        CompressionResult gray = new PdfCompressionEngine(grayProps).compress(pdf, "scan.pdf", "req-gray");
+        CompressionResult packed = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "scan.pdf", "req-packed");
+
+        assertThat(packed.getImagesDownsampled()).isEqualTo(gray.getImagesDownsampled()).isPositive();
+        PDImageXObject grayImage = firstImage(gray.getCompressedPdf());
+        PDImageXObject packedImage = firstImage(packed.getCompressedPdf());
+        assertThat(packedImage.getBitsPerComponent()).isEqualTo(1);
+        assertThat(packedImage.getColorSpace().getName()).isEqualTo("DeviceGray");
+        assertThat(packedImage.getWidth()).isEqualTo(grayImage.getWidth());
+        assertThat(packedImage.getHeight()).isEqualTo(grayImage.getHeight());
+        assertThat(PdfVisualComparator.ssim(pdf, packed.getCompressedPdf(), 72)).isGreaterThan(0.9);
+    }
+
+    @Test
+    void packedBitonalDefaultsToOnAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isPackedBitonal()).isTrue();
+
+        props.setPackedBitonal(false);
+        assertThat(props.copy().isPackedBitonal()).isFalse();
+    }
+
+    private static void fillWhite(BufferedImage image) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0xFFFFFF);
+            }
+        }
+    }
+
+    private static PDImageXObject firstImage(byte[] pdfBytes) throws IOException {
+        try (PDDocument doc = Loader.loadPDF(pdfBytes)) {
+            PDResources resources = doc.getPage(0).getResources();
+            for (COSName name : resources.getXObjectNames()) {
+                if (resources.getXObject(name) instanceof PDImageXObject image) {
+                    return image;
+                }
+            }
+        }
+        throw new IllegalStateException("No image XObject found on page");
+    }
+}
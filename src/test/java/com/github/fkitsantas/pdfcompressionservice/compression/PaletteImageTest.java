@@ -0,0 +1,123 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.color.PDIndexed;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the palette path ({@code palette-images}): low-colour images are
+ * written as {@code /Indexed} Flate at the smallest bit depth their palette
+ * fits, decode to exactly their pixels, and keep the blended edges of a
+ * downsample rather than snapping them back onto the source palette.
+ */
+class PaletteImageTest {
+
+    private static final int[] COLORS = {0xE63946, 0xF1FAEE, 0xA8DADC, 0x457B9D, 0x1D3557};
+
+    private final ImageOptimizer optimizer = new ImageOptimizer(new PdfCompressionProperties());
+
+    @Test
+    void lowColourImageIsWrittenAsAFourBitIndexedImageWithIdenticalPixels() throws IOException {
+        BufferedImage chart = bands(401, 123);
+
+        ImageOptimizer.Transformed transformed = optimizer.transform(planned(chart, 401, 123, false));
+
+        EncodedImage encoded = transformed.encoded();
+        assertThat(encoded.filter()).isEqualTo(COSName.FLATE_DECODE);
+        assertThat(encoded.bitsPerComponent()).isEqualTo(4);
+        assertThat(encoded.colorSpace()).isInstanceOf(PDIndexed.class);
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject attached = attach(doc, transformed);
+            BufferedImage decoded = attached.getImage();
+            for (int y = 0; y < chart.getHeight(); y++) {
+                for (int x = 0; x < chart.getWidth(); x++) {
+                    assertThat(decoded.getRGB(x, y)).as("pixel at (%d,%d)", x, y).isEqualTo(chart.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    void downsampledLowColourImageKeepsItsBlendedEdges() throws IOException {
+        BufferedImage chart = bands(800, 600);
+
+        ImageOptimizer.Transformed transformed = optimizer.transform(planned(chart, 333, 250, true));
+
+        Set<Integer> source = Set.of(0xFFE63946, 0xFFF1FAEE, 0xFFA8DADC, 0xFF457B9D, 0xFF1D3557);
+        try (PDDocument doc = new PDDocument()) {
+            BufferedImage decoded = attach(doc, transformed).getImage();
+            assertThat(decoded.getWidth()).isEqualTo(333);
+            boolean blended = false;
+            for (int y = 0; y < decoded.getHeight() && !blended; y++) {
+                for (int x = 0; x < decoded.getWidth() && !blended; x++) {
+                    blended = !source.contains(decoded.getRGB(x, y));
+                }
+            }
+            assertThat(blended).as("band edges are anti-aliased, not snapped to the source colours").isTrue();
+        }
+    }
+
+    @Test
+    void twoColourImageUsesOneBitAndPhotographicImageHasNoPalette() {
+        BufferedImage twoColour = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                twoColour.setRGB(x, y, (x + y) % 3 == 0 ? 0x102030 : 0xFFFFFF);
+            }
+        }
+        assertThat(PaletteImageEncoder.palette(twoColour, PaletteImageEncoder.MAX_COLORS))
+                .containsExactly(0x102030, 0xFFFFFF);
+
+        BufferedImage photo = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(5);
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                photo.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        assertThat(PaletteImageEncoder.palette(photo, PaletteImageEncoder.MAX_COLORS)).isNull();
+    }
+
+    @Test
+    void paletteImagesDefaultsToOnAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isPaletteImages()).isTrue();
+
+        props.setPaletteImages(false);
+        assertThat(props.copy().isPaletteImages()).isFalse();
+    }
+
+    private static BufferedImage bands(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, COLORS[(x * COLORS.length / width + y / 40) % COLORS.length]);
+            }
+        }
+        return image;
+    }
+
+    private static ImageOptimizer.Planned planned(BufferedImage decoded, int targetW, int targetH,
+                                                  boolean downsample) {
+        return new ImageOptimizer.Planned(null, Long.MAX_VALUE, ImageOptimizer.Codec.COLOR, decoded, targetW,
+                targetH, downsample, null, null);
+    }
+
+    private PDImageXObject attach(PDDocument doc, ImageOptimizer.Transformed transformed) throws IOException {
+        ImageOptimizer.Outcome outcome = optimizer.attach(doc,
+                new ImageOptimizer.Planned(null, Long.MAX_VALUE, transformed.codec(), null, 0, 0,
+                        transformed.downsampled(), null, null),
+                transformed);
+        assertThat(outcome.replacement()).isNotNull();
+        return outcome.replacement();
+    }
+}
@@ -38,6 +38,26 @@ class PdfCompressionParallelPropertiesTest {
         assertThat(props.getParallelImageThreshold()).isEqualTo(2);
     }
 
+    @Test
+    void pipelineBatchesDefaultsToOnAndIsToggleable() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isPipelineBatches()).isTrue();
+
+        props.setPipelineBatches(false);
+        assertThat(props.isPipelineBatches()).isFalse();
+        assertThat(props.copy().isPipelineBatches()).isFalse();
+    }
+
+    @Test
+    void parallelDecodeDefaultsToOnAndIsToggleable() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isParallelDecode()).isTrue();
+
+        props.setParallelDecode(false);
+        assertThat(props.isParallelDecode()).isFalse();
+        assertThat(props.copy().isParallelDecode()).isFalse();
+    }
+
     @Test
     void parallelismAcceptsZeroAndExplicitPositiveValues() {
         PdfCompressionProperties props = new PdfCompressionProperties();
@@ -94,4 +114,22 @@ class PdfCompressionParallelPropertiesTest {
         assertThatIllegalArgumentException().isThrownBy(() -> props.setParallelImageThreshold(-1))
                 .withMessageContaining("parallel-image-threshold");
     }
+
+    @Test
+    void microImageLaneDefaultsValidateAndAreCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.getMicroImagePixels()).isEqualTo(65_536L);
+        assertThat(props.getMicroImageChunk()).isEqualTo(64);
+
+        assertThatIllegalArgumentException().isThrownBy(() -> props.setMicroImagePixels(-1))
+                .withMessageContaining("micro-image-pixels");
+        assertThatIllegalArgumentException().isThrownBy(() -> props.setMicroImageChunk(0))
+                .withMessageContaining("micro-image-chunk");
+
+        props.setMicroImagePixels(0);
+        props.setMicroImageChunk(8);
+        PdfCompressionProperties copy = props.copy();
+        assertThat(copy.getMicroImagePixels()).isZero();
+        assertThat(copy.getMicroImageChunk()).isEqualTo(8);
+    }
 }
@@ -0,0 +1,133 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Covers {@code pixel-deduplication}: images whose bytes differ but whose
+ * decoded pixels match ({@code exact}) or nearly match ({@code perceptual})
+ * end up as one shared object, the highest-resolution copy.
+ */
+class PixelDeduplicationTest {
+
+    @Test
+    void exactModeMergesCopiesWithIdenticalPixels() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.letterheadReEncoded(false);
+        PdfCompressionProperties off = new PdfCompressionProperties();
+        off.setPixelDeduplication(PixelDeduplication.OFF);
+
+        CompressionResult merged = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "letterhead.pdf", "req-pixel-exact");
+        CompressionResult separate = new PdfCompressionEngine(off).compress(pdf, "letterhead.pdf", "req-pixel-off");
+
+        assertThat(pageImages(pdf)).as("the fixture's copies differ in bytes").hasSize(2);
+        assertThat(pageImages(separate.getCompressedPdf())).hasSize(2);
+        List<PDImageXObject> images = pageImages(merged.getCompressedPdf());
+        assertThat(images).hasSize(1);
+        assertThat(images.get(0).getWidth()).as("the page 1 copy keeps its full resolution").isEqualTo(400);
+        assertThat(merged.getCompressedBytes()).isLessThan(separate.getCompressedBytes());
+    }
+
+    @Test
+    void onlyPerceptualModeMergesAJpegReSave() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.letterheadReEncoded(true);
+        PdfCompressionProperties perceptual = new PdfCompressionProperties();
+        perceptual.setPixelDeduplication(PixelDeduplication.PERCEPTUAL);
+
+        CompressionResult exact = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "letterhead.pdf", "req-pixel-jpeg-exact");
+        CompressionResult similar = new PdfCompressionEngine(perceptual)
+                .compress(pdf, "letterhead.pdf", "req-pixel-jpeg-perceptual");
+
+        assertThat(pageImages(exact.getCompressedPdf())).hasSize(2);
+        List<PDImageXObject> images = pageImages(similar.getCompressedPdf());
+        assertThat(images).hasSize(1);
+        assertThat(images.get(0).getWidth()).isEqualTo(400);
+    }
+
+    @Test
+    void fingerprintsTellPicturesApartButToleratePerceptualNoise() {
+        BufferedImage gradient = gradient(0);
+        BufferedImage noisy = gradient(3);
+        BufferedImage mirrored = new BufferedImage(240, 120, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 120; y++) {
+            for (int x = 0; x < 240; x++) {
+                mirrored.setRGB(x, y, gradient.getRGB(239 - x, y));
+            }
+        }
+
+        assertThat(PixelFingerprint.exact(gradient).matches(PixelFingerprint.exact(gradient(0)),
+                PixelDeduplication.EXACT, 0)).isTrue();
+        assertThat(PixelFingerprint.exact(gradient).matches(PixelFingerprint.exact(noisy),
+                PixelDeduplication.EXACT, 0)).isFalse();
+        assertThat(PixelFingerprint.perceptual(gradient).matches(PixelFingerprint.perceptual(noisy),
+                PixelDeduplication.PERCEPTUAL, 4)).isTrue();
+        assertThat(PixelFingerprint.perceptual(gradient).matches(PixelFingerprint.perceptual(mirrored),
+                PixelDeduplication.PERCEPTUAL, 4)).isFalse();
+        assertThat(PixelFingerprint.perceptual(gradient).matches(PixelFingerprint.perceptual(noisy),
+                PixelDeduplication.OFF, 4)).isFalse();
+    }
+
+    @Test
+    void settingsDefaultValidateAndAreCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.getPixelDeduplication()).isEqualTo(PixelDeduplication.EXACT);
+        assertThat(props.getPerceptualHashDistance()).isEqualTo(4);
+        assertThatThrownBy(() -> props.setPixelDeduplication(null)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> props.setPerceptualHashDistance(33)).isInstanceOf(IllegalArgumentException.class);
+
+        props.setPixelDeduplication(PixelDeduplication.PERCEPTUAL);
+        props.setPerceptualHashDistance(8);
+        PdfCompressionProperties copy = props.copy();
+        assertThat(copy.getPixelDeduplication()).isEqualTo(PixelDeduplication.PERCEPTUAL);
+        assertThat(copy.getPerceptualHashDistance()).isEqualTo(8);
+    }
+
+    /** A horizontal colour ramp; {@code noise} alternates pixels up and down by that many levels. */
+    private static BufferedImage gradient(int noise) {
+        BufferedImage image = new BufferedImage(240, 120, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 120; y++) {
+            for (int x = 0; x < 240; x++) {
+                int level = x + ((x + y) % 2 == 0 ? noise : -noise) + 8;
+                image.setRGB(x, y, level << 16 | (255 - level) << 8 | 128);
+            }
+        }
+        return image;
+    }
+
+    /** The distinct image objects drawn on the document's pages. */
+    private static List<PDImageXObject> pageImages(byte[] pdf) throws IOException {
+        try (PDDocument doc = Loader.loadPDF(pdf)) {
+            Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<PDImageXObject> images = new ArrayList<>();
+            for (PDPage page : doc.getPages()) {
+                PDResources resources = page.getResources();
+                for (COSName name : resources.getXObjectNames()) {
+                    if (resources.getXObject(name) instanceof PDImageXObject image && seen.add(image.getCOSObject())) {
+                        images.add(image);
+                    }
+                }
+            }
+            return images;
+        }
+    }
+}
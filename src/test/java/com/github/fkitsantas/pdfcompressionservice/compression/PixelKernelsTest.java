@@ -0,0 +1,159 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers {@link PixelKernels}: every raw-array fast path must reproduce the
+ * {@code Graphics2D}/{@code getRGB} result it replaces pixel for pixel, so
+ * switching to it changes no compressed output.
+ */
+class PixelKernelsTest {
+
+    private static final int[] SOURCE_TYPES = {
+            BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY};
+
+    private static final int[] TARGET_TYPES = {
+            BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_GRAY};
+
+    @Test
+    void conversionsMatchJava2dExactly() {
+        for (int sourceType : SOURCE_TYPES) {
+            BufferedImage src = noise(173, 61, sourceType, 7);
+            for (int targetType : TARGET_TYPES) {
+                if (sourceType == targetType) {
+                    continue;
+                }
+                BufferedImage fast = PixelKernels.convert(src, targetType);
+                if (fast == null) {
+                    continue;
+                }
+                BufferedImage reference = drawInto(src, targetType);
+                assertThat(fast.getType()).isEqualTo(targetType);
+                assertThat(fast.getRaster().getDataElements(0, 0, 173, 61, null))
+                        .as("type %d -> %d", sourceType, targetType)
+                        .isEqualTo(reference.getRaster().getDataElements(0, 0, 173, 61, null));
+            }
+        }
+    }
+
+    @Test
+    void conversionDeclinesSourcesWithAlpha() {
+        BufferedImage argb = noise(32, 32, BufferedImage.TYPE_INT_ARGB, 3);
+
+        assertThat(PixelKernels.convert(argb, BufferedImage.TYPE_INT_RGB)).isNull();
+    }
+
+    @Test
+    void thresholdMatchesThePerPixelGetRgbThreshold() {
+        for (int type : new int[] {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB}) {
+            // Odd width so the last byte of every packed row is only partly used.
+            BufferedImage gray = noise(203, 47, type, 11);
+
+            BufferedImage bin = PixelKernels.threshold(gray);
+
+            assertThat(bin.getType()).isEqualTo(BufferedImage.TYPE_BYTE_BINARY);
+            for (int y = 0; y < gray.getHeight(); y++) {
+                for (int x = 0; x < gray.getWidth(); x++) {
+                    int expected = (gray.getRGB(x, y) & 0xFF) < 128 ? 0xFF000000 : 0xFFFFFFFF;
+                    assertThat(bin.getRGB(x, y)).as("pixel (%d,%d)", x, y).isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    void distinctColourCountStopsAtTheThreshold() {
+        BufferedImage twoColours = new BufferedImage(400, 400, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 400; y++) {
+            for (int x = 0; x < 400; x++) {
+                twoColours.setRGB(x, y, x < 200 ? 0x112233 : 0xFFFFFF);
+            }
+        }
+        BufferedImage photo = noise(400, 400, BufferedImage.TYPE_INT_RGB, 5);
+
+        assertThat(PixelKernels.hasMoreDistinctColorsThan(twoColours, 256, 20_000)).isFalse();
+        assertThat(PixelKernels.hasMoreDistinctColorsThan(twoColours, 1, 20_000)).isTrue();
+        assertThat(PixelKernels.hasMoreDistinctColorsThan(photo, 256, 20_000)).isTrue();
+        // Same answer through the getRGB fallback for non-packed layouts.
+        assertThat(PixelKernels.hasMoreDistinctColorsThan(drawInto(photo, BufferedImage.TYPE_3BYTE_BGR), 256, 20_000))
+                .isTrue();
+    }
+
+    @Test
+    void onlyGenuinelyTranslucentPixelsCountAsTransparency() {
+        BufferedImage opaqueArgb = drawInto(noise(64, 64, BufferedImage.TYPE_INT_RGB, 9), BufferedImage.TYPE_INT_ARGB);
+        BufferedImage oneTranslucent = drawInto(opaqueArgb, BufferedImage.TYPE_INT_ARGB);
+        oneTranslucent.setRGB(63, 63, 0x80FFFFFF);
+        BufferedImage abgr = drawInto(oneTranslucent, BufferedImage.TYPE_4BYTE_ABGR);
+
+        assertThat(PixelKernels.hasTranslucentPixel(noise(64, 64, BufferedImage.TYPE_INT_RGB, 9))).isFalse();
+        assertThat(PixelKernels.hasTranslucentPixel(opaqueArgb)).isFalse();
+        assertThat(PixelKernels.hasTranslucentPixel(oneTranslucent)).isTrue();
+        assertThat(PixelKernels.hasTranslucentPixel(abgr)).isTrue();
+    }
+
+    @Test
+    void toneSeparatesColourGrayAndInkOnPaper() {
+        Random random = new Random(3);
+        BufferedImage gray = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+        BufferedImage text = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 300; y++) {
+            for (int x = 0; x < 300; x++) {
+                // Slightly tinted, noisy channels, as a colour scanner delivers them.
+                int v = (x + y) * 255 / 598;
+                gray.setRGB(x, y, (Math.min(255, v + random.nextInt(6)) << 16) | (v << 8) | v);
+                int ink = (y / 10) % 3 == 0 && x % 7 != 0 ? 30 : 240;
+                text.setRGB(x, y, (ink << 16) | (ink << 8) | Math.max(0, ink - random.nextInt(5)));
+            }
+        }
+
+        assertThat(PixelKernels.tone(noise(300, 300, BufferedImage.TYPE_INT_RGB, 4), 10, 0.95, 50_000))
+                .isEqualTo(PixelKernels.Tone.COLOR);
+        assertThat(PixelKernels.tone(gray, 10, 0.95, 50_000)).isEqualTo(PixelKernels.Tone.GRAY);
+        assertThat(PixelKernels.tone(gray, 2, 0.95, 50_000)).as("noise beyond the tolerance")
+                .isEqualTo(PixelKernels.Tone.COLOR);
+        assertThat(PixelKernels.tone(text, 10, 0.95, 50_000)).isEqualTo(PixelKernels.Tone.BITONAL);
+        assertThat(PixelKernels.tone(drawInto(text, BufferedImage.TYPE_3BYTE_BGR), 10, 0.95, 50_000))
+                .isEqualTo(PixelKernels.Tone.BITONAL);
+
+        Graphics2D g = text.createGraphics();
+        try {
+            g.setColor(java.awt.Color.RED);
+            g.fillRect(100, 100, 40, 40);
+        } finally {
+            g.dispose();
+        }
+        assertThat(PixelKernels.tone(text, 10, 0.95, 50_000)).as("a red stamp keeps it colour")
+                .isEqualTo(PixelKernels.Tone.COLOR);
+    }
+
+    private static BufferedImage noise(int w, int h, int type, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(w, h, type);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage drawInto(BufferedImage src, int type) {
+        BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), type);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(src, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers {@link PooledJpegWriter}: a worker thread reusing one writer and
+ * buffer across images of different types and qualities produces exactly the
+ * bytes a one-shot writer does, and the reusable buffer behaves as a proper
+ * random-access stream.
+ */
+class PooledJpegWriterTest {
+
+    @Test
+    void reusedWorkerWriterMatchesOneShotWritesAcrossTypesAndQualities() throws Exception {
+        List<BufferedImage> images = List.of(
+                noise(320, 200, BufferedImage.TYPE_INT_RGB),
+                noise(97, 61, BufferedImage.TYPE_BYTE_GRAY),
+                noise(1200, 900, BufferedImage.TYPE_INT_RGB),
+                noise(320, 200, BufferedImage.TYPE_INT_RGB));
+        float[] qualities = {0.75f, 0.5f, 0.9f, 0.3f};
+
+        List<byte[]> oneShot = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            oneShot.add(PooledJpegWriter.encode(images.get(i), qualities[i]));
+        }
+
+        List<byte[]> pooled = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread worker = new Thread(() -> {
+            try {
+                for (int i = 0; i < images.size(); i++) {
+                    pooled.add(PooledJpegWriter.encode(images.get(i), qualities[i]));
+                }
+            } catch (IOException | RuntimeException e) {
+                failure.set(e);
+            }
+        }, PdfCompressionEngine.IMAGE_THREAD_NAME_PREFIX + "pooled-writer-test");
+        worker.start();
+        worker.join();
+
+        assertThat(failure.get()).isNull();
+        for (int i = 0; i < images.size(); i++) {
+            assertThat(pooled.get(i)).as("image %d", i).isEqualTo(oneShot.get(i));
+        }
+    }
+
+    @Test
+    void bufferStreamSeeksOverwritesAndKeepsItsCapacity() throws IOException {
+        PooledJpegWriter.BufferStream stream = new PooledJpegWriter.BufferStream();
+        stream.rewind(16);
+        stream.write(new byte[] {1, 2, 3, 4, 5}, 0, 5);
+        stream.seek(1);
+        stream.write(9);
+        stream.seek(5);
+        stream.write(new byte[40], 0, 40);
+
+        assertThat(stream.length()).isEqualTo(45L);
+        byte[] written = stream.toByteArray();
+        assertThat(written[1]).isEqualTo((byte) 9);
+        assertThat(written[2]).isEqualTo((byte) 3);
+
+        int grown = stream.capacity();
+        stream.rewind(16);
+        assertThat(stream.length()).isZero();
+        assertThat(stream.capacity()).isEqualTo(grown);
+    }
+
+    @Test
+    void sizeEstimateGrowsWithQualityAndStaysWithinTheRetainedBound() {
+        long pixels = 2000L * 1500;
+
+        assertThat(PooledJpegWriter.estimateSize(pixels, false, 0.9f))
+                .isGreaterThan(PooledJpegWriter.estimateSize(pixels, false, 0.5f));
+        assertThat(PooledJpegWriter.estimateSize(pixels, true, 0.75f))
+                .isLessThan(PooledJpegWriter.estimateSize(pixels, false, 0.75f));
+        assertThat(PooledJpegWriter.estimateSize(20000L * 20000, false, 1f))
+                .isEqualTo(PooledJpegWriter.MAX_RETAINED_BUFFER);
+    }
+
+    private static BufferedImage noise(int w, int h, int type) {
+        Random random = new Random(w * 31L + h);
+        BufferedImage image = new BufferedImage(w, h, type);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int v = (int) (128 + 80 * Math.sin((x + y) / 13.0)) + random.nextInt(20);
+                image.setRGB(x, y, (Math.min(255, v) << 16) | ((x & 0xFF) << 8) | (y & 0xFF));
+            }
+        }
+        return image;
+    }
+}
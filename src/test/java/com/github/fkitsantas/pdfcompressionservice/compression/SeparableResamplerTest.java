@@ -0,0 +1,147 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+import com.github.fkitsantas.pdfcompressionservice.quality.PdfVisualComparator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers {@link SeparableResampler} and its {@code resampler} selection:
+ * flat areas stay exactly flat, alpha does not bleed colour, and each
+ * filter produces the same output size as, and looks like, the Java2D path.
+ * A target too wide for one band is resampled in bands with the same
+ * output as a single band.
+ */
+class SeparableResamplerTest {
+
+    @ParameterizedTest
+    @EnumSource(value = Resampler.class, names = {"AREA", "BICUBIC", "LANCZOS3"})
+    void flatImageStaysExactlyFlatAtAnyRatio(Resampler filter) {
+        BufferedImage flat = new BufferedImage(997, 613, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < flat.getHeight(); y++) {
+            for (int x = 0; x < flat.getWidth(); x++) {
+                flat.setRGB(x, y, 0x336699);
+            }
+        }
+
+        BufferedImage out = SeparableResampler.resample(flat, 301, 77, BufferedImage.TYPE_INT_RGB, filter);
+
+        assertThat(out.getWidth()).isEqualTo(301);
+        assertThat(out.getHeight()).isEqualTo(77);
+        for (int y = 0; y < out.getHeight(); y++) {
+            for (int x = 0; x < out.getWidth(); x++) {
+                assertThat(out.getRGB(x, y)).isEqualTo(0xFF336699);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Resampler.class, names = {"AREA", "BICUBIC", "LANCZOS3"})
+    void fullyTransparentPixelsDoNotBleedIntoOpaqueOnes(Resampler filter) {
+        BufferedImage argb = new BufferedImage(400, 400, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 400; y++) {
+            for (int x = 0; x < 400; x++) {
+                // Opaque blue on the left, fully transparent (but nominally red) on the right.
+                argb.setRGB(x, y, x < 200 ? 0xFF0000FF : 0x00FF0000);
+            }
+        }
+
+        BufferedImage out = SeparableResampler.resample(argb, 100, 100, BufferedImage.TYPE_INT_ARGB, filter);
+
+        for (int x = 0; x < 50; x++) {
+            int pixel = out.getRGB(x, 50);
+            if ((pixel >>> 24) > 0) {
+                assertThat((pixel >> 16) & 0xFF).as("red leaking in at x=%d", x).isLessThanOrEqualTo(2);
+            }
+        }
+        assertThat(out.getRGB(10, 50)).isEqualTo(0xFF0000FF);
+        assertThat(out.getRGB(90, 50) >>> 24).isZero();
+    }
+
+    @Test
+    void grayOutputMatchesTheJava2dGrayConversionOnFlatInput() {
+        BufferedImage flat = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 480; y++) {
+            for (int x = 0; x < 640; x++) {
+                flat.setRGB(x, y, 0x336699);
+            }
+        }
+        BufferedImage gray = new BufferedImage(640, 480, BufferedImage.TYPE_BYTE_GRAY);
+        gray.createGraphics().drawImage(flat, 0, 0, null);
+        int expected = gray.getRaster().getSample(0, 0, 0);
+
+        BufferedImage out = SeparableResampler.resample(flat, 200, 150, BufferedImage.TYPE_BYTE_GRAY,
+                Resampler.LANCZOS3);
+
+        assertThat(out.getType()).isEqualTo(BufferedImage.TYPE_BYTE_GRAY);
+        assertThat(out.getRaster().getSample(100, 75, 0)).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Resampler.class, names = {"AREA", "BICUBIC", "LANCZOS3"})
+    void eachFilterDownsamplesLikeTheJava2dPath(Resampler filter) throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.singleExtremelyLargePhotographicImage();
+        PdfCompressionProperties separableProps = new PdfCompressionProperties();
+        separableProps.setResampler(filter);
+
+        CompressionResult java2d = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "photo.pdf", "req-java2d");
+        CompressionResult separable = new PdfCompressionEngine(separableProps)
+                .compress(pdf, "photo.pdf", "req-" + filter);
+
+        assertThat(separable.getImagesDownsampled()).isEqualTo(java2d.getImagesDownsampled()).isPositive();
+        assertThat(PdfVisualComparator.ssim(java2d.getCompressedPdf(), separable.getCompressedPdf(), 72))
+                .isGreaterThan(0.9);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Resampler.class, names = {"AREA", "BICUBIC", "LANCZOS3"})
+    void bandedImageMatchesASingleBandColumn(Resampler filter) {
+        // 8192 output samples per row leave room for 2048 source rows per band, so 3000 rows take two bands.
+        int width = 8192;
+        int height = 3000;
+        BufferedImage wide = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage column = new BufferedImage(1, height, BufferedImage.TYPE_BYTE_GRAY);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(row, (y * 37) & 0xFF);
+            wide.getRaster().setSamples(0, y, width, 1, 0, row);
+            column.getRaster().setSample(0, y, 0, (y * 37) & 0xFF);
+        }
+
+        BufferedImage banded = SeparableResampler.resample(wide, width, 1000, BufferedImage.TYPE_BYTE_GRAY, filter);
+        BufferedImage single = SeparableResampler.resample(column, 1, 1000, BufferedImage.TYPE_BYTE_GRAY, filter);
+
+        for (int y = 0; y < 1000; y++) {
+            int expected = single.getRaster().getSample(0, y, 0);
+            for (int x = 0; x < width; x += 511) {
+                assertThat(banded.getRaster().getSample(x, y, 0)).as("(%d,%d)", x, y).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void onlyAnExtremeVerticalRatioOnAWideTargetDoesNotFit() {
+        assertThat(SeparableResampler.fits(6000, 4000, 3000, BufferedImage.TYPE_INT_RGB, Resampler.LANCZOS3))
+                .isTrue();
+        assertThat(SeparableResampler.fits(5_000_000, 100_000, 1, BufferedImage.TYPE_INT_ARGB, Resampler.AREA))
+                .isFalse();
+    }
+
+    @Test
+    void resamplerDefaultsToJava2dAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.getResampler()).isEqualTo(Resampler.JAVA2D);
+
+        props.setResampler(Resampler.LANCZOS3);
+        assertThat(props.copy().getResampler()).isEqualTo(Resampler.LANCZOS3);
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the separate soft-mask path ({@code separate-soft-mask}): a
+ * photographic image with a soft mask becomes a JPEG with its own Flate
+ * mask instead of one lossless ARGB stream, and the mask is only rewritten
+ * when it is downsampled.
+ */
+class SoftMaskPipelineTest {
+
+    @Test
+    void downsampledTransparentPhotoBecomesJpegWithADownsampledFlateMask() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.transparentProductPhoto(288, 216);
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "product.pdf", "req-soft-mask");
+
+        assertThat(result.getImagesDownsampled()).isEqualTo(1);
+        assertThat(result.getCompressedBytes()).isLessThan(result.getOriginalBytes() / 4);
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            PDImageXObject image = firstImage(doc);
+            assertThat(image.getStream().getFilters()).containsExactly(COSName.DCT_DECODE);
+            assertThat(image.getWidth()).isEqualTo(600);
+            PDImageXObject mask = image.getSoftMask();
+            assertThat(mask).isNotNull();
+            assertThat(mask.getStream().getFilters()).containsExactly(COSName.FLATE_DECODE);
+            assertThat(mask.getWidth()).isEqualTo(600);
+            assertThat(mask.getHeight()).isEqualTo(450);
+            assertThat(image.getImage().getRGB(5, 5) >>> 24).as("outside the cut-out").isZero();
+            assertThat(image.getImage().getRGB(300, 225) >>> 24).as("inside the cut-out").isEqualTo(0xFF);
+        }
+    }
+
+    @Test
+    void transparentPhotoAtTargetKeepsItsOriginalMaskStream() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.transparentProductPhoto(576, 432);
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "product.pdf", "req-soft-mask-kept");
+
+        assertThat(result.getImagesRecompressed()).isEqualTo(1);
+        assertThat(result.getImagesDownsampled()).isZero();
+        try (PDDocument original = Loader.loadPDF(pdf);
+             PDDocument compressed = Loader.loadPDF(result.getCompressedPdf())) {
+            PDImageXObject before = firstImage(original).getSoftMask();
+            PDImageXObject image = firstImage(compressed);
+            assertThat(image.getStream().getFilters()).containsExactly(COSName.DCT_DECODE);
+            PDImageXObject after = image.getSoftMask();
+            assertThat(after.getWidth()).isEqualTo(before.getWidth());
+            assertThat(after.getStream().toByteArray()).isEqualTo(before.getStream().toByteArray());
+        }
+    }
+
+    @Test
+    void disablingItCompositesTheMaskIntoALosslessImage() throws IOException {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        props.setSeparateSoftMask(false);
+        props.setLargerResultPolicy(LargerResultPolicy.USE_SMALLEST);
+        byte[] pdf = InvoiceCorpusFactory.transparentProductPhoto(288, 216);
+
+        CompressionResult result = new PdfCompressionEngine(props).compress(pdf, "product.pdf", "req-composited");
+
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            assertThat(firstImage(doc).getStream().getFilters()).containsExactly(COSName.FLATE_DECODE);
+        }
+    }
+
+    @Test
+    void separateSoftMaskDefaultsToOnAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isSeparateSoftMask()).isTrue();
+
+        props.setSeparateSoftMask(false);
+        assertThat(props.copy().isSeparateSoftMask()).isFalse();
+    }
+
+    private static PDImageXObject firstImage(PDDocument doc) throws IOException {
+        PDResources resources = doc.getPage(0).getResources();
+        for (COSName name : resources.getXObjectNames()) {
+            if (resources.getXObject(name) instanceof PDImageXObject image) {
+                return image;
+            }
+        }
+        throw new IllegalStateException("No image XObject found on page");
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.pdfbox.cos.COSStream;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the deduplication prefilter: streams are only hashed in full when
+ * their length and sampled ends collide, each at most once per instance,
+ * and grouping is the same with or without a pool.
+ */
+class StreamDigestsTest {
+
+    @Test
+    void onlyStreamsWhoseCheapKeysCollideAreHashed() throws IOException {
+        byte[] body = bytes(10_000, 7);
+        byte[] sameEnds = body.clone();
+        sameEnds[5_000] ^= 1; // differs only outside the sampled first and last KB
+        COSStream a = stream(body);
+        COSStream b = stream(body);
+        COSStream c = stream(sameEnds);
+        COSStream shorter = stream(bytes(9_000, 7));
+
+        StreamDigests digests = new StreamDigests();
+        int[] firstCopy = digests.firstCopies(List.of(content(a), content(shorter), content(b), content(c)));
+
+        assertThat(firstCopy).containsExactly(0, 1, 0, 3);
+        assertThat(digests.digested()).as("a, b and c share a bucket, the shorter stream has its own").isEqualTo(3);
+
+        digests.firstCopies(List.of(content(a), content(b)));
+        assertThat(digests.digested()).as("digests are kept per stream").isEqualTo(3);
+    }
+
+    @Test
+    void sameStreamHeaderMismatchAndNullAreNeverHashedOrMerged() throws IOException {
+        COSStream shared = stream(bytes(4_000, 3));
+        COSStream copy = stream(bytes(4_000, 3));
+
+        StreamDigests digests = new StreamDigests();
+        int[] firstCopy = digests.firstCopies(Arrays.asList(content(shared), content(shared), null,
+                new StreamDigests.Content("other", copy, null)));
+
+        assertThat(firstCopy).containsExactly(0, 0, 2, 3);
+        assertThat(digests.digested()).isZero();
+    }
+
+    @Test
+    void poolHashingGroupsLikeInlineHashing() throws IOException {
+        COSStream[] streams = new COSStream[6];
+        for (int i = 0; i < streams.length; i++) {
+            byte[] data = bytes(5_000, 11);
+            data[2_500] = (byte) (i % 3); // three distinct contents, two copies each
+            streams[i] = stream(data);
+        }
+        List<StreamDigests.Content> contents = Arrays.stream(streams).map(StreamDigestsTest::content).toList();
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            // A budget below two streams keeps at most one waiting for the pool at a time.
+            int[] pooled = new StreamDigests(pool, 6_000).firstCopies(contents);
+            assertThat(pooled).containsExactly(0, 1, 2, 0, 1, 2);
+            assertThat(pooled).isEqualTo(new StreamDigests().firstCopies(contents));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static StreamDigests.Content content(COSStream stream) {
+        return new StreamDigests.Content("image", stream, null);
+    }
+
+    private static COSStream stream(byte[] data) throws IOException {
+        COSStream stream = new COSStream();
+        try (OutputStream out = stream.createRawOutputStream()) {
+            out.write(data);
+        }
+        return stream;
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+}
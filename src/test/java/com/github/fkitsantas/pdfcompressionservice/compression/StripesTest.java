@@ -0,0 +1,135 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Covers intra-image stripe parallelism ({@code parallel-resample-pixels}):
+ * striped resizes are pixel-identical to serial ones, every row runs
+ * exactly once, a call from an already-saturated pool still completes, and
+ * stripe failures reach the caller.
+ */
+class StripesTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void stripedSeparableResampleIsPixelIdenticalToSerial() {
+        Stripes striped = new Stripes(pool, 3, 1L);
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage src = noise(1213, 907, type);
+            for (Resampler filter : new Resampler[] {Resampler.AREA, Resampler.BICUBIC, Resampler.LANCZOS3}) {
+                BufferedImage serial = SeparableResampler.resample(src, 401, 299, type, filter);
+                BufferedImage parallel = SeparableResampler.resample(src, 401, 299, type, filter, striped);
+
+                assertThat(parallel.getRaster().getDataElements(0, 0, 401, 299, null))
+                        .as("%s, type %d", filter, type)
+                        .isEqualTo(serial.getRaster().getDataElements(0, 0, 401, 299, null));
+            }
+        }
+    }
+
+    @Test
+    void stripedBitonalDownsampleIsPixelIdenticalToSerial() {
+        BufferedImage bits = new BufferedImage(2001, 1499, BufferedImage.TYPE_BYTE_BINARY);
+        Random random = new Random(5);
+        for (int y = 0; y < bits.getHeight(); y++) {
+            for (int x = 0; x < bits.getWidth(); x++) {
+                bits.setRGB(x, y, random.nextInt(3) == 0 ? 0x000000 : 0xFFFFFF);
+            }
+        }
+
+        BufferedImage serial = PackedBitonal.downsample(bits, 617, 433);
+        BufferedImage parallel = PackedBitonal.downsample(bits, 617, 433, new Stripes(pool, 3, 1L));
+
+        assertThat(parallel.getRaster().getDataElements(0, 0, 617, 433, null))
+                .isEqualTo(serial.getRaster().getDataElements(0, 0, 617, 433, null));
+    }
+
+    @Test
+    void everyRowRunsExactlyOnce() {
+        int rows = 1000;
+        AtomicIntegerArray visits = new AtomicIntegerArray(rows);
+
+        new Stripes(pool, 3, 1L).forEach(rows, Long.MAX_VALUE, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                visits.incrementAndGet(y);
+            }
+        });
+
+        for (int y = 0; y < rows; y++) {
+            assertThat(visits.get(y)).as("row %d", y).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void callFromTheOnlyPoolThreadRunsEveryStripeInline() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            Stripes stripes = new Stripes(single, 3, 1L);
+            AtomicIntegerArray visits = new AtomicIntegerArray(500);
+            // The helpers queue behind the caller itself, so only caller-runs can finish this.
+            Future<?> call = single.submit(() -> stripes.forEach(500, Long.MAX_VALUE, (from, to) -> {
+                for (int y = from; y < to; y++) {
+                    visits.incrementAndGet(y);
+                }
+            }));
+
+            call.get(10, TimeUnit.SECONDS);
+            for (int y = 0; y < 500; y++) {
+                assertThat(visits.get(y)).isEqualTo(1);
+            }
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    void stripeFailureIsRethrownToTheCaller() {
+        Stripes stripes = new Stripes(pool, 3, 1L);
+
+        assertThatThrownBy(() -> stripes.forEach(800, Long.MAX_VALUE, (from, to) -> {
+            if (from <= 400 && 400 < to) {
+                throw new IllegalArgumentException("bad stripe");
+            }
+        })).isInstanceOf(IllegalArgumentException.class).hasMessage("bad stripe");
+    }
+
+    @Test
+    void parallelResamplePixelsDefaultsAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.getParallelResamplePixels()).isEqualTo(8_000_000L);
+
+        props.setParallelResamplePixels(0L);
+        assertThat(props.copy().getParallelResamplePixels()).isZero();
+        assertThatThrownBy(() -> props.setParallelResamplePixels(-1L)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static BufferedImage noise(int w, int h, int type) {
+        Random random = new Random(w * 31L + h);
+        BufferedImage image = new BufferedImage(w, h, type);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
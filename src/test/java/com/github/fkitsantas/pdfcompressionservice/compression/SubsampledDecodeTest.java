@@ -0,0 +1,78 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+import com.github.fkitsantas.pdfcompressionservice.quality.PdfVisualComparator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers subsampled decoding ({@code subsampled-decode}): the power-of-two
+ * reduction never undershoots the target size, and decoding a heavily
+ * oversampled image at reduced resolution yields the same output dimensions
+ * and visually the same page as decoding it in full.
+ */
+class SubsampledDecodeTest {
+
+    @Test
+    void subsamplingIsTheLargestPowerOfTwoThatStaysAtOrAboveTheTarget() {
+        assertThat(ImageOptimizer.decodeSubsampling(4000, 3000, 1240, 930)).isEqualTo(2);
+        assertThat(ImageOptimizer.decodeSubsampling(6000, 4000, 600, 400)).isEqualTo(8);
+        assertThat(ImageOptimizer.decodeSubsampling(6000, 4000, 750, 500)).isEqualTo(8);
+        assertThat(ImageOptimizer.decodeSubsampling(6000, 4000, 751, 500)).isEqualTo(4);
+    }
+
+    @Test
+    void lessThanTwofoldReductionDecodesAtFullResolution() {
+        assertThat(ImageOptimizer.decodeSubsampling(4000, 3000, 2001, 1500)).isEqualTo(1);
+        assertThat(ImageOptimizer.decodeSubsampling(4000, 3000, 4000, 3000)).isEqualTo(1);
+    }
+
+    @Test
+    void subsampledDecodeProducesTheSameOutputSizeAndAppearance() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.singleExtremelyLargePhotographicImage();
+
+        PdfCompressionProperties fullProps = new PdfCompressionProperties();
+        fullProps.setSubsampledDecode(false);
+        CompressionResult full = new PdfCompressionEngine(fullProps).compress(pdf, "photo.pdf", "req-full");
+        CompressionResult subsampled = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "photo.pdf", "req-subsampled");
+
+        assertThat(subsampled.getImagesDownsampled()).isEqualTo(full.getImagesDownsampled()).isPositive();
+        PDImageXObject fullImage = firstImage(full.getCompressedPdf());
+        PDImageXObject subsampledImage = firstImage(subsampled.getCompressedPdf());
+        assertThat(subsampledImage.getWidth()).isEqualTo(fullImage.getWidth());
+        assertThat(subsampledImage.getHeight()).isEqualTo(fullImage.getHeight());
+        assertThat(PdfVisualComparator.ssim(full.getCompressedPdf(), subsampled.getCompressedPdf(), 72))
+                .isGreaterThan(0.95);
+    }
+
+    @Test
+    void subsampledDecodeDefaultsToOnAndIsCopied() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isSubsampledDecode()).isTrue();
+
+        props.setSubsampledDecode(false);
+        assertThat(props.copy().isSubsampledDecode()).isFalse();
+    }
+
+    private static PDImageXObject firstImage(byte[] pdfBytes) throws IOException {
+        try (PDDocument doc = Loader.loadPDF(pdfBytes)) {
+            PDResources resources = doc.getPage(0).getResources();
+            for (COSName name : resources.getXObjectNames()) {
+                if (resources.getXObject(name) instanceof PDImageXObject image) {
+                    return image;
+                }
+            }
+        }
+        throw new IllegalStateException("No image XObject found on page");
+    }
+}
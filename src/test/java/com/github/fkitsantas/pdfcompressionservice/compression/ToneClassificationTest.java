@@ -0,0 +1,100 @@
+package com.github.fkitsantas.pdfcompressionservice.compression;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Covers {@code tone-classification}: colour images are routed by what
+ * their pixels show, so a colour scan of a text page becomes a full
+ * resolution CCITT G4 image and a gray photograph stored as RGB becomes a
+ * one-channel JPEG.
+ */
+class ToneClassificationTest {
+
+    @Test
+    void colourScanOfATextPageBecomesBitonalAtFullResolution() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.colourScanOfTextPage();
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "scan.pdf", "req-tone-bitonal");
+
+        assertThat(result.getImagesRecompressed()).isEqualTo(1);
+        assertThat(result.getImagesDownsampled()).isZero();
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            PDImageXObject image = firstImage(doc);
+            assertThat(image.getStream().getFilters()).containsExactly(COSName.CCITTFAX_DECODE);
+            assertThat(image.getBitsPerComponent()).isEqualTo(1);
+            assertThat(image.getWidth()).isEqualTo(1000);
+            assertThat(image.getHeight()).isEqualTo(1400);
+        }
+    }
+
+    @Test
+    void grayPhotoStoredAsRgbIsWrittenAsAGrayJpeg() throws IOException {
+        byte[] pdf = InvoiceCorpusFactory.grayPhotoStoredAsRgb();
+
+        CompressionResult result = new PdfCompressionEngine(new PdfCompressionProperties())
+                .compress(pdf, "photo.pdf", "req-tone-gray");
+
+        assertThat(result.getImagesDownsampled()).isEqualTo(1);
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            PDImageXObject image = firstImage(doc);
+            assertThat(image.getStream().getFilters()).containsExactly(COSName.DCT_DECODE);
+            assertThat(image.getColorSpace()).isInstanceOf(PDDeviceGray.class);
+        }
+    }
+
+    @Test
+    void disablingItKeepsTheColourModel() throws IOException {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        props.setToneClassification(false);
+        byte[] pdf = InvoiceCorpusFactory.grayPhotoStoredAsRgb();
+
+        CompressionResult result = new PdfCompressionEngine(props).compress(pdf, "photo.pdf", "req-tone-off");
+
+        try (PDDocument doc = Loader.loadPDF(result.getCompressedPdf())) {
+            assertThat(firstImage(doc).getColorSpace()).isInstanceOf(PDDeviceRGB.class);
+        }
+    }
+
+    @Test
+    void thresholdsDefaultValidateAndCanBeOverriddenPerRequest() {
+        PdfCompressionProperties props = new PdfCompressionProperties();
+        assertThat(props.isToneClassification()).isTrue();
+        assertThat(props.getGrayTolerance()).isEqualTo(10);
+        assertThat(props.getBitonalRatio()).isEqualTo(0.95f);
+        assertThatThrownBy(() -> props.setGrayTolerance(256)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> props.setBitonalRatio(0.0f)).isInstanceOf(IllegalArgumentException.class);
+
+        PdfCompressionProperties effective = props.copy();
+        new CompressionOptions(null, null, null, null, null, 4, 0.99f).applyTo(effective);
+        assertThat(effective.getGrayTolerance()).isEqualTo(4);
+        assertThat(effective.getBitonalRatio()).isEqualTo(0.99f);
+        assertThat(props.getGrayTolerance()).isEqualTo(10);
+        assertThatThrownBy(() -> new CompressionOptions(null, null, null, null, null, null, 1.5f).applyTo(effective))
+                .isInstanceOf(InvalidCompressionOptionException.class);
+    }
+
+    private static PDImageXObject firstImage(PDDocument doc) throws IOException {
+        PDResources resources = doc.getPage(0).getResources();
+        for (COSName name : resources.getXObjectNames()) {
+            if (resources.getXObject(name) instanceof PDImageXObject image) {
+                return image;
+            }
+        }
+        throw new IllegalStateException("No image XObject found on page");
+    }
+}
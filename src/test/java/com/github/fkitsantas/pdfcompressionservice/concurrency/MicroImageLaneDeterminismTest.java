@@ -0,0 +1,47 @@
+package com.github.fkitsantas.pdfcompressionservice.concurrency;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.compression.CompressionResult;
+import com.github.fkitsantas.pdfcompressionservice.compression.PdfCompressionEngine;
+import com.github.fkitsantas.pdfcompressionservice.compression.PdfCompressionProperties;
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Transforming micro images in chunks, one pool task per chunk, must attach
+ * exactly what one task per image does, in the same order, whether the
+ * chunks are interleaved with full-size images or not (see {@link
+ * CompressionEquivalence}).
+ */
+class MicroImageLaneDeterminismTest {
+
+    private static final int PAGE_COUNT = 3;
+    private static final int THUMBNAILS_PER_PAGE = 40;
+
+    @Test
+    void chunkedMicroImagesProduceTheSameResultAsOneTaskPerImage() throws IOException {
+        byte[] source = InvoiceCorpusFactory.thumbnailCatalog(PAGE_COUNT, THUMBNAILS_PER_PAGE);
+
+        PdfCompressionProperties perImageProps = new PdfCompressionProperties();
+        perImageProps.setParallelism(4);
+        perImageProps.setMicroImagePixels(0);
+
+        PdfCompressionProperties chunkedProps = new PdfCompressionProperties();
+        chunkedProps.setParallelism(4);
+        chunkedProps.setMicroImageChunk(16);
+
+        CompressionResult perImage = new PdfCompressionEngine(perImageProps)
+                .compress(source, "catalog.pdf", "req-micro-off");
+        CompressionResult chunked = new PdfCompressionEngine(chunkedProps)
+                .compress(source, "catalog.pdf", "req-micro-on");
+
+        assertThat(chunked.getImagesRecompressed()).isGreaterThan(PAGE_COUNT * THUMBNAILS_PER_PAGE / 2);
+        CompressionEquivalence.assertStatsEquivalent(perImage, chunked);
+        CompressionEquivalence.assertPdfsFunctionallyEquivalent(
+                perImage.getCompressedPdf(), chunked.getCompressedPdf(), PAGE_COUNT);
+    }
+}
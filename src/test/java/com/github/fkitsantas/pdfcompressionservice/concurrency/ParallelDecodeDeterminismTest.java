@@ -0,0 +1,43 @@
+package com.github.fkitsantas.pdfcompressionservice.concurrency;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.compression.CompressionResult;
+import com.github.fkitsantas.pdfcompressionservice.compression.PdfCompressionEngine;
+import com.github.fkitsantas.pdfcompressionservice.compression.PdfCompressionProperties;
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+
+/**
+ * Decoding on the pool from a detached stream snapshot ({@code
+ * parallel-decode=true}) must see exactly the same image data as decoding
+ * the live document on the calling thread, so both runs have to be
+ * functionally identical (see {@link CompressionEquivalence}).
+ */
+class ParallelDecodeDeterminismTest {
+
+    private static final int PAGE_COUNT = 6;
+
+    @Test
+    void decodingOnThePoolProducesTheSameResultAsDecodingOnTheDocumentThread() throws IOException {
+        byte[] source = InvoiceCorpusFactory.multipleLargeInvoiceImages(PAGE_COUNT);
+
+        PdfCompressionProperties documentThreadProps = new PdfCompressionProperties();
+        documentThreadProps.setParallelism(4);
+        documentThreadProps.setParallelDecode(false);
+
+        PdfCompressionProperties poolProps = new PdfCompressionProperties();
+        poolProps.setParallelism(4);
+        poolProps.setParallelDecode(true);
+
+        CompressionResult documentThread = new PdfCompressionEngine(documentThreadProps)
+                .compress(source, "invoices.pdf", "req-doc-decode");
+        CompressionResult pool = new PdfCompressionEngine(poolProps)
+                .compress(source, "invoices.pdf", "req-pool-decode");
+
+        CompressionEquivalence.assertStatsEquivalent(documentThread, pool);
+        CompressionEquivalence.assertPdfsFunctionallyEquivalent(
+                documentThread.getCompressedPdf(), pool.getCompressedPdf(), PAGE_COUNT);
+    }
+}
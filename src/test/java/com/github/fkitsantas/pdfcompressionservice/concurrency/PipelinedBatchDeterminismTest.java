@@ -0,0 +1,45 @@
+package com.github.fkitsantas.pdfcompressionservice.concurrency;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.fkitsantas.pdfcompressionservice.compression.CompressionResult;
+import com.github.fkitsantas.pdfcompressionservice.compression.PdfCompressionEngine;
+import com.github.fkitsantas.pdfcompressionservice.compression.PdfCompressionProperties;
+import com.github.fkitsantas.pdfcompressionservice.fixtures.InvoiceCorpusFactory;
+
+/**
+ * Overlapping consecutive batches ({@code pipeline-batches=true}) must not
+ * change the output: attach order is still strict discovery order, so the
+ * pipelined run has to be functionally identical (see
+ * {@link CompressionEquivalence}) to the strict decode, transform, attach
+ * sequence. Parallelism is kept small so the document spans several batches
+ * and the pipeline genuinely has more than one batch in flight.
+ */
+class PipelinedBatchDeterminismTest {
+
+    private static final int PAGE_COUNT = 7;
+
+    @Test
+    void pipelinedBatchesProduceTheSameResultAsStrictBatches() throws IOException {
+        byte[] source = InvoiceCorpusFactory.multipleLargeInvoiceImages(PAGE_COUNT);
+
+        PdfCompressionProperties strictProps = new PdfCompressionProperties();
+        strictProps.setParallelism(2);
+        strictProps.setPipelineBatches(false);
+
+        PdfCompressionProperties pipelinedProps = new PdfCompressionProperties();
+        pipelinedProps.setParallelism(2);
+        pipelinedProps.setPipelineBatches(true);
+
+        CompressionResult strict = new PdfCompressionEngine(strictProps)
+                .compress(source, "invoices.pdf", "req-strict");
+        CompressionResult pipelined = new PdfCompressionEngine(pipelinedProps)
+                .compress(source, "invoices.pdf", "req-pipelined");
+
+        CompressionEquivalence.assertStatsEquivalent(strict, pipelined);
+        CompressionEquivalence.assertPdfsFunctionallyEquivalent(
+                strict.getCompressedPdf(), pipelined.getCompressedPdf(), PAGE_COUNT);
+    }
+}
@@ -1,12 +1,19 @@
 package com.github.fkitsantas.pdfcompressionservice.fixtures;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.zip.Deflater;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
@@ -14,9 +21,12 @@ import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.MemoryCacheImageOutputStream;
 
+import org.apache.pdfbox.cos.COSArray;
 import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
@@ -26,7 +36,9 @@ import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
 import org.apache.pdfbox.pdmodel.graphics.color.PDColor;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
 import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
 import org.apache.pdfbox.pdmodel.graphics.image.CCITTFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
@@ -41,6 +53,10 @@ import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
 import org.apache.pdfbox.pdmodel.interactive.form.PDTextField;
 import org.apache.pdfbox.util.Matrix;
 
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegCoefficientWriter;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.JpegPixelEncoder;
+import com.github.fkitsantas.pdfcompressionservice.jpeg.RowSplitter;
+
 /**
  * Builds small, deterministic, in-memory PDF fixtures ("invoice corpus")
  * used across the compression test suite. Every fixture is produced with
@@ -96,8 +112,11 @@ public final class InvoiceCorpusFactory {
      * undecodable and pass through untouched.
      */
     public static byte[] jpeg2000Image() throws IOException {
-        int width = 700;
-        int height = 500;
+        return jpeg2000Image(700, 500);
+    }
+
+    /** As {@link #jpeg2000Image()}, with a {@code width x height} image, drawn at the same place and size. */
+    public static byte[] jpeg2000Image(int width, int height) throws IOException {
         byte[] jp2 = encodeJpeg2000(syntheticPhotographicImage(width, height));
         try (PDDocument doc = new PDDocument()) {
             PDPage page = new PDPage(PDRectangle.A4);
@@ -155,6 +174,32 @@ public final class InvoiceCorpusFactory {
         }
     }
 
+    /**
+     * A product catalog: every page carries one 1200x900 photographic JPEG
+     * and a grid of {@code thumbnailsPerPage} distinct 96x96 Flate-encoded
+     * thumbnails drawn at 48 pt, the many-small-images shape of catalog and
+     * map-tile documents.
+     */
+    public static byte[] thumbnailCatalog(int pageCount, int thumbnailsPerPage) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            for (int p = 0; p < pageCount; p++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                PDImageXObject hero = JPEGFactory.createFromImage(doc,
+                        syntheticPhotographicImage(1200, 900, SEED + p), 0.9f);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(hero, 50, 550, 300, 225);
+                    for (int t = 0; t < thumbnailsPerPage; t++) {
+                        BufferedImage thumbnail = syntheticPhotographicImage(96, 96, SEED + 1000L * (p + 1) + t);
+                        PDImageXObject image = LosslessFactory.createFromImage(doc, thumbnail);
+                        cs.drawImage(image, 40 + (t % 10) * 52, 480 - (t / 10) * 52, 48, 48);
+                    }
+                }
+            }
+            return save(doc);
+        }
+    }
+
     /**
      * A multi-page PDF that draws the <em>same</em> image on every page, but
      * embeds it as a <em>separate</em> image object per page (identical bytes,
@@ -176,6 +221,60 @@ public final class InvoiceCorpusFactory {
         }
     }
 
+    /**
+     * Two pages that each embed their own copy of one 900x700 JPEG (identical
+     * bytes, distinct COS objects), drawn at 216x168 pt (300 dpi) on page 1
+     * and at 108x84 pt (600 dpi) on page 2.
+     */
+    public static byte[] sameImageAtTwoSizesAsSeparateObjects() throws IOException {
+        byte[] rawJpeg = encodeRawJpeg(syntheticPhotographicImage(900, 700), 0.9f);
+        float[][] sizes = {{216, 168}, {108, 84}};
+        try (PDDocument doc = new PDDocument()) {
+            for (float[] size : sizes) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                PDImageXObject image = PDImageXObject.createFromByteArray(doc, rawJpeg, "logo.jpg");
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(image, 50, 600, size[0], size[1]);
+                }
+            }
+            return save(doc);
+        }
+    }
+
+    /**
+     * One page embedding two copies of one 900x700 JPEG (identical bytes,
+     * distinct COS objects): one drawn on the page at 108x84 pt (600 dpi),
+     * the other only inside a square annotation's appearance stream, where
+     * usage analysis does not look.
+     */
+    public static byte[] sameImageOnPageAndInAnnotation() throws IOException {
+        byte[] rawJpeg = encodeRawJpeg(syntheticPhotographicImage(900, 700), 0.9f);
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            PDImageXObject drawn = PDImageXObject.createFromByteArray(doc, rawJpeg, "logo.jpg");
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(drawn, 50, 600, 108, 84);
+            }
+
+            PDAnnotationSquare square = new PDAnnotationSquare();
+            square.setRectangle(new PDRectangle(300, 600, 150, 80));
+            PDAppearanceStream appearanceStream = new PDAppearanceStream(doc);
+            appearanceStream.setBBox(new PDRectangle(150, 80));
+            PDImageXObject stamped = PDImageXObject.createFromByteArray(doc, rawJpeg, "logo.jpg");
+            try (PDPageContentStream cs = new PDPageContentStream(doc, appearanceStream)) {
+                cs.drawImage(stamped, 0, 0, 150, 80);
+            }
+            PDAppearanceDictionary appearance = new PDAppearanceDictionary();
+            appearance.setNormalAppearance(appearanceStream);
+            square.setAppearance(appearance);
+            square.setPage(page);
+            page.getAnnotations().add(square);
+            return save(doc);
+        }
+    }
+
     /**
      * A one-page PDF whose resources contain a real, optimizable image
      * alongside a sibling XObject with an invalid {@code /Subtype}, which makes
@@ -276,6 +375,89 @@ public final class InvoiceCorpusFactory {
         }
     }
 
+    /**
+     * Photographic product shot with an elliptical cut-out soft mask, drawn
+     * at {@code drawnWidth x drawnHeight} pt. At 576x432 pt the 1200x900
+     * image sits exactly at the default 150 dpi target; smaller sizes make
+     * it oversampled.
+     */
+    public static byte[] transparentProductPhoto(float drawnWidth, float drawnHeight) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            BufferedImage photo = syntheticPhotographicImage(1200, 900);
+            BufferedImage argb = new BufferedImage(1200, 900, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < 900; y++) {
+                for (int x = 0; x < 1200; x++) {
+                    double dx = (x - 600) / 560.0;
+                    double dy = (y - 450) / 420.0;
+                    int alpha = dx * dx + dy * dy <= 1.0 ? 255 : 0;
+                    argb.setRGB(x, y, (alpha << 24) | photo.getRGB(x, y) & 0xFFFFFF);
+                }
+            }
+            PDImageXObject image = LosslessFactory.createFromImage(doc, argb);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(image, 10, 100, drawnWidth, drawnHeight);
+            }
+            return save(doc);
+        }
+    }
+
+    /**
+     * Print-ready brochure photo: a 1200x900 {@code DeviceCMYK} JPEG (Adobe,
+     * no colour transform) at quality 0.95, drawn at {@code drawnWidth x
+     * drawnHeight} pt. At 576x432 pt it sits exactly at the default 150 dpi
+     * target.
+     */
+    public static byte[] cmykJpegBrochure(float drawnWidth, float drawnHeight) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            byte[] rawJpeg = JpegCoefficientWriter.write(JpegPixelEncoder.transformCmyk(
+                    syntheticCmykRaster(1200, 900), 0.95f, RowSplitter.SERIAL));
+            PDImageXObject image = new PDImageXObject(doc, new ByteArrayInputStream(rawJpeg),
+                    COSName.DCT_DECODE, 1200, 900, 8, PDDeviceCMYK.INSTANCE);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(image, 10, 100, drawnWidth, drawnHeight);
+            }
+            return save(doc);
+        }
+    }
+
+    /**
+     * {@code count} Flate-encoded CMYK photos of different sizes, each its
+     * own image object, sharing one {@code ICCBased} colour space and so one
+     * embedded profile stream (PDFBox's bundled ISO Coated v2 profile).
+     */
+    public static byte[] cmykImagesSharingOneIccProfile(int count) throws IOException {
+        try (PDDocument doc = new PDDocument();
+             InputStream profileBytes = PDDeviceCMYK.class.getResourceAsStream(
+                     "/org/apache/pdfbox/resources/icc/ISOcoated_v2_300_bas.icc")) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            COSStream profile = doc.getDocument().createCOSStream();
+            try (OutputStream out = profile.createOutputStream(COSName.FLATE_DECODE)) {
+                profileBytes.transferTo(out);
+            }
+            profile.setInt(COSName.N, 4);
+            COSArray array = new COSArray();
+            array.add(COSName.ICCBASED);
+            array.add(profile);
+            PDICCBased icc = PDICCBased.create(array, null);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                for (int i = 0; i < count; i++) {
+                    int width = 200 + 20 * i;
+                    int height = 150 + 15 * i;
+                    byte[] samples = ((DataBufferByte) syntheticCmykRaster(width, height).getDataBuffer()).getData();
+                    PDImageXObject image = new PDImageXObject(doc, new ByteArrayInputStream(deflate(samples, 6)),
+                            COSName.FLATE_DECODE, width, height, 8, icc);
+                    cs.drawImage(image, 20, 20 + 200 * i, width, height);
+                }
+            }
+            return save(doc);
+        }
+    }
+
     // ------------------------------------------------------------------
     // 5. Grayscale image
     // ------------------------------------------------------------------
@@ -310,6 +492,145 @@ public final class InvoiceCorpusFactory {
         }
     }
 
+    /**
+     * The same kind of text page as {@link #bitonalScanImage}, as an office
+     * scanner in colour mode delivers it: a 1000x1400 RGB JPEG of dark ink
+     * on slightly tinted paper with a little sensor noise, drawn at 144 dpi
+     * so it is not downsampled.
+     */
+    public static byte[] colourScanOfTextPage() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            BufferedImage bitonal = syntheticBitonalImage(1000, 1400);
+            BufferedImage scan = new BufferedImage(1000, 1400, BufferedImage.TYPE_INT_RGB);
+            Random random = new Random(SEED);
+            for (int y = 0; y < 1400; y++) {
+                for (int x = 0; x < 1000; x++) {
+                    int noise = random.nextInt(7) - 3;
+                    int rgb = (bitonal.getRGB(x, y) & 0xFFFFFF) == 0 ? 0x282826 : 0xF4F2EC;
+                    scan.setRGB(x, y, clamp((rgb >> 16 & 0xFF) + noise) << 16
+                            | clamp((rgb >> 8 & 0xFF) + noise) << 8 | clamp((rgb & 0xFF) + noise));
+                }
+            }
+            byte[] rawJpeg = encodeRawJpeg(scan, 0.9f);
+            PDImageXObject image = PDImageXObject.createFromByteArray(doc, rawJpeg, "scan.jpg");
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(image, 50, 50, 500, 700);
+            }
+            return save(doc);
+        }
+    }
+
+    /**
+     * {@link #grayscaleImage}'s photograph stored as an RGB JPEG, the way
+     * colour-mode scanners and many exporters deliver black-and-white photos.
+     */
+    public static byte[] grayPhotoStoredAsRgb() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            byte[] rawJpeg = encodeRawJpeg(syntheticGrayscaleImage(800, 600), 0.9f);
+            PDImageXObject image = PDImageXObject.createFromByteArray(doc, rawJpeg, "gray-photo.jpg");
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(image, 50, 100, 250, 188);
+            }
+            return save(doc);
+        }
+    }
+
+    /**
+     * A 2000x1500 photographic JPEG placed at 500x375 pt but shown only
+     * through a 150x100 pt clip window at (200, 400), the way layout tools
+     * frame a detail of a large picture: 30-60% of its width and the band
+     * from 47% to 73% of its height, counted from the top, are visible.
+     */
+    public static byte[] clippedPhoto() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            byte[] rawJpeg = encodeRawJpeg(syntheticPhotographicImage(2000, 1500), 0.9f);
+            PDImageXObject image = PDImageXObject.createFromByteArray(doc, rawJpeg, "framed-photo.jpg");
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.saveGraphicsState();
+                cs.addRect(200, 400, 150, 100);
+                cs.clip();
+                cs.drawImage(image, 50, 300, 500, 375);
+                cs.restoreGraphicsState();
+            }
+            return save(doc);
+        }
+    }
+
+    /**
+     * A two-page letterhead whose 400x200 photographic logo is embedded twice
+     * with different bytes: page 1 holds a Flate copy drawn at 200x100 pt,
+     * page 2 a copy drawn at 100x50 pt that is either Flate again, deflated
+     * at a different level (identical pixels), or a quality 0.95 JPEG (nearly
+     * identical pixels), the way merged or re-exported documents pick up
+     * re-encoded copies of one asset.
+     */
+    public static byte[] letterheadReEncoded(boolean lossySecondCopy) throws IOException {
+        BufferedImage logo = syntheticPhotographicImage(400, 200);
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject first = LosslessFactory.createFromImage(doc, logo);
+            PDImageXObject second = lossySecondCopy
+                    ? JPEGFactory.createFromImage(doc, logo, 0.95f)
+                    : new PDImageXObject(doc, new ByteArrayInputStream(deflateRgb(logo, Deflater.BEST_SPEED)),
+                            COSName.FLATE_DECODE, logo.getWidth(), logo.getHeight(), 8, PDDeviceRGB.INSTANCE);
+            PDPage page1 = new PDPage(PDRectangle.A4);
+            doc.addPage(page1);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page1)) {
+                cs.drawImage(first, 50, 650, 200, 100);
+            }
+            PDPage page2 = new PDPage(PDRectangle.A4);
+            doc.addPage(page2);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page2)) {
+                cs.drawImage(second, 50, 700, 100, 50);
+            }
+            return save(doc);
+        }
+    }
+
+    /**
+     * Two pages, each drawing its own 600x400 {@code /Indexed} image at
+     * 150x100 pt: both hold the same deflated 16-colour index samples (noise,
+     * so well above the minimum byte size), but page 1's palette is shades
+     * of red and page 2's shades of blue.
+     */
+    public static byte[] sameSamplesWithTwoPalettes() throws IOException {
+        int width = 600;
+        int height = 400;
+        byte[] indices = new byte[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = (byte) random.nextInt(16);
+        }
+        byte[] deflated = deflate(indices, Deflater.DEFAULT_COMPRESSION);
+        try (PDDocument doc = new PDDocument()) {
+            for (int channel : new int[] {0, 2}) {
+                byte[] lookup = new byte[16 * 3];
+                for (int i = 0; i < 16; i++) {
+                    lookup[i * 3 + channel] = (byte) (128 + i * 8);
+                }
+                COSArray indexed = new COSArray();
+                indexed.add(COSName.INDEXED);
+                indexed.add(COSName.DEVICERGB);
+                indexed.add(COSInteger.get(15));
+                indexed.add(new COSString(lookup));
+                PDImageXObject image = embedRawImageXObject(doc, deflated, COSName.FLATE_DECODE, COSName.DEVICERGB,
+                        width, height, 8);
+                image.getCOSObject().setItem(COSName.COLORSPACE, indexed);
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(image, 50, 600, 150, 100);
+                }
+            }
+            return save(doc);
+        }
+    }
+
     // ------------------------------------------------------------------
     // 7. Same image XObject reused across multiple pages (shared resource)
     // ------------------------------------------------------------------
@@ -380,6 +701,63 @@ public final class InvoiceCorpusFactory {
         }
     }
 
+    // ------------------------------------------------------------------
+    // 9a. High-quality JPEG already at the target resolution
+    // ------------------------------------------------------------------
+
+    /**
+     * An 800x600 photographic JPEG at quality 0.95 drawn at 400x300 pt, i.e.
+     * 144 effective DPI: within tolerance of the default 150 DPI target, so it
+     * is not downsampled, only its quality needs lowering. This is the case
+     * DCT-domain requantization exists for.
+     */
+    public static byte[] highQualityJpegAtTargetResolution() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            byte[] rawJpeg = encodeRawJpeg(syntheticPhotographicImage(800, 600), 0.95f);
+            PDImageXObject image = PDImageXObject.createFromByteArray(doc, rawJpeg, "high-quality.jpg");
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(image, 50, 450, 400, 300);
+            }
+            return save(doc);
+        }
+    }
+
+    /**
+     * The same 800x600 photograph at quality 0.7, below the default 0.75
+     * target: neither downsampled nor requantized, so the only saving left is
+     * a lossless rewrite of its entropy coding.
+     */
+    public static byte[] jpegAtTargetResolutionAndQuality() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            byte[] rawJpeg = encodeRawJpeg(syntheticPhotographicImage(800, 600), 0.7f);
+            PDImageXObject image = PDImageXObject.createFromByteArray(doc, rawJpeg, "at-target.jpg");
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(image, 50, 450, 400, 300);
+            }
+            return save(doc);
+        }
+    }
+
+    /**
+     * 1800x2400 1-bit scan drawn at 216x288 pt, i.e. 600 dpi: four times the
+     * default target, so it is downsampled on the bitonal path.
+     */
+    public static byte[] oversampledBitonalScan() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            PDImageXObject image = CCITTFactory.createFromImage(doc, syntheticBitonalImage(1800, 2400));
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(image, 50, 450, 216, 288);
+            }
+            return save(doc);
+        }
+    }
+
     // ------------------------------------------------------------------
     // 10. Tiny sub-threshold image (smaller than minDimension / minByteSize)
     // ------------------------------------------------------------------
@@ -843,6 +1221,28 @@ public final class InvoiceCorpusFactory {
         return image;
     }
 
+    /** {@link #syntheticPhotographicImage} as naive CMYK samples (full black generation). */
+    private static Raster syntheticCmykRaster(int width, int height) {
+        BufferedImage photo = syntheticPhotographicImage(width, height);
+        WritableRaster cmyk = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, 4, null);
+        int[] pixel = new int[4];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = photo.getRGB(x, y);
+                int c = 255 - (rgb >> 16 & 0xFF);
+                int m = 255 - (rgb >> 8 & 0xFF);
+                int ye = 255 - (rgb & 0xFF);
+                int k = Math.min(c, Math.min(m, ye));
+                pixel[0] = c - k;
+                pixel[1] = m - k;
+                pixel[2] = ye - k;
+                pixel[3] = k;
+                cmyk.setPixel(x, y, pixel);
+            }
+        }
+        return cmyk;
+    }
+
     private static BufferedImage syntheticGrayscaleImage(int width, int height) {
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
         Random random = new Random(SEED);
@@ -897,6 +1297,33 @@ public final class InvoiceCorpusFactory {
         return image;
     }
 
+    /** {@code image}'s RGB samples, row by row, deflated at {@code level}. */
+    private static byte[] deflateRgb(BufferedImage image, int level) {
+        byte[] samples = new byte[image.getWidth() * image.getHeight() * 3];
+        for (int y = 0, i = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++, i += 3) {
+                int rgb = image.getRGB(x, y);
+                samples[i] = (byte) (rgb >> 16);
+                samples[i + 1] = (byte) (rgb >> 8);
+                samples[i + 2] = (byte) rgb;
+            }
+        }
+        return deflate(samples, level);
+    }
+
+    private static byte[] deflate(byte[] samples, int level) {
+        Deflater deflater = new Deflater(level);
+        deflater.setInput(samples);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
     private static int clamp(int v) {
         return Math.max(0, Math.min(255, v));
     }
@@ -0,0 +1,164 @@
+package com.github.fkitsantas.pdfcompressionservice.jpeg;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the built-in pixel encoder against the JDK's {@code ImageIO}
+ * writer (fidelity and size at the same quality) and checks that its
+ * sequential, restart-interval and progressive forms all carry the same
+ * coefficients, decoding with {@code ImageIO} as the reference decoder.
+ */
+class JpegPixelEncoderTest {
+
+    /** Splits every call into three-row ranges and runs them last to first, as an out-of-order pool might. */
+    private static final RowSplitter SHUFFLED = new RowSplitter() {
+        @Override
+        public boolean splits(int rows, long pixels) {
+            return true;
+        }
+
+        @Override
+        public void forEach(int rows, long pixels, Range body) {
+            for (int to = rows; to > 0; to -= 3) {
+                body.run(Math.max(0, to - 3), to);
+            }
+        }
+    };
+
+    @Test
+    void outputIsAsFaithfulAsImageIoAndNoLarger() throws IOException {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage original = texturedImage(333, 211, type);
+
+            byte[] builtin = JpegPixelEncoder.encode(original, 0.75f, false, RowSplitter.SERIAL);
+            byte[] reference = imageIo(original, 0.75f);
+
+            assertThat(builtin.length).as("type %d", type).isLessThanOrEqualTo(reference.length);
+            assertThat(meanAbsoluteDifference(original, decode(builtin))).as("type %d", type)
+                    .isLessThanOrEqualTo(meanAbsoluteDifference(original, decode(reference)) * 1.05);
+        }
+    }
+
+    @Test
+    void grayImageIsWrittenAsOneComponent() throws IOException {
+        BufferedImage original = texturedImage(97, 61, BufferedImage.TYPE_BYTE_GRAY);
+
+        byte[] builtin = JpegPixelEncoder.encode(original, 0.8f, false, RowSplitter.SERIAL);
+
+        JpegCoefficients coefficients = JpegCoefficientReader.read(builtin);
+        assertThat(coefficients.components().size()).isEqualTo(1);
+        BufferedImage decoded = decode(builtin);
+        assertThat(decoded.getWidth()).isEqualTo(97);
+        assertThat(decoded.getHeight()).isEqualTo(61);
+        assertThat(decoded.getRaster().getNumBands()).isEqualTo(1);
+    }
+
+    @Test
+    void restartIntervalsCarryExactlyTheSequentialCoefficients() throws IOException {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage original = texturedImage(301, 187, type);
+            JpegCoefficients expected = JpegPixelEncoder.transform(original, 0.75f, RowSplitter.SERIAL);
+
+            byte[] restarted = JpegPixelEncoder.encode(original, 0.75f, false, SHUFFLED);
+
+            JpegCoefficients actual = JpegCoefficientReader.read(restarted);
+            for (int i = 0; i < expected.components().size(); i++) {
+                assertThat(actual.components().get(i).coefficients())
+                        .as("component %d, type %d", i, type)
+                        .isEqualTo(expected.components().get(i).coefficients());
+            }
+            assertThat(meanAbsoluteDifference(decode(restarted),
+                    decode(JpegPixelEncoder.encode(original, 0.75f, false, RowSplitter.SERIAL)))).isZero();
+        }
+    }
+
+    @Test
+    void progressiveOutputDecodesToTheSequentialPixelsAndIsSmaller() throws IOException {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage original = texturedImage(640, 480, type);
+
+            byte[] sequential = JpegPixelEncoder.encode(original, 0.75f, false, RowSplitter.SERIAL);
+            byte[] progressive = JpegPixelEncoder.encode(original, 0.75f, true, RowSplitter.SERIAL);
+
+            assertThat(JpegCoefficientReader.isSupported(progressive)).as("SOF2, type %d", type).isFalse();
+            assertThat(meanAbsoluteDifference(decode(sequential), decode(progressive))).isZero();
+            assertThat(progressive.length).as("type %d", type).isLessThan(sequential.length);
+        }
+    }
+
+    @Test
+    void sizesThatAreNotWholeMcusRoundTrip() throws IOException {
+        for (int[] size : new int[][] {{1, 1}, {17, 9}, {8, 33}}) {
+            BufferedImage original = texturedImage(size[0], size[1], BufferedImage.TYPE_INT_RGB);
+
+            for (boolean progressive : new boolean[] {false, true}) {
+                BufferedImage decoded = decode(JpegPixelEncoder.encode(original, 0.9f, progressive, SHUFFLED));
+
+                assertThat(decoded.getWidth()).isEqualTo(size[0]);
+                assertThat(decoded.getHeight()).isEqualTo(size[1]);
+            }
+        }
+    }
+
+    private static BufferedImage texturedImage(int width, int height, int type) {
+        Random random = new Random(11);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = (int) (128 + 60 * Math.sin(x / 15.0) + 40 * Math.cos(y / 9.0) + random.nextInt(30));
+                v = Math.max(0, Math.min(255, v));
+                image.setRGB(x, y, (v << 16) | (((v + x) & 0xFF) << 8) | ((v * 3 + y) & 0xFF));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] imageIo(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            return out.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    private static double meanAbsoluteDifference(BufferedImage a, BufferedImage b) {
+        long total = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    total += Math.abs(((p >> shift) & 0xFF) - ((q >> shift) & 0xFF));
+                }
+            }
+        }
+        return (double) total / ((long) a.getWidth() * a.getHeight() * 3);
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.fkitsantas.pdfcompressionservice.jpeg;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Round-trips JPEGs produced by the JDK's own encoder through the
+ * coefficient reader, requantizer and writer, decoding the results with
+ * {@code ImageIO} as an independent reference decoder.
+ */
+class JpegRequantizerTest {
+
+    @Test
+    void rewritingUnchangedCoefficientsIsPixelExact() throws IOException {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            byte[] source = encode(texturedImage(333, 211, type), 0.9f, false);
+
+            byte[] rewritten = JpegCoefficientWriter.write(JpegCoefficientReader.read(source));
+
+            assertThat(meanAbsoluteDifference(decode(source), decode(rewritten)))
+                    .as("same coefficients must decode to the same pixels (type %d)", type)
+                    .isZero();
+            assertThat(rewritten.length)
+                    .as("optimized Huffman tables never cost more than the standard ones")
+                    .isLessThanOrEqualTo(source.length);
+        }
+    }
+
+    @Test
+    void requantizingShrinksTheJpegWithoutMoreLossThanAReEncodeAtTheSameQuality() throws IOException {
+        BufferedImage original = texturedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        byte[] source = encode(original, 0.95f, false);
+        JpegCoefficients coefficients = JpegCoefficientReader.read(source);
+        assertThat(JpegRequantizer.coarsens(coefficients, 0.75f)).isTrue();
+
+        byte[] requantized = JpegCoefficientWriter.write(JpegRequantizer.requantize(coefficients, 0.75f));
+        byte[] reEncoded = encode(decode(source), 0.75f, false);
+
+        assertThat(requantized.length).isLessThan(source.length / 2);
+        assertThat(meanAbsoluteDifference(decode(source), decode(requantized)))
+                .isLessThanOrEqualTo(meanAbsoluteDifference(decode(source), decode(reEncoded)) * 1.05);
+    }
+
+    @Test
+    void requantizingToAHigherQualityThanTheSourceIsANoOp() throws IOException {
+        JpegCoefficients coefficients = JpegCoefficientReader.read(
+                encode(texturedImage(64, 64, BufferedImage.TYPE_INT_RGB), 0.5f, false));
+
+        assertThat(JpegRequantizer.coarsens(coefficients, 0.75f)).isFalse();
+    }
+
+    @Test
+    void smallestRewriteIsPixelExactAndNeverLargerThanEitherForm() throws IOException {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            byte[] source = encode(texturedImage(640, 480, type), 0.7f, false);
+            JpegCoefficients coefficients = JpegCoefficientReader.read(source);
+
+            byte[] smallest = JpegCoefficientWriter.writeSmallest(coefficients);
+
+            assertThat(smallest.length).as("type %d", type).isLessThan(source.length);
+            assertThat(smallest.length).isLessThanOrEqualTo(JpegCoefficientWriter.write(coefficients).length);
+            assertThat(smallest.length)
+                    .isLessThanOrEqualTo(JpegCoefficientWriter.writeProgressive(coefficients).length);
+            assertThat(meanAbsoluteDifference(decode(source), decode(smallest))).as("type %d", type).isZero();
+        }
+    }
+
+    @Test
+    void onlySegmentsThatAffectDecodingAreKept() throws IOException {
+        JpegCoefficients coefficients = JpegCoefficientReader.read(
+                encode(texturedImage(64, 64, BufferedImage.TYPE_INT_RGB), 0.8f, false));
+        byte[] comment = {(byte) 0xFF, (byte) 0xFE, 0x00, 0x06, 'n', 'o', 't', 'e'};
+        byte[] exif = {(byte) 0xFF, (byte) 0xE1, 0x00, 0x08, 'E', 'x', 'i', 'f', 0x00, 0x00};
+        byte[] adobe = {(byte) 0xFF, (byte) 0xEE, 0x00, 0x0E, 'A', 'd', 'o', 'b', 'e', 0x00, 0x64,
+                0x00, 0x00, 0x00, 0x00, 0x01};
+        List<byte[]> segments = new ArrayList<>(coefficients.markerSegments());
+        segments.addAll(List.of(comment, exif, adobe));
+        JpegCoefficients annotated = new JpegCoefficients(coefficients.width(), coefficients.height(),
+                coefficients.components(), segments);
+
+        List<byte[]> kept = annotated.withDecodingMarkersOnly().markerSegments();
+
+        assertThat(kept.size()).isEqualTo(coefficients.markerSegments().size() + 1);
+        assertThat(kept.get(kept.size() - 1)).isEqualTo(adobe);
+        assertThat(kept.stream().noneMatch(s -> s[1] == (byte) 0xFE || s[1] == (byte) 0xE1)).isTrue();
+    }
+
+    @Test
+    void progressiveJpegIsReportedUnsupportedFromItsHeadersAlone() throws IOException {
+        BufferedImage image = texturedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+
+        assertThat(JpegCoefficientReader.isSupported(encode(image, 0.8f, false))).isTrue();
+        assertThat(JpegCoefficientReader.isSupported(encode(image, 0.8f, true))).isFalse();
+        assertThat(JpegCoefficientReader.isSupported(new byte[] {1, 2, 3, 4})).isFalse();
+    }
+
+    private static BufferedImage texturedImage(int width, int height, int type) {
+        Random random = new Random(7);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = (int) (128 + 60 * Math.sin(x / 15.0) + 40 * Math.cos(y / 9.0) + random.nextInt(30));
+                v = Math.max(0, Math.min(255, v));
+                image.setRGB(x, y, (v << 16) | (((v + x) & 0xFF) << 8) | ((v * y) & 0xFF));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, float quality, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            return out.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    private static double meanAbsoluteDifference(BufferedImage a, BufferedImage b) {
+        long total = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    total += Math.abs(((p >> shift) & 0xFF) - ((q >> shift) & 0xFF));
+                }
+            }
+        }
+        return (double) total / ((long) a.getWidth() * a.getHeight() * 3);
+    }
+}
@@ -65,6 +65,8 @@ class ActuatorEndpointsTest {
                 .contains("pcs_compression_requests_total")
                 .contains("pcs_compression_bytes_saved_total")
                 .contains("pcs_compression_slots_max")
-                .contains("pcs_images_total");
+                .contains("pcs_images_total")
+                .contains("pcs_images_predictor_total")
+                .contains("pcs_images_predictor_false_skip_ratio");
     }
 }